@@ -7,6 +7,7 @@ package apidemo;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.Rectangle;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -74,6 +75,7 @@ public class ApiDemo implements IConnectionHandler {
     public ApiController controller() {
         if ( m_controller == null ) {
             m_controller = new ApiController( this, getInLogger(), getOutLogger() );
+            m_controller.contractDetailsCache().file( Paths.get( "contract-details.cache"));
         }
         return m_controller;
     }
@@ -38,7 +38,7 @@ class TopModel extends AbstractTableModel {
 	void addRow( Contract contract) {
 		TopRow row = new TopRow( this, contract.textDescription(), m_parentPanel );
 		m_rows.add( row);
-		ApiDemo.INSTANCE.controller().reqTopMktData(contract, m_genericTicks, false, false, row);
+		ApiDemo.INSTANCE.controller().reqSharedTopMktData(contract, m_genericTicks, row);
 		fireTableRowsInserted( m_rows.size() - 1, m_rows.size() - 1);
 	}
 
@@ -50,7 +50,7 @@ class TopModel extends AbstractTableModel {
 	void removeSelectedRows() {
 		for(int rowIndex = m_rows.size() - 1; rowIndex >= 0; rowIndex--) {
 			if(m_rows.get(rowIndex).m_cancel) {
-				ApiDemo.INSTANCE.controller().cancelTopMktData( m_rows.get(rowIndex));
+				ApiDemo.INSTANCE.controller().cancelSharedTopMktData( m_rows.get(rowIndex));
 				m_rows.remove(rowIndex);
 			}
 		}		
@@ -59,7 +59,7 @@ class TopModel extends AbstractTableModel {
 	
 	void desubscribe() {
 		for (TopRow row : m_rows) {
-			ApiDemo.INSTANCE.controller().cancelTopMktData( row);
+			ApiDemo.INSTANCE.controller().cancelSharedTopMktData( row);
 		}
 	}		
 
@@ -173,7 +173,7 @@ class TopModel extends AbstractTableModel {
 	}	
 
 	public void cancel(int i) {
-		ApiDemo.INSTANCE.controller().cancelTopMktData( m_rows.get( i) );
+		ApiDemo.INSTANCE.controller().cancelSharedTopMktData( m_rows.get( i) );
 	}
 	
 	static class TopRow extends TopMktDataAdapter {
@@ -75,7 +75,7 @@ public class CalendarSpreadStrategyPanel extends JPanel {
         public void tickPrice(TickType tickType, double price, TickAttrib attribs) {
             if (tickType == TickType.LAST || tickType == TickType.DELAYED_LAST || tickType == TickType.CLOSE) {
                 populateDefaults(customRound(price));
-                m_parent.controller().cancelTopMktData(m_stockListener);
+                m_parent.controller().cancelSharedTopMktData(m_stockListener);
             }
         }
     };
@@ -366,7 +366,7 @@ public class CalendarSpreadStrategyPanel extends JPanel {
      * @param type the type of contract (CALL_SELL, PUT_SELL, CALL_BUY, PUT_BUY)
      */
     protected void populateContractDetails(Contract contract, final ContractType type) {
-        m_parent.controller().reqContractDetails(contract, list -> {
+        m_parent.controller().reqCachedContractDetails(contract, list -> {
             if (list.size() > 1) {
                 m_parent.show("ERROR: More than one contract details found for given contract.");
                 m_status.setText("ERROR: More than one contract details found for given contract.");
@@ -441,7 +441,7 @@ public class CalendarSpreadStrategyPanel extends JPanel {
         spyContract.secType("STK");
         spyContract.exchange("SMART");
         spyContract.currency("USD");
-        m_parent.controller().reqTopMktData(spyContract, "", false, false, m_stockListener);
+        m_parent.controller().reqSharedTopMktData(spyContract, "", m_stockListener);
     }
 
     /**
@@ -4,6 +4,7 @@ import com.ib.client.Contract;
 import com.ib.client.TickAttrib;
 import com.ib.client.TickType;
 import com.ib.controller.ApiController;
+import com.ib.controller.TopMktDataMultiplexer;
 
 import javax.swing.*;
 import java.awt.*;
@@ -135,7 +136,7 @@ public class PriceMonitor {
         };
         
         dataListeners.put(orderId, listener);
-        controller.reqTopMktData(contract, "", false, false, listener);
+        controller.reqSharedTopMktData(contract, "", TopMktDataMultiplexer.Priority.MONITORED, listener);
         
         return orderId;
     }
@@ -143,7 +144,7 @@ public class PriceMonitor {
     public void stopMonitoring(String orderId) {
         ApiController.TopMktDataAdapter listener = dataListeners.remove(orderId);
         if (listener != null) {
-            controller.cancelTopMktData(listener);
+            controller.cancelSharedTopMktData(listener);
         }
         monitoredOrders.remove(orderId);
     }
@@ -2,6 +2,7 @@ package apidemo.stategies;
 
 import com.ib.client.*;
 import com.ib.controller.ApiController;
+import com.ib.controller.TopMktDataMultiplexer;
 
 import javax.swing.*;
 import javax.swing.table.*;
@@ -484,7 +485,7 @@ public class SheetTradesPanel extends JPanel implements PriceMonitor.PriceAlertL
             Contract contract = createContractFromLeg(mainLeg);
             String monitoringId = trade.getTradeId() + "_" + System.currentTimeMillis();
             trade.setMonitoringId(monitoringId);
-            m_parent.controller().reqContractDetails(contract, contractDetailsList -> {
+            m_parent.controller().reqCachedContractDetails(contract, contractDetailsList -> {
                 if (!contractDetailsList.isEmpty()) {
                     Contract validated = contractDetailsList.get(0).contract();
                     String actualId = priceMonitor.startMonitoring(
@@ -556,7 +557,7 @@ public class SheetTradesPanel extends JPanel implements PriceMonitor.PriceAlertL
         };
         
         marketDataHandlers.put(key, handler);
-        m_parent.controller().reqTopMktData(contract, "", false, false, handler);
+        m_parent.controller().reqSharedTopMktData(contract, "", TopMktDataMultiplexer.Priority.MONITORED, handler);
     }
     
     private void requestComboMarketPrice(TradeOrder trade, int tradeIndex) {
@@ -612,7 +613,7 @@ public class SheetTradesPanel extends JPanel implements PriceMonitor.PriceAlertL
             };
             
             marketDataHandlers.put(legKey, handler);
-            m_parent.controller().reqTopMktData(contract, "", false, false, handler);
+            m_parent.controller().reqSharedTopMktData(contract, "", TopMktDataMultiplexer.Priority.MONITORED, handler);
         }
     }
     
@@ -680,29 +681,46 @@ public class SheetTradesPanel extends JPanel implements PriceMonitor.PriceAlertL
     }
     
     private void placeComboOrder(TradeOrder trade, int rowIndex) {
-        validateComboLegs(trade, rowIndex, 0, new ArrayList<>());
+        validateComboLegs(trade, rowIndex);
     }
     
-    private void validateComboLegs(TradeOrder trade, int rowIndex, int legIndex, List<Contract> validated) {
-        if (legIndex >= trade.getLegs().size()) {
-            createAndPlaceBagOrder(trade, rowIndex, validated);
-            return;
+    /**
+     * Resolves all legs at once and places the BAG order only if every leg was found.
+     * The answer arrives on the controller's housekeeping thread, so the order is built
+     * and placed on the EDT, like the orders placed from the table.
+     */
+    private void validateComboLegs(TradeOrder trade, int rowIndex) {
+        List<Contract> legContracts = new ArrayList<>();
+        for (TradeOrder.OrderLeg leg : trade.getLegs()) {
+            legContracts.add(createContractFromLeg(leg));
         }
         
-        TradeOrder.OrderLeg leg = trade.getLegs().get(legIndex);
-        Contract legContract = createContractFromLeg(leg);
-        
-        m_parent.controller().reqContractDetails(legContract, list -> {
-            if (list.isEmpty()) {
-                SwingUtilities.invokeLater(() -> {
+        m_parent.controller().reqAllContractDetails(legContracts).thenAcceptAsync(lookups -> {
+            List<Contract> validated = new ArrayList<>();
+            for (int i = 0; i < lookups.size(); i++) {
+                ApiController.ContractLookup lookup = lookups.get(i);
+                if (!lookup.found()) {
+                    TradeOrder.OrderLeg leg = trade.getLegs().get(i);
                     trade.setStatus(TradeOrder.OrderStatus.ERROR);
-                    trade.setErrorMessage("Could not validate leg: " + leg.symbol + " " + leg.strike);
+                    trade.setErrorMessage("Could not validate leg: " + leg.symbol + " " + leg.strike
+                        + (lookup.errorCode() != 0 ? " (" + lookup.errorMsg() + ")" : ""));
                     updateStatusInTable(rowIndex, "Error: Leg validation failed");
-                });
-                return;
+                    return;
+                }
+                validated.add(lookup.details().get(0).contract());
             }
-            validated.add(list.get(0).contract());
-            validateComboLegs(trade, rowIndex, legIndex + 1, validated);
+            createAndPlaceBagOrder(trade, rowIndex, validated);
+        }, SwingUtilities::invokeLater).exceptionally(e -> {
+            SwingUtilities.invokeLater(() -> {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                String err = "Combo order failed: " + cause;
+                trade.setStatus(TradeOrder.OrderStatus.ERROR);
+                trade.setErrorMessage(err);
+                updateStatusInTable(rowIndex, err);
+                statusLabel.setText(err);
+                statusLabel.setForeground(Color.RED);
+            });
+            return null;
         });
     }
     
@@ -788,9 +806,7 @@ public class SheetTradesPanel extends JPanel implements PriceMonitor.PriceAlertL
     // --- Helpers ---
     
     private void cancelAllMarketData() {
-        for (ApiController.ITopMktDataHandler h : marketDataHandlers.values()) {
-            m_parent.controller().cancelTopMktData(h);
-        }
+        m_parent.controller().cancelAllSharedTopMktData(marketDataHandlers.values());
         marketDataHandlers.clear();
         comboLegPrices.clear();
     }
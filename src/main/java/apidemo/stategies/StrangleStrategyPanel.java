@@ -261,7 +261,7 @@ public class StrangleStrategyPanel extends JPanel {
      * @param isCall true if this is a call option, false for put option
      */
     private void populateContractDetails(Contract contract, boolean isCall) {
-        m_parent.controller().reqContractDetails(contract, list -> {
+        m_parent.controller().reqCachedContractDetails(contract, list -> {
             if (list.size() > 1) {
                 m_parent.show("ERROR: More than one contract details found for given contract.");
                 m_status.setText("ERROR: More than one contract details found for given contract.");
@@ -9,6 +9,7 @@ import com.ib.controller.Formats;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -77,13 +78,16 @@ public class TradingStrategies implements IConnectionHandler {
 
     /**
      * Gets or creates the API controller for communicating with IB TWS/Gateway.
-     * Lazily initializes the controller on first access.
+     * Lazily initializes the controller on first access, with its contract details
+     * cache kept on disk so restarts start warm.
      * 
      * @return the ApiController instance
      */
     public ApiController controller() {
         if (m_controller == null) {
             m_controller = new ApiController(this, getInLogger(), getOutLogger());
+            // same file as ApiDemo; saves replace it atomically, so both apps can share it
+            m_controller.contractDetailsCache().file(Paths.get("contract-details.cache"));
         }
         return m_controller;
     }
@@ -7,10 +7,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutput;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
 
 /** This class is used to build messages so the entire message can be
  *  sent to the socket in a single write. */
@@ -25,19 +23,27 @@ class Builder implements ObjectOutput {
 	}
 
 	public void send(int a) throws EClientException {
-        send( String.valueOf(a) );
+        m_sb.writeDecimal( a );
+        m_sb.write( SEP);
 	}
 
 	public void sendMax(int a) throws EClientException {
-		send( a == Integer.MAX_VALUE ? "" : String.valueOf( a) );
+		if (a != Integer.MAX_VALUE) {
+			m_sb.writeDecimal( a );
+		}
+		m_sb.write( SEP);
 	}
 
 	public void send(double a) throws EClientException {
-        send( String.valueOf( a) );
+        m_sb.writeDouble( a );
+        m_sb.write( SEP);
 	}
 
 	public void sendMax(double a) throws EClientException {
-		send( a == Double.MAX_VALUE ? "" : String.valueOf( a) );
+		if (a != Double.MAX_VALUE) {
+			m_sb.writeDouble( a );
+		}
+		m_sb.write( SEP);
 	}
 
 	public void send(Boolean a) throws EClientException {
@@ -54,8 +60,7 @@ class Builder implements ObjectOutput {
 		}
 		
 		if (a != null) {
-		    byte[] buffer = a.getBytes(StandardCharsets.UTF_8);
-		    m_sb.write( buffer, 0, buffer.length );
+		    m_sb.writeAscii( a );
 		}
 		m_sb.write( SEP);
 	}
@@ -67,10 +72,29 @@ class Builder implements ObjectOutput {
     }
 	
 	public void send(List<TagValue> miscOptions) throws EClientException {
-        String miscOptionsString = Optional.ofNullable(miscOptions).orElse(new ArrayList<TagValue>()).stream().
-                map(option -> option.m_tag + "=" + option.m_value + ";").reduce("", (sum, option) -> sum + option);
+        if (miscOptions != null) {
+            for (TagValue option : miscOptions) {
+                if (!isAsciiPrintable(String.valueOf(option.m_tag)) || !isAsciiPrintable(String.valueOf(option.m_value))) {
+                    throw new EClientException(EClientErrors.INVALID_SYMBOL, miscOptionsString(miscOptions));
+                }
+            }
+            // "tag=value;" per option, written in place rather than concatenated
+            for (TagValue option : miscOptions) {
+                m_sb.writeAscii( String.valueOf(option.m_tag) );
+                m_sb.write( '=' );
+                m_sb.writeAscii( String.valueOf(option.m_value) );
+                m_sb.write( ';' );
+            }
+        }
+        m_sb.write( SEP);
+	}
 
-        send(miscOptionsString);
+	private static String miscOptionsString(List<TagValue> miscOptions) {
+        StringBuilder sb = new StringBuilder();
+        for (TagValue option : miscOptions) {
+            sb.append(option.m_tag).append('=').append(option.m_value).append(';');
+        }
+        return sb.toString();
 	}
 	
 	public void send(Contract contract) throws EClientException {
@@ -103,6 +127,15 @@ class Builder implements ObjectOutput {
        m_sb.writeTo( dos );
     }
 
+    public byte[] toByteArray() {
+        return m_sb.toByteArray();
+    }
+
+    /** Discards the content so the builder can be reused for the next message. */
+    public void reset() {
+        m_sb.reset();
+    }
+
     // b[] must be at least b[position+4]
     static void intToBytes(int val, byte b[], int position) {
         b[position]   = (byte)(0xff & (val >> 24));
@@ -129,7 +162,11 @@ class Builder implements ObjectOutput {
 
     /** inner class: ByteBuffer - storage for bytes and direct access to buffer. */
     private static class ByteBuffer extends ByteArrayOutputStream {
+        private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6 };
+        private static final long[] LONG_POW10 = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L };
+
         private final int paddingSize; // 1 disables padding, 4 is normal if padding is used
+        private final byte[] digits = new byte[20];
 
         ByteBuffer(int capacity) {
             super( capacity );
@@ -151,6 +188,77 @@ class Builder implements ObjectOutput {
         void writeTo(DataOutputStream out) throws IOException {
             out.write( this.buf, 0, this.count );
         }
+
+        /** Same characters as String.valueOf(str), which must be ASCII. */
+        void writeAscii(String str) {
+            int len = str.length();
+            reserve(len);
+            for (int i = 0; i < len; i++) {
+                this.buf[this.count++] = (byte)str.charAt(i);
+            }
+        }
+
+        /** Same characters as Long.toString(val). */
+        void writeDecimal(long val) {
+            if (val == Long.MIN_VALUE) {
+                writeAscii(Long.toString(val));
+                return;
+            }
+            if (val < 0) {
+                write('-');
+                val = -val;
+            }
+            int pos = digits.length;
+            do {
+                digits[--pos] = (byte)('0' + val % 10);
+                val /= 10;
+            } while (val != 0);
+            write(digits, pos, digits.length - pos);
+        }
+
+        /**
+         * Same characters as Double.toString(val). Values in [1e-3, 1e7) that round-trip
+         * with at most six fraction digits - sizes, strikes and prices - are written as
+         * integer and fraction digits; Double.toString gives the shortest such decimal
+         * for them, which is what the loop below finds. Everything else goes through
+         * Double.toString.
+         */
+        void writeDouble(double val) {
+            double abs = Math.abs(val);
+
+            if (abs >= 1e-3 && abs < 1e7) {
+                for (int scale = 0; scale < POW10.length; scale++) {
+                    double unscaled = Math.rint(abs * POW10[scale]);
+
+                    if (unscaled / POW10[scale] == abs) {
+                        long mantissa = (long)unscaled;
+
+                        if (val < 0) {
+                            write('-');
+                        }
+                        writeDecimal(mantissa / LONG_POW10[scale]);
+                        write('.');
+                        if (scale == 0) {
+                            write('0');
+                        } else {
+                            long fraction = mantissa % LONG_POW10[scale];
+                            for (long p = LONG_POW10[scale - 1]; p > fraction && p > 1; p /= 10) {
+                                write('0');
+                            }
+                            writeDecimal(fraction);
+                        }
+                        return;
+                    }
+                }
+            }
+            writeAscii(Double.toString(val));
+        }
+
+        private void reserve(int extra) {
+            if (this.count + extra > this.buf.length) {
+                this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length << 1, this.count + extra));
+            }
+        }
     }
 
 	@Override
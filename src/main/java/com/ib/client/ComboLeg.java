@@ -9,8 +9,10 @@ public class ComboLeg {
     public enum OpenClose implements IApiEnum {
         Same, Open, Close, Unknown;
 
+        private static final OpenClose[] VALUES = values();
+
         static OpenClose get( int i) {
-            return Types.getEnum( i, values() );
+            return Types.getEnum( i, VALUES );
         }
 
         @Override
@@ -5,45 +5,77 @@ package com.ib.client;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 
+/**
+ * Decimal value with 16 fraction digits.
+ *
+ * Values are held as a long unscaled value and a scale of at most 16 with trailing
+ * zeros stripped, so equal values have equal fields. Only values which do not fit
+ * that form keep a BigDecimal. Results of parsing, arithmetic and comparison are
+ * the same as with a BigDecimal of scale 16.
+ */
 public class Decimal implements Comparable<Decimal>{
-    
+
     // constants
     private static final String NAN_STRING = Double.toString(Double.NaN);
     public static final MathContext MATH_CONTEXT = MathContext.DECIMAL64;
-    public static final Decimal ZERO = new Decimal( BigDecimal.ZERO );
-    public static final Decimal ONE = new Decimal( BigDecimal.ONE );
+    private static final int SCALE = 16;
+    private static final int PRECISION = 16; // digits kept by MATH_CONTEXT; up to this many are never rounded
+    private static final long[] LONG_POW10 = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L, 10000000000L,
+        100000000000L, 1000000000000L, 10000000000000L, 100000000000000L, 1000000000000000L, 10000000000000000L };
+    private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6 };
+    private static final double MAX_EXACT_LONG = 0x1p53;
+    private static final int PACKED_SCALE_BITS = 5;
+    private static final long MAX_PACKED_UNSCALED = 1L << (63 - PACKED_SCALE_BITS);
+    static final long PACKED_NONE = Long.MIN_VALUE;
+    private static final Decimal[] SMALL = new Decimal[1024]; // 0 .. 1023, the usual sizes
+    static {
+        for (int i = 0; i < SMALL.length; i++) {
+            SMALL[i] = new Decimal(i, 0);
+        }
+    }
+    private static final ThreadLocal<DecimalFormat> DOUBLE_FORMAT = ThreadLocal.withInitial(() -> {
+        DecimalFormat df = new DecimalFormat("#");
+        df.setMaximumFractionDigits(16);
+        return df;
+    });
+
+    public static final Decimal ZERO = SMALL[0];
+    public static final Decimal ONE = SMALL[1];
     public static final Decimal MINUS_ONE = ONE.negate();
     public static final Decimal INVALID = new Decimal(BigDecimal.valueOf(Long.MIN_VALUE)); // maybe would better to choose 0 as invalid's value, as in at least half of the operations invalid behaves 0 like
     public static final Decimal NaN = new Decimal(BigDecimal.valueOf(Long.MIN_VALUE)) { // we need NaN for bar replacement at the moment, if it can be solved differently remove it
         @Override public long longValue() { return Long.MAX_VALUE; }
         @Override public String toString() { return NAN_STRING;  }
     };
-    public static final Decimal ONE_HUNDRED = new Decimal( BigDecimal.valueOf(100) );
+    public static final Decimal ONE_HUNDRED = SMALL[100];
 
     // vars
-    private final BigDecimal m_value;
-    
+    private final long m_unscaled; // value is m_unscaled / 10^m_scale when m_big is null
+    private final int m_scale;
+    private final BigDecimal m_big; // scale 16, only for values outside the long form
+
     // gets
-    @Override public int hashCode() { return m_value.hashCode(); }
-    public BigDecimal value() { return m_value; }
-    public boolean isZero() { return isZero(m_value); }
-    private static boolean isZero(final BigDecimal d) { return d == BigDecimal.ZERO || d.signum() == 0; }
+    @Override public int hashCode() { return m_big != null ? m_big.hashCode() : 31 * Long.hashCode(m_unscaled) + m_scale; }
+    public BigDecimal value() { return m_big != null ? m_big : BigDecimal.valueOf(m_unscaled, m_scale).setScale(SCALE); }
+    public boolean isZero() { return m_big == null && m_unscaled == 0; }
     public boolean isValid() { return this != INVALID && this != NaN; }
-    
+
     public static Decimal get(final BigDecimal v) {
         Decimal result;
         if (v == null) {
             result = INVALID;
-        } else if (isZero(v)) {
+        } else if (v.signum() == 0) {
             result = ZERO;
         } else {
-            result = new Decimal(v);
+            result = of(v);
         }
         return result;
     }
-    
+
     public static final Decimal get(final double v) {
         Decimal result;
         if (v == Double.MAX_VALUE) {
@@ -52,40 +84,99 @@ public class Decimal implements Comparable<Decimal>{
             result = ZERO;
         } else if (Double.isNaN(v) || Double.isInfinite(v)) {
             result = NaN;
+        } else if (Math.abs(v) < MAX_EXACT_LONG && v == Math.rint(v)) {
+            result = of((long)v, 0);
         } else {
-            DecimalFormat df = new DecimalFormat("#");
-            df.setMaximumFractionDigits(16);
-            result = Decimal.parse(df.format(v));
+            result = fromShortDouble(v);
+            if (result == null) {
+                result = Decimal.parse(DOUBLE_FORMAT.get().format(v));
+            }
         }
         return result;
     }
-    
+
     public static Decimal get(final long v) {
         Decimal result;
         if (v == Long.MAX_VALUE) {
             result = INVALID;
         } else if (v == 0) {
             result = ZERO;
+        } else if (v > -LONG_POW10[PRECISION] && v < LONG_POW10[PRECISION]) {
+            result = of(v, 0);
         } else {
-            result = new Decimal(v);
+            result = of(new BigDecimal(v, MATH_CONTEXT));
         }
         return result;
     }
 
-    private Decimal( double value ) {
-        BigDecimal bd = new BigDecimal( value, MATH_CONTEXT );
-        m_value = bd.setScale( 16, MATH_CONTEXT.getRoundingMode() );
+    private Decimal( long unscaled, int scale ) {
+        m_unscaled = unscaled;
+        m_scale = scale;
+        m_big = null;
     }
-    
-    private Decimal( long value ) {
-        BigDecimal bd = new BigDecimal( value, MATH_CONTEXT );
-        m_value = bd.setScale( 16, MATH_CONTEXT.getRoundingMode() );
-    }    
-    
+
     private Decimal( BigDecimal value ) {
-        m_value = value.setScale( 16, MATH_CONTEXT.getRoundingMode() );
+        m_unscaled = 0;
+        m_scale = 0;
+        m_big = value.setScale( SCALE, MATH_CONTEXT.getRoundingMode() );
+    }
+
+    /** unscaled / 10^scale for scale 0..16; trailing zeros are stripped and small integers come from the cache. */
+    private static Decimal of(long unscaled, int scale) {
+        if (unscaled == Long.MIN_VALUE) {
+            return new Decimal(BigDecimal.valueOf(unscaled, scale));
+        }
+        while (scale > 0 && unscaled % 10 == 0) {
+            unscaled /= 10;
+            scale--;
+        }
+        if (scale == 0 && unscaled >= 0 && unscaled < SMALL.length) {
+            return SMALL[(int)unscaled];
+        }
+        return new Decimal(unscaled, scale);
+    }
+
+    private static Decimal of(BigDecimal value) {
+        BigDecimal v = value.setScale( SCALE, MATH_CONTEXT.getRoundingMode() ).stripTrailingZeros();
+        if (v.scale() < 0) {
+            v = v.setScale(0);
+        }
+        if (v.unscaledValue().bitLength() < 64) {
+            return of(v.unscaledValue().longValue(), v.scale());
+        }
+        return new Decimal(v);
     }
-    
+
+    /**
+     * Doubles in [1e-3, 1e7) with at most 6 fraction digits: for them the shortest decimal
+     * that reads back as the same double is the one DecimalFormat prints, so it is taken
+     * directly. Returns null for anything else.
+     */
+    private static Decimal fromShortDouble(double v) {
+        double abs = Math.abs(v);
+        if (abs >= 1e-3 && abs < 1e7) {
+            for (int scale = 0; scale < POW10.length; scale++) {
+                double unscaled = Math.rint(abs * POW10[scale]);
+                if (unscaled / POW10[scale] == abs) {
+                    long mantissa = (long)unscaled;
+                    return of(v < 0 ? -mantissa : mantissa, scale);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Exact value as BigDecimal, for arithmetic; its scale is not normalised. */
+    private BigDecimal bigValue() {
+        return m_big != null ? m_big : BigDecimal.valueOf(m_unscaled, m_scale);
+    }
+
+    /** m_unscaled rescaled to scale, which must not be below m_scale; Long.MIN_VALUE on overflow. */
+    private long unscaledAt(int scale) {
+        long factor = LONG_POW10[scale - m_scale];
+        return Math.abs(m_unscaled) <= Long.MAX_VALUE / factor ? m_unscaled * factor : Long.MIN_VALUE;
+    }
+
     public static boolean isValidNotZeroValue(Decimal value) { return isValid( value ) && !value.isZero(); }
     public static boolean isValid(Decimal value) { return value != null && value.isValid(); }
 
@@ -98,7 +189,7 @@ public class Decimal implements Comparable<Decimal>{
             try {
                 text = text.trim().replaceAll(",", "");
                 BigDecimal decimal = new BigDecimal( text.toCharArray(), 0, text.length(), MATH_CONTEXT );
-                return new Decimal( decimal );
+                return get( decimal );
             } catch( NumberFormatException ex ) {
                 // ignore
             }
@@ -106,16 +197,99 @@ public class Decimal implements Comparable<Decimal>{
         return null;
     }
 
+    /**
+     * Same as parse(String) for the ASCII text in buf[offset, offset+len), without creating a
+     * String for plain numbers: an optional '-' and up to 16 digits with an optional '.'.
+     */
+    public static Decimal parse( byte[] buf, int offset, int len ) {
+        long packed = parsePacked(buf, offset, len);
+        if (packed == PACKED_NONE) {
+            return parse( new String(buf, offset, len, StandardCharsets.ISO_8859_1) );
+        }
+        return of(unpackUnscaled(packed), unpackScale(packed));
+    }
+
+    /**
+     * Plain number in buf[offset, offset+len) as pack(unscaled, scale), without rounding or
+     * allocation; PACKED_NONE if the text is anything else. Trailing zeros are kept.
+     */
+    static long parsePacked( byte[] buf, int offset, int len ) {
+        int end = offset + len;
+        int i = offset;
+        boolean negative = len > 0 && buf[i] == '-';
+
+        if (negative) {
+            i++;
+        }
+
+        long unscaled = 0;
+        int digits = 0;        // significant digits, leading zeros excluded
+        int anyDigits = 0;
+        int scale = -1;
+
+        for (; i < end; i++) {
+            int b = buf[i];
+            if (b >= '0' && b <= '9') {
+                anyDigits++;
+                if (unscaled != 0 || b != '0') {
+                    digits++;
+                }
+                unscaled = unscaled * 10 + (b - '0');
+                if (scale >= 0) {
+                    scale++;
+                }
+                if (digits > PRECISION || scale > SCALE) {
+                    return PACKED_NONE;
+                }
+            } else if (b == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                return PACKED_NONE;
+            }
+        }
+
+        return anyDigits == 0 ? PACKED_NONE : pack(negative ? -unscaled : unscaled, Math.max(scale, 0));
+    }
+
+    /** This value as pack(unscaled, scale), or PACKED_NONE if it is not valid or does not fit. */
+    long packed() {
+        return isValid() && m_big == null ? pack(m_unscaled, m_scale) : PACKED_NONE;
+    }
+
+    /** unscaled and scale 0..16 in one long; PACKED_NONE if unscaled needs more than 58 bits. */
+    static long pack(long unscaled, int scale) {
+        return unscaled < MAX_PACKED_UNSCALED && unscaled > -MAX_PACKED_UNSCALED ? unscaled << PACKED_SCALE_BITS | scale : PACKED_NONE;
+    }
+
+    static Decimal unpack(long packed) { return of(unpackUnscaled(packed), unpackScale(packed)); }
+    static long unpackUnscaled(long packed) { return packed >> PACKED_SCALE_BITS; }
+    static int unpackScale(long packed)     { return (int)packed & ((1 << PACKED_SCALE_BITS) - 1); }
+
     public Decimal negate() {
-        return isValid() ? get(m_value.negate()) : this;
+        return isValid()
+            ? m_big == null ? of(-m_unscaled, m_scale) : get(m_big.negate())
+            : this;
     }
 
     public Decimal add(final Decimal another) {
-        return !isValid( another) || another.isZero()  
-            ? this 
-            : isZero() || !isValid() 
-                ? another 
-                : get(m_value.add(another.value()));
+        return !isValid( another) || another.isZero()
+            ? this
+            : isZero() || !isValid()
+                ? another
+                : sum(another);
+    }
+
+    private Decimal sum(final Decimal another) {
+        if (m_big == null && another.m_big == null) {
+            int scale = Math.max(m_scale, another.m_scale);
+            long a = unscaledAt(scale);
+            long b = another.unscaledAt(scale);
+            long r = a + b;
+            if (a != Long.MIN_VALUE && b != Long.MIN_VALUE && ((a ^ r) & (b ^ r)) >= 0) {
+                return of(r, scale);
+            }
+        }
+        return get(bigValue().add(another.bigValue()));
     }
 
     public Decimal divide(final Decimal another) {
@@ -126,49 +300,103 @@ public class Decimal implements Comparable<Decimal>{
             result = INVALID;
             if (isValid() && isValid(another)) {
                 try { // try is rather expensive, so we narrow the scope
-                    result = get(m_value.divide(another.value(), MATH_CONTEXT));
+                    result = get(bigValue().divide(another.bigValue(), MATH_CONTEXT));
                 } catch( ArithmeticException ex ) {
-                	
+
                 }
             }
         }
         return result;
     }
-    
+
     public Decimal multiply(final Decimal another) {
-        return another == null ? null 
-            : isZero() || another.isZero() ? ZERO 
-                : isValid() && another.isValid() 
+        return another == null ? null
+            : isZero() || another.isZero() ? ZERO
+                : isValid() && another.isValid()
                     ? ONE.equals(another) ? this
-                        : get(m_value.multiply(another.value()))
-                            : INVALID; 
+                        : product(another)
+                            : INVALID;
     }
-    
+
+    private Decimal product(final Decimal another) {
+        if (m_big == null && another.m_big == null && m_scale + another.m_scale <= SCALE) {
+            long lo = m_unscaled * another.m_unscaled;
+            if (Math.multiplyHigh(m_unscaled, another.m_unscaled) == (lo >> 63)) {
+                return of(lo, m_scale + another.m_scale);
+            }
+        }
+        return get(bigValue().multiply(another.bigValue()));
+    }
+
     @Override public boolean equals( Object another ) {
         return another instanceof Decimal && compareTo((Decimal)another) == 0;
     }
 
     @Override public int compareTo( final Decimal another )  {
-        return another == this 
-            ? 0 
-            : another == null 
-                ? 1 
-                : isValid() 
-                    ? another.isValid() 
-                        ? m_value.compareTo(another.m_value) 
+        return another == this
+            ? 0
+            : another == null
+                ? 1
+                : isValid()
+                    ? another.isValid()
+                        ? compareValues(another)
                         : 1
                     : another.isValid() ? -1 : 0;
     }
-    
+
     public static int compare(Decimal value1, Decimal value2) {
-    	return value1.value().compareTo(value2.value());
+    	return value1.compareValues(value2);
+    }
+
+    private int compareValues(final Decimal another) {
+        if (m_big == null && another.m_big == null) {
+            if (m_scale == another.m_scale) {
+                return Long.compare(m_unscaled, another.m_unscaled);
+            }
+            int scale = Math.max(m_scale, another.m_scale);
+            long a = unscaledAt(scale);
+            long b = another.unscaledAt(scale);
+            if (a != Long.MIN_VALUE && b != Long.MIN_VALUE) {
+                return Long.compare(a, b);
+            }
+        }
+        return bigValue().compareTo(another.bigValue());
     }
 
     @Override public String toString() {
-        return isValid() ? m_value.stripTrailingZeros().toPlainString() : "";
+        if (!isValid()) {
+            return "";
+        }
+        if (m_big != null) {
+            return m_big.stripTrailingZeros().toPlainString();
+        }
+        if (m_scale == 0) {
+            return Long.toString(m_unscaled);
+        }
+
+        long abs = Math.abs(m_unscaled);
+        String fraction = Long.toString(abs % LONG_POW10[m_scale]);
+        StringBuilder sb = new StringBuilder(24);
+        if (m_unscaled < 0) {
+            sb.append('-');
+        }
+        sb.append(abs / LONG_POW10[m_scale]).append('.');
+        for (int i = fraction.length(); i < m_scale; i++) {
+            sb.append('0');
+        }
+        return sb.append(fraction).toString();
     }
 
     public long longValue() {
-        return isValid() ? m_value.longValue() : Long.MAX_VALUE;
+        return !isValid() ? Long.MAX_VALUE
+            : m_big != null ? m_big.longValue()
+                : m_unscaled / LONG_POW10[m_scale];
+    }
+
+    /** NaN for INVALID and NaN; exact when the unscaled value has at most 53 bits. */
+    public double doubleValue() {
+        return !isValid() ? Double.NaN
+            : m_big != null ? m_big.doubleValue()
+                : (double)m_unscaled / LONG_POW10[m_scale];
     }
 }
@@ -0,0 +1,211 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ETransport decorator that moves socket writes off the calling thread.
+ *
+ * send() only queues the encoded message, so request methods return as soon
+ * as the message is built, even while the kernel send buffer is full. One
+ * writer thread drains up to MAX_BATCH queued messages per pass and hands the
+ * batch to the underlying transport as a single gather write. A failed write
+ * is reported through EWrapper.error and disconnects the client, the same as
+ * a failed synchronous send.
+ *
+ * Queued messages wait in priority lanes (see EClient.outboundLane): order
+ * entry and cancels go out ahead of market data subscriptions, which go out
+ * ahead of historical and scanner requests. Messages are only reordered
+ * across lanes; each lane stays first-in first-out. Until the connection is
+ * up everything uses the order lane, so the handshake keeps its order.
+ */
+public class EAsyncTransport implements ETransport {
+	private static final long CLOSE_FLUSH_MILLIS = 1000;
+	private static final int MAX_BATCH = 64;
+
+	private final ETransport m_transport;
+	private final EClient m_client;
+	private final Object m_queue = new Object();
+	private final ArrayDeque<EMessage>[] m_lanes;
+	private final EMessage[] m_heldBack; // head of each lane already refused by pacing, so it is counted once
+	private int m_pending = 0;
+	private final Thread m_writer;
+	private boolean m_closed = false;
+
+	public EAsyncTransport(ETransport transport, EClient client) {
+		m_transport = transport;
+		m_client = client;
+		@SuppressWarnings("unchecked")
+		ArrayDeque<EMessage>[] lanes = (ArrayDeque<EMessage>[])new ArrayDeque<?>[EClient.LANE_COUNT];
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new ArrayDeque<>();
+		}
+		m_lanes = lanes;
+		m_heldBack = new EMessage[lanes.length];
+		m_writer = new Thread(this::writeLoop, "EAsyncTransport writer");
+		m_writer.setDaemon(true);
+		m_writer.start();
+	}
+
+	@Override
+	public void send(EMessage msg) throws IOException {
+		int lane = m_client.isConnected() ? EClient.outboundLane(m_client.outgoingMsgId(msg)) : EClient.LANE_ORDERS;
+
+		synchronized (m_queue) {
+			if (m_closed) {
+				throw new IOException("transport closed");
+			}
+			m_lanes[lane].addLast(msg);
+			m_pending++;
+			m_queue.notify();
+		}
+	}
+
+	/** Number of messages queued but not yet handed to the socket. */
+	public int pending() {
+		synchronized (m_queue) {
+			return m_pending;
+		}
+	}
+
+	/** Number of messages queued in one lane, EClient.LANE_ORDERS etc. */
+	public int pending(int lane) {
+		synchronized (m_queue) {
+			return m_lanes[lane].size();
+		}
+	}
+
+	private void writeLoop() {
+		List<EMessage> batch = new ArrayList<>();
+
+		try {
+			while (true) {
+				synchronized (m_queue) {
+					while (true) {
+						while (m_pending == 0 && !m_closed) {
+							m_queue.wait();
+						}
+						if (m_pending == 0) {
+							return; // closed and flushed
+						}
+
+						long pacingWait = fillBatch(batch);
+
+						if (!batch.isEmpty() || m_closed) {
+							break;
+						}
+
+						// every lane head is held back by pacing; sleep until the first may go, or a new message arrives
+						long start = System.nanoTime();
+						m_queue.wait(Math.max(1, pacingWait / 1_000_000));
+						EPacingGovernor governor = m_client.pacingGovernor();
+						if (governor != null) {
+							governor.addWaitNanos(System.nanoTime() - start);
+						}
+					}
+				}
+
+				if (batch.isEmpty()) {
+					rejectHeldBack(); // closed while everything left was held back by pacing
+					break;
+				}
+
+				m_transport.send(batch);
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			boolean closed;
+			synchronized (m_queue) {
+				closed = m_closed;
+				m_closed = true;
+				for (ArrayDeque<EMessage> lane : m_lanes) {
+					lane.clear();
+				}
+				m_pending = 0;
+			}
+			if (!closed) {
+				m_client.wrapper().error(EClientErrors.NO_VALID_ID, EClientErrors.FAIL_SEND.code(), EClientErrors.FAIL_SEND.msg() + e, null);
+				m_client.close();
+			}
+		} finally {
+			closeTransport();
+		}
+	}
+
+	/**
+	 * Moves up to MAX_BATCH messages into batch, taking lanes in priority order.
+	 * A lane whose head is held back by pacing is skipped, keeping it first in
+	 * first out. Returns the shortest pacing wait seen, or 0.
+	 */
+	private long fillBatch(List<EMessage> batch) {
+		long now = System.nanoTime();
+		long minWait = 0;
+
+		for (int i = 0; i < m_lanes.length; i++) {
+			ArrayDeque<EMessage> lane = m_lanes[i];
+
+			while (!lane.isEmpty() && batch.size() < MAX_BATCH) {
+				EMessage head = lane.peekFirst();
+				long wait = m_client.tryAcquirePacing(head, now, head == m_heldBack[i]);
+
+				if (wait > 0) {
+					m_heldBack[i] = head;
+					minWait = minWait == 0 ? wait : Math.min(minWait, wait);
+					break;
+				}
+
+				batch.add(lane.pollFirst());
+				m_pending--;
+			}
+		}
+		return minWait;
+	}
+
+	/** Reports each message still queued as not sent, so its request does not wait for an answer forever. */
+	private void rejectHeldBack() {
+		List<EMessage> rejected = new ArrayList<>();
+		synchronized (m_queue) {
+			for (ArrayDeque<EMessage> lane : m_lanes) {
+				rejected.addAll(lane);
+				lane.clear();
+			}
+			m_pending = 0;
+		}
+		for (EMessage msg : rejected) {
+			m_client.pacingRejected(msg, "connection closed while it was held back");
+		}
+	}
+
+	/** Stops accepting messages, gives the writer a moment to flush what is queued, then closes the socket. */
+	@Override
+	public void close() throws IOException {
+		synchronized (m_queue) {
+			m_closed = true;
+			m_queue.notify();
+		}
+
+		if (Thread.currentThread() != m_writer) {
+			try {
+				m_writer.join(CLOSE_FLUSH_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		closeTransport();
+	}
+
+	private void closeTransport() {
+		try {
+			m_transport.close();
+		} catch (IOException ignored) {
+		}
+	}
+}
@@ -4,6 +4,7 @@
 package com.ib.client;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 
@@ -183,6 +184,44 @@ public abstract class EClient {
     private static final int CANCEL_WSH_EVENT_DATA = 103;
     private static final int REQ_USER_INFO = 104;
 
+    // outbound priority lanes, see outboundLane()
+    static final int LANE_ORDERS = 0;
+    static final int LANE_MARKET_DATA = 1;
+    static final int LANE_HISTORICAL = 2;
+    static final int LANE_COUNT = 3;
+
+    /** Priority lane for an outgoing msg id: order entry and cancels, then subscriptions, then historical and scanner traffic. */
+    static int outboundLane(int msgId) {
+        switch (msgId) {
+            case PLACE_ORDER:
+            case CANCEL_ORDER:
+            case REQ_GLOBAL_CANCEL:
+            case EXERCISE_OPTIONS:
+            case REQ_IDS:
+            case START_API:
+                return LANE_ORDERS;
+
+            // requests and their cancels share a lane so a cancel never overtakes its request
+            case REQ_HISTORICAL_DATA:
+            case CANCEL_HISTORICAL_DATA:
+            case REQ_HISTORICAL_TICKS:
+            case REQ_HEAD_TIMESTAMP:
+            case CANCEL_HEAD_TIMESTAMP:
+            case REQ_HISTOGRAM_DATA:
+            case CANCEL_HISTOGRAM_DATA:
+            case REQ_HISTORICAL_NEWS:
+            case REQ_FUNDAMENTAL_DATA:
+            case CANCEL_FUNDAMENTAL_DATA:
+            case REQ_SCANNER_SUBSCRIPTION:
+            case CANCEL_SCANNER_SUBSCRIPTION:
+            case REQ_SCANNER_PARAMETERS:
+                return LANE_HISTORICAL;
+
+            default:
+                return LANE_MARKET_DATA;
+        }
+    }
+
 	private static final int MIN_SERVER_VER_REAL_TIME_BARS = 34;
 	private static final int MIN_SERVER_VER_SCALE_ORDERS = 35;
 	private static final int MIN_SERVER_VER_SNAPSHOT_MKT_DATA = 35;
@@ -327,6 +366,7 @@ public abstract class EClient {
     private String m_connectOptions = ""; // iServer rails are used for Connection if this is not null
 	protected String m_host;
 	protected ETransport m_socketTransport;
+	private volatile EPacingGovernor m_pacingGovernor;
 	
 	public boolean isUseV100Plus() {
 		return m_useV100Plus;
@@ -4397,6 +4437,148 @@ public abstract class EClient {
     	m_socketTransport.send(msg);
     }
 
+    /** Reports that msg was not sent because of pacing, against the request or order id it carries if any. */
+    void pacingRejected(EMessage msg, String tail) {
+    	int reqIdField = outgoingReqIdField(msg);
+    	int reqId = reqIdField < 0 ? EClientErrors.NO_VALID_ID : outgoingIntField(msg, reqIdField);
+    	// not through the synchronized error(), as the async writer reports these while close() may hold the client lock
+    	m_eWrapper.error(reqId, EClientErrors.PACING_REJECTED.code(), EClientErrors.PACING_REJECTED.msg() + tail, null);
+    }
+
+    /**
+     * Installs governor, or removes pacing if null. Held-back messages have to wait without
+     * holding the client lock, so pacing needs the queued transport: a connection that writes
+     * synchronously is switched to an EAsyncTransport here, and later connections use one.
+     */
+    public synchronized void setPacingGovernor(EPacingGovernor governor) {
+    	m_pacingGovernor = governor;
+    	if (governor != null && m_socketTransport != null && !(m_socketTransport instanceof EAsyncTransport)) {
+    		m_socketTransport = new EAsyncTransport(m_socketTransport, this);
+    	}
+    }
+
+    public EPacingGovernor pacingGovernor() {
+    	return m_pacingGovernor;
+    }
+
+    /** Asks the pacing governor, if any, whether msg may be sent at now; see EPacingGovernor.tryAcquire. */
+    long tryAcquirePacing(EMessage msg, long now, boolean retry) {
+    	EPacingGovernor governor = m_pacingGovernor;
+    	return governor == null ? 0 : governor.tryAcquire(historicalPacingKey(msg), now, retry);
+    }
+
+    /** The leading msg id field of an outgoing message, after the length header in V100+ mode; -1 if there is none. */
+    int outgoingMsgId(EMessage msg) {
+    	ByteBuffer buf = msg.buffer();
+    	int pos = msg.offset() + (m_useV100Plus ? 4 : 0);
+    	int end = msg.offset() + msg.length();
+    	int id = 0;
+
+    	for (; pos < end; pos++) {
+    		int b = buf.get(pos);
+    		if (b == 0) {
+    			return id;
+    		}
+    		if (b < '0' || b > '9' || id > 1000) {
+    			return -1;
+    		}
+    		id = id * 10 + (b - '0');
+    	}
+    	return -1;
+    }
+
+    /** The field holding the request or order id of an outgoing message, counting the msg id as 0; -1 if it has none. */
+    private int outgoingReqIdField(EMessage msg) {
+    	switch (outgoingMsgId(msg)) {
+    		case PLACE_ORDER:
+    			return m_serverVersion < MIN_SERVER_VER_ORDER_CONTAINER ? 2 : 1;
+    		case CANCEL_ORDER:
+    		case REQ_MKT_DATA:
+    		case REQ_MKT_DEPTH:
+    			return 2;
+    		case REQ_CONTRACT_DATA:
+    			return m_serverVersion < MIN_SERVER_VER_CONTRACT_DATA_CHAIN ? -1 : 2;
+    		case REQ_HEAD_TIMESTAMP:
+    		case REQ_TICK_BY_TICK_DATA:
+    			return 1;
+    		default:
+    			return historicalReqIdField(msg);
+    	}
+    }
+
+    /** The field holding the request id of a historical data request, counting the msg id as 0; -1 for other messages. */
+    private int historicalReqIdField(EMessage msg) {
+    	switch (outgoingMsgId(msg)) {
+    		case REQ_HISTORICAL_DATA:
+    			return m_serverVersion < MIN_SERVER_VER_SYNT_REALTIME_BARS ? 2 : 1;
+    		case REQ_HISTORICAL_TICKS:
+    			return 1;
+    		default:
+    			return -1;
+    	}
+    }
+
+    /** The given integer field of an outgoing message, or NO_VALID_ID if it is missing or not a number. */
+    private int outgoingIntField(EMessage msg, int field) {
+    	ByteBuffer buf = msg.buffer();
+    	int pos = msg.offset() + (m_useV100Plus ? 4 : 0);
+    	int end = msg.offset() + msg.length();
+
+    	for (; pos < end && field > 0; pos++) {
+    		if (buf.get(pos) == 0) {
+    			field--;
+    		}
+    	}
+
+    	int value = 0;
+    	boolean negative = pos < end && buf.get(pos) == '-';
+    	for (pos += negative ? 1 : 0; pos < end; pos++) {
+    		int b = buf.get(pos);
+    		if (b == 0) {
+    			return negative ? -value : value;
+    		}
+    		if (b < '0' || b > '9') {
+    			break;
+    		}
+    		value = value * 10 + (b - '0');
+    	}
+    	return EClientErrors.NO_VALID_ID;
+    }
+
+    /** For historical data requests, the message text without its request id, so identical requests compare equal; otherwise null. */
+    private String historicalPacingKey(EMessage msg) {
+    	int reqIdField = historicalReqIdField(msg);
+
+    	if (reqIdField < 0) {
+    		return null;
+    	}
+
+    	byte[] raw = msg.getRawData();
+    	int start = m_useV100Plus ? 4 : 0;
+    	int field = 0;
+    	int skipFrom = -1;
+    	int skipTo = -1;
+
+    	for (int i = start; i < raw.length && skipTo < 0; i++) {
+    		if (field == reqIdField && skipFrom < 0) {
+    			skipFrom = i;
+    		}
+    		if (raw[i] == 0) {
+    			if (field == reqIdField) {
+    				skipTo = i + 1;
+    			}
+    			field++;
+    		}
+    	}
+
+    	if (skipTo < 0) {
+    		return new String(raw, start, raw.length - start, StandardCharsets.ISO_8859_1);
+    	}
+
+    	return new String(raw, start, skipFrom - start, StandardCharsets.ISO_8859_1)
+    			+ new String(raw, skipTo, raw.length - skipTo, StandardCharsets.ISO_8859_1);
+    }
+
     private static boolean IsEmpty(String str) {
     	return Util.StringIsEmpty(str);
     }
@@ -94,6 +94,8 @@ public class EClientErrors {
     static final CodeMsgPair FAIL_SEND_CAN_WSH_EVENT_DATA = new CodeMsgPair(583, "Cancel WSH Event Data Sending Error - ");
     static final CodeMsgPair FAIL_SEND_REQ_USER_INFO = new CodeMsgPair(584, "Request User Info Sending Error - ");
     static final CodeMsgPair FA_PROFILE_NOT_SUPPORTED = new CodeMsgPair(585, "FA Profile is not supported anymore, use FA Group instead - ");
+    static final CodeMsgPair PACING_REJECTED = new CodeMsgPair(586, "Request not sent, it would exceed the pacing limits - ");
+    static final CodeMsgPair CALLBACK_LOST = new CodeMsgPair(587, "Callback not run, the decoding thread was interrupted while waiting for its lane - ");
 
     public EClientErrors() {
     }
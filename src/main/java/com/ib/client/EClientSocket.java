@@ -15,8 +15,12 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
     private boolean m_allowRedirect;
     protected DataInputStream m_dis;
 	private boolean m_asyncEConnect = false;
+	private boolean m_asyncSend = false;
 	private boolean m_connected = false;
 	private Socket m_socket;
+	private ESocketChannel.Options m_channelOptions; // connect over a SocketChannel when set
+	private ESocketChannel m_channel;
+	private final Builder m_outBuffer = new Builder( 1024 ); // reused by requests made under this client's lock
 		
 	public void setAsyncEConnect(boolean asyncEConnect) {
 		this.m_asyncEConnect = asyncEConnect;
@@ -26,13 +30,34 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
 		return m_asyncEConnect;
 	}
 
+	/** When set before connecting, requests are queued and written to the socket by a dedicated writer thread. */
+	public void setAsyncSend(boolean asyncSend) {
+		this.m_asyncSend = asyncSend;
+	}
+
+	public boolean isAsyncSend() {
+		return m_asyncSend;
+	}
+
+	/** Async send was asked for, or a pacing governor needs it. */
+	private boolean queued() {
+		return m_asyncSend || pacingGovernor() != null;
+	}
+
 	public EClientSocket(EWrapper eWrapper, EReaderSignal signal) {
 		super(eWrapper, signal);
 	}
 
 	@Override
 	protected Builder prepareBuffer() {
-        Builder buf = new Builder( 1024 );
+        Builder buf;
+        if (Thread.holdsLock(this)) {
+            // request methods are synchronized on the client, so nobody else can be using it
+            buf = m_outBuffer;
+            buf.reset();
+        } else {
+            buf = new Builder( 1024 );
+        }
         if( m_useV100Plus ) {
             buf.allocateLengthHeader();
         }
@@ -52,11 +77,27 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
 
 	protected synchronized void eConnect(Socket socket) throws IOException {
 	    // create io streams
-	    m_socketTransport = new ESocket(socket);
+	    m_socketTransport = queued() ? new EAsyncTransport(new ESocket(socket), this) : new ESocket(socket);
 	    m_dis = new DataInputStream(socket.getInputStream());
+	    m_channel = null;
 	    m_defaultPort = socket.getPort();
 	    m_socket = socket;
 	
+	    startHandshake();
+	}
+
+	/** Connects over channel, which is read from its own direct buffer instead of a stream. */
+	protected synchronized void eConnect(ESocketChannel channel) throws IOException {
+	    m_channel = channel;
+	    m_socketTransport = queued() ? new EAsyncTransport(channel, this) : channel;
+	    m_dis = null;
+	    m_defaultPort = channel.socket().getPort();
+	    m_socket = channel.socket();
+	
+	    startHandshake();
+	}
+
+	private void startHandshake() throws IOException {
 	    sendConnectRequest();
 	
 	    // start reader thread
@@ -76,6 +117,7 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
 	public synchronized void eConnect(Socket socket, int clientId) throws IOException {
 	    m_clientId = clientId;
 	    m_redirectCount = 0;
+	    m_channelOptions = null;
 	    eConnect(socket);
 	}
 
@@ -84,6 +126,14 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
 	}
 
 	public synchronized void eConnect( String host, int port, int clientId, boolean extraAuth) {
+	    eConnect(host, port, clientId, extraAuth, null);
+	}
+
+	/**
+	 * Connects over a SocketChannel with the given socket and buffer settings, or over a
+	 * Socket if channelOptions is null. Redirects made by TWS use the same settings.
+	 */
+	public synchronized void eConnect( String host, int port, int clientId, boolean extraAuth, ESocketChannel.Options channelOptions) {
         try {
             validateInvalidSymbols(host);
         }
@@ -98,13 +148,13 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
 	    m_clientId = clientId;
 	    m_extraAuth = extraAuth;
 	    m_redirectCount = 0;
+	    m_channelOptions = channelOptions;
 	
 	    if(m_host == null){
 	        return;
 	    }
 	    try{
-	        Socket socket = new Socket( m_host, port);
-	        eConnect(socket);
+	        connectTo(port);
 	    }
 	    catch( Exception e) {
 	    	eDisconnect();
@@ -193,7 +243,16 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
 	        System.out.println( "Warning: redirect port is invalid, using default port");
 	        newPort = defaultPort;
 	    }
-	    eConnect( new Socket( m_host, newPort ) );
+	    connectTo( newPort );
+	}
+
+	private void connectTo(int port) throws IOException {
+	    if (m_channelOptions != null) {
+	        eConnect(ESocketChannel.open(m_host, port, m_channelOptions));
+	    }
+	    else {
+	        eConnect(new Socket(m_host, port));
+	    }
 	}
 
 	@Override
@@ -218,6 +277,7 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
 	
 	    FilterInputStream dis = m_dis;
 	    m_dis = null;
+	    m_channel = null;
 	    if (m_socketTransport != null) {
 			try {
 				m_socketTransport.close();
@@ -237,11 +297,18 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
 	}
 
 	public int read(byte[] buf, int off, int len) throws IOException {
-		return m_dis.read(buf, off, len);
+		ESocketChannel channel = m_channel;
+		return channel != null ? channel.read(buf, off, len) : m_dis.read(buf, off, len);
 	}
 
 	public int readInt() throws IOException {
-		return m_dis.readInt();
+		ESocketChannel channel = m_channel;
+		return channel != null ? channel.readInt() : m_dis.readInt();
+	}
+
+	/** The channel of a connection made with ESocketChannel.Options, else null. */
+	ESocketChannel channel() {
+		return m_channel;
 	}
 
 	@Override
@@ -0,0 +1,150 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.IntPredicate;
+
+/**
+ * Decodes messages on several threads instead of the one calling EReader.processMsgs.
+ *
+ * The EReader thread reads the request id from the first fields of each frame, without
+ * decoding it, and queues the frame for the decoder that owns the id, so the messages
+ * of each request are decoded and handled in the order they came. Messages that are
+ * not about one request (order status, open orders, executions, accounts, positions,
+ * nextValidId, managedAccounts, errors without an id) and errors for order ids all go
+ * to one serial decoder, which keeps them in order among themselves.
+ *
+ * Each decoder has its own EDecoder and calls the wrapper, and the tick sink if one is
+ * set, on its own thread, so both must be thread safe. Each queue holds up to
+ * laneCapacity frames; when one is full the EReader thread waits for it.
+ */
+public class EDecodePipeline {
+	public static final int DEFAULT_LANE_CAPACITY = 4096;
+
+	private static final EMessage STOP = new EMessage(new byte[0], 0);
+
+	private final EWrapper m_wrapper;
+	private final int m_serverVersion;
+	private final IntPredicate m_isOrderId;
+	private final Lane m_serialLane;
+	private final Lane[] m_lanes;
+
+	/**
+	 * @param decoders number of decoders, one thread each, for messages with a request id
+	 * @param isOrderId tells the ids of orders from those of other requests, for routing errors;
+	 *                  called on the EReader thread
+	 */
+	public EDecodePipeline(EClientSocket parent, EWrapper wrapper, int decoders, IntPredicate isOrderId) {
+		this(parent, wrapper, decoders, DEFAULT_LANE_CAPACITY, isOrderId);
+	}
+
+	public EDecodePipeline(EClientSocket parent, EWrapper wrapper, int decoders, int laneCapacity, IntPredicate isOrderId) {
+		if (decoders <= 0 || laneCapacity <= 0) {
+			throw new IllegalArgumentException("decoders and laneCapacity must be positive");
+		}
+		m_wrapper = wrapper;
+		m_serverVersion = parent.serverVersion();
+		m_isOrderId = isOrderId;
+		m_serialLane = new Lane("EDecoder serial", new EDecoder(m_serverVersion, wrapper, parent), laneCapacity);
+		m_lanes = new Lane[decoders];
+		for (int i = 0; i < decoders; i++) {
+			m_lanes[i] = new Lane("EDecoder " + i, new EDecoder(m_serverVersion, wrapper, parent), laneCapacity);
+		}
+
+		m_serialLane.start();
+		for (Lane lane : m_lanes) {
+			lane.start();
+		}
+	}
+
+	/** Offers top of book ticks to sink before the wrapper, from every decoder; set before frames arrive. */
+	public void setTickSink(ETickSink sink) {
+		m_serialLane.m_decoder.setTickSink(sink);
+		for (Lane lane : m_lanes) {
+			lane.m_decoder.setTickSink(sink);
+		}
+	}
+
+	/** Queues msg for its decoder; called by the EReader thread. */
+	public void put(EMessage msg) {
+		int reqId = EDecoder.peekReqId(msg, m_serverVersion);
+		Lane lane = reqId < 0 || m_isOrderId.test(reqId) ? m_serialLane : m_lanes[reqId % m_lanes.length];
+		lane.put(msg);
+	}
+
+	/** Lets the decoders finish the frames already queued, then ends their threads and waits for them. */
+	public void close() {
+		m_serialLane.put(STOP);
+		for (Lane lane : m_lanes) {
+			lane.put(STOP);
+		}
+		try {
+			m_serialLane.join();
+			for (Lane lane : m_lanes) {
+				lane.join();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Frames queued and not yet decoded, over all decoders. */
+	public int backlog() {
+		int backlog = m_serialLane.m_queue.size();
+		for (Lane lane : m_lanes) {
+			backlog += lane.m_queue.size();
+		}
+		return backlog;
+	}
+
+	private class Lane extends Thread {
+		final EDecoder m_decoder;
+		final BlockingQueue<EMessage> m_queue;
+
+		Lane(String name, EDecoder decoder, int capacity) {
+			super(name);
+			setDaemon(true);
+			m_decoder = decoder;
+			m_queue = new ArrayBlockingQueue<>(capacity);
+		}
+
+		void put(EMessage msg) {
+			try {
+				m_queue.put(msg);
+			}
+			catch (InterruptedException e) {
+				msg.release();
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override public void run() {
+			for (;;) {
+				EMessage msg;
+				try {
+					msg = m_queue.take();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				if (msg == STOP) {
+					return;
+				}
+				try {
+					m_decoder.processMsg(msg);
+				}
+				catch (IOException | RuntimeException e) {
+					m_wrapper.error(e);
+				}
+				finally {
+					msg.release();
+				}
+			}
+		}
+	}
+}
@@ -6,10 +6,12 @@ package com.ib.client;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.ObjectInput;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -112,8 +114,11 @@ class EDecoder implements ObjectInput {
 
     private EClientMsgSink m_clientMsgSink;
     private EWrapper m_EWrapper;
+    private ETickSink m_tickSink;
     private int m_serverVersion;
 	private IMessageReader m_messageReader;
+	private final ByteArrayMessageReader m_cursorReader = new ByteArrayMessageReader();
+	private byte[] m_directScratch;
 
 	public EDecoder(int serverVersion, EWrapper callback) {
 		this(serverVersion, callback, null);
@@ -124,6 +129,11 @@ class EDecoder implements ObjectInput {
 		m_serverVersion = serverVersion;
 		m_EWrapper = callback;
 	}
+
+	/** Offers tick price, size and generic messages to sink before the EWrapper; null turns it off. */
+	public void setTickSink(ETickSink sink) {
+		m_tickSink = sink;
+	}
 	
     private void processFirstMsg() throws IOException {
         m_serverVersion = readInt();
@@ -156,13 +166,27 @@ class EDecoder implements ObjectInput {
 		m_EWrapper.connectAck();
     } 
     
-    private boolean readMessageToInternalBuf(InputStream dis) {
-  		m_messageReader = new PreV100MessageReader(dis);
+    private boolean readMessageToInternalBuf(EMessage msg) {
+    	ByteBuffer buf = msg.buffer();
+    	int len = msg.length();
+
+    	if (buf.hasArray()) {
+    		m_cursorReader.reset(buf.array(), buf.arrayOffset() + msg.offset(), len);
+    	} else {
+    		// direct buffer: one bulk copy into a reusable array so the cursor can work on bytes
+    		if (m_directScratch == null || m_directScratch.length < len) {
+    			m_directScratch = new byte[Math.max(len, 4096)];
+    		}
+    		buf.get(msg.offset(), m_directScratch, 0, len);
+    		m_cursorReader.reset(m_directScratch, 0, len);
+    	}
+
+  		m_messageReader = m_cursorReader;
     	return true;
     }
     
     public int processMsg(EMessage msg) throws IOException {
-    	if (!readMessageToInternalBuf(msg.getStream())) {
+    	if (!readMessageToInternalBuf(msg)) {
     		return 0;
     	}
     	
@@ -516,6 +540,108 @@ class EDecoder implements ObjectInput {
         return m_messageReader.msgLength();
     }
 
+    /**
+     * The request id a message is for, read from its first fields without decoding it, or -1
+     * for messages that are not about one request: orders, executions, accounts, the connection,
+     * errors without an id, and anything unknown. Used by EDecodePipeline to pick a decoder.
+     */
+    static int peekReqId(EMessage msg, int serverVersion) {
+    	ByteBuffer buf = msg.buffer();
+    	int pos = msg.offset();
+    	int end = pos + msg.length();
+
+    	int msgId = peekInt(buf, pos, end);
+    	pos = skipField(buf, pos, end);
+
+    	int skip; // fields between the message id and the request id
+    	switch (msgId) {
+    		case TICK_PRICE: case TICK_SIZE: case TICK_GENERIC: case TICK_STRING: case TICK_EFP:
+    		case MARKET_DEPTH: case MARKET_DEPTH_L2: case SCANNER_DATA: case REAL_TIME_BARS:
+    		case FUNDAMENTAL_DATA: case CONTRACT_DATA_END: case DELTA_NEUTRAL_VALIDATION:
+    		case TICK_SNAPSHOT_END: case MARKET_DATA_TYPE: case ACCOUNT_SUMMARY: case ACCOUNT_SUMMARY_END:
+    		case DISPLAY_GROUP_LIST: case DISPLAY_GROUP_UPDATED: case POSITION_MULTI: case POSITION_MULTI_END:
+    		case ACCOUNT_UPDATE_MULTI: case ACCOUNT_UPDATE_MULTI_END:
+    			skip = 1;
+    			break;
+
+    		case TICK_OPTION_COMPUTATION:
+    			skip = serverVersion >= EClient.MIN_SERVER_VER_PRICE_BASED_VOLATILITY ? 0 : 1;
+    			break;
+
+    		case HISTORICAL_DATA:
+    			skip = serverVersion >= EClient.MIN_SERVER_VER_SYNT_REALTIME_BARS ? 0 : 1;
+    			break;
+
+    		case CONTRACT_DATA: case BOND_CONTRACT_DATA:
+    			if (serverVersion >= EClient.MIN_SERVER_VER_SIZE_RULES) {
+    				skip = 0;
+    			} else if (peekInt(buf, pos, end) >= 3) { // older versions carry no request id
+    				skip = 1;
+    			} else {
+    				return -1;
+    			}
+    			break;
+
+    		case ERR_MSG:
+    			if (peekInt(buf, pos, end) < 2) { // a bare message
+    				return -1;
+    			}
+    			skip = 1;
+    			break;
+
+    		case SECURITY_DEFINITION_OPTION_PARAMETER: case SECURITY_DEFINITION_OPTION_PARAMETER_END:
+    		case SOFT_DOLLAR_TIERS: case SYMBOL_SAMPLES: case TICK_REQ_PARAMS: case SMART_COMPONENTS:
+    		case NEWS_ARTICLE: case TICK_NEWS: case HISTORICAL_NEWS: case HISTORICAL_NEWS_END:
+    		case HEAD_TIMESTAMP: case HISTOGRAM_DATA: case HISTORICAL_DATA_UPDATE: case REROUTE_MKT_DATA_REQ:
+    		case REROUTE_MKT_DEPTH_REQ: case PNL: case PNL_SINGLE: case HISTORICAL_TICKS:
+    		case HISTORICAL_TICKS_BID_ASK: case HISTORICAL_TICKS_LAST: case TICK_BY_TICK: case REPLACE_FA_END:
+    		case WSH_META_DATA: case WSH_EVENT_DATA: case HISTORICAL_SCHEDULE: case USER_INFO:
+    			skip = 0;
+    			break;
+
+    		default:
+    			return -1;
+    	}
+
+    	for (int i = 0; i < skip && pos >= 0; i++) {
+    		pos = skipField(buf, pos, end);
+    	}
+    	return pos < 0 ? -1 : Math.max(peekInt(buf, pos, end), -1);
+    }
+
+    /** Position after the null ending the field at pos, or -1 if there is none. */
+    private static int skipField(ByteBuffer buf, int pos, int end) {
+    	if (pos < 0) {
+    		return -1;
+    	}
+    	for (int i = pos; i < end; i++) {
+    		if (buf.get(i) == 0) {
+    			return i + 1;
+    		}
+    	}
+    	return -1;
+    }
+
+    /** The integer field at pos, 0 if it is empty as readInt has it, or -1 if it is not an integer. */
+    private static int peekInt(ByteBuffer buf, int pos, int end) {
+    	if (pos < 0) {
+    		return -1;
+    	}
+    	boolean negative = pos < end && buf.get(pos) == '-';
+    	long value = 0;
+    	for (int i = negative ? pos + 1 : pos; i < end; i++) {
+    		byte b = buf.get(i);
+    		if (b == 0) {
+    			return (int)(negative ? -value : value);
+    		}
+    		value = value * 10 + (b - '0');
+    		if (b < '0' || b > '9' || value > Integer.MAX_VALUE) {
+    			return -1;
+    		}
+    	}
+    	return -1;
+    }
+
     private void processHistoricalTicksLast() throws IOException {
         int reqId = readInt(),
             tickCount = readInt();
@@ -1675,7 +1801,10 @@ class EDecoder implements ObjectInput {
 		int tickType = readInt();
 		double value = readDouble();
 
-		m_EWrapper.tickGeneric( tickerId, tickType, value);
+		ETickSink sink = m_tickSink;
+		if (sink == null || !sink.tickGeneric( tickerId, tickType, value)) {
+			m_EWrapper.tickGeneric( tickerId, tickType, value);
+		}
 	}
 
 	private void processTickOptionComputationMsg() throws IOException {
@@ -1787,9 +1916,17 @@ class EDecoder implements ObjectInput {
 		/*int version =*/ readInt();
 		int tickerId = readInt();
 		int tickType = readInt();
-		Decimal size = readDecimal();
 
-		m_EWrapper.tickSize( tickerId, tickType, size);
+		ETickSink sink = m_tickSink;
+		if (sink == null) {
+			m_EWrapper.tickSize( tickerId, tickType, readDecimal());
+			return;
+		}
+
+		long size = m_messageReader.readPackedDecimal();
+		if (!offerTickSize(sink, tickerId, tickType, size)) {
+			m_EWrapper.tickSize( tickerId, tickType, unpackDecimal(size));
+		}
 	}
 
 	private void processTickPriceMsg() throws IOException {
@@ -1797,31 +1934,35 @@ class EDecoder implements ObjectInput {
 		int tickerId = readInt();
 		int tickType = readInt();
 		double price = readDouble();
-		Decimal size = Decimal.INVALID;
-		TickAttrib attribs = new TickAttrib();
+		ETickSink sink = m_tickSink;
+		long size = Decimal.PACKED_NONE;
+		int attribMask = 0;
 		
 		if( version >= 2) {
-		    size = readDecimal();
+		    size = m_messageReader.readPackedDecimal();
 		}
 		
 		if (version >= 3) {		
 			int attrMask = readInt();			
 
-			attribs.canAutoExecute(attrMask == 1);
-			
-			if (m_serverVersion >= EClient.MIN_SERVER_VER_PAST_LIMIT) {
-				BitMask mask = new BitMask(attrMask);
-				
-				attribs.canAutoExecute(mask.get(0));
-				attribs.pastLimit(mask.get(1));
-				if (m_serverVersion >= EClient.MIN_SERVER_VER_PRE_OPEN_BID_ASK) {
-					attribs.preOpen(mask.get(2));
-				}
+			if (m_serverVersion >= EClient.MIN_SERVER_VER_PRE_OPEN_BID_ASK) {
+				attribMask = attrMask & (ETickSink.ATTR_CAN_AUTO_EXECUTE | ETickSink.ATTR_PAST_LIMIT | ETickSink.ATTR_PRE_OPEN);
+			} else if (m_serverVersion >= EClient.MIN_SERVER_VER_PAST_LIMIT) {
+				attribMask = attrMask & (ETickSink.ATTR_CAN_AUTO_EXECUTE | ETickSink.ATTR_PAST_LIMIT);
+			} else if (attrMask == 1) {
+				attribMask = ETickSink.ATTR_CAN_AUTO_EXECUTE;
 			}
 		}
 
-		
-		m_EWrapper.tickPrice( tickerId, tickType, price, attribs);
+		if (sink == null || !sink.tickPrice( tickerId, tickType, price, attribMask)) {
+			TickAttrib attribs = new TickAttrib();
+
+			attribs.canAutoExecute((attribMask & ETickSink.ATTR_CAN_AUTO_EXECUTE) != 0);
+			attribs.pastLimit((attribMask & ETickSink.ATTR_PAST_LIMIT) != 0);
+			attribs.preOpen((attribMask & ETickSink.ATTR_PRE_OPEN) != 0);
+
+			m_EWrapper.tickPrice( tickerId, tickType, price, attribs);
+		}
 
 		if( version >= 2) {
 		    final int sizeTickType;
@@ -1847,8 +1988,8 @@ class EDecoder implements ObjectInput {
                 default:
                     sizeTickType = -1; // not a tick
 		    }
-		    if (sizeTickType != -1) {
-		        m_EWrapper.tickSize( tickerId, sizeTickType, size);
+		    if (sizeTickType != -1 && (sink == null || !offerTickSize(sink, tickerId, sizeTickType, size))) {
+		        m_EWrapper.tickSize( tickerId, sizeTickType, unpackDecimal(size));
 		    }
 		}
 	}
@@ -2127,86 +2268,261 @@ class EDecoder implements ObjectInput {
     }
 
     public boolean readBoolFromInt() throws IOException {
-        String str = readStr();
-        return str != null && (Integer.parseInt(str) != 0);
+        return m_messageReader.readInt(0) != 0;
     }
 
     public int readInt() throws IOException {
-        String str = readStr();
-        return str == null ? 0 : Integer.parseInt( str);
+        return m_messageReader.readInt(0);
     }
 
     public int readIntMax() throws IOException {
-        String str = readStr();
-        return (str == null || str.length() == 0) ? Integer.MAX_VALUE
-        	                                      : Integer.parseInt( str);
+        return m_messageReader.readInt(Integer.MAX_VALUE);
     }
 
     public long readLong() throws IOException {
-        String str = readStr();
-        return str == null ? 0L : Long.parseLong(str);
+        return m_messageReader.readLong(0L);
     }
 
     public double readDouble() throws IOException {
-        String str = readStr();
-        return str == null ? 0 : Double.parseDouble( str);
+        return m_messageReader.readDouble(0);
     }
 
     public double readDoubleMax() throws IOException {
-        String str = readStr();
-        return (str == null || str.length() == 0) ? Double.MAX_VALUE
-        	                                      : Double.parseDouble( str);
+        return m_messageReader.readDouble(Double.MAX_VALUE);
     }
 
     public Decimal readDecimal() throws IOException {
-        String str = readStr();
-        return (str == null || str.isEmpty() || 
-                str.equals(String.valueOf(Long.MAX_VALUE)) ||
-                str.equals(String.valueOf(Integer.MAX_VALUE)) ||
-                str.equals(String.valueOf(Double.MAX_VALUE))) ? Decimal.INVALID : Decimal.parse(str);
+        return m_messageReader.readDecimal();
+    }
+
+    /** Decimal for a value from readPackedDecimal, which keeps the ones that do not pack. */
+    private Decimal unpackDecimal(long packed) {
+        return packed != Decimal.PACKED_NONE ? Decimal.unpack(packed) : m_messageReader.lastUnpackedDecimal();
+    }
+
+    private static boolean offerTickSize(ETickSink sink, int tickerId, int tickType, long size) {
+        return size != Decimal.PACKED_NONE
+            ? sink.tickSize( tickerId, tickType, Decimal.unpackUnscaled(size), Decimal.unpackScale(size))
+            : sink.tickSize( tickerId, tickType, ETickSink.UNSET_SIZE, 0);
     }
     
     /** Message reader interface */
     private interface IMessageReader extends Closeable {
     	String readStr() throws IOException;
+    	/** Numeric readers return emptyValue for an empty field. */
+    	int readInt(int emptyValue) throws IOException;
+    	long readLong(long emptyValue) throws IOException;
+    	double readDouble(double emptyValue) throws IOException;
+    	/** Decimal.INVALID for an empty field or one of the "unset" values. */
+    	Decimal readDecimal() throws IOException;
+    	/** readDecimal as Decimal.pack(unscaled, scale); Decimal.PACKED_NONE for any other result, which lastUnpackedDecimal then returns. */
+    	long readPackedDecimal() throws IOException;
+    	Decimal lastUnpackedDecimal();
     	int msgLength();
     }
 
-    private static class PreV100MessageReader implements IMessageReader {
-    	private final InputStream m_din;
-    	private int m_msgLength = 0;
-    	
-    	PreV100MessageReader( InputStream din ) {
-    		m_din = din;
+    /**
+     * Cursor over the NUL-delimited fields of one message held in a byte array.
+     * Numbers are parsed straight from the bytes; a String is only created for
+     * text fields or for numbers outside the simple fast-path formats, which
+     * fall back to Integer/Long/Double.parseXxx so results and exceptions are
+     * the same as parsing the field text. Reused for every message.
+     */
+    private static class ByteArrayMessageReader implements IMessageReader {
+    	private static final double[] POW10 = {
+    		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+    	private static final int MAX_FAST_DOUBLE_DIGITS = 15; // 10^15 < 2^53, so the mantissa is exact
+    	private static final byte[] LONG_MAX_BYTES = String.valueOf(Long.MAX_VALUE).getBytes(StandardCharsets.ISO_8859_1);
+    	private static final byte[] INT_MAX_BYTES = String.valueOf(Integer.MAX_VALUE).getBytes(StandardCharsets.ISO_8859_1);
+    	private static final byte[] DOUBLE_MAX_BYTES = String.valueOf(Double.MAX_VALUE).getBytes(StandardCharsets.ISO_8859_1);
+
+    	private byte[] m_buf;
+    	private Decimal m_lastUnpacked;
+    	private int m_start;
+    	private int m_pos;
+    	private int m_end;
+
+    	void reset(byte[] buf, int offset, int len) {
+    		m_buf = buf;
+    		m_start = offset;
+    		m_pos = offset;
+    		m_end = offset + len;
     	}
-    	
+
     	@Override
         public int msgLength() {
-    		return m_msgLength;
+    		return m_pos - m_start;
     	}
-    	
+
+    	/** Returns the index of the terminating NUL of the current field and moves the cursor past it. */
+    	private int nextField() throws EOFException {
+    		byte[] buf = m_buf;
+    		int i = m_pos;
+
+    		while (i < m_end && buf[i] != 0) {
+    			i++;
+    		}
+
+    		if (i == m_end) {
+    			throw new EOFException();
+    		}
+
+    		m_pos = i + 1;
+    		return i;
+    	}
+
+    	private String text(int from, int to) {
+    		// each byte maps to one char, as the stream reader always did
+    		return new String(m_buf, from, to - from, StandardCharsets.ISO_8859_1);
+    	}
+
     	@Override public String readStr() throws IOException {
-    		 StringBuilder sb = new StringBuilder();
-    		    		 
- 	         for(; true; m_msgLength++) {
- 	            int c = m_din.read();
- 	            if( c <= 0) {
- 	            	if ( c < 0 ) {
- 	            		throw new EOFException();
- 	            	}
- 	            	
- 	            	m_msgLength++;
- 	                break;
- 	            }
- 	            sb.append( (char)c);
- 	        }
- 	
- 	        String str = sb.toString();
- 	        return str.length() == 0 ? null : str;    
- 	    }
-    	
+    		int from = m_pos;
+    		int to = nextField();
+    		return to == from ? null : text(from, to);
+    	}
+
+    	@Override public int readInt(int emptyValue) throws IOException {
+    		int from = m_pos;
+    		int to = nextField();
+
+    		if (to == from) {
+    			return emptyValue;
+    		}
+
+    		long v = parseLong(from, to);
+    		if (v == Long.MIN_VALUE || v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+    			return Integer.parseInt(text(from, to));
+    		}
+    		return (int)v;
+    	}
+
+    	@Override public long readLong(long emptyValue) throws IOException {
+    		int from = m_pos;
+    		int to = nextField();
+
+    		if (to == from) {
+    			return emptyValue;
+    		}
+
+    		long v = parseLong(from, to);
+    		return v != Long.MIN_VALUE ? v : Long.parseLong(text(from, to));
+    	}
+
+    	/** Parses an optionally signed run of up to 18 digits; Long.MIN_VALUE means "use the slow path". */
+    	private long parseLong(int from, int to) {
+    		byte[] buf = m_buf;
+    		int i = from;
+    		boolean negative = buf[i] == '-';
+
+    		if (negative || buf[i] == '+') {
+    			i++;
+    		}
+
+    		if (i == to || to - i > 18) {
+    			return Long.MIN_VALUE;
+    		}
+
+    		long v = 0;
+    		for (; i < to; i++) {
+    			int digit = buf[i] - '0';
+    			if (digit < 0 || digit > 9) {
+    				return Long.MIN_VALUE;
+    			}
+    			v = v * 10 + digit;
+    		}
+    		return negative ? -v : v;
+    	}
+
+    	@Override public double readDouble(double emptyValue) throws IOException {
+    		int from = m_pos;
+    		int to = nextField();
+
+    		if (to == from) {
+    			return emptyValue;
+    		}
+
+    		byte[] buf = m_buf;
+    		int i = from;
+    		boolean negative = buf[i] == '-';
+
+    		if (negative || buf[i] == '+') {
+    			i++;
+    		}
+
+    		long mantissa = 0;
+    		int digits = 0;
+    		int fractionDigits = -1;
+
+    		for (; i < to; i++) {
+    			byte b = buf[i];
+    			if (b >= '0' && b <= '9') {
+    				mantissa = mantissa * 10 + (b - '0');
+    				digits++;
+    				if (fractionDigits >= 0) {
+    					fractionDigits++;
+    				}
+    			} else if (b == '.' && fractionDigits < 0) {
+    				fractionDigits = 0;
+    			} else {
+    				break;
+    			}
+    		}
+
+    		// exponents, NaN/Infinity, suffixes and long mantissas are left to Double.parseDouble
+    		if (i != to || digits == 0 || digits > MAX_FAST_DOUBLE_DIGITS || fractionDigits >= POW10.length) {
+    			return Double.parseDouble(text(from, to));
+    		}
+
+    		// both operands are exact, so the division is correctly rounded like parseDouble
+    		double v = fractionDigits > 0 ? mantissa / POW10[fractionDigits] : mantissa;
+    		return negative ? -v : v;
+    	}
+
+    	@Override public Decimal readDecimal() throws IOException {
+    		int from = m_pos;
+    		int to = nextField();
+
+    		if (isUnsetDecimal(from, to)) {
+    			return Decimal.INVALID;
+    		}
+    		return Decimal.parse(m_buf, from, to - from);
+    	}
+
+    	@Override public long readPackedDecimal() throws IOException {
+    		int from = m_pos;
+    		int to = nextField();
+
+    		if (isUnsetDecimal(from, to)) {
+    			m_lastUnpacked = Decimal.INVALID;
+    			return Decimal.PACKED_NONE;
+    		}
+
+    		long packed = Decimal.parsePacked(m_buf, from, to - from);
+    		if (packed == Decimal.PACKED_NONE) {
+    			// rounded, unparsable or too large: take whatever parse makes of it
+    			Decimal value = Decimal.parse(m_buf, from, to - from);
+    			packed = value != null ? value.packed() : Decimal.PACKED_NONE;
+    			m_lastUnpacked = value;
+    		}
+    		return packed;
+    	}
+
+    	@Override public Decimal lastUnpackedDecimal() {
+    		return m_lastUnpacked;
+    	}
+
+    	private boolean isUnsetDecimal(int from, int to) {
+    		return to == from || isField(from, to, LONG_MAX_BYTES) || isField(from, to, INT_MAX_BYTES) || isField(from, to, DOUBLE_MAX_BYTES);
+    	}
+
+    	private boolean isField(int from, int to, byte[] text) {
+    		return Arrays.equals(m_buf, from, to, text, 0, text.length);
+    	}
+
     	@Override public void close() {
-    	    /* noop in pre-v100 */
+    	    /* nothing to release; the buffer belongs to the EMessage */
     	}
     }
     
@@ -0,0 +1,519 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.IntPredicate;
+
+/**
+ * An EWrapper that runs the callbacks of another on worker threads, so a slow handler
+ * holds up only the callbacks that share its lane instead of everything EReader.processMsgs
+ * decodes.
+ *
+ * Callbacks for a request id go to one of the request lanes, chosen by the id, so each
+ * stream keeps its order. Order callbacks (orderStatus, openOrder, execDetails, commission
+ * reports, completed orders), errors for order ids, and callbacks without a request id
+ * (account, position, connection) all go to the order lane, which keeps them strictly
+ * ordered among themselves. Each lane holds up to laneCapacity callbacks; when one is
+ * full the decoding thread waits for it.
+ *
+ * Pass it to the EReader in place of the client's wrapper. A RuntimeException thrown by
+ * a handler is reported to the wrapped EWrapper's error(Exception) on the same lane.
+ * If the decoding thread is interrupted while waiting for a full lane, the callback is
+ * not run; the loss is reported to the wrapped EWrapper's error with CALLBACK_LOST against
+ * the callback's request or order id, on the decoding thread.
+ */
+public class EDispatchingWrapper implements EWrapper {
+	public static final int DEFAULT_LANE_CAPACITY = 4096;
+
+	private static final Runnable STOP = () -> {};
+
+	private final EWrapper m_target;
+	private final IntPredicate m_isOrderId;
+	private final Lane m_orderLane;
+	private final Lane[] m_requestLanes;
+
+	/**
+	 * @param requestLanes number of lanes, one thread each, for callbacks with a request id
+	 * @param isOrderId tells the ids of orders from those of other requests, for routing errors;
+	 *                  called on the decoding thread
+	 */
+	public EDispatchingWrapper(EWrapper target, int requestLanes, IntPredicate isOrderId) {
+		this(target, requestLanes, DEFAULT_LANE_CAPACITY, isOrderId);
+	}
+
+	public EDispatchingWrapper(EWrapper target, int requestLanes, int laneCapacity, IntPredicate isOrderId) {
+		if (requestLanes <= 0 || laneCapacity <= 0) {
+			throw new IllegalArgumentException("requestLanes and laneCapacity must be positive");
+		}
+		m_target = target;
+		m_isOrderId = isOrderId;
+		m_orderLane = new Lane("EWrapper order lane", laneCapacity);
+		m_requestLanes = new Lane[requestLanes];
+		for (int i = 0; i < requestLanes; i++) {
+			m_requestLanes[i] = new Lane("EWrapper lane " + i, laneCapacity);
+		}
+
+		m_orderLane.start();
+		for (Lane lane : m_requestLanes) {
+			lane.start();
+		}
+	}
+
+	/** Lets the lanes run the callbacks already queued, then ends their threads. */
+	public void close() {
+		m_orderLane.dispatch(EClientErrors.NO_VALID_ID, STOP);
+		for (Lane lane : m_requestLanes) {
+			lane.dispatch(EClientErrors.NO_VALID_ID, STOP);
+		}
+	}
+
+	/** Callbacks queued and not yet run, over all lanes. */
+	public int backlog() {
+		int backlog = m_orderLane.m_queue.size();
+		for (Lane lane : m_requestLanes) {
+			backlog += lane.m_queue.size();
+		}
+		return backlog;
+	}
+
+	private void request(int reqId, Runnable callback) {
+		m_requestLanes[Math.floorMod(reqId, m_requestLanes.length)].dispatch(reqId, callback);
+	}
+
+	private void order(Runnable callback) {
+		m_orderLane.dispatch(EClientErrors.NO_VALID_ID, callback);
+	}
+
+	private void order(int id, Runnable callback) {
+		m_orderLane.dispatch(id, callback);
+	}
+
+	private class Lane extends Thread {
+		final BlockingQueue<Runnable> m_queue;
+
+		Lane(String name, int capacity) {
+			super(name);
+			setDaemon(true);
+			m_queue = new ArrayBlockingQueue<>(capacity);
+		}
+
+		/** @param id the request or order id the callback is for, to report it against if it is lost */
+		void dispatch(int id, Runnable callback) {
+			if (m_queue.offer(callback)) {
+				return; // an interrupted thread can still queue while there is room
+			}
+			try {
+				m_queue.put(callback);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (callback != STOP) {
+					m_target.error(id, EClientErrors.CALLBACK_LOST.code(), EClientErrors.CALLBACK_LOST.msg() + getName(), null);
+				}
+			}
+		}
+
+		@Override public void run() {
+			for (;;) {
+				Runnable callback;
+				try {
+					callback = m_queue.take();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				if (callback == STOP) {
+					return;
+				}
+				try {
+					callback.run();
+				}
+				catch (RuntimeException e) {
+					m_target.error(e);
+				}
+			}
+		}
+	}
+
+	// ---------------------------------------- Request lanes ----------------------------------------
+	@Override public void tickPrice(int tickerId, int field, double price, TickAttrib attrib) {
+		request(tickerId, () -> m_target.tickPrice(tickerId, field, price, attrib));
+	}
+
+	@Override public void tickSize(int tickerId, int field, Decimal size) {
+		request(tickerId, () -> m_target.tickSize(tickerId, field, size));
+	}
+
+	@Override public void tickOptionComputation(int tickerId, int field, int tickAttrib, double impliedVol, double delta, double optPrice,
+			double pvDividend, double gamma, double vega, double theta, double undPrice) {
+		request(tickerId, () -> m_target.tickOptionComputation(tickerId, field, tickAttrib, impliedVol, delta, optPrice, pvDividend, gamma, vega, theta, undPrice));
+	}
+
+	@Override public void tickGeneric(int tickerId, int tickType, double value) {
+		request(tickerId, () -> m_target.tickGeneric(tickerId, tickType, value));
+	}
+
+	@Override public void tickString(int tickerId, int tickType, String value) {
+		request(tickerId, () -> m_target.tickString(tickerId, tickType, value));
+	}
+
+	@Override public void tickEFP(int tickerId, int tickType, double basisPoints, String formattedBasisPoints, double impliedFuture, int holdDays,
+			String futureLastTradeDate, double dividendImpact, double dividendsToLastTradeDate) {
+		request(tickerId, () -> m_target.tickEFP(tickerId, tickType, basisPoints, formattedBasisPoints, impliedFuture, holdDays, futureLastTradeDate, dividendImpact, dividendsToLastTradeDate));
+	}
+
+	@Override public void contractDetails(int reqId, ContractDetails contractDetails) {
+		request(reqId, () -> m_target.contractDetails(reqId, contractDetails));
+	}
+
+	@Override public void bondContractDetails(int reqId, ContractDetails contractDetails) {
+		request(reqId, () -> m_target.bondContractDetails(reqId, contractDetails));
+	}
+
+	@Override public void contractDetailsEnd(int reqId) {
+		request(reqId, () -> m_target.contractDetailsEnd(reqId));
+	}
+
+	@Override public void updateMktDepth(int tickerId, int position, int operation, int side, double price, Decimal size) {
+		request(tickerId, () -> m_target.updateMktDepth(tickerId, position, operation, side, price, size));
+	}
+
+	@Override public void updateMktDepthL2(int tickerId, int position, String marketMaker, int operation, int side, double price, Decimal size, boolean isSmartDepth) {
+		request(tickerId, () -> m_target.updateMktDepthL2(tickerId, position, marketMaker, operation, side, price, size, isSmartDepth));
+	}
+
+	@Override public void historicalData(int reqId, Bar bar) {
+		request(reqId, () -> m_target.historicalData(reqId, bar));
+	}
+
+	@Override public void scannerData(int reqId, int rank, ContractDetails contractDetails, String distance, String benchmark, String projection, String legsStr) {
+		request(reqId, () -> m_target.scannerData(reqId, rank, contractDetails, distance, benchmark, projection, legsStr));
+	}
+
+	@Override public void scannerDataEnd(int reqId) {
+		request(reqId, () -> m_target.scannerDataEnd(reqId));
+	}
+
+	@Override public void realtimeBar(int reqId, long time, double open, double high, double low, double close, Decimal volume, Decimal wap, int count) {
+		request(reqId, () -> m_target.realtimeBar(reqId, time, open, high, low, close, volume, wap, count));
+	}
+
+	@Override public void fundamentalData(int reqId, String data) {
+		request(reqId, () -> m_target.fundamentalData(reqId, data));
+	}
+
+	@Override public void deltaNeutralValidation(int reqId, DeltaNeutralContract deltaNeutralContract) {
+		request(reqId, () -> m_target.deltaNeutralValidation(reqId, deltaNeutralContract));
+	}
+
+	@Override public void tickSnapshotEnd(int reqId) {
+		request(reqId, () -> m_target.tickSnapshotEnd(reqId));
+	}
+
+	@Override public void marketDataType(int reqId, int marketDataType) {
+		request(reqId, () -> m_target.marketDataType(reqId, marketDataType));
+	}
+
+	@Override public void accountSummary(int reqId, String account, String tag, String value, String currency) {
+		request(reqId, () -> m_target.accountSummary(reqId, account, tag, value, currency));
+	}
+
+	@Override public void accountSummaryEnd(int reqId) {
+		request(reqId, () -> m_target.accountSummaryEnd(reqId));
+	}
+
+	@Override public void displayGroupList(int reqId, String groups) {
+		request(reqId, () -> m_target.displayGroupList(reqId, groups));
+	}
+
+	@Override public void displayGroupUpdated(int reqId, String contractInfo) {
+		request(reqId, () -> m_target.displayGroupUpdated(reqId, contractInfo));
+	}
+
+	@Override public void positionMulti(int reqId, String account, String modelCode, Contract contract, Decimal pos, double avgCost) {
+		request(reqId, () -> m_target.positionMulti(reqId, account, modelCode, contract, pos, avgCost));
+	}
+
+	@Override public void positionMultiEnd(int reqId) {
+		request(reqId, () -> m_target.positionMultiEnd(reqId));
+	}
+
+	@Override public void accountUpdateMulti(int reqId, String account, String modelCode, String key, String value, String currency) {
+		request(reqId, () -> m_target.accountUpdateMulti(reqId, account, modelCode, key, value, currency));
+	}
+
+	@Override public void accountUpdateMultiEnd(int reqId) {
+		request(reqId, () -> m_target.accountUpdateMultiEnd(reqId));
+	}
+
+	@Override public void securityDefinitionOptionalParameter(int reqId, String exchange, int underlyingConId, String tradingClass,
+			String multiplier, Set<String> expirations, Set<Double> strikes) {
+		request(reqId, () -> m_target.securityDefinitionOptionalParameter(reqId, exchange, underlyingConId, tradingClass, multiplier, expirations, strikes));
+	}
+
+	@Override public void securityDefinitionOptionalParameterEnd(int reqId) {
+		request(reqId, () -> m_target.securityDefinitionOptionalParameterEnd(reqId));
+	}
+
+	@Override public void softDollarTiers(int reqId, SoftDollarTier[] tiers) {
+		request(reqId, () -> m_target.softDollarTiers(reqId, tiers));
+	}
+
+	@Override public void symbolSamples(int reqId, ContractDescription[] contractDescriptions) {
+		request(reqId, () -> m_target.symbolSamples(reqId, contractDescriptions));
+	}
+
+	@Override public void historicalDataEnd(int reqId, String startDateStr, String endDateStr) {
+		request(reqId, () -> m_target.historicalDataEnd(reqId, startDateStr, endDateStr));
+	}
+
+	@Override public void tickNews(int tickerId, long timeStamp, String providerCode, String articleId, String headline, String extraData) {
+		request(tickerId, () -> m_target.tickNews(tickerId, timeStamp, providerCode, articleId, headline, extraData));
+	}
+
+	@Override public void smartComponents(int reqId, Map<Integer, Entry<String, Character>> theMap) {
+		request(reqId, () -> m_target.smartComponents(reqId, theMap));
+	}
+
+	@Override public void tickReqParams(int tickerId, double minTick, String bboExchange, int snapshotPermissions) {
+		request(tickerId, () -> m_target.tickReqParams(tickerId, minTick, bboExchange, snapshotPermissions));
+	}
+
+	@Override public void newsArticle(int requestId, int articleType, String articleText) {
+		request(requestId, () -> m_target.newsArticle(requestId, articleType, articleText));
+	}
+
+	@Override public void historicalNews(int requestId, String time, String providerCode, String articleId, String headline) {
+		request(requestId, () -> m_target.historicalNews(requestId, time, providerCode, articleId, headline));
+	}
+
+	@Override public void historicalNewsEnd(int requestId, boolean hasMore) {
+		request(requestId, () -> m_target.historicalNewsEnd(requestId, hasMore));
+	}
+
+	@Override public void headTimestamp(int reqId, String headTimestamp) {
+		request(reqId, () -> m_target.headTimestamp(reqId, headTimestamp));
+	}
+
+	@Override public void histogramData(int reqId, List<HistogramEntry> items) {
+		request(reqId, () -> m_target.histogramData(reqId, items));
+	}
+
+	@Override public void historicalDataUpdate(int reqId, Bar bar) {
+		request(reqId, () -> m_target.historicalDataUpdate(reqId, bar));
+	}
+
+	@Override public void rerouteMktDataReq(int reqId, int conId, String exchange) {
+		request(reqId, () -> m_target.rerouteMktDataReq(reqId, conId, exchange));
+	}
+
+	@Override public void rerouteMktDepthReq(int reqId, int conId, String exchange) {
+		request(reqId, () -> m_target.rerouteMktDepthReq(reqId, conId, exchange));
+	}
+
+	@Override public void pnl(int reqId, double dailyPnL, double unrealizedPnL, double realizedPnL) {
+		request(reqId, () -> m_target.pnl(reqId, dailyPnL, unrealizedPnL, realizedPnL));
+	}
+
+	@Override public void pnlSingle(int reqId, Decimal pos, double dailyPnL, double unrealizedPnL, double realizedPnL, double value) {
+		request(reqId, () -> m_target.pnlSingle(reqId, pos, dailyPnL, unrealizedPnL, realizedPnL, value));
+	}
+
+	@Override public void historicalTicks(int reqId, List<HistoricalTick> ticks, boolean done) {
+		request(reqId, () -> m_target.historicalTicks(reqId, ticks, done));
+	}
+
+	@Override public void historicalTicksBidAsk(int reqId, List<HistoricalTickBidAsk> ticks, boolean done) {
+		request(reqId, () -> m_target.historicalTicksBidAsk(reqId, ticks, done));
+	}
+
+	@Override public void historicalTicksLast(int reqId, List<HistoricalTickLast> ticks, boolean done) {
+		request(reqId, () -> m_target.historicalTicksLast(reqId, ticks, done));
+	}
+
+	@Override public void tickByTickAllLast(int reqId, int tickType, long time, double price, Decimal size, TickAttribLast tickAttribLast,
+			String exchange, String specialConditions) {
+		request(reqId, () -> m_target.tickByTickAllLast(reqId, tickType, time, price, size, tickAttribLast, exchange, specialConditions));
+	}
+
+	@Override public void tickByTickBidAsk(int reqId, long time, double bidPrice, double askPrice, Decimal bidSize, Decimal askSize,
+			TickAttribBidAsk tickAttribBidAsk) {
+		request(reqId, () -> m_target.tickByTickBidAsk(reqId, time, bidPrice, askPrice, bidSize, askSize, tickAttribBidAsk));
+	}
+
+	@Override public void tickByTickMidPoint(int reqId, long time, double midPoint) {
+		request(reqId, () -> m_target.tickByTickMidPoint(reqId, time, midPoint));
+	}
+
+	@Override public void replaceFAEnd(int reqId, String text) {
+		request(reqId, () -> m_target.replaceFAEnd(reqId, text));
+	}
+
+	@Override public void wshMetaData(int reqId, String dataJson) {
+		request(reqId, () -> m_target.wshMetaData(reqId, dataJson));
+	}
+
+	@Override public void wshEventData(int reqId, String dataJson) {
+		request(reqId, () -> m_target.wshEventData(reqId, dataJson));
+	}
+
+	@Override public void historicalSchedule(int reqId, String startDateTime, String endDateTime, String timeZone, List<HistoricalSession> sessions) {
+		request(reqId, () -> m_target.historicalSchedule(reqId, startDateTime, endDateTime, timeZone, sessions));
+	}
+
+	@Override public void userInfo(int reqId, String whiteBrandingId) {
+		request(reqId, () -> m_target.userInfo(reqId, whiteBrandingId));
+	}
+
+	@Override public void error(int id, int errorCode, String errorMsg, String advancedOrderRejectJson) {
+		Runnable callback = () -> m_target.error(id, errorCode, errorMsg, advancedOrderRejectJson);
+		if (id < 0 || m_isOrderId.test(id)) {
+			order(id, callback);
+		}
+		else {
+			request(id, callback);
+		}
+	}
+
+	// ---------------------------------------- Order lane ----------------------------------------
+	@Override public void orderStatus(int orderId, String status, Decimal filled, Decimal remaining, double avgFillPrice, int permId,
+			int parentId, double lastFillPrice, int clientId, String whyHeld, double mktCapPrice) {
+		order(orderId, () -> m_target.orderStatus(orderId, status, filled, remaining, avgFillPrice, permId, parentId, lastFillPrice, clientId, whyHeld, mktCapPrice));
+	}
+
+	@Override public void openOrder(int orderId, Contract contract, Order order, OrderState orderState) {
+		order(orderId, () -> m_target.openOrder(orderId, contract, order, orderState));
+	}
+
+	@Override public void openOrderEnd() {
+		order(m_target::openOrderEnd);
+	}
+
+	@Override public void execDetails(int reqId, Contract contract, Execution execution) {
+		order(reqId, () -> m_target.execDetails(reqId, contract, execution));
+	}
+
+	@Override public void execDetailsEnd(int reqId) {
+		order(reqId, () -> m_target.execDetailsEnd(reqId));
+	}
+
+	@Override public void commissionReport(CommissionReport commissionReport) {
+		order(() -> m_target.commissionReport(commissionReport));
+	}
+
+	@Override public void orderBound(long orderId, int apiClientId, int apiOrderId) {
+		order(apiOrderId, () -> m_target.orderBound(orderId, apiClientId, apiOrderId));
+	}
+
+	@Override public void completedOrder(Contract contract, Order order, OrderState orderState) {
+		order(() -> m_target.completedOrder(contract, order, orderState));
+	}
+
+	@Override public void completedOrdersEnd() {
+		order(m_target::completedOrdersEnd);
+	}
+
+	@Override public void nextValidId(int orderId) {
+		order(() -> m_target.nextValidId(orderId));
+	}
+
+	@Override public void updateAccountValue(String key, String value, String currency, String accountName) {
+		order(() -> m_target.updateAccountValue(key, value, currency, accountName));
+	}
+
+	@Override public void updatePortfolio(Contract contract, Decimal position, double marketPrice, double marketValue, double averageCost,
+			double unrealizedPNL, double realizedPNL, String accountName) {
+		order(() -> m_target.updatePortfolio(contract, position, marketPrice, marketValue, averageCost, unrealizedPNL, realizedPNL, accountName));
+	}
+
+	@Override public void updateAccountTime(String timeStamp) {
+		order(() -> m_target.updateAccountTime(timeStamp));
+	}
+
+	@Override public void accountDownloadEnd(String accountName) {
+		order(() -> m_target.accountDownloadEnd(accountName));
+	}
+
+	@Override public void position(String account, Contract contract, Decimal pos, double avgCost) {
+		order(() -> m_target.position(account, contract, pos, avgCost));
+	}
+
+	@Override public void positionEnd() {
+		order(m_target::positionEnd);
+	}
+
+	@Override public void updateNewsBulletin(int msgId, int msgType, String message, String origExchange) {
+		order(() -> m_target.updateNewsBulletin(msgId, msgType, message, origExchange));
+	}
+
+	@Override public void managedAccounts(String accountsList) {
+		order(() -> m_target.managedAccounts(accountsList));
+	}
+
+	@Override public void receiveFA(int faDataType, String xml) {
+		order(() -> m_target.receiveFA(faDataType, xml));
+	}
+
+	@Override public void scannerParameters(String xml) {
+		order(() -> m_target.scannerParameters(xml));
+	}
+
+	@Override public void currentTime(long time) {
+		order(() -> m_target.currentTime(time));
+	}
+
+	@Override public void verifyMessageAPI(String apiData) {
+		order(() -> m_target.verifyMessageAPI(apiData));
+	}
+
+	@Override public void verifyCompleted(boolean isSuccessful, String errorText) {
+		order(() -> m_target.verifyCompleted(isSuccessful, errorText));
+	}
+
+	@Override public void verifyAndAuthMessageAPI(String apiData, String xyzChallenge) {
+		order(() -> m_target.verifyAndAuthMessageAPI(apiData, xyzChallenge));
+	}
+
+	@Override public void verifyAndAuthCompleted(boolean isSuccessful, String errorText) {
+		order(() -> m_target.verifyAndAuthCompleted(isSuccessful, errorText));
+	}
+
+	@Override public void familyCodes(FamilyCode[] familyCodes) {
+		order(() -> m_target.familyCodes(familyCodes));
+	}
+
+	@Override public void mktDepthExchanges(DepthMktDataDescription[] depthMktDataDescriptions) {
+		order(() -> m_target.mktDepthExchanges(depthMktDataDescriptions));
+	}
+
+	@Override public void newsProviders(NewsProvider[] newsProviders) {
+		order(() -> m_target.newsProviders(newsProviders));
+	}
+
+	@Override public void marketRule(int marketRuleId, PriceIncrement[] priceIncrements) {
+		order(() -> m_target.marketRule(marketRuleId, priceIncrements));
+	}
+
+	@Override public void error(Exception e) {
+		order(() -> m_target.error(e));
+	}
+
+	@Override public void error(String str) {
+		order(() -> m_target.error(str));
+	}
+
+	@Override public void connectionClosed() {
+		order(m_target::connectionClosed);
+	}
+
+	@Override public void connectAck() {
+		order(m_target::connectAck);
+	}
+}
@@ -0,0 +1,34 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.util.Deque;
+import java.util.LinkedList;
+
+/** Unbounded queue guarded by its own monitor; the default EReader queue. */
+public class ELinkedMessageQueue implements EMessageQueue {
+	private final Deque<EMessage> m_msgQueue = new LinkedList<>();
+
+	@Override
+	public boolean put(EMessage msg) {
+		synchronized (m_msgQueue) {
+			m_msgQueue.addFirst(msg);
+		}
+		return true;
+	}
+
+	@Override
+	public EMessage poll() {
+		synchronized (m_msgQueue) {
+			return m_msgQueue.isEmpty() ? null : m_msgQueue.removeLast();
+		}
+	}
+
+	@Override
+	public int size() {
+		synchronized (m_msgQueue) {
+			return m_msgQueue.size();
+		}
+	}
+}
@@ -4,31 +4,99 @@
 package com.ib.client;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class EMessage {
-	ByteArrayOutputStream m_buf;
-	
+	private final ByteBuffer m_buf;
+	private final int m_offset;
+	private final int m_len;
+	private EMessageBufferPool m_pool;
+
 	public EMessage(byte[] buf, int len) {
-		m_buf = new ByteArrayOutputStream();
-		
-		m_buf.write(buf, 0, len);
+		this(ByteBuffer.wrap(Arrays.copyOf(buf, len)), 0, len, null);
 	}
-	
+
 	public EMessage(Builder buf) throws IOException {
-		m_buf = new ByteArrayOutputStream();
-		
-			buf.writeTo(new DataOutputStream(m_buf));
+		m_buf = ByteBuffer.wrap(buf.toByteArray());
+		m_offset = 0;
+		m_len = m_buf.capacity();
 	}
-	
+
+	/**
+	 * View over len bytes of buf starting at offset, without copying. If pool is not null the
+	 * buffer is handed back to it by {@link #release()}.
+	 */
+	public EMessage(ByteBuffer buf, int offset, int len, EMessageBufferPool pool) {
+		m_buf = buf;
+		m_offset = offset;
+		m_len = len;
+		m_pool = pool;
+	}
+
 	public InputStream getStream() {
-		return new ByteArrayInputStream(m_buf.toByteArray());
+		if (m_buf.hasArray()) {
+			return new ByteArrayInputStream(m_buf.array(), m_buf.arrayOffset() + m_offset, m_len);
+		}
+
+		return new ByteBufferInputStream(m_buf.slice(m_offset, m_len));
+	}
+
+	public byte[] getRawData() {
+		if (m_pool == null && m_buf.hasArray() && m_buf.arrayOffset() == 0 && m_offset == 0 && m_len == m_buf.array().length) {
+			return m_buf.array();
+		}
+
+		byte[] data = new byte[m_len];
+		m_buf.get(m_offset, data, 0, m_len);
+		return data;
+	}
+
+	public int length() {
+		return m_len;
+	}
+
+	ByteBuffer buffer() { return m_buf; }
+	int offset()        { return m_offset; }
+
+	/** Hands a pooled buffer back to its pool; the message must not be used afterwards. */
+	public void release() {
+		EMessageBufferPool pool = m_pool;
+
+		if (pool != null) {
+			m_pool = null;
+			pool.release(m_buf);
+		}
 	}
-	
-	public byte[] getRawData() {		
-		return m_buf.toByteArray();
+
+	/** inner class: InputStream over a (direct) ByteBuffer view. */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer m_src;
+
+		ByteBufferInputStream(ByteBuffer src) {
+			m_src = src;
+		}
+
+		@Override public int read() {
+			return m_src.hasRemaining() ? m_src.get() & 0xff : -1;
+		}
+
+		@Override public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!m_src.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(len, m_src.remaining());
+			m_src.get(b, off, n);
+			return n;
+		}
+
+		@Override public int available() {
+			return m_src.remaining();
+		}
 	}
 }
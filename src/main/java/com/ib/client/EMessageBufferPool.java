@@ -0,0 +1,67 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool of reusable frame buffers for the V100+ read path.
+ *
+ * The EReader thread acquires a buffer, fills it with one frame and queues an
+ * EMessage view over it; the processing thread hands the buffer back once
+ * EDecoder.processMsg has returned. Frames larger than the pooled buffer size
+ * get a one-off buffer which is simply dropped on release.
+ */
+public class EMessageBufferPool {
+    public static final int DEFAULT_BUF_SIZE = 4096;
+    public static final int DEFAULT_MAX_POOLED = 256;
+
+    private final boolean m_direct;
+    private final int m_bufSize;
+    private final ArrayBlockingQueue<ByteBuffer> m_free;
+
+    public EMessageBufferPool() {
+        this(false, DEFAULT_BUF_SIZE, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * @param direct allocate direct buffers instead of heap buffers.
+     * @param bufSize capacity of each pooled buffer.
+     * @param maxPooled maximum number of idle buffers kept for reuse.
+     */
+    public EMessageBufferPool(boolean direct, int bufSize, int maxPooled) {
+        m_direct = direct;
+        m_bufSize = bufSize;
+        m_free = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    public boolean isDirect() { return m_direct; }
+    public int bufSize()      { return m_bufSize; }
+    public int idleCount()    { return m_free.size(); }
+
+    /** Returns a cleared buffer of at least size bytes, limited to size. */
+    public ByteBuffer acquire(int size) {
+        ByteBuffer buf = size <= m_bufSize ? m_free.poll() : null;
+
+        if (buf == null) {
+            buf = allocate(Math.max(size, m_bufSize));
+        }
+
+        buf.clear();
+        buf.limit(size);
+        return buf;
+    }
+
+    /** Returns buf to the pool; oversized buffers and buffers beyond the pool limit are dropped. */
+    public void release(ByteBuffer buf) {
+        if (buf != null && buf.capacity() == m_bufSize) {
+            m_free.offer(buf);
+        }
+    }
+
+    private ByteBuffer allocate(int size) {
+        return m_direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+}
@@ -0,0 +1,18 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+/**
+ * Hand-off between the EReader thread, which frames messages, and the thread
+ * running EReader.processMsgs. There is exactly one thread on each side.
+ */
+public interface EMessageQueue {
+	/** Called by the reader thread. Returns false if interrupted while waiting for room. */
+	boolean put(EMessage msg);
+
+	/** Called by the processing thread. Returns null when the queue is empty. */
+	EMessage poll();
+
+	int size();
+}
@@ -0,0 +1,148 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps outgoing traffic inside the TWS pacing limits.
+ *
+ * No more than messagesPerSecond messages (TWS allows 50) go out in any one
+ * second. Historical data requests also obey the historical pacing rules: no
+ * more than historicalRequests in any historicalWindow, and no identical
+ * request (same bytes apart from the request id) within identicalRequestWindow.
+ * Install it with EClient.setPacingGovernor, which switches the connection
+ * to the queued EAsyncTransport: held-back messages stay queued in their lane
+ * while other lanes keep flowing, and no request thread waits under the
+ * client's lock. Nothing is dropped for pacing; only messages still held back
+ * when the connection closes fail, with PACING_REJECTED against their id.
+ */
+public class EPacingGovernor {
+	public static final int DEFAULT_MESSAGES_PER_SECOND = 50;
+	public static final int DEFAULT_HISTORICAL_REQUESTS = 60;
+	public static final long DEFAULT_HISTORICAL_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	public static final long DEFAULT_IDENTICAL_REQUEST_MILLIS = TimeUnit.SECONDS.toMillis(15);
+
+	private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final long[] m_sendTimes; // ring of the send times of the last messages
+	private final long[] m_historicalTimes; // ring of the send times of the last historical requests
+	private final long m_historicalWindowNanos;
+	private final long m_identicalNanos;
+	private final Map<String, Long> m_lastIdentical = new HashMap<>();
+
+	private int m_sendHead = 0;
+	private int m_sendCount = 0;
+	private int m_historicalHead = 0;
+	private int m_historicalCount = 0;
+
+	private long m_sent = 0;
+	private long m_historicalSent = 0;
+	private long m_heldBack = 0;
+	private long m_waitNanos = 0;
+
+	public EPacingGovernor() {
+		this(DEFAULT_MESSAGES_PER_SECOND, DEFAULT_HISTORICAL_REQUESTS, DEFAULT_HISTORICAL_WINDOW_MILLIS, DEFAULT_IDENTICAL_REQUEST_MILLIS);
+	}
+
+	public EPacingGovernor(int messagesPerSecond, int historicalRequests, long historicalWindowMillis, long identicalRequestMillis) {
+		if (messagesPerSecond <= 0) {
+			throw new IllegalArgumentException("messagesPerSecond must be positive");
+		}
+		m_sendTimes = new long[messagesPerSecond];
+		m_historicalTimes = new long[historicalRequests];
+		m_historicalWindowNanos = TimeUnit.MILLISECONDS.toNanos(historicalWindowMillis);
+		m_identicalNanos = TimeUnit.MILLISECONDS.toNanos(identicalRequestMillis);
+	}
+
+	/**
+	 * Takes a permit for one message if it may go out at now (System.nanoTime).
+	 * @param historicalKey identity of a historical data request, or null for any other message.
+	 * @param retry true when asking again for a message already held back, so it is counted once.
+	 * @return 0 if the message may be sent, otherwise the nanoseconds to wait before asking again.
+	 */
+	public synchronized long tryAcquire(String historicalKey, long now, boolean retry) {
+		long wait = 0;
+
+		if (m_sendCount == m_sendTimes.length) {
+			wait = m_sendTimes[m_sendHead] + SECOND_NANOS - now;
+		}
+
+		if (historicalKey != null) {
+			if (m_historicalTimes.length > 0 && m_historicalCount == m_historicalTimes.length) {
+				wait = Math.max(wait, m_historicalTimes[m_historicalHead] + m_historicalWindowNanos - now);
+			}
+
+			Long last = m_lastIdentical.get(historicalKey);
+			if (last != null) {
+				wait = Math.max(wait, last + m_identicalNanos - now);
+			}
+		}
+
+		if (wait > 0) {
+			if (!retry) {
+				m_heldBack++;
+			}
+			return wait;
+		}
+
+		m_sendTimes[(m_sendHead + m_sendCount) % m_sendTimes.length] = now;
+		if (m_sendCount < m_sendTimes.length) {
+			m_sendCount++;
+		} else {
+			m_sendHead = (m_sendHead + 1) % m_sendTimes.length;
+		}
+		m_sent++;
+
+		if (historicalKey != null) {
+			recordHistorical(historicalKey, now);
+		}
+		return 0;
+	}
+
+	/** Records time a message spent held back, for {@link #waitNanos()}. */
+	public synchronized void addWaitNanos(long nanos) {
+		m_waitNanos += nanos;
+	}
+
+	private void recordHistorical(String key, long now) {
+		if (m_historicalTimes.length > 0) {
+			m_historicalTimes[(m_historicalHead + m_historicalCount) % m_historicalTimes.length] = now;
+			if (m_historicalCount < m_historicalTimes.length) {
+				m_historicalCount++;
+			} else {
+				m_historicalHead = (m_historicalHead + 1) % m_historicalTimes.length;
+			}
+		}
+
+		m_historicalSent++;
+		m_lastIdentical.put(key, now);
+
+		for (Iterator<Long> it = m_lastIdentical.values().iterator(); it.hasNext(); ) {
+			if (now - it.next() >= m_identicalNanos) {
+				it.remove();
+			}
+		}
+	}
+
+	/** Messages let through. */
+	public synchronized long sent()           { return m_sent; }
+	/** Historical data requests let through. */
+	public synchronized long historicalSent() { return m_historicalSent; }
+	/** Messages that had to wait, or in synchronous mode were refused. */
+	public synchronized long heldBack()       { return m_heldBack; }
+	/** Total time messages waited for a permit. */
+	public synchronized long waitNanos()      { return m_waitNanos; }
+	/** Messages that could go out at now without waiting for the one second window. */
+	public synchronized int availableTokens(long now) {
+		int inWindow = m_sendCount;
+		for (int i = 0; i < m_sendCount && m_sendTimes[(m_sendHead + i) % m_sendTimes.length] + SECOND_NANOS <= now; i++) {
+			inWindow--;
+		}
+		return m_sendTimes.length - inWindow;
+	}
+}
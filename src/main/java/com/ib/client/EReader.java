@@ -5,9 +5,8 @@ package com.ib.client;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Deque;
-import java.util.LinkedList;
 
 
 
@@ -25,8 +24,13 @@ public class EReader extends Thread {
     private static final EWrapper defaultWrapper = new DefaultEWrapper();
     private static final int IN_BUF_SIZE_DEFAULT = 8192;
     private byte[] m_iBuf = new byte[IN_BUF_SIZE_DEFAULT];
-    private int m_iBufLen = 0;
-    private final Deque<EMessage> m_msgQueue = new LinkedList<>();
+    private int m_iBufLen = 0; // end of the bytes read into m_iBuf
+    private int m_iBufPos = 0; // start of the bytes not yet framed
+    private final PreV100FrameScanner m_scanner = new PreV100FrameScanner();
+    private final EMessageQueue m_msgQueue;
+    private final EMessageBufferPool m_bufferPool;
+    private byte[] m_directScratch;
+    private EDecodePipeline m_pipeline;
     
     protected boolean isUseV100Plus() {
 		return m_clientSocket.isUseV100Plus();
@@ -41,11 +45,58 @@ public class EReader extends Thread {
      * @param signal A callback that informs that there are messages in msg queue.
      */
     public EReader(EClientSocket parent, EReaderSignal signal) {
+    	this(parent, signal, null);
+    }
+
+    /**
+     * Construct the EReader.
+     * @param parent An EClientSocket connected to TWS.
+     * @param signal A callback that informs that there are messages in msg queue.
+     * @param bufferPool If not null, V100+ frames are read into buffers from this pool and
+     *                   handed to the decoder as views; buffers return to the pool once processed.
+     */
+    public EReader(EClientSocket parent, EReaderSignal signal, EMessageBufferPool bufferPool) {
+    	this(parent, signal, bufferPool, new ELinkedMessageQueue());
+    }
+
+    /**
+     * Construct the EReader.
+     * @param parent An EClientSocket connected to TWS.
+     * @param signal A callback that informs that there are messages in msg queue.
+     * @param bufferPool Optional pool for V100+ frame buffers, may be null.
+     * @param msgQueue Queue between this thread and the thread calling processMsgs,
+     *                 e.g. an ERingBufferMessageQueue paired with an EWaitStrategySignal.
+     */
+    public EReader(EClientSocket parent, EReaderSignal signal, EMessageBufferPool bufferPool, EMessageQueue msgQueue) {
+    	this(parent, signal, bufferPool, msgQueue, parent.wrapper());
+    }
+
+    /**
+     * Construct the EReader.
+     * @param wrapper Receives what processMsgs decodes in place of the parent's wrapper,
+     *                e.g. an EDispatchingWrapper around it.
+     */
+    public EReader(EClientSocket parent, EReaderSignal signal, EMessageBufferPool bufferPool, EMessageQueue msgQueue, EWrapper wrapper) {
     	m_clientSocket = parent;
         m_signal = signal;
-        m_processMsgsDecoder = new EDecoder(parent.serverVersion(), parent.wrapper(), parent);
+        m_bufferPool = bufferPool;
+        m_msgQueue = msgQueue;
+        m_processMsgsDecoder = new EDecoder(parent.serverVersion(), wrapper, parent);
     }
     
+    /** Offers tick price, size and generic messages to sink before the EWrapper; see ETickSink. */
+    public void setTickSink(ETickSink sink) {
+    	m_processMsgsDecoder.setTickSink(sink);
+    }
+
+    /**
+     * Hand each frame straight from this thread to the pipeline's decoders instead of the msg
+     * queue, which then stays empty; set before start.
+     */
+    public void setDecodePipeline(EDecodePipeline pipeline) {
+    	m_pipeline = pipeline;
+    }
+
     /**
      * Read and put messages to the msg queue until interrupted or TWS closes connection.
      */
@@ -60,13 +111,7 @@ public class EReader extends Thread {
         }
         catch ( Exception ex ) {
         	//if (parent().isConnected()) {
-        		if( ex instanceof EOFException ) {
-            		eWrapper().error(EClientErrors.NO_VALID_ID, EClientErrors.BAD_LENGTH.code(),
-            				EClientErrors.BAD_LENGTH.msg() + " " + ex.getMessage(), null);
-        		}
-        		else {
-        			eWrapper().error( ex);
-        		}
+        		reportReadError(ex);
         		
         		parent().eDisconnect();
         	//}
@@ -75,14 +120,57 @@ public class EReader extends Thread {
         m_signal.issueSignal();
     }
 
+    private void reportReadError(Exception ex) {
+		if( ex instanceof EOFException ) {
+    		eWrapper().error(EClientErrors.NO_VALID_ID, EClientErrors.BAD_LENGTH.code(),
+    				EClientErrors.BAD_LENGTH.msg() + " " + ex.getMessage(), null);
+		}
+		else {
+			eWrapper().error( ex);
+		}
+    }
+
+    /** Ends reading after ex, as run does; for an ESelectorLoop reading in place of this thread. */
+    void readFailed(Exception ex) {
+    	reportReadError(ex);
+    	parent().eDisconnect();
+    	m_signal.issueSignal();
+    }
+
+    /** Ends reading when TWS closes the connection, as run does; for an ESelectorLoop. */
+    void endOfStream() {
+    	parent().connectionError();
+    	parent().eDisconnect();
+    	m_signal.issueSignal();
+    }
+
+    void signal() {
+    	m_signal.issueSignal();
+    }
+
+    EMessageBufferPool bufferPool() {
+    	return m_bufferPool;
+    }
+
 	public boolean putMessageToQueue() throws IOException {
 		EMessage msg = readSingleMessage();
 		
 		if (msg == null)
 			return false;
 		
-		synchronized(m_msgQueue) {
-			m_msgQueue.addFirst(msg);
+		return deliver(msg);
+	}
+
+	/** Hands msg to the pipeline or the msg queue; false if the queue refused it. */
+	boolean deliver(EMessage msg) {
+		if (m_pipeline != null) {
+			m_pipeline.put(msg);
+			return true;
+		}
+		
+		if (!m_msgQueue.put(msg)) {
+			msg.release();
+			return false;
 		}
 		
 		m_signal.issueSignal();
@@ -91,9 +179,7 @@ public class EReader extends Thread {
 	}   
 
 	protected EMessage getMsg() {
-    	synchronized (m_msgQueue) {
-    		return m_msgQueue.isEmpty() ? null : m_msgQueue.removeLast();
-		}
+    	return m_msgQueue.poll();
     }
 	
     static final int MAX_MSG_LENGTH = 0xffffff;
@@ -109,7 +195,18 @@ public class EReader extends Thread {
     public void processMsgs() throws IOException {
     	EMessage msg = getMsg();
     	
-    	while (msg != null && m_processMsgsDecoder.processMsg(msg) > 0) {
+    	while (msg != null) {
+    		int msgLength;
+
+    		try {
+    			msgLength = m_processMsgsDecoder.processMsg(msg);
+    		} finally {
+    			msg.release();
+    		}
+
+    		if (msgLength <= 0)
+    			break;
+
     		msg = getMsg();
     	}
     }
@@ -133,6 +230,10 @@ public class EReader extends Thread {
 						+ msgSize);
 			}
 			
+			if (m_bufferPool != null) {
+				return readPooledMessage(msgSize);
+			}
+
 			byte[] buf = new byte[msgSize];
 			
 			int offset = 0;
@@ -144,54 +245,137 @@ public class EReader extends Thread {
 			return new EMessage(buf, buf.length);
 		}
 		
-		if (m_iBufLen == 0) {
-			m_iBufLen = appendIBuf();
+		if (m_iBufPos == m_iBufLen) {
+			m_iBufPos = m_iBufLen = 0;
+
+			// nothing unread, so dropping back to the default size costs no copy
+			if (m_iBuf.length > IN_BUF_SIZE_DEFAULT) {
+				m_iBuf = new byte[IN_BUF_SIZE_DEFAULT];
+			}
+
+			int n = appendIBuf();
+
+			if (n <= 0)
+				return null;
+
+			m_iBufLen = n;
 		}
-				
+
 		int msgSize;
-		
-		while (true)
-			try {
-				msgSize = 0;
-				if (m_iBufLen > 0) {
-				  try (EDecoder decoder = new EDecoder(m_clientSocket.serverVersion(), defaultWrapper)) {
-				    msgSize = decoder.processMsg(new EMessage(m_iBuf, m_iBufLen));
-				  }
-				}
-				break;
-			} catch (IOException e) {
-				if (m_iBufLen >= m_iBuf.length * 3/4) {
-					byte[] tmp = new byte[m_iBuf.length * 2];
-					
-					System.arraycopy(m_iBuf, 0, tmp, 0, m_iBuf.length);
-					
-					m_iBuf = tmp;
-				}
-				
-				m_iBufLen += appendIBuf();
-			}
-		
+
+		while ((msgSize = frameLength()) < 0) {
+			makeRoomInIBuf();
+
+			int n = appendIBuf();
+
+			if (n < 0)
+				return null;
+
+			m_iBufLen += n;
+		}
+
 		if (msgSize == 0)
 			return null;
-		
-		
-		EMessage msg = new EMessage(m_iBuf, msgSize);
-		
-		System.arraycopy(Arrays.copyOfRange(m_iBuf, msgSize, m_iBuf.length), 0, m_iBuf, 0, m_iBuf.length - msgSize);
-		
-		m_iBufLen -= msgSize;
-		
-		if (m_iBufLen < IN_BUF_SIZE_DEFAULT && m_iBuf.length > IN_BUF_SIZE_DEFAULT) {
-			byte[] tmp = new byte[IN_BUF_SIZE_DEFAULT];
-			
-			System.arraycopy(m_iBuf, 0, tmp, 0, tmp.length);
-			
-			m_iBuf = tmp;
-		}			
-		
+
+		EMessage msg = copyOut(m_iBufPos, msgSize);
+
+		m_iBufPos += msgSize;
+
 		return msg;
 	}
 
+	/** Length of the next legacy message, 0 for end of connection, or -1 if more bytes are needed. */
+	private int frameLength() throws IOException {
+		int serverVersion = m_clientSocket.serverVersion();
+		int len = m_scanner.scan(m_iBuf, m_iBufPos, m_iBufLen, serverVersion);
+
+		if (len != PreV100FrameScanner.UNKNOWN) {
+			return len == PreV100FrameScanner.INCOMPLETE ? -1 : len;
+		}
+
+		// layout not known to the scanner: measure it with a throwaway decode of a view over the unread bytes
+		try (EDecoder decoder = new EDecoder(serverVersion, defaultWrapper)) {
+			return decoder.processMsg(new EMessage(ByteBuffer.wrap(m_iBuf), m_iBufPos, m_iBufLen - m_iBufPos, null));
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/** Moves the unread bytes to the front, or into a buffer twice the size if they fill most of it. */
+	private void makeRoomInIBuf() {
+		if (m_iBufLen < m_iBuf.length) {
+			return;
+		}
+
+		int unread = m_iBufLen - m_iBufPos;
+		byte[] dest = unread >= m_iBuf.length * 3/4 ? new byte[m_iBuf.length * 2] : m_iBuf;
+
+		System.arraycopy(m_iBuf, m_iBufPos, dest, 0, unread);
+
+		m_iBuf = dest;
+		m_iBufPos = 0;
+		m_iBufLen = unread;
+	}
+
+	private EMessage copyOut(int offset, int len) {
+		if (m_bufferPool == null) {
+			return new EMessage(ByteBuffer.wrap(Arrays.copyOfRange(m_iBuf, offset, offset + len)), 0, len, null);
+		}
+
+		ByteBuffer buf = m_bufferPool.acquire(len);
+		buf.put(0, m_iBuf, offset, len);
+		return new EMessage(buf, 0, len, m_bufferPool);
+	}
+
+	private EMessage readPooledMessage(int msgSize) throws IOException {
+		ByteBuffer buf = m_bufferPool.acquire(msgSize);
+
+		try {
+			if (buf.hasArray()) {
+				byte[] array = buf.array();
+				int base = buf.arrayOffset();
+
+				for (int offset = 0; offset < msgSize; ) {
+					offset += readOrEof(array, base + offset, msgSize - offset);
+				}
+			} else {
+				ESocketChannel channel = m_clientSocket.channel();
+
+				if (channel != null) {
+					// a channel connection copies straight from its own direct buffer
+					channel.readFully(buf, 0, msgSize);
+				} else {
+					// socket streams only fill byte arrays, so direct buffers are filled through a scratch array
+					if (m_directScratch == null) {
+						m_directScratch = new byte[IN_BUF_SIZE_DEFAULT];
+					}
+
+					for (int offset = 0; offset < msgSize; ) {
+						int n = readOrEof(m_directScratch, 0, Math.min(m_directScratch.length, msgSize - offset));
+
+						buf.put(offset, m_directScratch, 0, n);
+						offset += n;
+					}
+				}
+			}
+		} catch (IOException e) {
+			m_bufferPool.release(buf);
+			throw e;
+		}
+
+		return new EMessage(buf, 0, msgSize, m_bufferPool);
+	}
+
+	private int readOrEof(byte[] buf, int off, int len) throws IOException {
+		int n = m_clientSocket.read(buf, off, len);
+
+		if (n < 0) {
+			throw new EOFException();
+		}
+
+		return n;
+	}
+
 	protected int appendIBuf() throws IOException {
 		return m_clientSocket.read(m_iBuf, m_iBufLen, m_iBuf.length - m_iBufLen);
 	}   
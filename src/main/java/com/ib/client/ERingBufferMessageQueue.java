@@ -0,0 +1,99 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer/single-consumer ring buffer. Neither side takes a
+ * lock or allocates; each side publishes its sequence with an ordered write
+ * and only re-reads the other side's sequence when its cached copy says the
+ * ring is full (producer) or empty (consumer).
+ *
+ * When the ring is full the reader thread backs off until the processing
+ * thread has made room, which pushes back on the socket instead of growing
+ * the heap.
+ */
+public class ERingBufferMessageQueue implements EMessageQueue {
+	public static final int DEFAULT_CAPACITY = 4096;
+	private static final long FULL_BACKOFF_NANOS = 50_000;
+
+	private final EMessage[] m_slots;
+	private final int m_mask;
+	private final AtomicLong m_head = new AtomicLong(); // next sequence to poll, written by consumer
+	private final AtomicLong m_tail = new AtomicLong(); // next sequence to put, written by producer
+	private long m_headCache; // producer's last view of m_head
+	private long m_tailCache; // consumer's last view of m_tail
+
+	public ERingBufferMessageQueue() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/** @param capacity rounded up to the next power of two. */
+	public ERingBufferMessageQueue(int capacity) {
+		if (capacity < 2 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("capacity out of range: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		m_slots = new EMessage[size];
+		m_mask = size - 1;
+	}
+
+	public int capacity() {
+		return m_slots.length;
+	}
+
+	/** Non-blocking put; returns false if the ring is full. */
+	public boolean offer(EMessage msg) {
+		long tail = m_tail.get();
+
+		if (tail - m_headCache >= m_slots.length) {
+			m_headCache = m_head.get();
+
+			if (tail - m_headCache >= m_slots.length) {
+				return false;
+			}
+		}
+
+		m_slots[(int)tail & m_mask] = msg;
+		m_tail.lazySet(tail + 1);
+		return true;
+	}
+
+	@Override
+	public boolean put(EMessage msg) {
+		while (!offer(msg)) {
+			if (Thread.currentThread().isInterrupted()) {
+				return false;
+			}
+			LockSupport.parkNanos(FULL_BACKOFF_NANOS);
+		}
+		return true;
+	}
+
+	@Override
+	public EMessage poll() {
+		long head = m_head.get();
+
+		if (head >= m_tailCache) {
+			m_tailCache = m_tail.get();
+
+			if (head >= m_tailCache) {
+				return null;
+			}
+		}
+
+		int index = (int)head & m_mask;
+		EMessage msg = m_slots[index];
+		m_slots[index] = null;
+		m_head.lazySet(head + 1);
+		return msg;
+	}
+
+	@Override
+	public int size() {
+		return (int)(m_tail.get() - m_head.get());
+	}
+}
@@ -0,0 +1,160 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Reads several connections on one thread, in place of a reader thread for each.
+ *
+ * Each registered EReader's connection must have been made with ESocketChannel.Options
+ * and use V100+ framing. The loop reads whatever each connection has, cuts it into frames
+ * and hands them to the EReader's queue, or its decode pipeline, as the reader thread
+ * would; processMsgs is called as usual. When a connection ends, the client is
+ * disconnected and the reader signalled, again as the reader thread would.
+ */
+public class ESelectorLoop implements Closeable {
+	private final Selector m_selector;
+	private final Thread m_thread;
+	private final ConcurrentLinkedQueue<EReader> m_pending = new ConcurrentLinkedQueue<>();
+	private final List<SelectionKey> m_keys = new ArrayList<>(); // loop thread only
+	private volatile boolean m_closed;
+
+	public ESelectorLoop() throws IOException {
+		m_selector = Selector.open();
+		m_thread = new Thread(this::run, "ESelectorLoop");
+		m_thread.setDaemon(true);
+		m_thread.start();
+	}
+
+	/**
+	 * Starts reading reader's connection on this loop; call once connected, instead of
+	 * reader.start(). Frames already read by the handshake are handed over first.
+	 */
+	public void register(EReader reader) {
+		EClientSocket client = (EClientSocket)reader.parent();
+		ESocketChannel channel = client.channel();
+
+		if (channel == null || !client.isUseV100Plus()) {
+			throw new IllegalArgumentException("the client must be connected with ESocketChannel.Options and V100+ framing");
+		}
+		if (m_closed) {
+			throw new IllegalStateException("selector loop closed");
+		}
+		m_pending.add(reader);
+		m_selector.wakeup();
+	}
+
+	void wakeup() {
+		m_selector.wakeup();
+	}
+
+	/** Stops the loop; connections still registered are left open but no longer read. */
+	@Override
+	public void close() throws IOException {
+		m_closed = true;
+		m_selector.wakeup();
+		try {
+			m_thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void run() {
+		try {
+			while (!m_closed) {
+				m_selector.select();
+				registerPending();
+
+				Iterator<SelectionKey> it = m_selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (key.isValid() && key.isReadable()) {
+						read(key);
+					}
+				}
+				dropClosed();
+			}
+		} catch (IOException e) {
+			// the selector itself failed; nothing more can be read
+		} finally {
+			try {
+				m_selector.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	private void registerPending() {
+		EReader reader;
+		while ((reader = m_pending.poll()) != null) {
+			ESocketChannel channel = ((EClientSocket)reader.parent()).channel();
+			try {
+				if (channel == null) {
+					throw new IOException("connection closed");
+				}
+				channel.channel().configureBlocking(false);
+				channel.loop(this);
+				SelectionKey key = channel.channel().register(m_selector, SelectionKey.OP_READ, reader);
+				m_keys.add(key);
+				if (!deliver(reader, channel)) {
+					key.cancel();
+				}
+			} catch (IOException e) {
+				reader.readFailed(e);
+			}
+		}
+	}
+
+	private void read(SelectionKey key) {
+		EReader reader = (EReader)key.attachment();
+		ESocketChannel channel = ((EClientSocket)reader.parent()).channel();
+
+		try {
+			if (channel == null || channel.fill() < 0) {
+				key.cancel();
+				reader.endOfStream();
+				return;
+			}
+			if (!deliver(reader, channel)) {
+				key.cancel();
+			}
+		} catch (IOException e) {
+			key.cancel();
+			reader.readFailed(e);
+		}
+	}
+
+	/** Hands over every complete frame; false if the reader's queue refused one. */
+	private static boolean deliver(EReader reader, ESocketChannel channel) throws IOException {
+		EMessage msg;
+		while ((msg = channel.pollFrame(reader.bufferPool())) != null) {
+			if (!reader.deliver(msg)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Forgets connections closed by eDisconnect, signalling their readers so processMsgs loops can end. */
+	private void dropClosed() {
+		for (Iterator<SelectionKey> it = m_keys.iterator(); it.hasNext(); ) {
+			SelectionKey key = it.next();
+			if (!key.isValid() || !key.channel().isOpen()) {
+				it.remove();
+				key.cancel();
+				((EReader)key.attachment()).signal();
+			}
+		}
+	}
+}
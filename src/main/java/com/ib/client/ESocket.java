@@ -6,10 +6,12 @@ package com.ib.client;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.List;
 
 public class ESocket implements ETransport {
 
     protected DataOutputStream m_dos;   // the socket output stream
+    private byte[] m_gatherBuf = new byte[8192];
 
     @Override
     public void send(EMessage msg) throws IOException {
@@ -18,6 +20,32 @@ public class ESocket implements ETransport {
         m_dos.write(buf, 0, buf.length);
     }
 
+    /** Copies the batch into one buffer so it leaves in a single socket write. */
+    @Override
+    public void send(List<EMessage> msgs) throws IOException {
+        if (msgs.size() == 1) {
+            send(msgs.get(0));
+            return;
+        }
+
+        int total = 0;
+        for (EMessage msg : msgs) {
+            total += msg.length();
+        }
+
+        if (m_gatherBuf.length < total) {
+            m_gatherBuf = new byte[Math.max(total, m_gatherBuf.length * 2)];
+        }
+
+        int pos = 0;
+        for (EMessage msg : msgs) {
+            msg.buffer().get(msg.offset(), m_gatherBuf, pos, msg.length());
+            pos += msg.length();
+        }
+
+        m_dos.write(m_gatherBuf, 0, total);
+    }
+
     ESocket(Socket s) throws IOException {
         m_dos = new DataOutputStream(s.getOutputStream());
     }
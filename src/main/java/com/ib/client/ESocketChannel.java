@@ -0,0 +1,262 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/**
+ * ETransport over a SocketChannel, and the reading side of the same connection.
+ *
+ * Incoming bytes are read into one direct buffer, so a single read from the kernel
+ * usually brings in many frames, and frames go from there into direct pooled buffers
+ * without passing through a byte array. Batches of outgoing messages leave in one
+ * gather write over the messages' own buffers.
+ *
+ * The channel is blocking until an ESelectorLoop takes over reading it; after that,
+ * writes that find the socket buffer full wait on a selector of their own until the
+ * socket can take more, as a blocking write would, instead of polling it.
+ */
+public class ESocketChannel implements ETransport {
+	private static final long WRITE_WAIT_MILLIS = 1000;
+
+	/** Socket and buffer settings for EClientSocket.eConnect. */
+	public static class Options {
+		private boolean m_tcpNoDelay = true;
+		private int m_receiveBufferSize; // 0 leaves the OS default
+		private int m_sendBufferSize;
+		private int m_readBufferSize = 64 * 1024;
+
+		public boolean tcpNoDelay()      { return m_tcpNoDelay; }
+		public int receiveBufferSize()   { return m_receiveBufferSize; }
+		public int sendBufferSize()      { return m_sendBufferSize; }
+		public int readBufferSize()      { return m_readBufferSize; }
+
+		/** Sends small requests at once instead of waiting to coalesce them; on by default. */
+		public Options tcpNoDelay(boolean v)      { m_tcpNoDelay = v; return this; }
+		/** SO_RCVBUF; 0, the default, leaves the OS setting. */
+		public Options receiveBufferSize(int v)   { m_receiveBufferSize = v; return this; }
+		/** SO_SNDBUF; 0, the default, leaves the OS setting. */
+		public Options sendBufferSize(int v)      { m_sendBufferSize = v; return this; }
+		/** Initial size of the direct buffer frames are read into; it grows for larger frames. */
+		public Options readBufferSize(int v)      { m_readBufferSize = v; return this; }
+	}
+
+	private final SocketChannel m_channel;
+	private ByteBuffer m_in; // unread bytes between position and limit
+	private volatile ESelectorLoop m_loop;
+	private volatile Selector m_writeSelector; // created by the first write that finds the socket full
+
+	ESocketChannel(SocketChannel channel, Options options) throws IOException {
+		if (options.readBufferSize() <= 0) {
+			throw new IllegalArgumentException("readBufferSize must be positive");
+		}
+		m_channel = channel;
+		m_channel.setOption(StandardSocketOptions.TCP_NODELAY, options.tcpNoDelay());
+		if (options.receiveBufferSize() > 0) {
+			m_channel.setOption(StandardSocketOptions.SO_RCVBUF, options.receiveBufferSize());
+		}
+		if (options.sendBufferSize() > 0) {
+			m_channel.setOption(StandardSocketOptions.SO_SNDBUF, options.sendBufferSize());
+		}
+		m_in = ByteBuffer.allocateDirect(options.readBufferSize()).limit(0);
+	}
+
+	static ESocketChannel open(String host, int port, Options options) throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		try {
+			// SO_RCVBUF must be set before connecting to affect the TCP window
+			ESocketChannel transport = new ESocketChannel(channel, options);
+			channel.connect(new InetSocketAddress(host, port));
+			return transport;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	SocketChannel channel() {
+		return m_channel;
+	}
+
+	/** The channel's socket, for its addresses and state; not for IO. */
+	Socket socket() {
+		return m_channel.socket();
+	}
+
+	@Override
+	public void send(EMessage msg) throws IOException {
+		ByteBuffer view = view(msg);
+
+		while (view.hasRemaining()) {
+			if (m_channel.write(view) == 0) {
+				awaitWritable();
+			}
+		}
+	}
+
+	/** Writes the batch with gather writes over the messages' buffers, without copying them together. */
+	@Override
+	public void send(List<EMessage> msgs) throws IOException {
+		if (msgs.size() == 1) {
+			send(msgs.get(0));
+			return;
+		}
+
+		ByteBuffer[] views = new ByteBuffer[msgs.size()];
+		for (int i = 0; i < views.length; i++) {
+			views[i] = view(msgs.get(i));
+		}
+
+		for (int first = 0; first < views.length; ) {
+			if (m_channel.write(views, first, views.length - first) == 0) {
+				awaitWritable();
+			}
+			while (first < views.length && !views[first].hasRemaining()) {
+				first++;
+			}
+		}
+	}
+
+	/** Waits until the socket can take more bytes; only non-blocking channels ever write nothing. */
+	private void awaitWritable() throws IOException {
+		Selector selector = m_writeSelector;
+		if (selector == null) {
+			selector = Selector.open();
+			m_channel.register(selector, SelectionKey.OP_WRITE);
+			m_writeSelector = selector;
+		}
+		try {
+			selector.select(WRITE_WAIT_MILLIS);
+			selector.selectedKeys().clear();
+		} catch (ClosedSelectorException e) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	private static ByteBuffer view(EMessage msg) {
+		return msg.buffer().duplicate().limit(msg.offset() + msg.length()).position(msg.offset());
+	}
+
+	/** Reads a big-endian int, as DataInputStream.readInt does; blocking mode only. */
+	int readInt() throws IOException {
+		require(4);
+		return m_in.getInt();
+	}
+
+	/** Reads up to len bytes, as InputStream.read does; blocking mode only. */
+	int read(byte[] buf, int off, int len) throws IOException {
+		if (!m_in.hasRemaining() && fill() < 0) {
+			return -1;
+		}
+
+		int n = Math.min(len, m_in.remaining());
+		m_in.get(buf, off, n);
+		return n;
+	}
+
+	/** Reads exactly len bytes into dst at offset, buffer to buffer; blocking mode only. */
+	void readFully(ByteBuffer dst, int offset, int len) throws IOException {
+		while (len > 0) {
+			if (!m_in.hasRemaining() && fill() < 0) {
+				throw new EOFException();
+			}
+
+			int n = Math.min(len, m_in.remaining());
+			dst.put(offset, m_in, m_in.position(), n);
+			m_in.position(m_in.position() + n);
+			offset += n;
+			len -= n;
+		}
+	}
+
+	/** The next V100+ frame if all of it has been read, else null; for the selector loop. */
+	EMessage pollFrame(EMessageBufferPool pool) throws IOException {
+		if (m_in.remaining() < 4) {
+			return null;
+		}
+
+		int msgSize = m_in.getInt(m_in.position());
+
+		if (msgSize < 0 || msgSize > EReader.MAX_MSG_LENGTH) {
+			throw new IOException("message is too long: " + msgSize);
+		}
+		if (m_in.remaining() < 4 + msgSize) {
+			if (m_in.capacity() < 4 + msgSize) {
+				grow(4 + msgSize);
+			}
+			return null;
+		}
+
+		int start = m_in.position() + 4;
+		m_in.position(start + msgSize);
+
+		if (pool == null) {
+			byte[] body = new byte[msgSize];
+			m_in.get(start, body);
+			return new EMessage(ByteBuffer.wrap(body), 0, msgSize, null);
+		}
+
+		ByteBuffer buf = pool.acquire(msgSize);
+		buf.put(0, m_in, start, msgSize);
+		return new EMessage(buf, 0, msgSize, pool);
+	}
+
+	/** Reads what the channel has into the buffer, behind the unread bytes; -1 at end of stream. */
+	int fill() throws IOException {
+		m_in.compact();
+		try {
+			return m_channel.read(m_in);
+		} finally {
+			m_in.flip();
+		}
+	}
+
+	private void require(int n) throws IOException {
+		if (m_in.capacity() < n) {
+			grow(n);
+		}
+		while (m_in.remaining() < n) {
+			if (fill() < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	private void grow(int n) {
+		ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(n, m_in.capacity() * 2));
+		bigger.put(m_in).flip();
+		m_in = bigger;
+	}
+
+	void loop(ESelectorLoop loop) {
+		m_loop = loop;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			m_channel.close();
+		} finally {
+			ESelectorLoop loop = m_loop;
+			if (loop != null) {
+				loop.wakeup();
+			}
+			Selector selector = m_writeSelector;
+			if (selector != null) {
+				selector.close(); // wakes a write waiting on it
+			}
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+/**
+ * Low level receiver for top of book ticks, called by EDecoder before the EWrapper.
+ *
+ * Arguments are primitives taken straight from the message, so nothing is allocated
+ * for a tick the sink consumes. A method returning false passes the tick on to the
+ * EWrapper callback as usual, so a sink can take just the requests it owns.
+ * Calls arrive on the thread running EReader.processMsgs, or, with an EDecodePipeline,
+ * on its decoder threads.
+ */
+public interface ETickSink {
+	/** attrMask bits, in TWS order; only those the server version supports are ever set. */
+	int ATTR_CAN_AUTO_EXECUTE = 1;
+	int ATTR_PAST_LIMIT = 1 << 1;
+	int ATTR_PRE_OPEN = 1 << 2;
+
+	/** sizeUnscaled of a size that is not set, or too large for this form (2^58 or more units of its last digit). */
+	long UNSET_SIZE = Long.MAX_VALUE;
+
+	/** @return true if consumed, false to pass the tick on to EWrapper.tickPrice */
+	boolean tickPrice(int reqId, int tickType, double price, int attrMask);
+
+	/**
+	 * The size is sizeUnscaled / 10^scale, scale 0..16; trailing zeros are not stripped.
+	 * @return true if consumed, false to pass the tick on to EWrapper.tickSize
+	 */
+	boolean tickSize(int reqId, int tickType, long sizeUnscaled, int scale);
+
+	/** @return true if consumed, false to pass the tick on to EWrapper.tickGeneric */
+	boolean tickGeneric(int reqId, int tickType, double value);
+}
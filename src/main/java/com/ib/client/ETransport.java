@@ -5,7 +5,15 @@ package com.ib.client;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.List;
 
 public interface ETransport extends Closeable {
 	void send(EMessage msg) throws IOException;
+
+	/** Sends msgs in order; transports that can should do it as one gather write. */
+	default void send(List<EMessage> msgs) throws IOException {
+		for (EMessage msg : msgs) {
+			send(msg);
+		}
+	}
 }
@@ -0,0 +1,115 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free EReaderSignal for a single waiting thread. issueSignal is a
+ * volatile write, plus an unpark only while the processing thread is actually
+ * parked, so the reader can signal after every frame without taking a monitor.
+ * How the processing thread waits is chosen with {@link WaitStrategy}.
+ */
+public class EWaitStrategySignal implements EReaderSignal {
+	public enum WaitStrategy {
+		/** Park until signalled; lowest CPU use, highest wake-up latency. */
+		BLOCKING,
+		/** Spin briefly, then Thread.yield() in a loop. */
+		YIELDING,
+		/** Spin on the flag; burns a core, lowest latency. */
+		BUSY_SPIN,
+		/** Spin, then yield, then park with a growing timeout up to a cap. */
+		PARK_BACKOFF
+	}
+
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 100;
+	private static final long MIN_PARK_NANOS = 1_000;
+	private static final long MAX_PARK_NANOS = 1_000_000;
+
+	private final WaitStrategy m_strategy;
+	private volatile boolean m_open = false;
+	private volatile Thread m_waiter;
+
+	public EWaitStrategySignal(WaitStrategy strategy) {
+		m_strategy = strategy;
+	}
+
+	public WaitStrategy strategy() {
+		return m_strategy;
+	}
+
+	@Override
+	public void issueSignal() {
+		if (!m_open) {
+			m_open = true;
+		}
+
+		Thread waiter = m_waiter;
+		if (waiter != null) {
+			LockSupport.unpark(waiter);
+		}
+	}
+
+	@Override
+	public void waitForSignal() {
+		Thread current = Thread.currentThread();
+		int tries = 0;
+		long parkNanos = MIN_PARK_NANOS;
+
+		while (!m_open) {
+			if (current.isInterrupted()) {
+				return;
+			}
+
+			switch (m_strategy) {
+				case BUSY_SPIN:
+					Thread.onSpinWait();
+					break;
+
+				case YIELDING:
+					if (tries++ < SPIN_TRIES) {
+						Thread.onSpinWait();
+					} else {
+						Thread.yield();
+					}
+					break;
+
+				case PARK_BACKOFF:
+					if (tries < SPIN_TRIES) {
+						Thread.onSpinWait();
+					} else if (tries < SPIN_TRIES + YIELD_TRIES) {
+						Thread.yield();
+					} else {
+						park(current, parkNanos);
+						parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+					}
+					tries++;
+					break;
+
+				case BLOCKING:
+				default:
+					park(current, 0);
+					break;
+			}
+		}
+
+		m_open = false;
+	}
+
+	/** Publishes the waiter before re-checking the flag so a concurrent issueSignal cannot be missed. */
+	private void park(Thread current, long nanos) {
+		m_waiter = current;
+
+		if (!m_open) {
+			if (nanos > 0) {
+				LockSupport.parkNanos(this, nanos);
+			} else {
+				LockSupport.park(this);
+			}
+		}
+
+		m_waiter = null;
+	}
+}
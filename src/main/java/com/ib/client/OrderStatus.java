@@ -3,6 +3,8 @@
 
 package com.ib.client;
 
+import java.util.HashMap;
+import java.util.Map;
 
 public enum OrderStatus {
 	ApiPending,
@@ -16,8 +18,22 @@ public enum OrderStatus {
 	PendingSubmit,
 	Unknown;
 
+    private static final OrderStatus[] VALUES = values();
+    private static final Map<String, OrderStatus> BY_NAME = new HashMap<>();
+
+    static {
+        for( OrderStatus type : VALUES ) {
+            BY_NAME.put(type.name(), type);
+        }
+    }
+
     public static OrderStatus get(String apiString) {
-        for( OrderStatus type : values() ) {
+        // TWS sends the exact name; other spellings fall back to the case-insensitive scan
+        OrderStatus exact = apiString == null ? null : BY_NAME.get(apiString);
+        if( exact != null ) {
+            return exact;
+        }
+        for( OrderStatus type : VALUES ) {
             if( type.name().equalsIgnoreCase(apiString) ) {
                 return type;
             }
@@ -4,7 +4,9 @@
 package com.ib.client;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public enum OrderType implements IApiEnum {
 	None( Arrays.asList("") ),
@@ -50,6 +52,16 @@ public enum OrderType implements IApiEnum {
 	PEG_MKT_VOL( Arrays.asList("PMV", "PEG MKT VOL","PEGMKTVOL") ),
 	PEG_SRF_VOL( Arrays.asList("PSV", "PEG SURF VOL","PEGSURFVOL") ); 
 
+	private static final Map<String, OrderType> BY_API_STRING = new HashMap<>();
+
+	static {
+		for (OrderType type : values() ) {
+			for (String apiString : type.m_apiStrings) {
+				BY_API_STRING.putIfAbsent(apiString, type);
+			}
+		}
+	}
+
 	private List<String> m_apiStrings;
 
 	OrderType(List<String> apiStrings) {
@@ -58,10 +70,9 @@ public enum OrderType implements IApiEnum {
 
 	public static OrderType get(String apiString) {
 		if (apiString != null && apiString.length() > 0 && !apiString.equals( "None") ) {
-			for (OrderType type : values() ) {
-				if (type.m_apiStrings.contains(apiString)) {
-					return type;
-				}
+			OrderType type = BY_API_STRING.get(apiString);
+			if (type != null) {
+				return type;
 			}
 		}
 		return None;
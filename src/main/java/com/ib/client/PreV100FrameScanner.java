@@ -0,0 +1,275 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+/**
+ * Finds message boundaries in the unframed pre-V100 stream by counting
+ * NUL-terminated fields, without decoding values or calling EWrapper.
+ *
+ * Only messages whose field count follows from the message id, its version
+ * field and the server version are known here; these cover the market data,
+ * order status and account streams that make up bursts. For anything else
+ * scan returns UNKNOWN and the caller measures the message with EDecoder.
+ * The layouts mirror the corresponding EDecoder.processXxxMsg methods.
+ */
+class PreV100FrameScanner {
+    static final int INCOMPLETE = 0;
+    static final int UNKNOWN = -1;
+
+    // incoming msg id's, as in EDecoder
+    private static final int TICK_PRICE = 1;
+    private static final int TICK_SIZE = 2;
+    private static final int ORDER_STATUS = 3;
+    private static final int ERR_MSG = 4;
+    private static final int ACCT_VALUE = 6;
+    private static final int ACCT_UPDATE_TIME = 8;
+    private static final int NEXT_VALID_ID = 9;
+    private static final int MARKET_DEPTH = 12;
+    private static final int MARKET_DEPTH_L2 = 13;
+    private static final int TICK_OPTION_COMPUTATION = 21;
+    private static final int TICK_GENERIC = 45;
+    private static final int TICK_STRING = 46;
+    private static final int TICK_EFP = 47;
+    private static final int CURRENT_TIME = 49;
+    private static final int REAL_TIME_BARS = 50;
+    private static final int CONTRACT_DATA_END = 52;
+    private static final int OPEN_ORDER_END = 53;
+    private static final int ACCT_DOWNLOAD_END = 54;
+    private static final int EXECUTION_DATA_END = 55;
+    private static final int TICK_SNAPSHOT_END = 57;
+    private static final int MARKET_DATA_TYPE = 58;
+    private static final int COMMISSION_REPORT = 59;
+    private static final int POSITION_END = 62;
+    private static final int ACCOUNT_SUMMARY = 63;
+    private static final int ACCOUNT_SUMMARY_END = 64;
+    private static final int TICK_REQ_PARAMS = 81;
+    private static final int HEAD_TIMESTAMP = 88;
+    private static final int PNL = 94;
+    private static final int PNL_SINGLE = 95;
+    private static final int TICK_BY_TICK = 99;
+
+    private byte[] m_buf;
+    private int m_pos; // -1 once a field runs past m_end
+    private int m_end;
+    private boolean m_badInt;
+
+    /**
+     * @return the length of the message starting at buf[start], INCOMPLETE if
+     *         buf[start..end) does not hold all of it yet, or UNKNOWN.
+     */
+    int scan(byte[] buf, int start, int end, int serverVersion) {
+        if (serverVersion == 0 || start >= end) {
+            return serverVersion == 0 ? UNKNOWN : INCOMPLETE;
+        }
+
+        m_buf = buf;
+        m_pos = start;
+        m_end = end;
+        m_badInt = false;
+
+        int msgId = nextInt();
+
+        if (m_pos < 0) {
+            return INCOMPLETE;
+        }
+
+        if (m_badInt || !skipBody(msgId, serverVersion) || m_badInt) {
+            return UNKNOWN;
+        }
+
+        return m_pos < 0 ? INCOMPLETE : m_pos - start;
+    }
+
+    /** Skips the fields after the message id; false if the layout is not known here. */
+    private boolean skipBody(int msgId, int sv) {
+        int version;
+
+        switch (msgId) {
+            case TICK_PRICE:
+                version = nextInt();
+                skip(3 + (version >= 2 ? 1 : 0) + (version >= 3 ? 1 : 0));
+                return true;
+
+            case TICK_SIZE:
+            case TICK_GENERIC:
+            case TICK_STRING:
+                skip(4);
+                return true;
+
+            case ORDER_STATUS:
+                version = sv >= EClient.MIN_SERVER_VER_MARKET_CAP_PRICE ? Integer.MAX_VALUE : nextInt();
+                skip(5);
+                for (int v = 2; v <= 6; v++) {
+                    if (version >= v) {
+                        skip(1);
+                    }
+                }
+                skip(sv >= EClient.MIN_SERVER_VER_MARKET_CAP_PRICE ? 1 : 0);
+                return true;
+
+            case ERR_MSG:
+                version = nextInt();
+                skip(version < 2 ? 1 : 3 + (sv >= EClient.MIN_SERVER_VER_ADVANCED_ORDER_REJECT ? 1 : 0));
+                return true;
+
+            case ACCT_VALUE:
+                version = nextInt();
+                skip(3 + (version >= 2 ? 1 : 0));
+                return true;
+
+            case ACCT_UPDATE_TIME:
+            case NEXT_VALID_ID:
+            case CURRENT_TIME:
+            case CONTRACT_DATA_END:
+            case ACCT_DOWNLOAD_END:
+            case EXECUTION_DATA_END:
+            case TICK_SNAPSHOT_END:
+            case ACCOUNT_SUMMARY_END:
+            case HEAD_TIMESTAMP:
+                skip(2);
+                return true;
+
+            case OPEN_ORDER_END:
+            case POSITION_END:
+                skip(1);
+                return true;
+
+            case MARKET_DEPTH:
+                skip(7);
+                return true;
+
+            case MARKET_DEPTH_L2:
+                skip(8 + (sv >= EClient.MIN_SERVER_VER_SMART_DEPTH ? 1 : 0));
+                return true;
+
+            case TICK_OPTION_COMPUTATION: {
+                boolean priceBasedVol = sv >= EClient.MIN_SERVER_VER_PRICE_BASED_VOLATILITY;
+                version = priceBasedVol ? Integer.MAX_VALUE : nextInt();
+                skip(1); // tickerId
+                int tickType = nextInt();
+                skip((priceBasedVol ? 1 : 0) + 2);
+                if (version >= 6 || tickType == TickType.MODEL_OPTION.index()
+                        || tickType == TickType.DELAYED_MODEL_OPTION.index()) {
+                    skip(2);
+                }
+                skip(version >= 6 ? 4 : 0);
+                return true;
+            }
+
+            case TICK_EFP:
+            case REAL_TIME_BARS:
+                skip(10);
+                return true;
+
+            case MARKET_DATA_TYPE:
+                skip(3);
+                return true;
+
+            case COMMISSION_REPORT:
+                skip(7);
+                return true;
+
+            case ACCOUNT_SUMMARY:
+                skip(6);
+                return true;
+
+            case TICK_REQ_PARAMS:
+                skip(4);
+                return true;
+
+            case PNL:
+                skip(2 + (sv >= EClient.MIN_SERVER_VER_UNREALIZED_PNL ? 1 : 0)
+                       + (sv >= EClient.MIN_SERVER_VER_REALIZED_PNL ? 1 : 0));
+                return true;
+
+            case PNL_SINGLE:
+                skip(4 + (sv >= EClient.MIN_SERVER_VER_UNREALIZED_PNL ? 1 : 0)
+                       + (sv >= EClient.MIN_SERVER_VER_REALIZED_PNL ? 1 : 0));
+                return true;
+
+            case TICK_BY_TICK: {
+                skip(1); // reqId
+                int tickType = nextInt();
+                skip(1); // time
+                switch (tickType) {
+                    case 1: // Last
+                    case 2: // AllLast
+                    case 3: // BidAsk
+                        skip(5);
+                        break;
+                    case 4: // MidPoint
+                        skip(1);
+                        break;
+                    default:
+                        break;
+                }
+                return true;
+            }
+
+            default:
+                return false;
+        }
+    }
+
+    private void skip(int fields) {
+        for (int i = 0; i < fields && m_pos >= 0; i++) {
+            nextFieldEnd();
+        }
+    }
+
+    /** Moves past the current field and returns the index of its NUL, or -1 if incomplete. */
+    private int nextFieldEnd() {
+        if (m_pos < 0) {
+            return -1;
+        }
+
+        byte[] buf = m_buf;
+        int i = m_pos;
+
+        while (i < m_end && buf[i] != 0) {
+            i++;
+        }
+
+        if (i == m_end) {
+            m_pos = -1;
+            return -1;
+        }
+
+        m_pos = i + 1;
+        return i;
+    }
+
+    /** Reads an int field the way EDecoder.readInt does; sets m_badInt for anything it cannot parse. */
+    private int nextInt() {
+        int from = m_pos;
+        int to = nextFieldEnd();
+
+        if (to < 0) {
+            return 0;
+        }
+
+        int i = from;
+        boolean negative = i < to && m_buf[i] == '-';
+
+        if (negative) {
+            i++;
+        }
+
+        if (i == to && negative || to - i > 9) {
+            m_badInt = true;
+            return 0;
+        }
+
+        int v = 0;
+        for (; i < to; i++) {
+            int digit = m_buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                m_badInt = true;
+                return 0;
+            }
+            v = v * 10 + digit;
+        }
+        return negative ? -v : v;
+    }
+}
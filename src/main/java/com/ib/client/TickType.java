@@ -3,6 +3,9 @@
 
 package com.ib.client;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 public enum TickType {
     BID_SIZE( 0, "bidSize" ),
@@ -113,6 +116,33 @@ public enum TickType {
 
     UNKNOWN( Integer.MAX_VALUE , "unknown" );
 
+    private static final TickType[] VALUES = values();
+    private static final TickType[] BY_INDEX = byIndex(); // dense, UNKNOWN for gaps
+    private static final Map<String, TickType> BY_FIELD = new HashMap<>();
+
+    static {
+        for( TickType tt : VALUES ) {
+            BY_FIELD.putIfAbsent(tt.m_field, tt);
+        }
+    }
+
+    private static TickType[] byIndex() {
+        int max = 0;
+        for( TickType tt : VALUES ) {
+            if( tt != UNKNOWN ) {
+                max = Math.max(max, tt.m_ndx);
+            }
+        }
+        TickType[] byIndex = new TickType[max + 1];
+        Arrays.fill(byIndex, UNKNOWN);
+        for( TickType tt : VALUES ) {
+            if( tt != UNKNOWN && byIndex[tt.m_ndx] == UNKNOWN ) {
+                byIndex[tt.m_ndx] = tt;
+            }
+        }
+        return byIndex;
+    }
+
     private int m_ndx;
     private String m_field;
     
@@ -126,12 +156,7 @@ public enum TickType {
     }
     
     public static TickType get(int ndx) {
-        for( TickType tt : values() ) {
-            if( tt.m_ndx == ndx) {
-                return tt;
-            }
-        }
-        return UNKNOWN;
+        return ndx >= 0 && ndx < BY_INDEX.length ? BY_INDEX[ndx] : UNKNOWN;
     }
 
     public static String getField(int tickType) {
@@ -139,7 +164,11 @@ public enum TickType {
     }
     
     public static int getType(String name) {
-        for( TickType tt : values() ) {
+        TickType exact = name == null ? null : BY_FIELD.get(name);
+        if( exact != null ) {
+            return exact.m_ndx;
+        }
+        for( TickType tt : VALUES ) {
             if( tt.m_field.equalsIgnoreCase(name)) {
                 return tt.m_ndx;
             }
@@ -4,6 +4,8 @@
 package com.ib.client;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import static com.ib.client.Types.AlgoParam.allowPastEndTime;
 import static com.ib.client.Types.AlgoParam.catchUp;
@@ -51,6 +53,8 @@ public class Types {
 		PctVol( startTime, endTime, pctVol, noTakeLiq),
 		AD( activeTimeStart, activeTimeEnd, componentSize, timeBetweenOrders, randomizeTime20, randomizeSize55, giveUp, catchUp, waitForFill);
 
+		private static final Map<String, AlgoStrategy> BY_API_STRING = apiStringMap(values());
+
 		private AlgoParam[] m_params;
 
 		public AlgoParam[] params() {
@@ -62,7 +66,7 @@ public class Types {
 		}
 
 		public static AlgoStrategy get(String apiString) {
-			return getValueOf(apiString, values(), None);
+			return getValueOf(apiString, BY_API_STRING, None);
 		}
 
 		@Override public String getApiString() {
@@ -73,8 +77,10 @@ public class Types {
 	public enum HedgeType implements IApiEnum {
 		None, Delta, Beta, Fx, Pair;
 
+		private static final Map<String, HedgeType> BY_API_STRING = apiStringMap(values());
+
 		public static HedgeType get(String apiString) {
-            return getValueOf(apiString, values(), None);
+            return getValueOf(apiString, BY_API_STRING, None);
 		}
 
 		@Override public String getApiString() {
@@ -103,8 +109,10 @@ public class Types {
 	public enum VolatilityType implements IApiEnum {
 		None, Daily, Annual;
 
+		private static final VolatilityType[] VALUES = values();
+
 		public static VolatilityType get( int ordinal) {
-			return ordinal == Integer.MAX_VALUE ? None : getEnum( ordinal, values() );
+			return ordinal == Integer.MAX_VALUE ? None : getEnum( ordinal, VALUES );
 		}
 
 		@Override public String getApiString() {
@@ -115,8 +123,10 @@ public class Types {
 	public enum ReferencePriceType implements IApiEnum {
 		None, Midpoint, BidOrAsk;
 
+		private static final ReferencePriceType[] VALUES = values();
+
 		public static ReferencePriceType get( int ordinal) {
-			return getEnum( ordinal, values() );
+			return getEnum( ordinal, VALUES );
 		}
 
 		@Override public String getApiString() {
@@ -127,6 +137,14 @@ public class Types {
 	public enum TriggerMethod implements IApiEnum {
 		Default( 0), DoubleBidAsk( 1), Last( 2), DoubleLast( 3), BidAsk( 4), LastOrBidAsk( 7), Midpoint( 8);
 
+		private static final TriggerMethod[] BY_VAL = new TriggerMethod[Midpoint.m_val + 1];
+
+		static {
+			for (TriggerMethod m : values() ) {
+				BY_VAL[m.m_val] = m;
+			}
+		}
+
 		int m_val;
 
 		public int val() { return m_val; }
@@ -136,12 +154,7 @@ public class Types {
 		}
 
 		public static TriggerMethod get( int val) {
-			for (TriggerMethod m : values() ) {
-				if (m.m_val == val) {
-					return m;
-				}
-			}
-			return null;
+			return val >= 0 && val < BY_VAL.length ? BY_VAL[val] : null;
 		}
 
 		@Override public String getApiString() {
@@ -152,8 +165,10 @@ public class Types {
 	public enum Action implements IApiEnum {
 		BUY, SELL, SSHORT;
 
+        private static final Map<String, Action> BY_API_STRING = apiStringMap(values());
+
         public static Action get(String apiString) {
-            return getValueOf(apiString, values(), null);
+            return getValueOf(apiString, BY_API_STRING, null);
         }
 
         @Override public String getApiString() {
@@ -164,6 +179,8 @@ public class Types {
 	public enum Rule80A implements IApiEnum {
 		None(""), Individual("I"), Agency("A"), AgentOtherMember("W"), IndividualPTIA("J"), AgencyPTIA("U"), AgentOtherMemberPTIA("M"), IndividualPT("K"), AgencyPT("Y"), AgentOtherMemberPT("N");
 
+		private static final Map<String, Rule80A> BY_API_STRING = apiStringMap(values());
+
 		private String m_apiString;
 
 		Rule80A( String apiString) {
@@ -171,7 +188,7 @@ public class Types {
 		}
 
 		public static Rule80A get( String apiString) {
-            return getValueOf(apiString, values(), None);
+            return getValueOf(apiString, BY_API_STRING, None);
 		}
 
 		@Override
@@ -183,8 +200,10 @@ public class Types {
 	public enum OcaType implements IApiEnum {
 		None, CancelWithBlocking, ReduceWithBlocking, ReduceWithoutBlocking;
 
+		private static final OcaType[] VALUES = values();
+
 		public static OcaType get( int ordinal) {
-			return getEnum( ordinal, values() );
+			return getEnum( ordinal, VALUES );
 		}
 
 		@Override public String getApiString() {
@@ -195,8 +214,10 @@ public class Types {
 	public enum TimeInForce implements IApiEnum {
 		DAY, GTC, OPG, IOC, GTD, GTT, AUC, FOK, GTX, DTC, Minutes;
 
+        private static final Map<String, TimeInForce> BY_API_STRING = apiStringMap(values());
+
         public static TimeInForce get(String apiString) {
-            return getValueOf(apiString, values(), null);
+            return getValueOf(apiString, BY_API_STRING, null);
         }
 
 		@Override public String getApiString() {
@@ -278,24 +299,30 @@ public class Types {
 	public enum DeepType {
 	    INSERT, UPDATE, DELETE;
 
+	    private static final DeepType[] VALUES = values();
+
 	    public static DeepType get( int ordinal) {
-	    	return getEnum( ordinal, values() );
+	    	return getEnum( ordinal, VALUES );
 	    }
 	}
 
 	public enum DeepSide {
 	    SELL, BUY;
 
+	    private static final DeepSide[] VALUES = values();
+
 	    public static DeepSide get( int ordinal) {
-	    	return getEnum( ordinal, values() );
+	    	return getEnum( ordinal, VALUES );
 	    }
 	}
 
 	public enum NewsType {
 		UNKNOWN, BBS, LIVE_EXCH, DEAD_EXCH, HTML, POPUP_TEXT, POPUP_HTML;
 
+		private static final NewsType[] VALUES = values();
+
 		public static NewsType get( int ordinal) {
-			return getEnum( ordinal, values() );
+			return getEnum( ordinal, VALUES );
 		}
 	}
 
@@ -325,8 +352,10 @@ public class Types {
 	public enum SecIdType implements IApiEnum {
 	    None, CUSIP, SEDOL, ISIN, RIC;
 
+	    private static final Map<String, SecIdType> BY_API_STRING = apiStringMap(values());
+
 		public static SecIdType get(String str) {
-            return getValueOf(str, values(), None);
+            return getValueOf(str, BY_API_STRING, None);
 		}
 
 		@Override public String getApiString() {
@@ -337,8 +366,10 @@ public class Types {
 	public enum SecType implements IApiEnum {
 		None, STK, OPT, FUT, CONTFUT, CASH, BOND, CFD, FOP, WAR, IOPT, FWD, BAG, IND, BILL, FUND, FIXED, SLB, NEWS, CMDTY, BSK, ICU, ICS, CRYPTO;
 
+        private static final Map<String, SecType> BY_API_STRING = apiStringMap(values());
+
         public static SecType get(String str) {
-            return getValueOf(str, values(), None);
+            return getValueOf(str, BY_API_STRING, None);
         }
 
 		@Override public String getApiString() {
@@ -349,16 +380,20 @@ public class Types {
 	public enum MktDataType {
 		Unknown, Realtime, Frozen, Delayed, DelayedFrozen;
 
+		private static final MktDataType[] VALUES = values();
+
 		public static MktDataType get( int ordinal) {
-			return getEnum( ordinal, values() );
+			return getEnum( ordinal, VALUES );
 		}
 	}
 
 	public enum Method implements IApiEnum {
 		None, Equal, AvailableEquity, NetLiq, ContractsOrShares, Ratio, Percent, MonetaryAmount;
 
+	    private static final Map<String, Method> BY_API_STRING = apiStringMap(values());
+
 	    public static Method get( String str) {
-            return getValueOf(str, values(), None);
+            return getValueOf(str, BY_API_STRING, None);
 	    }
 
 	    @Override public String getApiString() {
@@ -446,6 +481,21 @@ public class Types {
         }
     }
     
+	/** apiString to enum for getValueOf(String, Map, T); where two share an apiString the first wins, as with the array form. */
+	public static <T extends Enum<?> & IApiEnum> Map<String, T> apiStringMap( T[] values ) {
+		Map<String, T> map = new HashMap<>();
+		for( T value : values ) {
+			map.putIfAbsent( value.getApiString(), value);
+		}
+		return Map.copyOf( map);
+	}
+
+	/** Same as getValueOf(String, T[], T) with a map from apiStringMap, in constant time. */
+	public static <T> T getValueOf( String v, Map<String, T> values, T defaultValue ) {
+		T value = v == null ? null : values.get( v);
+		return value == null ? defaultValue : value;
+	}
+
 	public static <T extends Enum<?> & IApiEnum> T getValueOf( String v, T[] values, T defaultValue ) {
         for( T currentEnum : values ) {
             if( currentEnum.getApiString().equals(v) ) {
@@ -461,6 +511,11 @@ public class Types {
 			return null;
 		}
 
+		// values() is in ordinal order, so this is a plain index unless a different array is passed
+		if (ordinal >= 0 && ordinal < values.length && values[ordinal].ordinal() == ordinal) {
+			return values[ordinal];
+		}
+
 		for (T val : values) {
 			if (val.ordinal() == ordinal) {
 				return val;
@@ -4,14 +4,21 @@
 package com.ib.controller;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.ib.client.*;
 import com.ib.client.Types.BarSize;
@@ -40,48 +47,155 @@ public class ApiController implements EWrapper {
 	private ITimeHandler m_timeHandler;
 	private IBulletinHandler m_bulletinHandler;
 	private IUserInfoHandler m_userInfoHandler;
-	private final Map<Integer,IInternalHandler> m_contractDetailsMap = new HashMap<>();
-	private final Map<Integer,IOptHandler> m_optionCompMap = new HashMap<>();
-	private final Map<Integer,IEfpHandler> m_efpMap = new HashMap<>();
-	private final Map<Integer,ITopMktDataHandler> m_topMktDataMap = new HashMap<>();
-	private final Map<Integer,IDeepMktDataHandler> m_deepMktDataMap = new HashMap<>();
-	private final Map<Integer, IScannerHandler> m_scannerMap = new HashMap<>();
-	private final Map<Integer, IRealTimeBarHandler> m_realTimeBarMap = new HashMap<>();
-	private final Map<Integer, IHistoricalDataHandler> m_historicalDataMap = new HashMap<>();
-	private final Map<Integer, IHeadTimestampHandler> m_headTimestampMap = new HashMap<>();
-	private final Map<Integer, IHistogramDataHandler> m_histogramDataMap = new HashMap<>();
-	private final Map<Integer, IFundamentalsHandler> m_fundMap = new HashMap<>();
-	private final Map<Integer, IOrderHandler> m_orderHandlers = new HashMap<>();
-    private final Map<Integer, IOrderCancelHandler> m_orderCancelHandlers = new HashMap<>();
-	private final Map<Integer,IAccountSummaryHandler> m_acctSummaryHandlers = new HashMap<>();
-	private final Map<Integer,IMarketValueSummaryHandler> m_mktValSummaryHandlers = new HashMap<>();
+	private final ConcurrentIntHashMap<IInternalHandler> m_contractDetailsMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<IOptHandler> m_optionCompMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<IEfpHandler> m_efpMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<ITopMktDataHandler> m_topMktDataMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<Integer> m_lastValueSlots = new ConcurrentIntHashMap<>(); // reqId -> m_lastValues slot
+	private final ConcurrentIntHashMap<IDeepMktDataHandler> m_deepMktDataMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<IScannerHandler> m_scannerMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<IRealTimeBarHandler> m_realTimeBarMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<IHistoricalDataHandler> m_historicalDataMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<IHeadTimestampHandler> m_headTimestampMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<IHistogramDataHandler> m_histogramDataMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<IFundamentalsHandler> m_fundMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<IOrderHandler> m_orderHandlers = new ConcurrentIntHashMap<>();
+    private final ConcurrentIntHashMap<IOrderCancelHandler> m_orderCancelHandlers = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<IAccountSummaryHandler> m_acctSummaryHandlers = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<IMarketValueSummaryHandler> m_mktValSummaryHandlers = new ConcurrentIntHashMap<>();
 	private final Set<IPositionHandler> m_positionHandlers = new ConcurrentHashSet<>();
 	private final Set<IAccountHandler> m_accountHandlers = new ConcurrentHashSet<>();
 	private final Set<ILiveOrderHandler> m_liveOrderHandlers = new ConcurrentHashSet<>();
-	private final Map<Integer, IPositionMultiHandler> m_positionMultiMap = new HashMap<>();
-	private final Map<Integer, IAccountUpdateMultiHandler> m_accountUpdateMultiMap = new HashMap<>();
-	private final Map<Integer, ISecDefOptParamsReqHandler> m_secDefOptParamsReqMap = new HashMap<>();
-	private final Map<Integer, ISoftDollarTiersReqHandler> m_softDollarTiersReqMap = new HashMap<>();
+	private final ConcurrentIntHashMap<IPositionMultiHandler> m_positionMultiMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<IAccountUpdateMultiHandler> m_accountUpdateMultiMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<ISecDefOptParamsReqHandler> m_secDefOptParamsReqMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<ISoftDollarTiersReqHandler> m_softDollarTiersReqMap = new ConcurrentIntHashMap<>();
 	private final Set<IFamilyCodesHandler> m_familyCodesHandlers = new ConcurrentHashSet<>();
-	private final Map<Integer, ISymbolSamplesHandler> m_symbolSamplesHandlerMap = new HashMap<>();
+	private final ConcurrentIntHashMap<ISymbolSamplesHandler> m_symbolSamplesHandlerMap = new ConcurrentIntHashMap<>();
 	private final Set<IMktDepthExchangesHandler> m_mktDepthExchangesHandlers = new ConcurrentHashSet<>();
-	private final Map<Integer, ITickNewsHandler> m_tickNewsHandlerMap = new HashMap<>();
-	private final Map<Integer, ISmartComponentsHandler> m_smartComponentsHandler = new HashMap<>();
+	private final ConcurrentIntHashMap<ITickNewsHandler> m_tickNewsHandlerMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<ISmartComponentsHandler> m_smartComponentsHandler = new ConcurrentIntHashMap<>();
 	private final Set<INewsProvidersHandler> m_newsProvidersHandlers = new ConcurrentHashSet<>();
-	private final Map<Integer, INewsArticleHandler> m_newsArticleHandlerMap = new HashMap<>();
-	private final Map<Integer, IHistoricalNewsHandler> m_historicalNewsHandlerMap = new HashMap<>();
+	private final ConcurrentIntHashMap<INewsArticleHandler> m_newsArticleHandlerMap = new ConcurrentIntHashMap<>();
+	private final ConcurrentIntHashMap<IHistoricalNewsHandler> m_historicalNewsHandlerMap = new ConcurrentIntHashMap<>();
 	private final Set<IMarketRuleHandler> m_marketRuleHandlers = new ConcurrentHashSet<>();
-    private final Map<Integer, IPnLHandler> m_pnlMap = new HashMap<>();
-    private final Map<Integer, IPnLSingleHandler> m_pnlSingleMap = new HashMap<>();
-    private final Map<Integer, IHistoricalTickHandler> m_historicalTicksMap = new HashMap<>();
-    private final Map<Integer, ITickByTickDataHandler> m_tickByTickDataMap = new HashMap<>();
-    private final Map<Integer, IWshMetaDataHandler> m_wshMetaDataMap = new HashMap<>();
-    private final Map<Integer, IWshEventDataHandler> m_wshEventDataMap = new HashMap<>();
-    private final Map<Integer, IHistoricalScheduleHandler> m_historicalScheduleMap = new HashMap<>();
+    private final ConcurrentIntHashMap<IPnLHandler> m_pnlMap = new ConcurrentIntHashMap<>();
+    private final ConcurrentIntHashMap<IPnLSingleHandler> m_pnlSingleMap = new ConcurrentIntHashMap<>();
+    private final ConcurrentIntHashMap<IHistoricalTickHandler> m_historicalTicksMap = new ConcurrentIntHashMap<>();
+    private final ConcurrentIntHashMap<ITickByTickDataHandler> m_tickByTickDataMap = new ConcurrentIntHashMap<>();
+    private final ConcurrentIntHashMap<IWshMetaDataHandler> m_wshMetaDataMap = new ConcurrentIntHashMap<>();
+    private final ConcurrentIntHashMap<IWshEventDataHandler> m_wshEventDataMap = new ConcurrentIntHashMap<>();
+    private final ConcurrentIntHashMap<IHistoricalScheduleHandler> m_historicalScheduleMap = new ConcurrentIntHashMap<>();
 	private boolean m_connected = false;
+	private EMessageBufferPool m_bufferPool;
+	private int m_ringCapacity;
+	private EWaitStrategySignal.WaitStrategy m_waitStrategy;
+	private ETickSink m_tickSink;
+	private int m_dispatchLanes;
+	private int m_decodeThreads;
+	private ESocketChannel.Options m_channelOptions;
+	private ESelectorLoop m_selectorLoop;
+	private volatile int m_firstReqId = Integer.MAX_VALUE; // ids below are order ids
+	/** One daemon thread, shared by all controllers, for delayed clean up such as order handler eviction. */
+	static final ScheduledExecutorService HOUSEKEEPING = Executors.newSingleThreadScheduledExecutor( r -> {
+		Thread thread = new Thread( r, "ApiController housekeeping");
+		thread.setDaemon( true);
+		return thread;
+	});
+
+	private final ArrayDeque<OrderEviction> m_orderEvictions = new ArrayDeque<>(); // due in order; guarded by itself
+	private volatile long m_orderEvictionDelayNanos = TimeUnit.SECONDS.toNanos(5);
+	private final AtomicLong m_evictedOrderHandlers = new AtomicLong();
+	private final TopMktDataMultiplexer m_topMktDataMux = new TopMktDataMultiplexer( this);
+	private final LastValueCache m_lastValues = new LastValueCache();
+	private final ContractDetailsCache m_contractDetailsCache = new ContractDetailsCache( this);
+	private final AsyncApiController m_async = new AsyncApiController( this);
+	private final MarketDataStreams m_streams = new MarketDataStreams( this);
 
 	public ApiConnection client() { return m_client; }
 
+	/** How long order handlers stay registered once their order is Filled, Cancelled or ApiCancelled, so that
+	 *  trailing status messages still reach them; negative keeps them until removeOrderHandler. Default 5 seconds. */
+	public void orderHandlerEvictionDelay(long millis) {
+		m_orderEvictionDelayNanos = millis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/** Order and cancel handlers dropped so far because their order finished. */
+	public long evictedOrderHandlers() { return m_evictedOrderHandlers.get(); }
+
+	/** Live entries in each per-request handler map, keyed by map name. */
+	public Map<String, Integer> handlerCounts() {
+		Map<String, Integer> counts = new LinkedHashMap<>();
+		counts.put( "contractDetailsMap", m_contractDetailsMap.size());
+		counts.put( "optionCompMap", m_optionCompMap.size());
+		counts.put( "efpMap", m_efpMap.size());
+		counts.put( "topMktDataMap", m_topMktDataMap.size());
+		counts.put( "deepMktDataMap", m_deepMktDataMap.size());
+		counts.put( "scannerMap", m_scannerMap.size());
+		counts.put( "realTimeBarMap", m_realTimeBarMap.size());
+		counts.put( "historicalDataMap", m_historicalDataMap.size());
+		counts.put( "headTimestampMap", m_headTimestampMap.size());
+		counts.put( "histogramDataMap", m_histogramDataMap.size());
+		counts.put( "fundMap", m_fundMap.size());
+		counts.put( "orderHandlers", m_orderHandlers.size());
+		counts.put( "orderCancelHandlers", m_orderCancelHandlers.size());
+		counts.put( "acctSummaryHandlers", m_acctSummaryHandlers.size());
+		counts.put( "mktValSummaryHandlers", m_mktValSummaryHandlers.size());
+		counts.put( "positionMultiMap", m_positionMultiMap.size());
+		counts.put( "accountUpdateMultiMap", m_accountUpdateMultiMap.size());
+		counts.put( "secDefOptParamsReqMap", m_secDefOptParamsReqMap.size());
+		counts.put( "softDollarTiersReqMap", m_softDollarTiersReqMap.size());
+		counts.put( "symbolSamplesHandlerMap", m_symbolSamplesHandlerMap.size());
+		counts.put( "tickNewsHandlerMap", m_tickNewsHandlerMap.size());
+		counts.put( "smartComponentsHandler", m_smartComponentsHandler.size());
+		counts.put( "newsArticleHandlerMap", m_newsArticleHandlerMap.size());
+		counts.put( "historicalNewsHandlerMap", m_historicalNewsHandlerMap.size());
+		counts.put( "pnlMap", m_pnlMap.size());
+		counts.put( "pnlSingleMap", m_pnlSingleMap.size());
+		counts.put( "historicalTicksMap", m_historicalTicksMap.size());
+		counts.put( "tickByTickDataMap", m_tickByTickDataMap.size());
+		counts.put( "wshMetaDataMap", m_wshMetaDataMap.size());
+		counts.put( "wshEventDataMap", m_wshEventDataMap.size());
+		counts.put( "historicalScheduleMap", m_historicalScheduleMap.size());
+		return counts;
+	}
+
+	/** Read V100+ frames into pooled buffers instead of a fresh array per message; takes effect on the next connect. */
+	public void messageBufferPool(EMessageBufferPool pool) { m_bufferPool = pool; }
+
+	/** Hand frames to the processing thread through a lock-free ring of the given capacity instead of
+	 *  the synchronized list; takes effect on the next connect, 0 restores the default. */
+	public void ringBufferQueue(int capacity, EWaitStrategySignal.WaitStrategy strategy) {
+		m_ringCapacity = capacity;
+		m_waitStrategy = strategy;
+	}
+
+	/** Offer top of book ticks to sink as primitives before they reach the market data handlers;
+	 *  ticks it declines are handled as usual. Ticks it consumes still update lastValues() first.
+	 *  Takes effect on the next connect, null removes it. */
+	public void tickSink(ETickSink sink) { m_tickSink = sink; }
+
+	/** Run handlers on this many worker threads, sharded by request id, plus one for orders, accounts and
+	 *  the connection, instead of on the processing thread; see EDispatchingWrapper. Takes effect on the
+	 *  next connect, 0 restores running them on the processing thread. Handlers must then be thread safe. */
+	public void dispatchLanes(int lanes) { m_dispatchLanes = lanes; }
+
+	/** Decode messages on this many threads, chosen by request id, plus one for orders, accounts and the
+	 *  connection, instead of on the processing thread; see EDecodePipeline. Takes effect on the next
+	 *  connect, 0 restores decoding on the processing thread. Handlers and the tick sink must then be thread safe. */
+	public void decodeThreads(int threads) { m_decodeThreads = threads; }
+
+	/** Connect over a SocketChannel with these settings instead of a Socket; if loop is not null, it reads the
+	 *  connection in place of a reader thread, so several controllers can share one. Takes effect on the next
+	 *  connect; null options restore the Socket. */
+	public void socketChannel(ESocketChannel.Options options, ESelectorLoop loop) {
+		if (options == null && loop != null) {
+			throw new IllegalArgumentException( "a selector loop needs channel options");
+		}
+		m_channelOptions = options;
+		m_selectorLoop = loop;
+	}
+
 	// ---------------------------------------- Constructor and Connection handling ----------------------------------------
 	public interface IConnectionHandler {
 		void connected();
@@ -104,10 +218,26 @@ public class ApiController implements EWrapper {
 	}
 	
 	private void startMsgProcessingThread() {
-		final EReaderSignal signal = new EJavaSignal();		
-		final EReader reader = new EReader(client(), signal);
+		final boolean useRing = m_ringCapacity > 0;
+		final EReaderSignal signal = useRing ? new EWaitStrategySignal(m_waitStrategy) : new EJavaSignal();
+		final EMessageQueue queue = useRing ? new ERingBufferMessageQueue(m_ringCapacity) : new ELinkedMessageQueue();
+		final EDispatchingWrapper dispatcher = m_dispatchLanes > 0 ? new EDispatchingWrapper(this, m_dispatchLanes, id -> id < m_firstReqId) : null;
+		final EWrapper wrapper = dispatcher != null ? dispatcher : this;
+		final EDecodePipeline pipeline = m_decodeThreads > 0 ? new EDecodePipeline(client(), wrapper, m_decodeThreads, id -> id < m_firstReqId) : null;
+		final EReader reader = new EReader(client(), signal, m_bufferPool, queue, wrapper);
+		final ETickSink sink = m_tickSink != null ? new LastValueSink( m_tickSink) : null;
+		reader.setTickSink(sink);
+		if (pipeline != null) {
+			pipeline.setTickSink(sink);
+			reader.setDecodePipeline(pipeline);
+		}
 		
-		reader.start();
+		if (m_selectorLoop == null) {
+			reader.start();
+		}
+		else if (client().isConnected()) {
+			m_selectorLoop.register(reader);
+		}
 		
 		new Thread(() -> {
             while (client().isConnected()) {
@@ -118,13 +248,19 @@ public class ApiController implements EWrapper {
                     error(e);
                 }
             }
+            if (pipeline != null) {
+                pipeline.close();
+            }
+            if (dispatcher != null) {
+                dispatcher.close();
+            }
         }).start();
 	}
 
 	public void connect( String host, int port, int clientId, String connectOptions ) {
 		if(!m_client.isConnected()){
 			m_client.setConnectOptions(connectOptions);
-			m_client.eConnect(host, port, clientId);
+			m_client.eConnect(host, port, clientId, false, m_channelOptions);
 			startMsgProcessingThread();
 	        sendEOM();
 		}
@@ -135,6 +271,9 @@ public class ApiController implements EWrapper {
 			return;
 
 		m_client.eDisconnect();
+		dropMktDataRequests();
+		m_contractDetailsCache.connectionLost();
+		m_contractDetailsCache.flush();
 		m_connectionHandler.disconnected();
 		m_connected = false;
 		sendEOM();
@@ -152,10 +291,12 @@ public class ApiController implements EWrapper {
 	@Override public void nextValidId(int orderId) {
 		m_orderId = orderId;
 		m_reqId = m_orderId + 10000000; // let order id's not collide with other request id's
+		m_firstReqId = m_reqId;
 		m_connected  = true;
 		if (m_connectionHandler != null) {
 			m_connectionHandler.connected();
 		}
+		m_topMktDataMux.resubscribe();
 		recEOM();
 	}
 
@@ -163,6 +304,40 @@ public class ApiController implements EWrapper {
 		m_connectionHandler.error( e);
 	}
 
+	/** Forgets the market data requests that ended with the connection, so they no longer count as lines. */
+	private void dropMktDataRequests() {
+		m_topMktDataMux.reset();
+		m_topMktDataMap.clear();
+		m_lastValueSlots.clear();
+		m_optionCompMap.clear();
+		m_efpMap.clear();
+		m_deepMktDataMap.clear();
+		m_tickByTickDataMap.clear();
+	}
+
+	/** Implemented by request handlers that want the errors TWS sends for their request id, such as 162 for historical data. */
+	public interface IRequestErrorHandler {
+		void requestError(int errorCode, String errorMsg);
+	}
+
+	static void notifyRequestError(Object handler, int errorCode, String errorMsg) {
+		if (handler instanceof IRequestErrorHandler) {
+			((IRequestErrorHandler)handler).requestError( errorCode, errorMsg);
+		}
+	}
+
+	/** Drops a request handler that TWS has finished with, without sending a cancel. */
+	void forgetRequest(Object handler) {
+		m_historicalDataMap.removeValue( handler);
+		m_headTimestampMap.removeValue( handler);
+		m_secDefOptParamsReqMap.removeValue( handler);
+		m_symbolSamplesHandlerMap.removeValue( handler);
+		m_historicalTicksMap.removeValue( handler);
+		m_deepMktDataMap.removeValue( handler);
+		m_realTimeBarMap.removeValue( handler);
+		m_tickByTickDataMap.removeValue( handler);
+	}
+
 	@Override public void error(int id, int errorCode, String errorMsg, String advancedOrderRejectJson) {
 		IOrderHandler handler = m_orderHandlers.get( id);
 		if (handler != null) {
@@ -178,9 +353,20 @@ public class ApiController implements EWrapper {
 			liveHandler.handle( id, errorCode, errorMsg);
 		}
 
+		notifyRequestError( m_historicalDataMap.get( id), errorCode, errorMsg);
+		notifyRequestError( m_headTimestampMap.get( id), errorCode, errorMsg);
+		notifyRequestError( m_secDefOptParamsReqMap.get( id), errorCode, errorMsg);
+		notifyRequestError( m_symbolSamplesHandlerMap.get( id), errorCode, errorMsg);
+		notifyRequestError( m_historicalTicksMap.get( id), errorCode, errorMsg);
+		notifyRequestError( m_topMktDataMap.get( id), errorCode, errorMsg);
+		notifyRequestError( m_deepMktDataMap.get( id), errorCode, errorMsg);
+		notifyRequestError( m_realTimeBarMap.get( id), errorCode, errorMsg);
+		notifyRequestError( m_tickByTickDataMap.get( id), errorCode, errorMsg);
+
 		// "no sec def found" response?
 		if (errorCode == 200) {
 			IInternalHandler hand = m_contractDetailsMap.remove( id);
+			removeContractDetailsErrorHandler( id);
 			if (hand != null) {
 				hand.contractDetailsEnd();
 			}
@@ -191,6 +377,9 @@ public class ApiController implements EWrapper {
 	}
 
 	@Override public void connectionClosed() {
+		dropMktDataRequests();
+		m_contractDetailsCache.connectionLost();
+		HOUSEKEEPING.execute( m_contractDetailsCache::flush);
 		m_connectionHandler.disconnected();
 		m_connected = false;
 	}
@@ -278,7 +467,7 @@ public class ApiController implements EWrapper {
 		sendEOM();
 	}
 
-	private boolean isConnected() {
+	boolean isConnected() {
 		return m_connected;
 	}
 
@@ -286,7 +475,7 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 		
-		Integer reqId = getAndRemoveKey( m_acctSummaryHandlers, handler);
+		Integer reqId = m_acctSummaryHandlers.removeValue( handler);
 		if (reqId != null) {
 			m_client.cancelAccountSummary( reqId);
 			sendEOM();
@@ -307,7 +496,7 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		Integer reqId = getAndRemoveKey( m_mktValSummaryHandlers, handler);
+		Integer reqId = m_mktValSummaryHandlers.removeValue( handler);
 		if (reqId != null) {
 			m_client.cancelAccountSummary( reqId);
 			sendEOM();
@@ -385,52 +574,215 @@ public class ApiController implements EWrapper {
 	}
 
 	// ---------------------------------------- Contract Details ----------------------------------------
+	/** Processors that also implement IRequestErrorHandler hear the error that ended the request, before contractDetails. */
 	public interface IContractDetailsHandler {
 		void contractDetails(List<ContractDetails> list);
 	}
 
 	public void reqContractDetails( Contract contract, final IContractDetailsHandler processor) {
+		reqContractDetailsId( contract, processor);
+	}
+
+	/** reqContractDetails returning the request id, for forgetContractDetails, or -1 if not connected. */
+	int reqContractDetailsId( Contract contract, final IContractDetailsHandler processor) {
 		if (!checkConnection())
-			return;
+			return -1;
 
 		final List<ContractDetails> list = new ArrayList<>();
-		internalReqContractDetails( contract, new IInternalHandler() {
+		int reqId = internalReqContractDetails( contract, new IInternalHandler() {
 			@Override public void contractDetails(ContractDetails data) {
 				list.add( data);
 			}
+			@Override public void error(int errorCode, String errorMsg) {
+				notifyRequestError( processor, errorCode, errorMsg);
+			}
 			@Override public void contractDetailsEnd() {
 				processor.contractDetails( list);
 			}
 		});
 		sendEOM();
+		return reqId;
+	}
+
+	/** Drops a contract details request nobody waits for any more; TWS has no cancel for these. */
+	void forgetContractDetails( int reqId) {
+		m_contractDetailsMap.remove( reqId);
+		removeContractDetailsErrorHandler( reqId);
+	}
+
+	/** Like reqContractDetails, but answered from m_contractDetailsCache when this contract was looked up recently. */
+	public void reqCachedContractDetails( Contract contract, IContractDetailsHandler processor) {
+		m_contractDetailsCache.reqContractDetails( contract, processor);
+	}
+
+	public ContractDetailsCache contractDetailsCache() { return m_contractDetailsCache; }
+
+	/** The request/response calls of this controller returning CompletableFutures. */
+	public AsyncApiController async() { return m_async; }
+
+	/** The market data streams of this controller as Flow.Publishers. */
+	public MarketDataStreams streams() { return m_streams; }
+
+	/** The outcome of one contract in reqAllContractDetails. */
+	public static class ContractLookup {
+		private final Contract m_contract;
+		private List<ContractDetails> m_details = Collections.emptyList();
+		private int m_errorCode;
+		private String m_errorMsg;
+
+		ContractLookup(Contract contract) {
+			m_contract = contract;
+		}
+
+		/** The contract as requested. */
+		public Contract contract()              { return m_contract; }
+		/** Every match, empty if none or on error. */
+		public List<ContractDetails> details()  { return m_details; }
+		public boolean found()                  { return !m_details.isEmpty(); }
+		/** The TWS error that ended the request, 0 if none. */
+		public int errorCode()                  { return m_errorCode; }
+		public String errorMsg()                { return m_errorMsg; }
+
+		@Override public String toString() {
+			return m_errorCode != 0 ? m_contract.textDescription() + ": error " + m_errorCode + " " + m_errorMsg
+					: m_contract.textDescription() + ": " + m_details.size() + " match(es)";
+		}
+	}
+
+	/** Most contract details requests of one reqAllContractDetails call outstanding at a time. */
+	private static final int MAX_LOOKUPS_IN_FLIGHT = 20;
+
+	/**
+	 * Looks up all these contracts concurrently, at most MAX_LOOKUPS_IN_FLIGHT requests at once,
+	 * and completes once with one ContractLookup per contract, in the same order. Lookups go
+	 * through the contract details cache, so cached contracts and contracts already being
+	 * requested are not requested again. Lookups the connection ends fail with NOT_CONNECTED.
+	 */
+	public CompletableFuture<List<ContractLookup>> reqAllContractDetails( List<Contract> contracts) {
+		ContractDetailsBatch batch = new ContractDetailsBatch( contracts);
+		if (!checkConnection()) {
+			for (ContractLookup lookup : batch.m_lookups) {
+				lookup.m_errorCode = EClientErrors.NOT_CONNECTED.code();
+				lookup.m_errorMsg = EClientErrors.NOT_CONNECTED.msg();
+			}
+			batch.m_future.complete( batch.m_lookups);
+			return batch.m_future;
+		}
+
+		batch.fill();
+		return batch.m_future;
+	}
+
+	private class ContractDetailsBatch {
+		final List<ContractLookup> m_lookups = new ArrayList<>();
+		final CompletableFuture<List<ContractLookup>> m_future = new CompletableFuture<>();
+		private int m_next; // guarded by this
+		private int m_inFlight; // guarded by this
+		private int m_remaining; // guarded by this
+
+		ContractDetailsBatch(List<Contract> contracts) {
+			for (Contract contract : contracts) {
+				m_lookups.add( new ContractLookup( contract));
+			}
+			m_remaining = m_lookups.size();
+		}
+
+		/** Starts lookups while there is room; called by reqAllContractDetails and then on the housekeeping thread. */
+		void fill() {
+			List<ContractLookup> toStart = new ArrayList<>();
+			boolean done;
+			synchronized (this) {
+				while (m_next < m_lookups.size() && m_inFlight < MAX_LOOKUPS_IN_FLIGHT) {
+					m_inFlight++;
+					toStart.add( m_lookups.get( m_next++));
+				}
+				done = m_remaining == 0;
+			}
+
+			// cached lookups are answered before reqContractDetails returns
+			for (ContractLookup lookup : toStart) {
+				m_contractDetailsCache.reqContractDetails( lookup.m_contract, new LookupHandler( lookup));
+			}
+			if (done) {
+				m_future.complete( m_lookups);
+			}
+		}
+
+		private class LookupHandler implements IContractDetailsHandler, IRequestErrorHandler {
+			private final ContractLookup m_lookup;
+
+			LookupHandler(ContractLookup lookup) {
+				m_lookup = lookup;
+			}
+
+			@Override public void requestError(int errorCode, String errorMsg) {
+				m_lookup.m_errorCode = errorCode;
+				m_lookup.m_errorMsg = errorMsg;
+			}
+
+			@Override public void contractDetails(List<ContractDetails> list) {
+				m_lookup.m_details = list;
+				synchronized (ContractDetailsBatch.this) {
+					m_inFlight--;
+					m_remaining--;
+				}
+				// answers arrive on the decode thread, which must not send the next requests
+				HOUSEKEEPING.execute( ContractDetailsBatch.this::fill);
+			}
+		}
 	}
 
 	private interface IInternalHandler {
 		void contractDetails(ContractDetails data);
 		void contractDetailsEnd();
+		/** Called before contractDetailsEnd when an error ends the request. */
+		default void error(int errorCode, String errorMsg) {
+		}
 	}
 
-	private void internalReqContractDetails( Contract contract, final IInternalHandler processor) {
+	private int internalReqContractDetails( Contract contract, final IInternalHandler processor) {
 		int reqId = m_reqId++;
 		m_contractDetailsMap.put( reqId, processor);
-		m_orderHandlers.put(reqId, new IOrderHandler() { public void handle(int errorCode, String errorMsg) { processor.contractDetailsEnd();}
+		m_orderHandlers.put( reqId, new ContractDetailsErrorHandler( reqId, processor));
+		
+		m_client.reqContractDetails(reqId, contract);
+		sendEOM();
+		return reqId;
+	}
 
-		@Override
-		public void orderState(OrderState orderState, Order order) {
-			// TODO Auto-generated method stub
-			
+	/** Receives errors for a contract details request, which arrive by id like order errors; ends the request on the first one. */
+	private class ContractDetailsErrorHandler implements IOrderHandler {
+		private final int m_reqId;
+		private final IInternalHandler m_processor;
+
+		ContractDetailsErrorHandler(int reqId, IInternalHandler processor) {
+			m_reqId = reqId;
+			m_processor = processor;
+		}
+
+		@Override public void handle(int errorCode, String errorMsg) {
+			m_orderHandlers.remove( m_reqId, this);
+			if (m_contractDetailsMap.remove( m_reqId, m_processor)) {
+				m_processor.error( errorCode, errorMsg);
+				m_processor.contractDetailsEnd();
+			}
+		}
+
+		@Override public void orderState(OrderState orderState, Order order) {
 		}
 
-		@Override
-		public void orderStatus(OrderStatus status, Decimal filled,
+		@Override public void orderStatus(OrderStatus status, Decimal filled,
 				Decimal remaining, double avgFillPrice, int permId,
 				int parentId, double lastFillPrice, int clientId, String whyHeld, double mktCapPrice) {
-			// TODO Auto-generated method stub
-			
-		} });
-		
-		m_client.reqContractDetails(reqId, contract);
-		sendEOM();
+		}
+	}
+
+	/** Drops the error handler registered by internalReqContractDetails once the request is over. */
+	private void removeContractDetailsErrorHandler( int reqId) {
+		IOrderHandler handler = m_orderHandlers.get( reqId);
+		if (handler instanceof ContractDetailsErrorHandler) {
+			m_orderHandlers.remove( reqId, handler);
+		}
 	}
 
 	@Override public void contractDetails(int reqId, ContractDetails contractDetails) {
@@ -457,6 +809,7 @@ public class ApiController implements EWrapper {
 
 	@Override public void contractDetailsEnd(int reqId) {
 		IInternalHandler handler = m_contractDetailsMap.remove( reqId);
+		removeContractDetailsErrorHandler( reqId);
 		if (handler != null) {
 			handler.contractDetailsEnd();
 		}
@@ -503,18 +856,41 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-    	int reqId = m_reqId++;
-    	m_topMktDataMap.put( reqId, handler);
+    	int reqId = registerTopMktData( contract, handler);
     	m_client.reqMktData( reqId, contract, genericTickList, snapshot, regulatorySnapshot, Collections.emptyList() );
 		sendEOM();
     }
 
+    /** Registers handler under a new request id without sending the request, so the line is counted at once;
+     *  the multiplexer decides under its lock and sends afterwards with sendTopMktData. */
+    int registerTopMktData( Contract contract, ITopMktDataHandler handler) {
+    	int reqId = m_reqId++;
+    	m_topMktDataMap.put( reqId, handler);
+    	m_lastValueSlots.put( reqId, m_lastValues.slot( contract));
+    	return reqId;
+    }
+
+    /** Sends a request registered by registerTopMktData, unless handler has been forgotten since. */
+    void sendTopMktData( int reqId, Contract contract, String genericTickList, boolean snapshot, ITopMktDataHandler handler) {
+    	if (m_topMktDataMap.get( reqId) == handler) {
+    		m_client.reqMktData( reqId, contract, genericTickList, snapshot, false, Collections.emptyList() );
+    		sendEOM();
+    	}
+    }
+
+    /** Sends the cancel for a request whose handler has been forgotten with forgetTopMktData. */
+    void sendCancelTopMktData( int reqId) {
+    	m_client.cancelMktData( reqId);
+    	sendEOM();
+    }
+
     public void reqOptionMktData(Contract contract, String genericTickList, boolean snapshot, boolean regulatorySnapshot, IOptHandler handler) {
 		if (!checkConnection())
 			return;
 
     	int reqId = m_reqId++;
     	m_topMktDataMap.put( reqId, handler);
+    	m_lastValueSlots.put( reqId, m_lastValues.slot( contract));
     	m_optionCompMap.put( reqId, handler);
     	m_client.reqMktData( reqId, contract, genericTickList, snapshot, regulatorySnapshot, Collections.emptyList() );
 		sendEOM();
@@ -526,6 +902,7 @@ public class ApiController implements EWrapper {
 
     	int reqId = m_reqId++;
     	m_topMktDataMap.put( reqId, handler);
+    	m_lastValueSlots.put( reqId, m_lastValues.slot( contract));
     	m_efpMap.put( reqId, handler);
     	m_client.reqMktData( reqId, contract, genericTickList, snapshot, regulatorySnapshot, Collections.emptyList() );
 		sendEOM();
@@ -535,8 +912,9 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		Integer reqId = getAndRemoveKey( m_topMktDataMap, handler);
+		Integer reqId = m_topMktDataMap.removeValue( handler);
     	if (reqId != null) {
+    		m_lastValueSlots.remove( reqId);
     		m_client.cancelMktData( reqId);
     	}
     	else {
@@ -545,14 +923,70 @@ public class ApiController implements EWrapper {
 		sendEOM();
     }
 
+    /** Cancels the top market data of all these handlers, sent together; handlers without a subscription are skipped. */
+    public void cancelAllTopMktData( Collection<? extends ITopMktDataHandler> handlers) {
+		if (!checkConnection())
+			return;
+
+		for (ITopMktDataHandler handler : handlers) {
+			Integer reqId = m_topMktDataMap.removeValue( handler);
+			if (reqId != null) {
+				m_lastValueSlots.remove( reqId);
+				m_client.cancelMktData( reqId);
+			}
+			m_optionCompMap.removeValue( handler);
+			m_efpMap.removeValue( handler);
+		}
+		sendEOM();
+    }
+
+    /** Like reqTopMktData for streaming data, but handlers asking for the same contract and generic ticks share one TWS request. */
+    public void reqSharedTopMktData( Contract contract, String genericTickList, ITopMktDataHandler handler) {
+    	m_topMktDataMux.subscribe( contract, genericTickList, handler);
+    }
+
+    /** As above; when market data lines run short, lower priority subscriptions fall back to periodic snapshots first. */
+    public void reqSharedTopMktData( Contract contract, String genericTickList, TopMktDataMultiplexer.Priority priority, ITopMktDataHandler handler) {
+    	m_topMktDataMux.subscribe( contract, genericTickList, priority, handler);
+    }
+
+    public void cancelSharedTopMktData( ITopMktDataHandler handler) {
+    	m_topMktDataMux.unsubscribe( handler);
+    }
+
+    public void cancelAllSharedTopMktData( Collection<? extends ITopMktDataHandler> handlers) {
+    	m_topMktDataMux.unsubscribeAll( handlers);
+    }
+
+    public TopMktDataMultiplexer topMktDataMultiplexer() { return m_topMktDataMux; }
+
+    /** Latest bid, ask, last, close and sizes of every instrument requested through reqTopMktData and its variants,
+     *  including ticks consumed by the tickSink. */
+    public LastValueCache lastValues() { return m_lastValues; }
+
+    /** Market data lines held by requests made through this controller: top, depth and tick-by-tick. */
+    public int mktDataLines() {
+    	return m_topMktDataMap.size() + m_deepMktDataMap.size() + m_tickByTickDataMap.size();
+    }
+
+    /** Drops a finished snapshot request without cancelling it. */
+    int forgetTopMktData( ITopMktDataHandler handler) {
+    	Integer reqId = m_topMktDataMap.removeValue( handler);
+    	if (reqId == null) {
+    		return -1;
+    	}
+    	m_lastValueSlots.remove( reqId);
+    	return reqId;
+    }
+
     public void cancelOptionMktData( IOptHandler handler) {
     	cancelTopMktData( handler);
-    	getAndRemoveKey( m_optionCompMap, handler);
+    	m_optionCompMap.removeValue( handler);
     }
 
     public void cancelEfpMktData( IEfpHandler handler) {
     	cancelTopMktData( handler);
-    	getAndRemoveKey( m_efpMap, handler);
+    	m_efpMap.removeValue( handler);
     }
 
 	public void reqMktDataType( int mktDataType) {
@@ -580,7 +1014,47 @@ public class ApiController implements EWrapper {
 		}
 	}
 
+	/** Feeds the last value cache from every tick the decoder offers, then hands the tick to the user's sink. */
+	class LastValueSink implements ETickSink {
+		private final ETickSink m_sink;
+
+		LastValueSink( ETickSink sink) {
+			m_sink = sink;
+		}
+
+		@Override public boolean tickPrice(int reqId, int tickType, double price, int attrMask) {
+			if (!m_sink.tickPrice( reqId, tickType, price, attrMask)) {
+				return false; // the EWrapper callback records it
+			}
+			Integer slot = m_lastValueSlots.get( reqId);
+			if (slot != null) {
+				m_lastValues.tickPrice( slot, tickType, price);
+			}
+			return true;
+		}
+
+		@Override public boolean tickSize(int reqId, int tickType, long sizeUnscaled, int scale) {
+			if (!m_sink.tickSize( reqId, tickType, sizeUnscaled, scale)) {
+				return false;
+			}
+			Integer slot = m_lastValueSlots.get( reqId);
+			if (slot != null) {
+				m_lastValues.tickSize( slot, tickType, sizeUnscaled == UNSET_SIZE ? Double.NaN : sizeUnscaled / Math.pow( 10, scale));
+			}
+			return true;
+		}
+
+		@Override public boolean tickGeneric(int reqId, int tickType, double value) {
+			return m_sink.tickGeneric( reqId, tickType, value);
+		}
+	}
+
 	@Override public void tickPrice(int reqId, int tickType, double price, TickAttrib attribs) {
+		Integer slot = m_lastValueSlots.get( reqId);
+		if (slot != null) {
+			m_lastValues.tickPrice( slot, tickType, price);
+		}
+
 		ITopMktDataHandler handler = m_topMktDataMap.get( reqId);
 		if (handler != null) {
 			handler.tickPrice( TickType.get( tickType), price, attribs);
@@ -597,6 +1071,11 @@ public class ApiController implements EWrapper {
 	}
 
 	@Override public void tickSize(int reqId, int tickType, Decimal size) {
+		Integer slot = m_lastValueSlots.get( reqId);
+		if (slot != null) {
+			m_lastValues.tickSize( slot, tickType, size);
+		}
+
 		ITopMktDataHandler handler = m_topMktDataMap.get( reqId);
 		if (handler != null) {
 			handler.tickSize( TickType.get( tickType), size);
@@ -621,7 +1100,11 @@ public class ApiController implements EWrapper {
 	}
 
 	@Override public void tickSnapshotEnd(int reqId) {
-		ITopMktDataHandler handler = m_topMktDataMap.get( reqId);
+		// the snapshot is over, and with it the line it held
+		ITopMktDataHandler handler = m_topMktDataMap.remove( reqId);
+		m_lastValueSlots.remove( reqId);
+		m_optionCompMap.remove( reqId);
+		m_efpMap.remove( reqId);
 		if (handler != null) {
 			handler.tickSnapshotEnd();
 		}
@@ -657,7 +1140,7 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-    	Integer reqId = getAndRemoveKey( m_deepMktDataMap, handler);
+    	Integer reqId = m_deepMktDataMap.removeValue( handler);
     	if (reqId != null) {
     		m_client.cancelMktDepth( reqId, isSmartDepth);
     		sendEOM();
@@ -705,7 +1188,7 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		Integer reqId = getAndRemoveKey( m_optionCompMap, handler);
+		Integer reqId = m_optionCompMap.removeValue( handler);
 		if (reqId != null) {
 			m_client.cancelCalculateOptionPrice( reqId);
 			sendEOM();
@@ -844,6 +1327,8 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
+		evictFinishedOrderHandlers( System.nanoTime());
+
 		// when placing new order, assign new order id
 		if (order.orderId() == 0) {
 			order.orderId( m_orderId++);
@@ -885,11 +1370,11 @@ public class ApiController implements EWrapper {
 	}
 
 	public void removeOrderHandler( IOrderHandler handler) {
-		getAndRemoveKey(m_orderHandlers, handler);
+		m_orderHandlers.removeValue( handler);
 	}
 
     public void removeOrderCancelHandler( IOrderCancelHandler orderCancelHandler) {
-        getAndRemoveKey(m_orderCancelHandlers, orderCancelHandler);
+        m_orderCancelHandlers.removeValue( orderCancelHandler);
     }
 
 	// ---------------------------------------- Live order handling ----------------------------------------
@@ -951,10 +1436,14 @@ public class ApiController implements EWrapper {
 		for (ILiveOrderHandler handler : m_liveOrderHandlers) {
 			handler.openOrderEnd();
 		}
+		evictFinishedOrderHandlers( System.nanoTime());
 		recEOM();
 	}
 
 	@Override public void orderStatus(int orderId, String status, Decimal filled, Decimal remaining, double avgFillPrice, int permId, int parentId, double lastFillPrice, int clientId, String whyHeld, double mktCapPrice) {
+		long now = System.nanoTime();
+		evictFinishedOrderHandlers( now);
+
 		IOrderHandler handler = m_orderHandlers.get( orderId);
 		if (handler != null) {
 			handler.orderStatus( OrderStatus.valueOf( status), filled, remaining, avgFillPrice, permId, parentId, lastFillPrice, clientId, whyHeld, mktCapPrice);
@@ -968,9 +1457,74 @@ public class ApiController implements EWrapper {
 		for (ILiveOrderHandler liveOrderHandler : m_liveOrderHandlers) {
 			liveOrderHandler.orderStatus(orderId, OrderStatus.valueOf( status), filled, remaining, avgFillPrice, permId, parentId, lastFillPrice, clientId, whyHeld, mktCapPrice);
 		}
+
+		if (isFinished( status)) {
+			scheduleOrderEviction( now, orderId, handler, orderCancelHandler);
+		}
 		recEOM();
 	}
 
+	private static boolean isFinished( String status) {
+		return OrderStatus.Filled.name().equals( status) || OrderStatus.Cancelled.name().equals( status) || OrderStatus.ApiCancelled.name().equals( status);
+	}
+
+	/** Handlers of an order that reached a final state, to be dropped once m_due has passed. */
+	private static class OrderEviction {
+		final long m_due;
+		final int m_orderId;
+		final IOrderHandler m_handler;
+		final IOrderCancelHandler m_cancelHandler;
+
+		OrderEviction(long due, int orderId, IOrderHandler handler, IOrderCancelHandler cancelHandler) {
+			m_due = due;
+			m_orderId = orderId;
+			m_handler = handler;
+			m_cancelHandler = cancelHandler;
+		}
+	}
+
+	private void scheduleOrderEviction( long now, int orderId, IOrderHandler handler, IOrderCancelHandler cancelHandler) {
+		long delay = m_orderEvictionDelayNanos;
+		if (delay < 0 || (handler == null && cancelHandler == null)) {
+			return;
+		}
+
+		OrderEviction eviction = new OrderEviction( now + delay, orderId, handler, cancelHandler);
+		if (delay == 0) {
+			evict( eviction);
+			return;
+		}
+		synchronized (m_orderEvictions) {
+			m_orderEvictions.addLast( eviction);
+		}
+		// the last fill of a session may be followed by no other status to sweep on
+		HOUSEKEEPING.schedule( () -> evictFinishedOrderHandlers( System.nanoTime()), delay, TimeUnit.NANOSECONDS);
+	}
+
+	/** Removes the handlers whose grace period is over, unless the order id has been given a new handler meanwhile. */
+	private void evictFinishedOrderHandlers( long now) {
+		for (;;) {
+			OrderEviction eviction;
+			synchronized (m_orderEvictions) {
+				eviction = m_orderEvictions.peekFirst();
+				if (eviction == null || eviction.m_due - now > 0) {
+					return;
+				}
+				m_orderEvictions.pollFirst();
+			}
+			evict( eviction);
+		}
+	}
+
+	private void evict( OrderEviction eviction) {
+		if (m_orderHandlers.remove( eviction.m_orderId, eviction.m_handler)) {
+			m_evictedOrderHandlers.incrementAndGet();
+		}
+		if (m_orderCancelHandlers.remove( eviction.m_orderId, eviction.m_cancelHandler)) {
+			m_evictedOrderHandlers.incrementAndGet();
+		}
+	}
+
 
 	// ---------------------------------------- Market Scanners ----------------------------------------
 	public interface IScannerHandler {
@@ -1004,7 +1558,7 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		Integer reqId = getAndRemoveKey( m_scannerMap, handler);
+		Integer reqId = m_scannerMap.removeValue( handler);
 		if (reqId != null) {
 			m_client.cancelScannerSubscription( reqId);
 			sendEOM();
@@ -1056,7 +1610,7 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		Integer reqId = getAndRemoveKey( m_historicalDataMap, handler);
+		Integer reqId = m_historicalDataMap.removeValue( handler);
     	if (reqId != null) {
     		m_client.cancelHistoricalData( reqId);
     		sendEOM();
@@ -1098,7 +1652,7 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-    	Integer reqId = getAndRemoveKey( m_realTimeBarMap, handler);
+    	Integer reqId = m_realTimeBarMap.removeValue( handler);
     	if (reqId != null) {
     		m_client.cancelRealTimeBars( reqId);
     		sendEOM();
@@ -1215,7 +1769,7 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		Integer reqId = getAndRemoveKey( m_positionMultiMap, handler);
+		Integer reqId = m_positionMultiMap.removeValue( handler);
 		if (reqId != null) {
 			m_client.cancelPositionsMulti( reqId);
 			sendEOM();
@@ -1258,7 +1812,7 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		Integer reqId = getAndRemoveKey( m_accountUpdateMultiMap, handler);
+		Integer reqId = m_accountUpdateMultiMap.removeValue( handler);
 		if (reqId != null) {
 			m_client.cancelAccountUpdatesMulti( reqId);
 			sendEOM();
@@ -1311,16 +1865,6 @@ public class ApiController implements EWrapper {
 		m_connectionHandler.show( string);
 	}
 
-    private static <K,V> K getAndRemoveKey( Map<K,V> map, V value) {
-    	for (Entry<K,V> entry : map.entrySet() ) {
-    		if (entry.getValue() == value) {
-    			map.remove( entry.getKey() );
-    			return entry.getKey();
-    		}
-    	}
-		return null;
-    }
-
 	/** Obsolete, never called. */
 	@Override public void error(String str) {
 		throw new RuntimeException();
@@ -1622,6 +2166,17 @@ public class ApiController implements EWrapper {
     	m_client.reqHeadTimestamp(reqId, contract, whatToShow.toString(), rthOnly ? 1 : 0, 2);
 	}
 
+	public void cancelHeadTimestamp(IHeadTimestampHandler handler) {
+		if (!checkConnection())
+			return;
+
+		Integer reqId = m_headTimestampMap.removeValue( handler);
+		if (reqId != null) {
+			m_client.cancelHeadTimestamp( reqId);
+			sendEOM();
+		}
+	}
+
 	@Override
 	public void headTimestamp(int reqId, String headTimestamp) {
 		IHeadTimestampHandler handler = m_headTimestampMap.get(reqId);
@@ -1654,7 +2209,7 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		Integer reqId = getAndRemoveKey(m_histogramDataMap, handler);
+		Integer reqId = m_histogramDataMap.removeValue( handler);
 		
     	if (reqId != null) {
     		m_client.cancelHistogramData(reqId);
@@ -1729,7 +2284,7 @@ public class ApiController implements EWrapper {
 	    if (!checkConnection())
 	        return;
 
-	    Integer reqId = getAndRemoveKey(m_pnlMap, handler);
+	    Integer reqId = m_pnlMap.removeValue( handler);
 
 	    if (reqId != null) {
 	        m_client.cancelPnL(reqId);
@@ -1769,7 +2324,7 @@ public class ApiController implements EWrapper {
         if (!checkConnection())
             return;
 
-        Integer reqId = getAndRemoveKey(m_pnlSingleMap, handler);
+        Integer reqId = m_pnlSingleMap.removeValue( handler);
 
         if (reqId != null) {
             m_client.cancelPnLSingle(reqId);
@@ -1884,7 +2439,7 @@ public class ApiController implements EWrapper {
         if (!checkConnection())
             return;
 
-        Integer reqId = getAndRemoveKey( m_tickByTickDataMap, handler);
+        Integer reqId = m_tickByTickDataMap.removeValue( handler);
         if (reqId != null) {
             m_client.cancelTickByTickData( reqId);
             sendEOM();
@@ -1959,6 +2514,7 @@ public class ApiController implements EWrapper {
         if (m_completedOrdersHandler != null) {
             m_completedOrdersHandler.completedOrdersEnd();
         }
+        evictFinishedOrderHandlers( System.nanoTime());
         recEOM();
     }
     
@@ -1981,7 +2537,7 @@ public class ApiController implements EWrapper {
         if (!checkConnection())
             return;
 
-        Integer reqId = getAndRemoveKey(m_wshMetaDataMap, handler);
+        Integer reqId = m_wshMetaDataMap.removeValue( handler);
         if (reqId != null) {
             m_client.cancelWshMetaData(reqId);
             sendEOM();
@@ -2018,7 +2574,7 @@ public class ApiController implements EWrapper {
         if (!checkConnection())
             return;
 
-        Integer reqId = getAndRemoveKey(m_wshEventDataMap, handler);
+        Integer reqId = m_wshEventDataMap.removeValue( handler);
         if (reqId != null) {
             m_client.cancelWshMetaData(reqId);
             sendEOM();
@@ -2057,7 +2613,7 @@ public class ApiController implements EWrapper {
         if (!checkConnection())
             return;
 
-        Integer reqId = getAndRemoveKey(m_historicalScheduleMap, handler);
+        Integer reqId = m_historicalScheduleMap.removeValue( handler);
         if (reqId != null) {
             m_client.cancelHistoricalData(reqId);
 
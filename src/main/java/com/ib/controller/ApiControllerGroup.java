@@ -0,0 +1,354 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ib.client.Contract;
+import com.ib.client.Types.WhatToShow;
+import com.ib.controller.ApiConnection.ILogger;
+import com.ib.controller.ApiController.IConnectionHandler;
+import com.ib.controller.ApiController.IDeepMktDataHandler;
+import com.ib.controller.ApiController.IEfpHandler;
+import com.ib.controller.ApiController.IOptHandler;
+import com.ib.controller.ApiController.IRealTimeBarHandler;
+import com.ib.controller.ApiController.ITickByTickDataHandler;
+import com.ib.controller.ApiController.ITopMktDataHandler;
+
+/**
+ * Several connections to TWS, with consecutive client ids, used as one.
+ *
+ * Market data requests are spread over the connections by a consistent hash of the
+ * contract's conid, so each connection has its own socket, reader and decoder for its
+ * share of the instruments; the same instrument always lands on the same connection, and
+ * adding a connection moves only the instruments that then hash to it. Everything else,
+ * orders above all, goes through primary(), so order ids and order status stay on one
+ * connection. Handlers are the usual ApiController ones; they are called on the thread of
+ * whichever connection serves the request, so handlers shared across instruments must be
+ * thread safe. Such a handler's cancels go, like ApiController's, to its oldest request
+ * first, on whichever connection that request went to.
+ *
+ * Market data lines are an account limit, not a connection's, so the line budget of
+ * reqSharedTopMktData is split between the connections; see lineBudget.
+ *
+ * The group's connection handler hears connected() once every connection is up and
+ * disconnected() once the first one goes down; accounts come from the primary connection,
+ * errors and messages from all of them.
+ */
+public class ApiControllerGroup {
+	private final IConnectionHandler m_handler;
+	private final ApiController[] m_controllers;
+	private final boolean[] m_up; // guarded by this
+	private int m_upCount; // guarded by this
+	private boolean m_groupUp; // guarded by this
+	private final Routes m_topRoutes = new Routes(); // top, option and EFP market data, which share one request map
+	private final Routes m_sharedRoutes = new Routes();
+	private final Routes m_deepRoutes = new Routes();
+	private final Routes m_tickByTickRoutes = new Routes();
+	private final Routes m_realTimeBarRoutes = new Routes();
+
+	/** TWS's default allowance of market data lines, and the snapshot lines kept of it. */
+	private static final int DEFAULT_LINES = 100;
+	private static final int DEFAULT_SNAPSHOT_LINES = 5;
+
+	public ApiControllerGroup( IConnectionHandler handler, int connections) {
+		this( handler, connections, null, null);
+	}
+
+	public ApiControllerGroup( IConnectionHandler handler, int connections, ILogger inLogger, ILogger outLogger) {
+		if (connections <= 0) {
+			throw new IllegalArgumentException( "connections must be positive");
+		}
+		m_handler = handler;
+		m_controllers = new ApiController[connections];
+		m_up = new boolean[connections];
+		for (int i = 0; i < connections; i++) {
+			m_controllers[i] = new ApiController( new MemberHandler( i), inLogger, outLogger);
+		}
+		lineBudget( DEFAULT_LINES, DEFAULT_SNAPSHOT_LINES);
+	}
+
+	/**
+	 * Sets the account's market data lines, of which snapshotLines are for refreshing demoted
+	 * subscriptions, and gives each connection's multiplexer an equal share of both. Each
+	 * connection needs at least two lines and one snapshot line; the default is 100 and 5.
+	 */
+	public void lineBudget( int lines, int snapshotLines) {
+		int members = m_controllers.length;
+		if (snapshotLines < members || lines - snapshotLines < members) {
+			throw new IllegalArgumentException( "each connection needs a snapshot line and a streaming line");
+		}
+		for (int i = 0; i < members; i++) {
+			// the first lines / members % members connections take the remainder
+			m_controllers[i].topMktDataMultiplexer().lineBudget( share( lines, i), share( snapshotLines, i));
+		}
+	}
+
+	private int share( int total, int index) {
+		int members = m_controllers.length;
+		return total / members + (index < total % members ? 1 : 0);
+	}
+
+	/** Connects every member, the primary with firstClientId and the others with the ids after it. */
+	public void connect( String host, int port, int firstClientId, String connectOptions) {
+		for (int i = 0; i < m_controllers.length; i++) {
+			m_controllers[i].connect( host, port, firstClientId + i, connectOptions);
+		}
+	}
+
+	public void disconnect() {
+		for (ApiController controller : m_controllers) {
+			if (controller.isConnected()) {
+				controller.disconnect();
+			}
+		}
+		for (Routes routes : new Routes[] { m_topRoutes, m_sharedRoutes, m_deepRoutes, m_tickByTickRoutes, m_realTimeBarRoutes }) {
+			routes.clear();
+		}
+	}
+
+	public boolean isConnected() {
+		for (ApiController controller : m_controllers) {
+			if (!controller.isConnected()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** The connection for orders, executions, accounts, positions and all other requests that are not sharded. */
+	public ApiController primary() {
+		return m_controllers[0];
+	}
+
+	/** All members, the primary first; use them to configure each before connecting. */
+	public List<ApiController> controllers() {
+		return List.of( m_controllers);
+	}
+
+	/** The connection serving contract's market data, whose lastValues() and streams() hold its quotes. */
+	public ApiController shard( Contract contract) {
+		return m_controllers[shardIndex( contract, m_controllers.length)];
+	}
+
+	/** Rendezvous hashing: each shard scores the key and the best score wins, so shards
+	 *  added or removed only take or give up the keys they win or lose. */
+	static int shardIndex( Contract contract, int shards) {
+		// contracts without a conid hash by their description, kept apart from the conids
+		long key = contract.conid() > 0 ? contract.conid() : (TopMktDataMultiplexer.key( contract, "").hashCode() & 0xffffffffL) + (1L << 32);
+		int best = 0;
+		long bestScore = Long.MIN_VALUE;
+		for (int i = 0; i < shards; i++) {
+			long score = mix( key * 31 + i);
+			if (score > bestScore) {
+				bestScore = score;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/** splitmix64 finalizer */
+	private static long mix( long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	public void reqTopMktData( Contract contract, String genericTickList, boolean snapshot, boolean regulatorySnapshot, ITopMktDataHandler handler) {
+		route( m_topRoutes, contract, handler).reqTopMktData( contract, genericTickList, snapshot, regulatorySnapshot, handler);
+	}
+
+	public void cancelTopMktData( ITopMktDataHandler handler) {
+		ApiController shard = m_topRoutes.remove( handler);
+		if (shard != null) {
+			shard.cancelTopMktData( handler);
+		}
+	}
+
+	public void reqOptionMktData( Contract contract, String genericTickList, boolean snapshot, boolean regulatorySnapshot, IOptHandler handler) {
+		route( m_topRoutes, contract, handler).reqOptionMktData( contract, genericTickList, snapshot, regulatorySnapshot, handler);
+	}
+
+	public void cancelOptionMktData( IOptHandler handler) {
+		ApiController shard = m_topRoutes.remove( handler);
+		if (shard != null) {
+			shard.cancelOptionMktData( handler);
+		}
+	}
+
+	public void reqEfpMktData( Contract contract, String genericTickList, boolean snapshot, boolean regulatorySnapshot, IEfpHandler handler) {
+		route( m_topRoutes, contract, handler).reqEfpMktData( contract, genericTickList, snapshot, regulatorySnapshot, handler);
+	}
+
+	public void cancelEfpMktData( IEfpHandler handler) {
+		ApiController shard = m_topRoutes.remove( handler);
+		if (shard != null) {
+			shard.cancelEfpMktData( handler);
+		}
+	}
+
+	/** See ApiController.reqSharedTopMktData; handlers are shared within the contract's connection. */
+	public void reqSharedTopMktData( Contract contract, String genericTickList, ITopMktDataHandler handler) {
+		routeOnce( m_sharedRoutes, contract, handler).reqSharedTopMktData( contract, genericTickList, handler);
+	}
+
+	public void cancelSharedTopMktData( ITopMktDataHandler handler) {
+		ApiController shard = m_sharedRoutes.remove( handler);
+		if (shard != null) {
+			shard.cancelSharedTopMktData( handler);
+		}
+	}
+
+	public void reqDeepMktData( Contract contract, int numRows, boolean isSmartDepth, IDeepMktDataHandler handler) {
+		route( m_deepRoutes, contract, handler).reqDeepMktData( contract, numRows, isSmartDepth, handler);
+	}
+
+	public void cancelDeepMktData( boolean isSmartDepth, IDeepMktDataHandler handler) {
+		ApiController shard = m_deepRoutes.remove( handler);
+		if (shard != null) {
+			shard.cancelDeepMktData( isSmartDepth, handler);
+		}
+	}
+
+	public void reqTickByTickData( Contract contract, String tickType, int numberOfTicks, boolean ignoreSize, ITickByTickDataHandler handler) {
+		route( m_tickByTickRoutes, contract, handler).reqTickByTickData( contract, tickType, numberOfTicks, ignoreSize, handler);
+	}
+
+	public void cancelTickByTickData( ITickByTickDataHandler handler) {
+		ApiController shard = m_tickByTickRoutes.remove( handler);
+		if (shard != null) {
+			shard.cancelTickByTickData( handler);
+		}
+	}
+
+	public void reqRealTimeBars( Contract contract, WhatToShow whatToShow, boolean rthOnly, IRealTimeBarHandler handler) {
+		route( m_realTimeBarRoutes, contract, handler).reqRealTimeBars( contract, whatToShow, rthOnly, handler);
+	}
+
+	public void cancelRealtimeBars( IRealTimeBarHandler handler) {
+		ApiController shard = m_realTimeBarRoutes.remove( handler);
+		if (shard != null) {
+			shard.cancelRealtimeBars( handler);
+		}
+	}
+
+	/** Market data lines held over all connections; see ApiController.mktDataLines. */
+	public int mktDataLines() {
+		int lines = 0;
+		for (ApiController controller : m_controllers) {
+			lines += controller.mktDataLines();
+		}
+		return lines;
+	}
+
+	private ApiController route( Routes routes, Contract contract, Object handler) {
+		ApiController shard = shard( contract);
+		routes.add( handler, shard);
+		return shard;
+	}
+
+	/** For shared market data, where a connection keeps one subscription per handler. */
+	private ApiController routeOnce( Routes routes, Contract contract, Object handler) {
+		ApiController shard = shard( contract);
+		routes.addOnce( handler, shard);
+		return shard;
+	}
+
+	/**
+	 * The connection of each request a handler has made of one kind, oldest first: a handler
+	 * may request several instruments, on several connections, and ApiController cancels a
+	 * handler's oldest request first, so each cancel goes where that request went.
+	 */
+	static class Routes {
+		private final Map<Object, ArrayDeque<ApiController>> m_shards = new IdentityHashMap<>(); // guarded by this
+
+		synchronized void add( Object handler, ApiController shard) {
+			m_shards.computeIfAbsent( handler, h -> new ArrayDeque<>( 1)).addLast( shard);
+		}
+
+		synchronized void addOnce( Object handler, ApiController shard) {
+			ArrayDeque<ApiController> shards = m_shards.computeIfAbsent( handler, h -> new ArrayDeque<>( 1));
+			if (!shards.contains( shard)) {
+				shards.addLast( shard);
+			}
+		}
+
+		/** Takes the connection of handler's oldest request, or null if it has none. */
+		synchronized ApiController remove( Object handler) {
+			ArrayDeque<ApiController> shards = m_shards.get( handler);
+			if (shards == null) {
+				return null;
+			}
+			ApiController shard = shards.pollFirst();
+			if (shards.isEmpty()) {
+				m_shards.remove( handler);
+			}
+			return shard;
+		}
+
+		synchronized void clear() {
+			m_shards.clear();
+		}
+	}
+
+	private synchronized void memberUp( int index) {
+		if (!m_up[index]) {
+			m_up[index] = true;
+			m_upCount++;
+		}
+		if (m_upCount == m_controllers.length && !m_groupUp) {
+			m_groupUp = true;
+			m_handler.connected();
+		}
+	}
+
+	private synchronized void memberDown( int index) {
+		if (m_up[index]) {
+			m_up[index] = false;
+			m_upCount--;
+		}
+		if (m_groupUp) {
+			m_groupUp = false;
+			m_handler.disconnected();
+		}
+	}
+
+	private class MemberHandler implements IConnectionHandler {
+		private final int m_index;
+
+		MemberHandler( int index) {
+			m_index = index;
+		}
+
+		@Override public void connected() {
+			memberUp( m_index);
+		}
+
+		@Override public void disconnected() {
+			memberDown( m_index);
+		}
+
+		@Override public void accountList( List<String> list) {
+			if (m_index == 0) {
+				m_handler.accountList( list);
+			}
+		}
+
+		@Override public void error( Exception e) {
+			m_handler.error( e);
+		}
+
+		@Override public void message( int id, int errorCode, String errorMsg, String advancedOrderRejectJson) {
+			m_handler.message( id, errorCode, errorMsg, advancedOrderRejectJson);
+		}
+
+		@Override public void show( String string) {
+			m_handler.show( string);
+		}
+	}
+}
@@ -0,0 +1,285 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.ib.client.Contract;
+import com.ib.client.ContractDescription;
+import com.ib.client.ContractDetails;
+import com.ib.client.EClientErrors;
+import com.ib.client.HistoricalTick;
+import com.ib.client.HistoricalTickBidAsk;
+import com.ib.client.HistoricalTickLast;
+import com.ib.client.Types.BarSize;
+import com.ib.client.Types.DurationUnit;
+import com.ib.client.Types.WhatToShow;
+import com.ib.controller.ApiController.IContractDetailsHandler;
+import com.ib.controller.ApiController.IHeadTimestampHandler;
+import com.ib.controller.ApiController.IHistoricalDataHandler;
+import com.ib.controller.ApiController.IHistoricalTickHandler;
+import com.ib.controller.ApiController.IRequestErrorHandler;
+import com.ib.controller.ApiController.ISecDefOptParamsReqHandler;
+import com.ib.controller.ApiController.ISymbolSamplesHandler;
+
+/**
+ * ApiController's request/response calls returning CompletableFutures.
+ *
+ * Each future completes with the whole answer, or exceptionally with a RequestException
+ * for an error TWS sends for the request (warnings 2100-2199, 10090 and 10167 excepted), or with
+ * a TimeoutException once the timeout passes, 30 seconds by default. Cancelling a future,
+ * or its timing out, sends TWS the matching cancel where there is one.
+ *
+ * Futures complete on the thread processing TWS messages, so dependent stages that block
+ * or take long should use the *Async variants.
+ */
+public class AsyncApiController {
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor( r -> {
+		Thread thread = new Thread( r, "AsyncApiController timeouts");
+		thread.setDaemon( true);
+		return thread;
+	});
+
+	private final ApiController m_controller;
+	private volatile long m_timeoutMillis = TimeUnit.SECONDS.toMillis( 30);
+
+	/** An error TWS reported for a request. */
+	public static class RequestException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		private final int m_errorCode;
+
+		public RequestException(int errorCode, String errorMsg) {
+			super( errorCode + ": " + errorMsg);
+			m_errorCode = errorCode;
+		}
+
+		public int errorCode() { return m_errorCode; }
+	}
+
+	/** One exchange's answer to reqSecDefOptParams. */
+	public static class OptionParams {
+		private final String m_exchange;
+		private final int m_underlyingConId;
+		private final String m_tradingClass;
+		private final String m_multiplier;
+		private final Set<String> m_expirations;
+		private final Set<Double> m_strikes;
+
+		OptionParams(String exchange, int underlyingConId, String tradingClass, String multiplier, Set<String> expirations, Set<Double> strikes) {
+			m_exchange = exchange;
+			m_underlyingConId = underlyingConId;
+			m_tradingClass = tradingClass;
+			m_multiplier = multiplier;
+			m_expirations = expirations;
+			m_strikes = strikes;
+		}
+
+		public String exchange()         { return m_exchange; }
+		public int underlyingConId()     { return m_underlyingConId; }
+		public String tradingClass()     { return m_tradingClass; }
+		public String multiplier()       { return m_multiplier; }
+		public Set<String> expirations() { return m_expirations; }
+		public Set<Double> strikes()     { return m_strikes; }
+	}
+
+	/** The answer to reqHistoricalTicks; only the list matching whatToShow is filled. */
+	public static class HistoricalTicks {
+		private List<HistoricalTick> m_midpoints = Collections.emptyList();
+		private List<HistoricalTickBidAsk> m_bidAsks = Collections.emptyList();
+		private List<HistoricalTickLast> m_trades = Collections.emptyList();
+
+		public List<HistoricalTick> midpoints()     { return m_midpoints; }
+		public List<HistoricalTickBidAsk> bidAsks() { return m_bidAsks; }
+		public List<HistoricalTickLast> trades()    { return m_trades; }
+	}
+
+	AsyncApiController( ApiController controller) {
+		m_controller = controller;
+	}
+
+	/** Sets the timeout of requests started from now on. */
+	public void timeout( long millis) {
+		m_timeoutMillis = millis;
+	}
+
+	/** All matches, which may be none, answered from the contract details cache when it can; error 200 (no security definition) completes exceptionally. */
+	public CompletableFuture<List<ContractDetails>> contractDetails( Contract contract) {
+		class Handler extends Request<List<ContractDetails>> implements IContractDetailsHandler {
+			@Override void send() {
+				m_controller.reqCachedContractDetails( contract, this);
+			}
+			@Override void cancel() {
+				m_controller.contractDetailsCache().abandon( contract, this);
+			}
+			@Override public void contractDetails(List<ContractDetails> list) {
+				complete( list);
+			}
+		}
+		return new Handler().start();
+	}
+
+	/** The bars of a historical data request; keepUpToDate is not supported here, as it never ends. */
+	public CompletableFuture<List<Bar>> historicalData( Contract contract, String endDateTime, int duration, DurationUnit durationUnit, BarSize barSize, WhatToShow whatToShow, boolean rthOnly) {
+		class Handler extends Request<List<Bar>> implements IHistoricalDataHandler {
+			final List<Bar> m_bars = new ArrayList<>();
+
+			@Override void send() {
+				m_controller.reqHistoricalData( contract, endDateTime, duration, durationUnit, barSize, whatToShow, rthOnly, false, this);
+			}
+			@Override void cancel() {
+				m_controller.cancelHistoricalData( this);
+			}
+			@Override public void historicalData(Bar bar) {
+				m_bars.add( bar);
+			}
+			@Override public void historicalDataEnd() {
+				complete( m_bars);
+			}
+		}
+		return new Handler().start();
+	}
+
+	/** The earliest data available, in seconds since the epoch. */
+	public CompletableFuture<Long> headTimestamp( Contract contract, WhatToShow whatToShow, boolean rthOnly) {
+		class Handler extends Request<Long> implements IHeadTimestampHandler {
+			@Override void send() {
+				m_controller.reqHeadTimestamp( contract, whatToShow, rthOnly, this);
+			}
+			@Override void cancel() {
+				m_controller.cancelHeadTimestamp( this);
+			}
+			@Override public void headTimestamp(int reqId, long headTimestamp) {
+				complete( headTimestamp);
+			}
+		}
+		return new Handler().start();
+	}
+
+	/** One entry per exchange listing options on the underlying. */
+	public CompletableFuture<List<OptionParams>> secDefOptParams( String underlyingSymbol, String futFopExchange, String underlyingSecType, int underlyingConId) {
+		class Handler extends Request<List<OptionParams>> implements ISecDefOptParamsReqHandler {
+			final List<OptionParams> m_params = new ArrayList<>();
+
+			@Override void send() {
+				m_controller.reqSecDefOptParams( underlyingSymbol, futFopExchange, underlyingSecType, underlyingConId, this);
+			}
+			@Override public void securityDefinitionOptionalParameter(String exchange, int conId, String tradingClass,
+					String multiplier, Set<String> expirations, Set<Double> strikes) {
+				m_params.add( new OptionParams( exchange, conId, tradingClass, multiplier, expirations, strikes));
+			}
+			@Override public void securityDefinitionOptionalParameterEnd(int reqId) {
+				complete( m_params);
+			}
+		}
+		return new Handler().start();
+	}
+
+	public CompletableFuture<ContractDescription[]> matchingSymbols( String pattern) {
+		class Handler extends Request<ContractDescription[]> implements ISymbolSamplesHandler {
+			@Override void send() {
+				m_controller.reqMatchingSymbols( pattern, this);
+			}
+			@Override public void symbolSamples(ContractDescription[] contractDescriptions) {
+				complete( contractDescriptions);
+			}
+		}
+		return new Handler().start();
+	}
+
+	/** Completes with the first batch of ticks, which TWS sends as a single message for these requests. */
+	public CompletableFuture<HistoricalTicks> historicalTicks( Contract contract, String startDateTime, String endDateTime, int numberOfTicks, String whatToShow, int useRth, boolean ignoreSize) {
+		class Handler extends Request<HistoricalTicks> implements IHistoricalTickHandler {
+			final HistoricalTicks m_ticks = new HistoricalTicks();
+
+			@Override void send() {
+				m_controller.reqHistoricalTicks( contract, startDateTime, endDateTime, numberOfTicks, whatToShow, useRth, ignoreSize, this);
+			}
+			@Override public void historicalTick(int reqId, List<HistoricalTick> ticks) {
+				m_ticks.m_midpoints = ticks;
+				complete( m_ticks);
+			}
+			@Override public void historicalTickBidAsk(int reqId, List<HistoricalTickBidAsk> ticks) {
+				m_ticks.m_bidAsks = ticks;
+				complete( m_ticks);
+			}
+			@Override public void historicalTickLast(int reqId, List<HistoricalTickLast> ticks) {
+				m_ticks.m_trades = ticks;
+				complete( m_ticks);
+			}
+		}
+		return new Handler().start();
+	}
+
+	static boolean isWarning( int errorCode) {
+		return errorCode >= 2100 && errorCode < 2200 || errorCode == 10090 || errorCode == 10167;
+	}
+
+	/** Fails future with a TimeoutException unless it completes in time; onAbandon runs if it fails or is cancelled. */
+	private <T> CompletableFuture<T> withTimeout( CompletableFuture<T> future, Runnable onAbandon) {
+		long timeout = m_timeoutMillis;
+		ScheduledFuture<?> timer = TIMER.schedule( () -> {
+			future.completeExceptionally( new TimeoutException( "no answer from TWS within " + timeout + " ms"));
+		}, timeout, TimeUnit.MILLISECONDS);
+
+		future.whenComplete( (value, failure) -> {
+			timer.cancel( false);
+			if (failure != null) {
+				onAbandon.run();
+			}
+		});
+		return future;
+	}
+
+	/** The handler of one request; its future completes once, from the answer, an error, a timeout or a cancel. */
+	private abstract class Request<T> implements IRequestErrorHandler {
+		final CompletableFuture<T> m_future = new CompletableFuture<>();
+		private volatile boolean m_ended; // TWS sends nothing more for this request
+
+		abstract void send();
+
+		/** Tells TWS to stop; requests without a cancel message are only dropped. */
+		void cancel() {
+			m_controller.forgetRequest( this);
+		}
+
+		CompletableFuture<T> start() {
+			if (!m_controller.isConnected()) {
+				m_future.completeExceptionally( new RequestException( EClientErrors.NOT_CONNECTED.code(), EClientErrors.NOT_CONNECTED.msg()));
+				return m_future;
+			}
+
+			withTimeout( m_future, () -> {
+				if (!m_ended) {
+					cancel();
+				}
+			});
+			send();
+			return m_future;
+		}
+
+		void complete( T value) {
+			m_ended = true;
+			m_controller.forgetRequest( this);
+			m_future.complete( value);
+		}
+
+		@Override public void requestError(int errorCode, String errorMsg) {
+			if (isWarning( errorCode)) {
+				return;
+			}
+			m_ended = true;
+			m_controller.forgetRequest( this);
+			m_future.completeExceptionally( new RequestException( errorCode, errorMsg));
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * int keyed map for request handlers: open addressing with linear probing.
+ *
+ * get() takes no lock and allocates nothing, so the EReader processing thread can
+ * look up handlers while other threads register or remove them. Writers lock the map
+ * and publish each immutable entry through the slot array, so a handler is fully
+ * visible to the thread that finds it. Resizing builds a new table and swaps it in.
+ *
+ * Writers also keep an identity index from each handler to its keys, so cancelling
+ * by handler does not scan the table.
+ */
+class ConcurrentIntHashMap<V> {
+    private static final int MIN_CAPACITY = 16;
+    private static final Entry REMOVED = new Entry(0, null);
+
+    private volatile AtomicReferenceArray<Entry> m_table = new AtomicReferenceArray<>(MIN_CAPACITY);
+    private int m_size; // live entries; guarded by this
+    private int m_used; // live and removed slots; guarded by this
+    private final IdentityHashMap<Object, ArrayDeque<Integer>> m_keys = new IdentityHashMap<>(); // value -> its keys, oldest first; guarded by this
+
+    private static final class Entry {
+        final int key;
+        final Object value;
+
+        Entry(int key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static int index(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        AtomicReferenceArray<Entry> table = m_table;
+        int mask = table.length() - 1;
+
+        for (int i = index(key, mask); ; i = (i + 1) & mask) {
+            Entry e = table.get(i);
+            if (e == null) {
+                return null;
+            }
+            if (e.key == key && e != REMOVED) {
+                return (V)e.value;
+            }
+        }
+    }
+
+    /** Like Map.put; a null value removes the key. */
+    @SuppressWarnings("unchecked")
+    public synchronized V put(int key, V value) {
+        if (value == null) {
+            return remove(key);
+        }
+
+        AtomicReferenceArray<Entry> table = m_table;
+        int mask = table.length() - 1;
+        int free = -1;
+        int i = index(key, mask);
+
+        for (Entry e; (e = table.get(i)) != null; i = (i + 1) & mask) {
+            if (e == REMOVED) {
+                if (free < 0) {
+                    free = i;
+                }
+            } else if (e.key == key) {
+                table.set(i, new Entry(key, value));
+                forgetKey(e.value, key);
+                recordKey(value, key);
+                return (V)e.value;
+            }
+        }
+
+        if (free >= 0) {
+            table.set(free, new Entry(key, value));
+        } else {
+            table.set(i, new Entry(key, value));
+            m_used++;
+        }
+        m_size++;
+        recordKey(value, key);
+
+        if (m_used * 2 > table.length()) {
+            rehash();
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(int key) {
+        Entry e = removeEntry(key);
+        if (e == null) {
+            return null;
+        }
+        forgetKey(e.value, key);
+        return (V)e.value;
+    }
+
+    /** Removes key only while it still maps to this very handler; true if it did. */
+    public synchronized boolean remove(int key, Object value) {
+        if (get(key) != value || value == null) {
+            return false;
+        }
+        remove(key);
+        return true;
+    }
+
+    /**
+     * Removes an entry holding this very handler and returns its key, or null if there is
+     * none. A handler registered under several keys loses the oldest one first.
+     */
+    public synchronized Integer removeValue(Object value) {
+        ArrayDeque<Integer> keys = m_keys.get(value);
+        if (keys == null) {
+            return null;
+        }
+
+        Integer key = keys.pollFirst();
+        if (keys.isEmpty()) {
+            m_keys.remove(value);
+        }
+        removeEntry(key);
+        return key;
+    }
+
+    private Entry removeEntry(int key) {
+        AtomicReferenceArray<Entry> table = m_table;
+        int mask = table.length() - 1;
+
+        for (int i = index(key, mask); ; i = (i + 1) & mask) {
+            Entry e = table.get(i);
+            if (e == null) {
+                return null;
+            }
+            if (e.key == key && e != REMOVED) {
+                table.set(i, REMOVED);
+                m_size--;
+                return e;
+            }
+        }
+    }
+
+    private void recordKey(Object value, int key) {
+        m_keys.computeIfAbsent(value, v -> new ArrayDeque<>(1)).addLast(key);
+    }
+
+    private void forgetKey(Object value, int key) {
+        ArrayDeque<Integer> keys = m_keys.get(value);
+        if (keys != null) {
+            keys.removeFirstOccurrence(key);
+            if (keys.isEmpty()) {
+                m_keys.remove(value);
+            }
+        }
+    }
+
+    /** Removes every entry; readers see either the old table or the empty one. */
+    public synchronized void clear() {
+        m_table = new AtomicReferenceArray<>(MIN_CAPACITY);
+        m_size = 0;
+        m_used = 0;
+        m_keys.clear();
+    }
+
+    public synchronized int size() {
+        return m_size;
+    }
+
+    /** Copies the live entries into a table at most a quarter full, dropping removed slots. */
+    private void rehash() {
+        AtomicReferenceArray<Entry> old = m_table;
+        int capacity = MIN_CAPACITY;
+        while (capacity < m_size * 4) {
+            capacity <<= 1;
+        }
+
+        AtomicReferenceArray<Entry> table = new AtomicReferenceArray<>(capacity);
+        int mask = capacity - 1;
+
+        for (int j = 0; j < old.length(); j++) {
+            Entry e = old.get(j);
+            if (e != null && e != REMOVED) {
+                int i = index(e.key, mask);
+                while (table.get(i) != null) {
+                    i = (i + 1) & mask;
+                }
+                table.set(i, e);
+            }
+        }
+
+        m_used = m_size;
+        m_table = table;
+    }
+}
@@ -0,0 +1,539 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.ib.client.Contract;
+import com.ib.client.ContractDetails;
+import com.ib.client.Decimal;
+import com.ib.client.EClientErrors;
+import com.ib.client.TagValue;
+import com.ib.controller.ApiController.IContractDetailsHandler;
+import com.ib.controller.ApiController.IRequestErrorHandler;
+
+/**
+ * Answers reqContractDetails from memory when the same contract was looked up before.
+ *
+ * Results are kept for a time to live, 24 hours by default, and never past the end of
+ * the day after the contract's last trade date, so expired options drop out. Lookups
+ * for a contract already being requested wait for that request instead of sending
+ * another. Empty results are not kept.
+ *
+ * With a file set, entries are loaded from it, and new results are written back on the
+ * housekeeping thread a couple of seconds after they arrive, many at a time, and on
+ * flush() or disconnect; a restart starts warm. The file holds the contract and the general
+ * details fields; bond and fund results, whose descriptive fields it does not hold, stay in
+ * memory only.
+ *
+ * When the connection is lost, lookups still waiting for TWS are answered with an empty list.
+ * Processors that also implement IRequestErrorHandler are told why first, with the TWS error
+ * that ended the request or NOT_CONNECTED, and are answered even when not connected.
+ */
+public class ContractDetailsCache {
+	private static final int MAGIC = 0x49434443; // "ICDC"
+	private static final int VERSION = 1;
+	private static final long SAVE_DELAY_MILLIS = 2000;
+
+	private final ApiController m_controller;
+	private final Map<String, Entry> m_entries = new HashMap<>(); // guarded by this
+	private final Map<String, Request> m_pending = new HashMap<>(); // guarded by this
+	private long m_ttlMillis = TimeUnit.HOURS.toMillis(24); // guarded by this
+	private Path m_file; // guarded by this
+	private boolean m_dirty; // entries changed since the last save; guarded by this
+	private ScheduledFuture<?> m_saveTask; // guarded by this
+	private final Object m_fileLock = new Object(); // held while writing the file, before this
+	private int m_hits; // guarded by this
+	private int m_misses; // guarded by this
+
+	private static class Entry {
+		final List<ContractDetails> m_list;
+		final long m_expires;
+		final boolean m_persistent;
+
+		Entry(List<ContractDetails> list, long expires, boolean persistent) {
+			m_list = list;
+			m_expires = expires;
+			m_persistent = persistent;
+		}
+	}
+
+	ContractDetailsCache( ApiController controller) {
+		m_controller = controller;
+	}
+
+	/** Sets how long results are kept, at most. */
+	public synchronized void ttl( long millis) {
+		m_ttlMillis = millis;
+	}
+
+	/** Loads the entries saved in file, if it exists, and saves to it from now on. */
+	public synchronized void file( Path file) {
+		m_file = file;
+		try {
+			load();
+		}
+		catch (IOException e) {
+			m_controller.show( "Could not read contract details cache " + file + ": " + e);
+		}
+	}
+
+	public synchronized void clear() {
+		m_entries.clear();
+		changed();
+	}
+
+	/** Writes the file now if entries changed since it was last written; called by ApiController.disconnect. */
+	public void flush() {
+		synchronized (m_fileLock) {
+			Path file;
+			Map<String, Entry> entries;
+			synchronized (this) {
+				if (m_saveTask != null) {
+					m_saveTask.cancel( false);
+					m_saveTask = null;
+				}
+				if (!m_dirty || m_file == null) {
+					return;
+				}
+				m_dirty = false;
+				file = m_file;
+				entries = persistentEntries();
+			}
+			save( file, entries);
+		}
+	}
+
+	/** Answers the lookups still waiting for TWS with an empty list; their requests ended with the connection. */
+	void connectionLost() {
+		List<IContractDetailsHandler> waiting = new ArrayList<>();
+		synchronized (this) {
+			for (Request request : m_pending.values()) {
+				waiting.addAll( request.m_waiting);
+			}
+			m_pending.clear();
+		}
+
+		for (IContractDetailsHandler processor : waiting) {
+			ApiController.notifyRequestError( processor, EClientErrors.NOT_CONNECTED.code(), EClientErrors.NOT_CONNECTED.msg());
+			processor.contractDetails( new ArrayList<>());
+		}
+	}
+
+	public synchronized int size() {
+		return m_entries.size();
+	}
+
+	/** Lookups answered from memory or by joining a request already sent. */
+	public synchronized int hits() {
+		return m_hits;
+	}
+
+	/** Lookups sent to TWS. */
+	public synchronized int misses() {
+		return m_misses;
+	}
+
+	/** Like ApiController.reqContractDetails; a cached result is passed to processor before this returns. */
+	public void reqContractDetails( Contract contract, IContractDetailsHandler processor) {
+		String key = key( contract);
+		List<ContractDetails> cached;
+
+		synchronized (this) {
+			Entry entry = m_entries.get( key);
+			if (entry != null && entry.m_expires <= System.currentTimeMillis()) {
+				m_entries.remove( key);
+				entry = null;
+			}
+
+			if (entry != null) {
+				m_hits++;
+				cached = entry.m_list;
+			}
+			else {
+				Request request = m_pending.get( key);
+				if (request != null) {
+					m_hits++;
+					request.m_waiting.add( processor);
+					return;
+				}
+				cached = null;
+				if (m_controller.isConnected()) {
+					m_misses++;
+					request = new Request( key);
+					request.m_waiting.add( processor);
+					request.m_reqId = m_controller.reqContractDetailsId( contract, request);
+					if (request.m_reqId >= 0) {
+						m_pending.put( key, request);
+						return;
+					}
+				}
+			}
+		}
+
+		if (cached != null) {
+			processor.contractDetails( new ArrayList<>( cached));
+		}
+		else if (processor instanceof IRequestErrorHandler) {
+			ApiController.notifyRequestError( processor, EClientErrors.NOT_CONNECTED.code(), EClientErrors.NOT_CONNECTED.msg());
+			processor.contractDetails( new ArrayList<>());
+		}
+		else {
+			m_controller.reqContractDetails( contract, processor); // reports not connected
+		}
+	}
+
+	/**
+	 * Stops waiting for a lookup that is no longer wanted, such as one that timed out; processor
+	 * is not called. The request is forgotten once no lookup waits for it.
+	 */
+	void abandon( Contract contract, IContractDetailsHandler processor) {
+		String key = key( contract);
+		synchronized (this) {
+			Request request = m_pending.get( key);
+			if (request == null || !request.m_waiting.remove( processor) || !request.m_waiting.isEmpty()) {
+				return;
+			}
+			m_pending.remove( key);
+			m_controller.forgetContractDetails( request.m_reqId);
+		}
+	}
+
+	/** The one TWS request for a key; passes its result, and the error that ended it, to the lookups that joined it. */
+	private class Request implements IContractDetailsHandler, IRequestErrorHandler {
+		final String m_key;
+		final List<IContractDetailsHandler> m_waiting = new ArrayList<>(); // guarded by the cache
+		int m_reqId; // guarded by the cache
+		private int m_errorCode;
+		private String m_errorMsg;
+
+		Request( String key) {
+			m_key = key;
+		}
+
+		@Override public void requestError( int errorCode, String errorMsg) {
+			m_errorCode = errorCode;
+			m_errorMsg = errorMsg;
+		}
+
+		/** Ignored if connectionLost already answered the lookups. */
+		@Override public void contractDetails( List<ContractDetails> list) {
+			synchronized (ContractDetailsCache.this) {
+				if (!m_pending.remove( m_key, this)) {
+					return;
+				}
+				store( m_key, list);
+			}
+
+			for (IContractDetailsHandler processor : m_waiting) {
+				if (m_errorCode != 0) {
+					ApiController.notifyRequestError( processor, m_errorCode, m_errorMsg);
+				}
+				processor.contractDetails( new ArrayList<>( list));
+			}
+		}
+	}
+
+	private void store( String key, List<ContractDetails> list) {
+		if (list.isEmpty()) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		long expires = now + m_ttlMillis;
+		boolean persistent = true;
+		for (ContractDetails details : list) {
+			expires = Math.min( expires, expiry( details.contract()));
+			persistent &= isPersistent( details.contract());
+		}
+		if (expires > now) {
+			m_entries.put( key, new Entry( new ArrayList<>( list), expires, persistent));
+			if (persistent) {
+				changed();
+			}
+		}
+	}
+
+	static String key( Contract contract) {
+		return TopMktDataMultiplexer.key( contract, "") + '|' + contract.getSecIdType() + '|' + contract.secId() + '|' + contract.includeExpired();
+	}
+
+	/** The start of the second day after the last trade date, or never if it has none that parses. */
+	private static long expiry( Contract contract) {
+		String date = contract.lastTradeDateOrContractMonth();
+		if (date == null || date.length() < 8) {
+			return Long.MAX_VALUE;
+		}
+		try {
+			LocalDate day = LocalDate.parse( date.substring( 0, 8), DateTimeFormatter.BASIC_ISO_DATE);
+			return day.plusDays( 2).atStartOfDay( ZoneOffset.UTC).toInstant().toEpochMilli();
+		}
+		catch (DateTimeParseException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	private static boolean isPersistent( Contract contract) {
+		return !"BOND".equals( contract.getSecType()) && !"FUND".equals( contract.getSecType());
+	}
+
+	// ---------------------------------------- File ----------------------------------------
+	private void load() throws IOException {
+		if (m_file == null) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		try (DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( m_file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return; // written by another version; it is replaced on the next save
+			}
+			for (int entries = in.readInt(); entries > 0; entries--) {
+				String key = in.readUTF();
+				long expires = in.readLong();
+				List<ContractDetails> list = new ArrayList<>();
+				for (int n = in.readInt(); n > 0; n--) {
+					list.add( readDetails( in));
+				}
+				if (expires > now) {
+					m_entries.putIfAbsent( key, new Entry( list, expires, true));
+				}
+			}
+		}
+		catch (NoSuchFileException e) {
+			// nothing saved yet
+		}
+	}
+
+	/** Marks the file out of date and saves it after SAVE_DELAY_MILLIS, together with whatever else changes by then. */
+	private void changed() {
+		m_dirty = true;
+		if (m_file != null && m_saveTask == null) {
+			m_saveTask = ApiController.HOUSEKEEPING.schedule( this::flush, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/** Drops expired entries and copies the persistent ones; entries and their lists are not changed once stored. */
+	private Map<String, Entry> persistentEntries() {
+		long now = System.currentTimeMillis();
+		for (Iterator<Entry> iter = m_entries.values().iterator(); iter.hasNext(); ) {
+			if (iter.next().m_expires <= now) {
+				iter.remove();
+			}
+		}
+
+		Map<String, Entry> entries = new HashMap<>();
+		for (Map.Entry<String, Entry> mapEntry : m_entries.entrySet()) {
+			if (mapEntry.getValue().m_persistent) {
+				entries.put( mapEntry.getKey(), mapEntry.getValue());
+			}
+		}
+		return entries;
+	}
+
+	/** Rewrites file with entries, replacing it only once complete; called without holding this. */
+	private void save( Path file, Map<String, Entry> entries) {
+		try {
+			Path temp = file.resolveSibling( file.getFileName() + ".tmp");
+			try (DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( temp)))) {
+				out.writeInt( MAGIC);
+				out.writeInt( VERSION);
+				out.writeInt( entries.size());
+				for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+					Entry entry = mapEntry.getValue();
+					out.writeUTF( mapEntry.getKey());
+					out.writeLong( entry.m_expires);
+					out.writeInt( entry.m_list.size());
+					for (ContractDetails details : entry.m_list) {
+						writeDetails( out, details);
+					}
+				}
+			}
+			Files.move( temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			m_controller.show( "Could not write contract details cache " + file + ": " + e);
+		}
+	}
+
+	private static void writeDetails( DataOutputStream out, ContractDetails details) throws IOException {
+		Contract contract = details.contract();
+		out.writeInt( contract.conid());
+		writeString( out, contract.symbol());
+		writeString( out, contract.getSecType());
+		writeString( out, contract.lastTradeDateOrContractMonth());
+		writeString( out, contract.lastTradeDate());
+		out.writeDouble( contract.strike());
+		writeString( out, contract.getRight());
+		writeString( out, contract.multiplier());
+		writeString( out, contract.exchange());
+		writeString( out, contract.primaryExch());
+		writeString( out, contract.currency());
+		writeString( out, contract.localSymbol());
+		writeString( out, contract.tradingClass());
+		writeString( out, contract.getSecIdType());
+		writeString( out, contract.secId());
+		writeString( out, contract.description());
+		writeString( out, contract.issuerId());
+		writeString( out, contract.comboLegsDescrip());
+
+		writeString( out, details.marketName());
+		out.writeDouble( details.minTick());
+		out.writeInt( details.priceMagnifier());
+		writeString( out, details.orderTypes());
+		writeString( out, details.validExchanges());
+		out.writeInt( details.underConid());
+		writeString( out, details.longName());
+		writeString( out, details.contractMonth());
+		writeString( out, details.industry());
+		writeString( out, details.category());
+		writeString( out, details.subcategory());
+		writeString( out, details.timeZoneId());
+		writeString( out, details.tradingHours());
+		writeString( out, details.liquidHours());
+		writeString( out, details.evRule());
+		out.writeDouble( details.evMultiplier());
+		out.writeInt( details.aggGroup());
+		writeString( out, details.underSymbol());
+		writeString( out, details.underSecType());
+		writeString( out, details.marketRuleIds());
+		writeString( out, details.realExpirationDate());
+		writeString( out, details.lastTradeTime());
+		writeString( out, details.stockType());
+		writeDecimal( out, details.minSize());
+		writeDecimal( out, details.sizeIncrement());
+		writeDecimal( out, details.suggestedSizeIncrement());
+
+		List<TagValue> secIds = details.secIdList();
+		out.writeInt( secIds == null ? -1 : secIds.size());
+		if (secIds != null) {
+			for (TagValue tagValue : secIds) {
+				writeString( out, tagValue.m_tag);
+				writeString( out, tagValue.m_value);
+			}
+		}
+	}
+
+	private static ContractDetails readDetails( DataInputStream in) throws IOException {
+		Contract contract = new Contract();
+		contract.conid( in.readInt());
+		contract.symbol( readString( in));
+		contract.secType( readString( in));
+		contract.lastTradeDateOrContractMonth( readString( in));
+		contract.lastTradeDate( readString( in));
+		contract.strike( in.readDouble());
+		contract.right( readString( in));
+		contract.multiplier( readString( in));
+		contract.exchange( readString( in));
+		contract.primaryExch( readString( in));
+		contract.currency( readString( in));
+		contract.localSymbol( readString( in));
+		contract.tradingClass( readString( in));
+		contract.secIdType( readString( in));
+		contract.secId( readString( in));
+		contract.description( readString( in));
+		contract.issuerId( readString( in));
+		contract.comboLegsDescrip( readString( in));
+
+		ContractDetails details = new ContractDetails();
+		details.contract( contract);
+		details.marketName( readString( in));
+		details.minTick( in.readDouble());
+		details.priceMagnifier( in.readInt());
+		details.orderTypes( readString( in));
+		details.validExchanges( readString( in));
+		details.underConid( in.readInt());
+		details.longName( readString( in));
+		details.contractMonth( readString( in));
+		details.industry( readString( in));
+		details.category( readString( in));
+		details.subcategory( readString( in));
+		details.timeZoneId( readString( in));
+		details.tradingHours( readString( in));
+		details.liquidHours( readString( in));
+		details.evRule( readString( in));
+		details.evMultiplier( in.readDouble());
+		details.aggGroup( in.readInt());
+		details.underSymbol( readString( in));
+		details.underSecType( readString( in));
+		details.marketRuleIds( readString( in));
+		details.realExpirationDate( readString( in));
+		details.lastTradeTime( readString( in));
+		details.stockType( readString( in));
+		details.minSize( readDecimal( in));
+		details.sizeIncrement( readDecimal( in));
+		details.suggestedSizeIncrement( readDecimal( in));
+
+		int secIds = in.readInt();
+		if (secIds >= 0) {
+			List<TagValue> list = new ArrayList<>( secIds);
+			for (int i = 0; i < secIds; i++) {
+				list.add( new TagValue( readString( in), readString( in)));
+			}
+			details.secIdList( list);
+		}
+		return details;
+	}
+
+	private static void writeString( DataOutputStream out, String str) throws IOException {
+		out.writeBoolean( str != null);
+		if (str != null) {
+			out.writeUTF( str);
+		}
+	}
+
+	private static String readString( DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	// INVALID and NaN print as empty strings, so they are written as markers
+	private static final int DECIMAL_NULL = 0;
+	private static final int DECIMAL_INVALID = 1;
+	private static final int DECIMAL_NAN = 2;
+	private static final int DECIMAL_VALUE = 3;
+
+	private static void writeDecimal( DataOutputStream out, Decimal value) throws IOException {
+		if (value == null) {
+			out.writeByte( DECIMAL_NULL);
+		}
+		else if (value == Decimal.INVALID) {
+			out.writeByte( DECIMAL_INVALID);
+		}
+		else if (value == Decimal.NaN) {
+			out.writeByte( DECIMAL_NAN);
+		}
+		else {
+			out.writeByte( DECIMAL_VALUE);
+			out.writeUTF( value.toString());
+		}
+	}
+
+	private static Decimal readDecimal( DataInputStream in) throws IOException {
+		switch (in.readByte()) {
+			case DECIMAL_INVALID: return Decimal.INVALID;
+			case DECIMAL_NAN: return Decimal.NaN;
+			case DECIMAL_VALUE: return Decimal.parse( in.readUTF());
+			default: return null;
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.ib.client.Contract;
+import com.ib.client.Decimal;
+import com.ib.client.TickType;
+
+/**
+ * Latest top of book per instrument, kept from every top market data request made through
+ * ApiController, so any thread can read a quote without subscribing or waiting.
+ *
+ * Instruments are keyed by conid, or by their contract fields when there is no conid.
+ * Each has a fixed slot of longs in a chunk that is never moved: a sequence number, the
+ * prices and sizes as double bits, and the receive time. Writers, the threads delivering
+ * ticks, lock the cache; readers take no lock and retry while the sequence number shows
+ * a write in progress or changes under them. Delayed ticks fill the same fields as live ones.
+ */
+public class LastValueCache {
+	private static final int SEQ = 0;
+	private static final int BID = 1;
+	private static final int ASK = 2;
+	private static final int LAST = 3;
+	private static final int CLOSE = 4;
+	private static final int BID_SIZE = 5;
+	private static final int ASK_SIZE = 6;
+	private static final int LAST_SIZE = 7;
+	private static final int TIME = 8;
+	private static final int STRIDE = 9;
+
+	private static final int CHUNK_BITS = 6;
+	private static final int CHUNK_SLOTS = 1 << CHUNK_BITS;
+	private static final long NO_VALUE = Double.doubleToRawLongBits( Double.NaN);
+
+	private final ConcurrentIntHashMap<Integer> m_byConid = new ConcurrentIntHashMap<>();
+	private final ConcurrentHashMap<String, Integer> m_byKey = new ConcurrentHashMap<>();
+	private volatile AtomicLongArray[] m_chunks = new AtomicLongArray[0];
+	private int m_slots; // guarded by this
+
+	/** A consistent copy of one instrument's top of book; prices and sizes are NaN until received. */
+	public static class Quote {
+		double m_bid;
+		double m_ask;
+		double m_last;
+		double m_close;
+		double m_bidSize;
+		double m_askSize;
+		double m_lastSize;
+		long m_time;
+
+		public double bid()      { return m_bid; }
+		public double ask()      { return m_ask; }
+		public double last()     { return m_last; }
+		public double close()    { return m_close; }
+		public double bidSize()  { return m_bidSize; }
+		public double askSize()  { return m_askSize; }
+		public double lastSize() { return m_lastSize; }
+		/** Time of the latest tick in milliseconds since the epoch, 0 if none yet. */
+		public long time()       { return m_time; }
+
+		/** Last if known, else the bid/ask midpoint, else whichever side is known, else close; NaN if none. */
+		public double price() {
+			if (m_last > 0) {
+				return m_last;
+			}
+			if (m_bid > 0 && m_ask > 0) {
+				return (m_bid + m_ask) / 2;
+			}
+			return m_bid > 0 ? m_bid : m_ask > 0 ? m_ask : m_close > 0 ? m_close : Double.NaN;
+		}
+
+		@Override public String toString() {
+			return String.format( "%s/%s last %s close %s sizes %s/%s/%s at %s", m_bid, m_ask, m_last, m_close, m_bidSize, m_askSize, m_lastSize, m_time);
+		}
+	}
+
+	/** Copies the quote for this conid into quote; false, leaving quote alone, if it was never requested. */
+	public boolean read( int conid, Quote quote) {
+		Integer slot = m_byConid.get( conid);
+		return slot != null && readSlot( slot, quote);
+	}
+
+	/** As above for any contract, found by conid when it has one. */
+	public boolean read( Contract contract, Quote quote) {
+		Integer slot = contract.conid() > 0 ? m_byConid.get( contract.conid()) : m_byKey.get( key( contract));
+		return slot != null && readSlot( slot, quote);
+	}
+
+	/** Returns a new copy of the quote for this conid, or null if it was never requested. */
+	public Quote quote( int conid) {
+		Quote quote = new Quote();
+		return read( conid, quote) ? quote : null;
+	}
+
+	public Quote quote( Contract contract) {
+		Quote quote = new Quote();
+		return read( contract, quote) ? quote : null;
+	}
+
+	boolean readSlot( int slot, Quote quote) {
+		AtomicLongArray chunk = m_chunks[slot >>> CHUNK_BITS];
+		int base = (slot & (CHUNK_SLOTS - 1)) * STRIDE;
+
+		for (;;) {
+			long seq = chunk.getAcquire( base + SEQ);
+			if ((seq & 1) != 0) {
+				Thread.onSpinWait();
+				continue;
+			}
+
+			double bid = Double.longBitsToDouble( chunk.getOpaque( base + BID));
+			double ask = Double.longBitsToDouble( chunk.getOpaque( base + ASK));
+			double last = Double.longBitsToDouble( chunk.getOpaque( base + LAST));
+			double close = Double.longBitsToDouble( chunk.getOpaque( base + CLOSE));
+			double bidSize = Double.longBitsToDouble( chunk.getOpaque( base + BID_SIZE));
+			double askSize = Double.longBitsToDouble( chunk.getOpaque( base + ASK_SIZE));
+			double lastSize = Double.longBitsToDouble( chunk.getOpaque( base + LAST_SIZE));
+			long time = chunk.getOpaque( base + TIME);
+
+			VarHandle.acquireFence();
+			if (chunk.getOpaque( base + SEQ) == seq) {
+				quote.m_bid = bid;
+				quote.m_ask = ask;
+				quote.m_last = last;
+				quote.m_close = close;
+				quote.m_bidSize = bidSize;
+				quote.m_askSize = askSize;
+				quote.m_lastSize = lastSize;
+				quote.m_time = time;
+				return true;
+			}
+		}
+	}
+
+	/** Returns the slot for this contract, creating it on first use. */
+	int slot( Contract contract) {
+		int conid = contract.conid();
+		Integer slot = conid > 0 ? m_byConid.get( conid) : m_byKey.get( key( contract));
+		if (slot != null) {
+			return slot;
+		}
+
+		synchronized (this) {
+			slot = conid > 0 ? m_byConid.get( conid) : m_byKey.get( key( contract));
+			if (slot == null) {
+				slot = newSlot();
+				if (conid > 0) {
+					m_byConid.put( conid, slot);
+				}
+				else {
+					m_byKey.put( key( contract), slot);
+				}
+			}
+			return slot;
+		}
+	}
+
+	private int newSlot() {
+		int slot = m_slots++;
+		int chunkIndex = slot >>> CHUNK_BITS;
+		AtomicLongArray[] chunks = m_chunks;
+		if (chunkIndex == chunks.length) {
+			AtomicLongArray chunk = new AtomicLongArray( CHUNK_SLOTS * STRIDE);
+			for (int i = 0; i < chunk.length(); i++) {
+				if (i % STRIDE != SEQ && i % STRIDE != TIME) {
+					chunk.setPlain( i, NO_VALUE);
+				}
+			}
+
+			AtomicLongArray[] grown = new AtomicLongArray[chunks.length + 1];
+			System.arraycopy( chunks, 0, grown, 0, chunks.length);
+			grown[chunkIndex] = chunk;
+			m_chunks = grown;
+		}
+		return slot;
+	}
+
+	private static String key( Contract contract) {
+		return TopMktDataMultiplexer.key( contract, "");
+	}
+
+	/** Records a price tick; ticks other than bid, ask, last and close are ignored. */
+	void tickPrice( int slot, int tickType, double price) {
+		int field;
+		if (tickType == TickType.BID.index() || tickType == TickType.DELAYED_BID.index()) {
+			field = BID;
+		}
+		else if (tickType == TickType.ASK.index() || tickType == TickType.DELAYED_ASK.index()) {
+			field = ASK;
+		}
+		else if (tickType == TickType.LAST.index() || tickType == TickType.DELAYED_LAST.index()) {
+			field = LAST;
+		}
+		else if (tickType == TickType.CLOSE.index() || tickType == TickType.DELAYED_CLOSE.index()) {
+			field = CLOSE;
+		}
+		else {
+			return;
+		}
+		write( slot, field, Double.doubleToRawLongBits( price));
+	}
+
+	/** Records a size tick; ticks other than bid, ask and last size are ignored. */
+	void tickSize( int slot, int tickType, Decimal size) {
+		tickSize( slot, tickType, size == null ? Double.NaN : size.doubleValue());
+	}
+
+	/** Records a size tick given as a double, NaN when unknown. */
+	void tickSize( int slot, int tickType, double size) {
+		int field;
+		if (tickType == TickType.BID_SIZE.index() || tickType == TickType.DELAYED_BID_SIZE.index()) {
+			field = BID_SIZE;
+		}
+		else if (tickType == TickType.ASK_SIZE.index() || tickType == TickType.DELAYED_ASK_SIZE.index()) {
+			field = ASK_SIZE;
+		}
+		else if (tickType == TickType.LAST_SIZE.index() || tickType == TickType.DELAYED_LAST_SIZE.index()) {
+			field = LAST_SIZE;
+		}
+		else {
+			return;
+		}
+		write( slot, field, Double.doubleToRawLongBits( size));
+	}
+
+	private synchronized void write( int slot, int field, long bits) {
+		AtomicLongArray chunk = m_chunks[slot >>> CHUNK_BITS];
+		int base = (slot & (CHUNK_SLOTS - 1)) * STRIDE;
+
+		long seq = chunk.getPlain( base + SEQ);
+		chunk.setOpaque( base + SEQ, seq + 1);
+		VarHandle.releaseFence();
+		chunk.setOpaque( base + field, bits);
+		chunk.setOpaque( base + TIME, System.currentTimeMillis());
+		chunk.setRelease( base + SEQ, seq + 2);
+	}
+}
@@ -0,0 +1,289 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ib.client.EClientErrors;
+import com.ib.controller.AsyncApiController.RequestException;
+
+/**
+ * One market data stream of ApiController as a Flow.Publisher.
+ *
+ * The request is sent to TWS when the first subscriber arrives and cancelled when the
+ * last one leaves; subscribers in between share it. The thread decoding TWS messages only
+ * queues items; each subscriber receives them on its own executor, the common pool unless
+ * given, as its demand allows. A subscriber that falls behind loses items as its Overflow
+ * policy says, so it never holds up the decoder or other subscribers.
+ *
+ * An error TWS sends for the request, other than a warning, ends the stream with a
+ * RequestException for every subscriber; subscribing again sends a new request.
+ */
+public abstract class MarketDataPublisher<T> implements Flow.Publisher<T> {
+	/** What a subscriber's queue does with a new item when the subscriber has not taken the previous ones. */
+	public enum Overflow {
+		/** Keeps only the newest item; the right choice for streams of snapshots such as quotes and books. */
+		LATEST,
+		/** Keeps up to capacity items, dropping the oldest to make room. */
+		DROP_OLDEST,
+		/** Keeps up to capacity items and ends the subscription with an error when full. */
+		BUFFER
+	}
+
+	final ApiController m_controller;
+	private final Overflow m_defaultOverflow;
+	private final List<Delivery> m_deliveries = new CopyOnWriteArrayList<>();
+	private final AtomicLong m_dropped = new AtomicLong();
+	private boolean m_started; // guarded by this
+	private volatile boolean m_ended; // TWS ended the request with an error
+
+	MarketDataPublisher( ApiController controller, Overflow defaultOverflow) {
+		m_controller = controller;
+		m_defaultOverflow = defaultOverflow;
+	}
+
+	/** Sends the request to TWS; called with this locked. */
+	abstract void start();
+
+	/** Cancels the request, or, if cancel is false, only drops its handler; called with this locked. */
+	abstract void stop( boolean cancel);
+
+	/** Subscribes with the default policy of this stream and a buffer of Flow.defaultBufferSize(). */
+	@Override public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		subscribe( subscriber, m_defaultOverflow, Flow.defaultBufferSize(), ForkJoinPool.commonPool());
+	}
+
+	/** @param capacity is ignored for LATEST
+	 *  @param executor delivers every signal to subscriber, one at a time */
+	public void subscribe( Flow.Subscriber<? super T> subscriber, Overflow overflow, int capacity, Executor executor) {
+		Objects.requireNonNull( subscriber);
+		Objects.requireNonNull( overflow);
+		Objects.requireNonNull( executor);
+		if (capacity <= 0) {
+			throw new IllegalArgumentException( "capacity must be positive");
+		}
+
+		Delivery delivery = new Delivery( subscriber, overflow, capacity, executor);
+		if (!m_controller.isConnected()) {
+			delivery.fail( new RequestException( EClientErrors.NOT_CONNECTED.code(), EClientErrors.NOT_CONNECTED.msg()));
+			return;
+		}
+
+		synchronized (this) {
+			if (m_started && m_ended) {
+				stop( false);
+				m_started = false;
+			}
+			m_deliveries.add( delivery);
+			delivery.signal(); // onSubscribe goes first
+			if (!m_started) {
+				m_ended = false;
+				m_started = true;
+				start();
+			}
+		}
+	}
+
+	public int subscribers() {
+		return m_deliveries.size();
+	}
+
+	/** Items discarded so far for subscribers that fell behind. */
+	public long dropped() {
+		return m_dropped.get();
+	}
+
+	/** Queues item for every subscriber; called by the thread delivering TWS messages. */
+	void publish( T item) {
+		for (Delivery delivery : m_deliveries) {
+			delivery.offer( item);
+		}
+	}
+
+	/** Ends the stream for every subscriber after an error from TWS, unless it is a warning. */
+	void requestError( int errorCode, String errorMsg) {
+		if (AsyncApiController.isWarning( errorCode)) {
+			return;
+		}
+		m_ended = true;
+		for (Delivery delivery : m_deliveries) {
+			delivery.fail( new RequestException( errorCode, errorMsg));
+		}
+	}
+
+	/** Stops delivering to delivery. The request, if now unused, is stopped from another thread, as
+	 *  this may be called from a subscriber's callback while the decoder holds locks of its own. */
+	private void detach( Delivery delivery) {
+		if (m_deliveries.remove( delivery) && m_deliveries.isEmpty()) {
+			ForkJoinPool.commonPool().execute( this::stopIfIdle);
+		}
+	}
+
+	private synchronized void stopIfIdle() {
+		if (m_started && m_deliveries.isEmpty()) {
+			stop( !m_ended);
+			m_started = false;
+		}
+	}
+
+	/** The queue and demand of one subscriber, drained on its executor by at most one thread at a time. */
+	private final class Delivery implements Flow.Subscription, Runnable {
+		private final Flow.Subscriber<? super T> m_subscriber;
+		private final Overflow m_overflow;
+		private final int m_capacity;
+		private final Executor m_executor;
+		private final AtomicInteger m_pending = new AtomicInteger(); // signals not yet seen by the drain
+		private final ArrayDeque<T> m_items = new ArrayDeque<>(); // guarded by this
+		private long m_demand; // guarded by this
+		private Throwable m_error; // guarded by this; delivered ahead of any queued items
+		private boolean m_done; // guarded by this
+		private boolean m_subscribed; // drain only
+
+		Delivery( Flow.Subscriber<? super T> subscriber, Overflow overflow, int capacity, Executor executor) {
+			m_subscriber = subscriber;
+			m_overflow = overflow;
+			m_capacity = capacity;
+			m_executor = executor;
+		}
+
+		void offer( T item) {
+			synchronized (this) {
+				if (m_done || m_error != null) {
+					return;
+				}
+				if (m_overflow == Overflow.LATEST) {
+					if (!m_items.isEmpty()) {
+						m_items.clear();
+						m_dropped.incrementAndGet();
+					}
+				}
+				else if (m_items.size() >= m_capacity) {
+					if (m_overflow == Overflow.BUFFER) {
+						m_error = new IllegalStateException( "subscriber fell more than " + m_capacity + " items behind");
+						m_items.clear();
+						m_dropped.addAndGet( m_capacity + 1);
+					}
+					else {
+						m_items.poll();
+						m_dropped.incrementAndGet();
+					}
+				}
+				if (m_error == null) {
+					m_items.add( item);
+				}
+			}
+			signal();
+		}
+
+		void fail( Throwable error) {
+			synchronized (this) {
+				if (m_done || m_error != null) {
+					return;
+				}
+				m_error = error;
+				m_items.clear();
+			}
+			signal();
+		}
+
+		void signal() {
+			if (m_pending.getAndIncrement() == 0) {
+				try {
+					m_executor.execute( this);
+				}
+				catch (RejectedExecutionException e) {
+					synchronized (this) {
+						m_done = true;
+						m_items.clear();
+					}
+					detach( this);
+				}
+			}
+		}
+
+		@Override public void request(long n) {
+			if (n <= 0) {
+				fail( new IllegalArgumentException( "request must be positive, was " + n));
+				return;
+			}
+			synchronized (this) {
+				m_demand = m_demand + n < 0 ? Long.MAX_VALUE : m_demand + n;
+			}
+			signal();
+		}
+
+		@Override public void cancel() {
+			synchronized (this) {
+				m_done = true;
+				m_items.clear();
+			}
+			detach( this);
+		}
+
+		@Override public void run() {
+			int pending = 1;
+			do {
+				if (!m_subscribed) {
+					m_subscribed = true;
+					try {
+						m_subscriber.onSubscribe( this);
+					}
+					catch (Throwable t) {
+						cancel();
+					}
+				}
+				drain();
+				pending = m_pending.addAndGet( -pending);
+			} while (pending != 0);
+		}
+
+		private void drain() {
+			for (;;) {
+				T item;
+				Throwable error;
+				synchronized (this) {
+					if (m_done) {
+						return;
+					}
+					error = m_error;
+					if (error != null) {
+						m_done = true;
+						item = null;
+					}
+					else if (m_demand == 0 || m_items.isEmpty()) {
+						return;
+					}
+					else {
+						item = m_items.poll();
+						if (m_demand != Long.MAX_VALUE) {
+							m_demand--;
+						}
+					}
+				}
+
+				if (error != null) {
+					detach( this);
+					m_subscriber.onError( error);
+					return;
+				}
+				try {
+					m_subscriber.onNext( item);
+				}
+				catch (Throwable t) {
+					cancel();
+					return;
+				}
+			}
+		}
+	}
+}
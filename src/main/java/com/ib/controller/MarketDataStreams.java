@@ -0,0 +1,262 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ib.client.Contract;
+import com.ib.client.Decimal;
+import com.ib.client.HistoricalTick;
+import com.ib.client.HistoricalTickBidAsk;
+import com.ib.client.HistoricalTickLast;
+import com.ib.client.TickAttrib;
+import com.ib.client.TickAttribBidAsk;
+import com.ib.client.TickAttribLast;
+import com.ib.client.TickByTick;
+import com.ib.client.TickType;
+import com.ib.client.Types.DeepSide;
+import com.ib.client.Types.DeepType;
+import com.ib.client.Types.WhatToShow;
+import com.ib.controller.ApiController.IDeepMktDataHandler;
+import com.ib.controller.ApiController.IRealTimeBarHandler;
+import com.ib.controller.ApiController.IRequestErrorHandler;
+import com.ib.controller.ApiController.ITickByTickDataHandler;
+import com.ib.controller.ApiController.TopMktDataAdapter;
+import com.ib.controller.LastValueCache.Quote;
+import com.ib.controller.MarketDataPublisher.Overflow;
+
+/**
+ * ApiController's market data streams as Flow.Publishers; see MarketDataPublisher.
+ *
+ * Top of book and market depth are published as whole snapshots, so subscribers lose
+ * nothing but intermediate states when conflated, which they are by default. Tick-by-tick
+ * data and real-time bars are published as they come, dropping the oldest by default.
+ */
+public class MarketDataStreams {
+	private final ApiController m_controller;
+
+	/** One side of a book; rows are in the order TWS ranks them, best first. */
+	public static class DepthRow {
+		private final double m_price;
+		private final Decimal m_size;
+		private final String m_marketMaker;
+
+		DepthRow( double price, Decimal size, String marketMaker) {
+			m_price = price;
+			m_size = size;
+			m_marketMaker = marketMaker;
+		}
+
+		public double price()         { return m_price; }
+		public Decimal size()         { return m_size; }
+		public String marketMaker()   { return m_marketMaker; }
+
+		@Override public String toString() {
+			return m_size + "@" + m_price + (m_marketMaker == null || m_marketMaker.isEmpty() ? "" : " " + m_marketMaker);
+		}
+	}
+
+	/** A market depth snapshot; it is never changed once published. */
+	public static class DepthBook {
+		private final List<DepthRow> m_bids;
+		private final List<DepthRow> m_asks;
+
+		DepthBook( List<DepthRow> bids, List<DepthRow> asks) {
+			m_bids = bids;
+			m_asks = asks;
+		}
+
+		public List<DepthRow> bids() { return m_bids; }
+		public List<DepthRow> asks() { return m_asks; }
+
+		@Override public String toString() {
+			return m_bids + " / " + m_asks;
+		}
+	}
+
+	MarketDataStreams( ApiController controller) {
+		m_controller = controller;
+	}
+
+	/** Publishes the instrument's quote, as kept by lastValues(), after each price or size tick. The
+	 *  request is shared with other users of reqSharedTopMktData. */
+	public MarketDataPublisher<Quote> topMktData( Contract contract, String genericTickList) {
+		class Publisher extends MarketDataPublisher<Quote> {
+			final Handler m_handler = new Handler();
+			int m_slot;
+
+			class Handler extends TopMktDataAdapter implements IRequestErrorHandler {
+				@Override public void tickPrice(TickType tickType, double price, TickAttrib attribs) {
+					publishQuote();
+				}
+				@Override public void tickSize(TickType tickType, Decimal size) {
+					publishQuote();
+				}
+				@Override public void requestError(int errorCode, String errorMsg) {
+					Publisher.this.requestError( errorCode, errorMsg);
+				}
+			}
+
+			Publisher( ApiController controller) {
+				super( controller, Overflow.LATEST);
+			}
+
+			void publishQuote() {
+				Quote quote = new Quote();
+				m_controller.lastValues().readSlot( m_slot, quote);
+				publish( quote);
+			}
+
+			@Override void start() {
+				m_slot = m_controller.lastValues().slot( contract);
+				m_controller.reqSharedTopMktData( contract, genericTickList, m_handler);
+			}
+
+			@Override void stop(boolean cancel) {
+				m_controller.cancelSharedTopMktData( m_handler);
+			}
+		}
+		return new Publisher( m_controller);
+	}
+
+	/** Publishes the whole book after each change. */
+	public MarketDataPublisher<DepthBook> deepMktData( Contract contract, int numRows, boolean isSmartDepth) {
+		class Publisher extends MarketDataPublisher<DepthBook> {
+			final Handler m_handler = new Handler();
+			final List<DepthRow> m_bids = new ArrayList<>();
+			final List<DepthRow> m_asks = new ArrayList<>();
+
+			class Handler implements IDeepMktDataHandler, IRequestErrorHandler {
+				@Override public void updateMktDepth(int position, String marketMaker, DeepType operation, DeepSide side, double price, Decimal size) {
+					List<DepthRow> rows = side == DeepSide.BUY ? m_bids : m_asks;
+					DepthRow row = new DepthRow( price, size, marketMaker);
+					switch (operation) {
+						case INSERT:
+							rows.add( Math.min( Math.max( position, 0), rows.size()), row);
+							break;
+						case UPDATE:
+							if (position >= 0 && position < rows.size()) {
+								rows.set( position, row);
+							}
+							else {
+								rows.add( row);
+							}
+							break;
+						case DELETE:
+							if (position >= 0 && position < rows.size()) {
+								rows.remove( position);
+							}
+							break;
+					}
+					publish( new DepthBook( List.copyOf( m_bids), List.copyOf( m_asks)));
+				}
+				@Override public void requestError(int errorCode, String errorMsg) {
+					Publisher.this.requestError( errorCode, errorMsg);
+				}
+			}
+
+			Publisher( ApiController controller) {
+				super( controller, Overflow.LATEST);
+			}
+
+			@Override void start() {
+				m_bids.clear();
+				m_asks.clear();
+				m_controller.reqDeepMktData( contract, numRows, isSmartDepth, m_handler);
+			}
+
+			@Override void stop(boolean cancel) {
+				if (cancel) {
+					m_controller.cancelDeepMktData( isSmartDepth, m_handler);
+				}
+				else {
+					m_controller.forgetRequest( m_handler);
+				}
+			}
+		}
+		return new Publisher( m_controller);
+	}
+
+	/** @param tickType is "Last", "AllLast", "BidAsk" or "MidPoint" */
+	public MarketDataPublisher<TickByTick> tickByTick( Contract contract, String tickType, boolean ignoreSize) {
+		class Publisher extends MarketDataPublisher<TickByTick> {
+			final Handler m_handler = new Handler();
+
+			class Handler implements ITickByTickDataHandler, IRequestErrorHandler {
+				@Override public void tickByTickAllLast(int reqId, int tickType, long time, double price, Decimal size, TickAttribLast tickAttribLast, String exchange, String specialConditions) {
+					publish( new TickByTick( tickType, time, price, size, tickAttribLast, exchange, specialConditions));
+				}
+				@Override public void tickByTickBidAsk(int reqId, long time, double bidPrice, double askPrice, Decimal bidSize, Decimal askSize, TickAttribBidAsk tickAttribBidAsk) {
+					publish( new TickByTick( time, bidPrice, bidSize, askPrice, askSize, tickAttribBidAsk));
+				}
+				@Override public void tickByTickMidPoint(int reqId, long time, double midPoint) {
+					publish( new TickByTick( time, midPoint));
+				}
+				// no history is requested
+				@Override public void tickByTickHistoricalTickAllLast(int reqId, List<HistoricalTickLast> ticks) {
+				}
+				@Override public void tickByTickHistoricalTickBidAsk(int reqId, List<HistoricalTickBidAsk> ticks) {
+				}
+				@Override public void tickByTickHistoricalTick(int reqId, List<HistoricalTick> ticks) {
+				}
+				@Override public void requestError(int errorCode, String errorMsg) {
+					Publisher.this.requestError( errorCode, errorMsg);
+				}
+			}
+
+			Publisher( ApiController controller) {
+				super( controller, Overflow.DROP_OLDEST);
+			}
+
+			@Override void start() {
+				m_controller.reqTickByTickData( contract, tickType, 0, ignoreSize, m_handler);
+			}
+
+			@Override void stop(boolean cancel) {
+				if (cancel) {
+					m_controller.cancelTickByTickData( m_handler);
+				}
+				else {
+					m_controller.forgetRequest( m_handler);
+				}
+			}
+		}
+		return new Publisher( m_controller);
+	}
+
+	/** Publishes a bar every five seconds. */
+	public MarketDataPublisher<Bar> realTimeBars( Contract contract, WhatToShow whatToShow, boolean rthOnly) {
+		class Publisher extends MarketDataPublisher<Bar> {
+			final Handler m_handler = new Handler();
+
+			class Handler implements IRealTimeBarHandler, IRequestErrorHandler {
+				@Override public void realtimeBar(Bar bar) {
+					publish( bar);
+				}
+				@Override public void requestError(int errorCode, String errorMsg) {
+					Publisher.this.requestError( errorCode, errorMsg);
+				}
+			}
+
+			Publisher( ApiController controller) {
+				super( controller, Overflow.DROP_OLDEST);
+			}
+
+			@Override void start() {
+				m_controller.reqRealTimeBars( contract, whatToShow, rthOnly, m_handler);
+			}
+
+			@Override void stop(boolean cancel) {
+				if (cancel) {
+					m_controller.cancelRealtimeBars( m_handler);
+				}
+				else {
+					m_controller.forgetRequest( m_handler);
+				}
+			}
+		}
+		return new Publisher( m_controller);
+	}
+}
@@ -31,6 +31,8 @@ public enum MarketValueTag {
     WarrantValue("Warrant"),
     FxCashBalance("FxCashBalance");
 
+    private static final MarketValueTag[] VALUES = values();
+
     private final String description;
 
     MarketValueTag(final String description) {
@@ -38,7 +40,7 @@ public enum MarketValueTag {
     }
 
     public static MarketValueTag get(int i) {
-        return Types.getEnum(i, values());
+        return Types.getEnum(i, VALUES);
     }
 
     @Override
@@ -0,0 +1,776 @@
+/* Copyright (C) 2024 Interactive Brokers LLC. All rights reserved. This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.ib.client.ComboLeg;
+import com.ib.client.Contract;
+import com.ib.client.Decimal;
+import com.ib.client.TickAttrib;
+import com.ib.client.TickType;
+import com.ib.controller.ApiController.IRequestErrorHandler;
+import com.ib.controller.ApiController.ITopMktDataHandler;
+
+/**
+ * Shares streaming top market data between handlers that ask for the same contract.
+ *
+ * Subscriptions are keyed by conid and exchange, or by the contract fields when there is
+ * no conid, plus the generic tick list in any order. The first handler for a key opens
+ * the TWS request, later ones join it and are sent the latest value of each tick so far,
+ * and the request is cancelled when the last handler leaves.
+ *
+ * When the connection is lost every subscription is kept but its values are forgotten,
+ * and it is requested again once the connection is back. A subscription TWS ends with
+ * an error is dropped after its handlers are told, so the next handler for its key
+ * opens a new request.
+ *
+ * Neither handlers nor TWS are called while holding the multiplexer lock. Requests and
+ * cancels are decided under it and sent after it is released, in the order decided, by
+ * one thread at a time. Each tick is stored and queued for the subscription's handlers
+ * under the lock, and delivered after it, in order, by one thread at a time; usually the
+ * thread delivering TWS messages, but a thread joining or leaving meanwhile may deliver
+ * some itself. A joining handler is queued the latest values at the point it joins, so it
+ * never misses or repeats a tick, and a handler that has left is passed nothing more.
+ * Handlers may cancel from a callback.
+ *
+ * TWS allows a limited number of market data lines, so streaming requests are kept
+ * within a line budget that counts every top, depth and tick-by-tick request registered
+ * with the controller. When a subscription does not fit, the lowest priority streaming one
+ * below it is demoted, or else it starts demoted itself. Demoted subscriptions are
+ * refreshed by snapshots in turn on a few reserved lines, and promoted back, highest
+ * priority first, as lines become free.
+ */
+public class TopMktDataMultiplexer {
+	/** Which subscriptions keep streaming when lines run short; a subscription has its highest handler's priority. */
+	public enum Priority {
+		BACKGROUND,
+		VISIBLE,
+		MONITORED
+	}
+
+	private final ApiController m_controller;
+	private final Map<String, Subscription> m_subscriptions = new HashMap<>(); // guarded by this
+	private final IdentityHashMap<ITopMktDataHandler, Subscription> m_byHandler = new IdentityHashMap<>(); // guarded by this
+	private final ArrayDeque<Subscription> m_demoted = new ArrayDeque<>(); // next to refresh first; guarded by this
+	private int m_lineBudget = 100; // guarded by this
+	private int m_snapshotLines = 5; // guarded by this
+	private long m_refreshMillis = 5000; // guarded by this
+	private int m_pendingSnapshots; // guarded by this
+	private ScheduledFuture<?> m_refreshTask; // guarded by this
+	private final ArrayDeque<Request> m_requests = new ArrayDeque<>(); // decided but not yet sent; guarded by this
+	private boolean m_sending; // a thread is sending m_requests; guarded by this
+
+	TopMktDataMultiplexer( ApiController controller) {
+		m_controller = controller;
+	}
+
+	/**
+	 * Sets the number of market data lines allowed, of which snapshotLines are kept for
+	 * refreshing demoted subscriptions. The default is 100 lines with 5 for snapshots.
+	 */
+	public void lineBudget( int lines, int snapshotLines) {
+		if (snapshotLines < 1 || lines <= snapshotLines) {
+			throw new IllegalArgumentException( "lines must exceed snapshotLines, which must be positive");
+		}
+		synchronized (this) {
+			m_lineBudget = lines;
+			m_snapshotLines = snapshotLines;
+			rebalance();
+		}
+		sendRequests();
+	}
+
+	synchronized int lineBudget() {
+		return m_lineBudget;
+	}
+
+	synchronized int snapshotLines() {
+		return m_snapshotLines;
+	}
+
+	/** Sets how often demoted subscriptions are refreshed; the default is every 5 seconds. */
+	public synchronized void refreshInterval( long millis) {
+		if (millis <= 0) {
+			throw new IllegalArgumentException( "refresh interval must be positive");
+		}
+		m_refreshMillis = millis;
+		if (m_refreshTask != null) {
+			m_refreshTask.cancel( false);
+			m_refreshTask = null;
+			scheduleRefresh();
+		}
+	}
+
+	/** Adds handler at VISIBLE priority. */
+	public void subscribe( Contract contract, String genericTickList, ITopMktDataHandler handler) {
+		subscribe( contract, genericTickList, Priority.VISIBLE, handler);
+	}
+
+	/** Adds handler to the subscription for this contract and tick list, opening it if it is the first. */
+	public void subscribe( Contract contract, String genericTickList, Priority priority, ITopMktDataHandler handler) {
+		if (!m_controller.checkConnection()) {
+			return;
+		}
+
+		String ticks = canonicalTicks( genericTickList);
+		String key = key( contract, ticks);
+		Subscription sub;
+		synchronized (this) {
+			if (m_byHandler.containsKey( handler)) {
+				return;
+			}
+			sub = m_subscriptions.get( key);
+			boolean opened = sub == null;
+			if (opened) {
+				sub = new Subscription( key, contract.clone(), ticks);
+				m_subscriptions.put( key, sub);
+			}
+			sub.join( handler);
+			sub.m_priorities.put( handler, priority);
+			m_byHandler.put( handler, sub);
+
+			if (opened) {
+				open( sub);
+			}
+			else {
+				sub.replay( handler);
+				rebalance();
+			}
+		}
+		sendRequests();
+		sub.deliver();
+	}
+
+	/** Removes handler; the TWS request is cancelled once it has no handlers left. */
+	public void unsubscribe( ITopMktDataHandler handler) {
+		synchronized (this) {
+			Subscription sub = leave( handler);
+			if (sub != null) {
+				cancel( sub);
+			}
+			rebalance();
+		}
+		sendRequests();
+	}
+
+	/** Removes all these handlers, cancelling the requests left without handlers. */
+	public void unsubscribeAll( Collection<? extends ITopMktDataHandler> handlers) {
+		synchronized (this) {
+			for (ITopMktDataHandler handler : handlers) {
+				Subscription sub = leave( handler);
+				if (sub != null) {
+					cancel( sub);
+				}
+			}
+			rebalance();
+		}
+		sendRequests();
+	}
+
+	/** Called when the connection is lost: the TWS requests are gone, so each subscription forgets its
+	 *  request and values, and waits for resubscribe. */
+	synchronized void reset() {
+		m_requests.clear(); // meant for the lost connection
+		for (Subscription sub : m_subscriptions.values()) {
+			if (sub.m_streaming) {
+				m_controller.forgetTopMktData( sub);
+				sub.m_streaming = false;
+			}
+			Snapshot snapshot = sub.m_snapshot;
+			if (snapshot != null) {
+				m_controller.forgetTopMktData( snapshot);
+				sub.m_snapshot = null;
+			}
+			sub.clearValues();
+		}
+		m_demoted.clear();
+		m_pendingSnapshots = 0;
+		if (m_refreshTask != null) {
+			m_refreshTask.cancel( false);
+			m_refreshTask = null;
+		}
+	}
+
+	/** Requests again, highest priority first, the subscriptions lost with the connection; called on nextValidId. */
+	void resubscribe() {
+		synchronized (this) {
+			List<Subscription> lost = new ArrayList<>();
+			for (Subscription sub : m_subscriptions.values()) {
+				if (!sub.m_streaming && !m_demoted.contains( sub)) {
+					lost.add( sub);
+				}
+			}
+			lost.sort( (a, b) -> b.priority().compareTo( a.priority()));
+			for (Subscription sub : lost) {
+				open( sub);
+			}
+		}
+		sendRequests();
+	}
+
+	/** Drops a subscription whose TWS request has ended, so the next handler for its key opens a new one. */
+	private void end( Subscription sub) {
+		if (m_subscriptions.get( sub.m_key) != sub) {
+			return;
+		}
+		m_subscriptions.remove( sub.m_key);
+		for (ITopMktDataHandler handler : sub.m_handlers) {
+			m_byHandler.remove( handler);
+		}
+		m_demoted.remove( sub);
+		dropSnapshot( sub);
+		if (sub.m_streaming) {
+			m_controller.forgetTopMktData( sub);
+			sub.m_streaming = false;
+		}
+		rebalance();
+	}
+
+	/** Number of subscriptions, streaming or demoted. */
+	public synchronized int subscriptions() {
+		return m_subscriptions.size();
+	}
+
+	/** Number of subscriptions currently refreshed by snapshots instead of streaming. */
+	public synchronized int demoted() {
+		return m_demoted.size();
+	}
+
+	/** Number of handlers sharing those requests. */
+	public synchronized int handlers() {
+		return m_byHandler.size();
+	}
+
+	/** Returns the subscription if it was streaming and handler was its last one. */
+	private Subscription leave( ITopMktDataHandler handler) {
+		Subscription sub = m_byHandler.remove( handler);
+		if (sub == null) {
+			return null;
+		}
+
+		sub.leave( handler);
+		sub.m_priorities.remove( handler);
+		if (sub.m_handlers.length > 0) {
+			return null;
+		}
+		m_subscriptions.remove( sub.m_key);
+		dropSnapshot( sub);
+		if (!sub.m_streaming) {
+			m_demoted.remove( sub);
+			return null;
+		}
+		sub.m_streaming = false;
+		return sub;
+	}
+
+	// ---------------------------------------- Line budget ----------------------------------------
+	/** Streaming lines in use, not counting outstanding snapshots. */
+	private int streamingLines() {
+		return m_controller.mktDataLines() - m_pendingSnapshots;
+	}
+
+	private boolean hasFreeLine() {
+		return streamingLines() < m_lineBudget - m_snapshotLines;
+	}
+
+	private void open( Subscription sub) {
+		if (!hasFreeLine()) {
+			Subscription victim = lowestStreaming();
+			if (victim != null && victim.priority().compareTo( sub.priority()) < 0) {
+				demote( victim);
+			}
+		}
+
+		if (hasFreeLine()) {
+			stream( sub);
+		}
+		else {
+			m_demoted.addFirst( sub);
+			scheduleRefresh();
+			refreshSnapshots();
+		}
+	}
+
+	private void stream( Subscription sub) {
+		dropSnapshot( sub);
+		sub.m_streaming = true;
+		request( sub, false);
+	}
+
+	private void demote( Subscription sub) {
+		cancel( sub);
+		sub.m_streaming = false;
+		m_demoted.addFirst( sub);
+		scheduleRefresh();
+	}
+
+	/** Promotes demoted subscriptions into free lines and swaps them with lower priority streaming ones. */
+	private void rebalance() {
+		if (!m_controller.isConnected()) {
+			return;
+		}
+
+		// lines taken by requests outside the multiplexer can push it over budget
+		while (streamingLines() > m_lineBudget - m_snapshotLines) {
+			Subscription victim = lowestStreaming();
+			if (victim == null) {
+				break;
+			}
+			demote( victim);
+		}
+
+		for (Subscription best; (best = highestDemoted()) != null; ) {
+			if (!hasFreeLine()) {
+				Subscription victim = lowestStreaming();
+				if (victim == null || victim.priority().compareTo( best.priority()) >= 0) {
+					break;
+				}
+				demote( victim);
+			}
+			m_demoted.remove( best);
+			stream( best);
+		}
+	}
+
+	private Subscription lowestStreaming() {
+		Subscription lowest = null;
+		for (Subscription sub : m_subscriptions.values()) {
+			if (sub.m_streaming && (lowest == null || sub.priority().compareTo( lowest.priority()) < 0)) {
+				lowest = sub;
+			}
+		}
+		return lowest;
+	}
+
+	private Subscription highestDemoted() {
+		Subscription highest = null;
+		for (Subscription sub : m_demoted) {
+			if (highest == null || sub.priority().compareTo( highest.priority()) > 0) {
+				highest = sub;
+			}
+		}
+		return highest;
+	}
+
+	private void scheduleRefresh() {
+		if (m_refreshTask != null) {
+			return;
+		}
+		m_refreshTask = ApiController.HOUSEKEEPING.scheduleWithFixedDelay( this::refresh, m_refreshMillis, m_refreshMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void refresh() {
+		synchronized (this) {
+			rebalance();
+			expireSnapshots();
+			refreshSnapshots();
+			if (m_demoted.isEmpty() && m_pendingSnapshots == 0 && m_refreshTask != null) {
+				m_refreshTask.cancel( false);
+				m_refreshTask = null;
+			}
+		}
+		sendRequests();
+	}
+
+	/** Drops snapshots that have not ended within two refresh intervals, so their lines are not held forever. */
+	private void expireSnapshots() {
+		long now = System.currentTimeMillis();
+		for (Subscription sub : m_demoted) {
+			Snapshot snapshot = sub.m_snapshot;
+			if (snapshot != null && now - snapshot.m_sent > 2 * m_refreshMillis) {
+				dropSnapshot( sub);
+			}
+		}
+	}
+
+	private void dropSnapshot( Subscription sub) {
+		Snapshot snapshot = sub.m_snapshot;
+		if (snapshot != null) {
+			cancel( snapshot);
+			snapshot.end();
+		}
+	}
+
+	/** Requests snapshots for demoted subscriptions, in turn, while snapshot lines are free. */
+	private void refreshSnapshots() {
+		if (!m_controller.isConnected()) {
+			return;
+		}
+
+		for (int i = m_demoted.size(); i > 0 && m_pendingSnapshots < m_snapshotLines
+				&& m_controller.mktDataLines() < m_lineBudget; i--) {
+			Subscription sub = m_demoted.pollFirst();
+			m_demoted.addLast( sub);
+			if (sub.m_snapshot == null) {
+				sub.m_snapshot = new Snapshot( sub);
+				m_pendingSnapshots++;
+				request( sub, true);
+			}
+		}
+	}
+
+	// ---------------------------------------- Sending ----------------------------------------
+	/** A request or cancel decided under the lock, sent after it is released. */
+	private final class Request {
+		final int m_reqId;
+		final Subscription m_sub; // null for a cancel
+		final ITopMktDataHandler m_handler;
+		final boolean m_snapshot;
+
+		Request( int reqId, Subscription sub, ITopMktDataHandler handler, boolean snapshot) {
+			m_reqId = reqId;
+			m_sub = sub;
+			m_handler = handler;
+			m_snapshot = snapshot;
+		}
+
+		void send() {
+			if (m_sub == null) {
+				m_controller.sendCancelTopMktData( m_reqId);
+			}
+			else {
+				m_controller.sendTopMktData( m_reqId, m_sub.m_contract, m_sub.m_ticks, m_snapshot, m_handler);
+			}
+		}
+	}
+
+	/** Registers handler, the subscription itself or one of its snapshots, and queues its request. */
+	private void request( Subscription sub, boolean snapshot) {
+		ITopMktDataHandler handler = snapshot ? sub.m_snapshot : sub;
+		int reqId = m_controller.registerTopMktData( sub.m_contract, handler);
+		m_requests.add( new Request( reqId, sub, handler, snapshot));
+	}
+
+	/** Forgets handler's request and queues its cancel, or drops the request if it has not been sent yet. */
+	private void cancel( ITopMktDataHandler handler) {
+		int reqId = m_controller.forgetTopMktData( handler);
+		if (reqId < 0) {
+			return;
+		}
+		if (!m_requests.removeIf( request -> request.m_reqId == reqId)) {
+			m_requests.add( new Request( reqId, null, handler, false));
+		}
+	}
+
+	/** Sends the queued requests in order, unless another thread already is; it sends these too. */
+	private void sendRequests() {
+		synchronized (this) {
+			if (m_sending) {
+				return;
+			}
+			m_sending = true;
+		}
+		Request request = null;
+		try {
+			do {
+				if (request != null) {
+					request.send();
+				}
+				synchronized (this) {
+					request = m_requests.poll();
+					m_sending = request != null;
+				}
+			} while (request != null);
+		}
+		finally {
+			if (request != null) {
+				synchronized (this) {
+					m_sending = false;
+				}
+			}
+		}
+	}
+
+	static String canonicalTicks( String genericTickList) {
+		if (genericTickList == null || genericTickList.trim().isEmpty()) {
+			return "";
+		}
+
+		String[] ticks = Arrays.stream( genericTickList.split( ","))
+				.map( String::trim)
+				.filter( tick -> !tick.isEmpty())
+				.distinct()
+				.sorted()
+				.toArray( String[]::new);
+		return String.join( ",", ticks);
+	}
+
+	static String key( Contract contract, String canonicalTicks) {
+		StringBuilder sb = new StringBuilder();
+		if (contract.conid() > 0) {
+			sb.append( contract.conid()).append( '|').append( contract.exchange());
+		}
+		else {
+			sb.append( contract.symbol()).append( '|')
+			  .append( contract.getSecType()).append( '|')
+			  .append( contract.lastTradeDateOrContractMonth()).append( '|')
+			  .append( contract.strike()).append( '|')
+			  .append( contract.getRight()).append( '|')
+			  .append( contract.multiplier()).append( '|')
+			  .append( contract.exchange()).append( '|')
+			  .append( contract.primaryExch()).append( '|')
+			  .append( contract.currency()).append( '|')
+			  .append( contract.localSymbol()).append( '|')
+			  .append( contract.tradingClass()).append( '|')
+			  .append( contract.getSecIdType()).append( '|')
+			  .append( contract.secId());
+		}
+		if (contract.comboLegs() != null) {
+			for (ComboLeg leg : contract.comboLegs()) {
+				sb.append( '|').append( leg.conid()).append( ':').append( leg.ratio()).append( ':')
+				  .append( leg.getAction()).append( ':').append( leg.exchange());
+			}
+		}
+		if (contract.deltaNeutralContract() != null) {
+			sb.append( "|dn:").append( contract.deltaNeutralContract().conid());
+		}
+		return sb.append( '#').append( canonicalTicks).toString();
+	}
+
+	/** One snapshot request refreshing a demoted subscription; ticks go to the subscription's handlers. */
+	private class Snapshot extends ApiController.TopMktDataAdapter {
+		final Subscription m_sub;
+		final long m_sent = System.currentTimeMillis();
+
+		Snapshot( Subscription sub) {
+			m_sub = sub;
+		}
+
+		void end() {
+			if (m_sub.m_snapshot == this) {
+				m_sub.m_snapshot = null;
+				m_pendingSnapshots--;
+			}
+		}
+
+		@Override public void tickPrice(TickType tickType, double price, TickAttrib attribs) {
+			m_sub.tickPrice( tickType, price, attribs);
+		}
+
+		@Override public void tickSize(TickType tickType, Decimal size) {
+			m_sub.tickSize( tickType, size);
+		}
+
+		@Override public void tickString(TickType tickType, String value) {
+			m_sub.tickString( tickType, value);
+		}
+
+		@Override public void tickSnapshotEnd() {
+			synchronized (TopMktDataMultiplexer.this) {
+				m_controller.forgetTopMktData( this);
+				end();
+			}
+		}
+	}
+
+	/** The single handler registered with ApiController for one key; passes each tick on to its handlers. */
+	private class Subscription implements ITopMktDataHandler, IRequestErrorHandler {
+		final String m_key;
+		final Contract m_contract;
+		final String m_ticks;
+		volatile ITopMktDataHandler[] m_handlers = new ITopMktDataHandler[0]; // replaced, not changed, under the multiplexer lock
+		final Map<ITopMktDataHandler, Priority> m_priorities = new IdentityHashMap<>();
+		final Map<TickType, Double> m_prices = new EnumMap<>( TickType.class);
+		final Map<TickType, TickAttrib> m_attribs = new EnumMap<>( TickType.class);
+		final Map<TickType, Decimal> m_sizes = new EnumMap<>( TickType.class);
+		final Map<TickType, String> m_strings = new EnumMap<>( TickType.class);
+		final ArrayDeque<Runnable> m_events = new ArrayDeque<>(); // queued under the multiplexer lock
+		boolean m_delivering; // a thread is delivering m_events; guarded by the multiplexer
+		int m_marketDataType = -1;
+		boolean m_streaming;
+		Snapshot m_snapshot;
+
+		Subscription( String key, Contract contract, String ticks) {
+			m_key = key;
+			m_contract = contract;
+			m_ticks = ticks;
+		}
+
+		void join( ITopMktDataHandler handler) {
+			ITopMktDataHandler[] handlers = Arrays.copyOf( m_handlers, m_handlers.length + 1);
+			handlers[handlers.length - 1] = handler;
+			m_handlers = handlers;
+		}
+
+		void leave( ITopMktDataHandler handler) {
+			m_handlers = Arrays.stream( m_handlers).filter( h -> h != handler).toArray( ITopMktDataHandler[]::new);
+		}
+
+		boolean has( ITopMktDataHandler handler) {
+			for (ITopMktDataHandler h : m_handlers) {
+				if (h == handler) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void clearValues() {
+			m_prices.clear();
+			m_attribs.clear();
+			m_sizes.clear();
+			m_strings.clear();
+			m_marketDataType = -1;
+		}
+
+		Priority priority() {
+			Priority highest = Priority.BACKGROUND;
+			for (Priority priority : m_priorities.values()) {
+				if (priority.compareTo( highest) > 0) {
+					highest = priority;
+				}
+			}
+			return highest;
+		}
+
+		/** Queues for a joining handler the values its peers have seen, unless it leaves on the way; called with the lock held. */
+		void replay( ITopMktDataHandler handler) {
+			int marketDataType = m_marketDataType;
+			List<Map.Entry<TickType, Double>> prices = new ArrayList<>( m_prices.entrySet());
+			Map<TickType, TickAttrib> attribs = new EnumMap<>( m_attribs);
+			List<Map.Entry<TickType, Decimal>> sizes = new ArrayList<>( m_sizes.entrySet());
+			List<Map.Entry<TickType, String>> strings = new ArrayList<>( m_strings.entrySet());
+
+			m_events.add( () -> {
+				if (marketDataType >= 0 && has( handler)) {
+					handler.marketDataType( marketDataType);
+				}
+				for (Map.Entry<TickType, Double> entry : prices) {
+					if (!has( handler)) {
+						return;
+					}
+					handler.tickPrice( entry.getKey(), entry.getValue(), attribs.get( entry.getKey()));
+				}
+				for (Map.Entry<TickType, Decimal> entry : sizes) {
+					if (!has( handler)) {
+						return;
+					}
+					handler.tickSize( entry.getKey(), entry.getValue());
+				}
+				for (Map.Entry<TickType, String> entry : strings) {
+					if (!has( handler)) {
+						return;
+					}
+					handler.tickString( entry.getKey(), entry.getValue());
+				}
+			});
+		}
+
+		/** Queues callback for the handlers subscribed now that are still subscribed when it is delivered; called with the lock held. */
+		private void queue( Consumer<ITopMktDataHandler> callback) {
+			ITopMktDataHandler[] handlers = m_handlers;
+			m_events.add( () -> {
+				for (ITopMktDataHandler handler : handlers) {
+					if (has( handler)) {
+						callback.accept( handler);
+					}
+				}
+			});
+		}
+
+		/** Delivers the queued callbacks in order, unless another thread already is; it delivers these too. */
+		void deliver() {
+			synchronized (TopMktDataMultiplexer.this) {
+				if (m_delivering) {
+					return;
+				}
+				m_delivering = true;
+			}
+			Runnable event = null;
+			try {
+				do {
+					if (event != null) {
+						event.run();
+					}
+					synchronized (TopMktDataMultiplexer.this) {
+						event = m_events.poll();
+						m_delivering = event != null;
+					}
+				} while (event != null);
+			}
+			finally {
+				if (event != null) {
+					synchronized (TopMktDataMultiplexer.this) {
+						m_delivering = false;
+					}
+				}
+			}
+		}
+
+		@Override public void tickPrice(TickType tickType, double price, TickAttrib attribs) {
+			synchronized (TopMktDataMultiplexer.this) {
+				m_prices.put( tickType, price);
+				m_attribs.put( tickType, attribs);
+				queue( handler -> handler.tickPrice( tickType, price, attribs));
+			}
+			deliver();
+		}
+
+		@Override public void tickSize(TickType tickType, Decimal size) {
+			synchronized (TopMktDataMultiplexer.this) {
+				m_sizes.put( tickType, size);
+				queue( handler -> handler.tickSize( tickType, size));
+			}
+			deliver();
+		}
+
+		@Override public void tickString(TickType tickType, String value) {
+			synchronized (TopMktDataMultiplexer.this) {
+				m_strings.put( tickType, value);
+				queue( handler -> handler.tickString( tickType, value));
+			}
+			deliver();
+		}
+
+		@Override public void tickSnapshotEnd() {
+			synchronized (TopMktDataMultiplexer.this) {
+				queue( ITopMktDataHandler::tickSnapshotEnd);
+			}
+			deliver();
+		}
+
+		@Override public void marketDataType(int marketDataType) {
+			synchronized (TopMktDataMultiplexer.this) {
+				m_marketDataType = marketDataType;
+				queue( handler -> handler.marketDataType( marketDataType));
+			}
+			deliver();
+		}
+
+		@Override public void tickReqParams(int tickerId, double minTick, String bboExchange, int snapshotPermissions) {
+			synchronized (TopMktDataMultiplexer.this) {
+				queue( handler -> handler.tickReqParams( tickerId, minTick, bboExchange, snapshotPermissions));
+			}
+			deliver();
+		}
+
+		@Override public void requestError(int errorCode, String errorMsg) {
+			synchronized (TopMktDataMultiplexer.this) {
+				// anything but a warning means TWS has ended the request
+				if (!AsyncApiController.isWarning( errorCode)) {
+					end( this);
+				}
+				queue( handler -> {
+					if (handler instanceof IRequestErrorHandler) {
+						((IRequestErrorHandler)handler).requestError( errorCode, errorMsg);
+					}
+				});
+			}
+			sendRequests();
+			deliver();
+		}
+	}
+}
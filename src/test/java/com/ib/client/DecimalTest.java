@@ -0,0 +1,138 @@
+package com.ib.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class DecimalTest {
+
+    private static final String[] SAMPLES = {
+        "0", "1", "-1", "100", "1023", "1024", "0.5", "-0.25", "12.3400", "0.0000000000000001",
+        "123456789.123456", "9999999999999999", "-9999999999999999", "10000000000000000",
+        "123456789012345678", "0.00000000000000001", "1e3", "-2.5E-4", "007", "1,000",
+        "9223372036854775807", "-9223372036854775808", "3.14159265358979323846",
+    };
+
+    /** What Decimal promises: the value of a BigDecimal rounded to 16 digits, at scale 16. */
+    private static BigDecimal reference(String text) {
+        return new BigDecimal(text.replace(",", ""), Decimal.MATH_CONTEXT).setScale(16, RoundingMode.HALF_EVEN);
+    }
+
+    private static String plain(BigDecimal value) {
+        return value.signum() == 0 ? "0" : value.stripTrailingZeros().toPlainString();
+    }
+
+    private static List<String> samples() {
+        List<String> samples = new ArrayList<>(List.of(SAMPLES));
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            long unscaled = random.nextLong() >> random.nextInt(64);
+            int scale = random.nextInt(20);
+            samples.add(BigDecimal.valueOf(unscaled, scale).toPlainString());
+        }
+        return samples;
+    }
+
+    @Test
+    void parseAndFormatAgreeWithBigDecimal() {
+        for (String text : samples()) {
+            Decimal decimal = Decimal.parse(text);
+            BigDecimal expected = reference(text);
+            assertEquals(0, expected.compareTo(decimal.value()), text);
+            assertEquals(plain(expected), decimal.toString(), text);
+            assertEquals(decimal, Decimal.parse(decimal.toString()), text);
+        }
+    }
+
+    @Test
+    void parsingBytesMatchesParsingStrings() {
+        for (String text : samples()) {
+            byte[] buf = ("x" + text + "y").getBytes(StandardCharsets.ISO_8859_1);
+            assertEquals(Decimal.parse(text), Decimal.parse(buf, 1, text.length()), text);
+        }
+        assertNull(Decimal.parse(new byte[0], 0, 0));
+        assertNull(Decimal.parse("-".getBytes(StandardCharsets.ISO_8859_1), 0, 1));
+        assertSame(Decimal.NaN, Decimal.parse("NaN".getBytes(StandardCharsets.ISO_8859_1), 0, 3));
+    }
+
+    @Test
+    void equalValuesHaveEqualHashCodes() {
+        assertEquals(Decimal.parse("1.50"), Decimal.parse("1.5"));
+        assertEquals(Decimal.parse("1.50").hashCode(), Decimal.parse("1.5").hashCode());
+        assertEquals(Decimal.get(100), Decimal.parse("100.000"));
+        assertEquals(Decimal.get(100).hashCode(), Decimal.parse("100.000").hashCode());
+    }
+
+    @Test
+    void smallIntegersAreShared() {
+        assertSame(Decimal.ZERO, Decimal.parse("0.000"));
+        assertSame(Decimal.ONE_HUNDRED, Decimal.get(100L));
+        assertSame(Decimal.get(1023L), Decimal.parse("1023"));
+    }
+
+    @Test
+    void arithmeticAgreesWithBigDecimal() {
+        List<String> samples = samples().subList(0, 300);
+        for (String a : samples) {
+            for (String b : samples.subList(0, 30)) {
+                Decimal x = Decimal.parse(a);
+                Decimal y = Decimal.parse(b);
+                assertEquals(Decimal.get(reference(a).add(reference(b))), x.add(y), a + " + " + b);
+                assertEquals(Decimal.get(reference(a).multiply(reference(b))), x.multiply(y), a + " * " + b);
+                assertEquals(Integer.signum(reference(a).compareTo(reference(b))), Integer.signum(x.compareTo(y)), a + " <> " + b);
+            }
+        }
+    }
+
+    @Test
+    void doublesConvertAsDecimalFormatPrintsThem() {
+        DecimalFormat format = new DecimalFormat("#");
+        format.setMaximumFractionDigits(16);
+        Random random = new Random(11);
+        double[] doubles = new double[3000];
+        for (int i = 0; i < 1000; i++) {
+            doubles[i] = Math.round(random.nextDouble() * 1e8) / 100.0;        // prices
+            doubles[1000 + i] = random.nextInt(1_000_000) / 1000.0;            // sizes
+            doubles[2000 + i] = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(20) - 8);
+        }
+        for (double v : doubles) {
+            assertEquals(Decimal.parse(format.format(v)), Decimal.get(v), Double.toString(v));
+        }
+    }
+
+    @Test
+    void specialValues() {
+        assertSame(Decimal.INVALID, Decimal.get(Double.MAX_VALUE));
+        assertSame(Decimal.INVALID, Decimal.get(Long.MAX_VALUE));
+        assertSame(Decimal.NaN, Decimal.get(Double.NaN));
+        assertSame(Decimal.NaN, Decimal.parse("NaN"));
+        assertEquals("", Decimal.INVALID.toString());
+        assertEquals(Long.MAX_VALUE, Decimal.INVALID.longValue());
+        assertTrue(Double.isNaN(Decimal.INVALID.doubleValue()));
+        assertSame(Decimal.INVALID, Decimal.INVALID.negate());
+        assertSame(Decimal.INVALID, Decimal.ONE.multiply(Decimal.INVALID));
+        assertEquals(Decimal.ONE, Decimal.ONE.add(Decimal.INVALID));
+        assertNull(Decimal.parse("abc"));
+        assertNull(Decimal.parse(""));
+    }
+
+    @Test
+    void packedFormRoundTrips() {
+        for (String text : samples()) {
+            Decimal decimal = Decimal.parse(text);
+            long packed = decimal.packed();
+            if (packed != Decimal.PACKED_NONE) {
+                assertEquals(decimal, Decimal.unpack(packed), text);
+            }
+        }
+        assertEquals(Decimal.PACKED_NONE, Decimal.INVALID.packed());
+    }
+}
@@ -0,0 +1,265 @@
+package com.ib.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class EAsyncTransportTest {
+    // outgoing message ids, as in EClient
+    private static final int REQ_MKT_DATA = 1;
+    private static final int PLACE_ORDER = 3;
+    private static final int CANCEL_ORDER = 4;
+    private static final int REQ_CONTRACT_DATA = 9;
+    private static final int REQ_HISTORICAL_DATA = 20;
+    private static final int CANCEL_HISTORICAL_DATA = 25;
+    private static final int REQ_CURRENT_TIME = 49;
+
+    /** Records what the writer hands it; can hold the writer inside send, or fail it. */
+    static class FakeTransport implements ETransport {
+        final List<List<EMessage>> batches = new CopyOnWriteArrayList<>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        volatile CountDownLatch gate = new CountDownLatch(0);
+        volatile IOException failure;
+        volatile boolean closed;
+
+        @Override public void send(EMessage msg) throws IOException {
+            send(List.of(msg));
+        }
+
+        @Override public void send(List<EMessage> msgs) throws IOException {
+            batches.add(new ArrayList<>(msgs));
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        @Override public void close() {
+            closed = true;
+        }
+
+        List<EMessage> sent() {
+            List<EMessage> all = new ArrayList<>();
+            batches.forEach(all::addAll);
+            return all;
+        }
+    }
+
+    /** A client that is connected as far as the transport can tell, and records what it reports. */
+    static class TestClient extends EClientSocket {
+        final List<String> events = new CopyOnWriteArrayList<>();
+        volatile boolean connected;
+
+        TestClient() {
+            super(null, null);
+            m_eWrapper = (EWrapper) Proxy.newProxyInstance(EWrapper.class.getClassLoader(), new Class<?>[] { EWrapper.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("error") && args.length == 4) {
+                        events.add("error " + args[0] + " " + args[1]);
+                    } else if (method.getName().equals("connectionClosed")) {
+                        events.add("closed");
+                    }
+                    return null;
+                });
+            m_serverVersion = EClient.MAX_VERSION;
+        }
+
+        @Override public synchronized boolean isConnected() {
+            return connected;
+        }
+    }
+
+    /** An outgoing V100 message: length header, then NUL terminated fields. */
+    static EMessage msg(Object... fields) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Object field : fields) {
+            out.writeBytes(String.valueOf(field).getBytes(StandardCharsets.ISO_8859_1));
+            out.write(0);
+        }
+        byte[] body = out.toByteArray();
+        ByteBuffer buf = ByteBuffer.allocate(4 + body.length);
+        buf.putInt(body.length).put(body);
+        return new EMessage(buf.array(), buf.capacity());
+    }
+
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean(), "timed out");
+    }
+
+    private final TestClient client = new TestClient();
+    private final FakeTransport fake = new FakeTransport();
+    private EAsyncTransport transport;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        fake.gate.countDown();
+        if (transport != null) {
+            transport.close();
+        }
+    }
+
+    @Test
+    void queuedMessagesGoOutInBatches() throws Exception {
+        fake.gate = new CountDownLatch(1);
+        transport = new EAsyncTransport(fake, client);
+        List<EMessage> queued = new ArrayList<>();
+
+        EMessage first = msg(REQ_CURRENT_TIME, 1);
+        queued.add(first);
+        transport.send(first);
+        assertTrue(fake.entered.await(5, TimeUnit.SECONDS));
+
+        // the writer is stuck in the socket; everything else piles up behind it
+        for (int i = 0; i < 100; i++) {
+            EMessage m = msg(REQ_CURRENT_TIME, 1, i);
+            queued.add(m);
+            transport.send(m);
+        }
+        assertEquals(100, transport.pending());
+
+        fake.gate.countDown();
+        await(() -> transport.pending() == 0 && fake.sent().size() == queued.size());
+
+        assertEquals(queued, fake.sent());
+        assertEquals(List.of(1, 64, 36), fake.batches.stream().map(List::size).toList());
+    }
+
+    @Test
+    void lanesFollowTheMessageKind() {
+        assertEquals(EClient.LANE_ORDERS, EClient.outboundLane(PLACE_ORDER));
+        assertEquals(EClient.LANE_ORDERS, EClient.outboundLane(CANCEL_ORDER));
+        assertEquals(EClient.LANE_MARKET_DATA, EClient.outboundLane(REQ_MKT_DATA));
+        assertEquals(EClient.LANE_HISTORICAL, EClient.outboundLane(REQ_HISTORICAL_DATA));
+        assertEquals(EClient.LANE_HISTORICAL, EClient.outboundLane(CANCEL_HISTORICAL_DATA));
+    }
+
+    @Test
+    void ordersOvertakeQueuedDataRequests() throws Exception {
+        client.connected = true;
+        fake.gate = new CountDownLatch(1);
+        transport = new EAsyncTransport(fake, client);
+        transport.send(msg(REQ_MKT_DATA, 11, 1));
+        assertTrue(fake.entered.await(5, TimeUnit.SECONDS));
+
+        EMessage history = msg(REQ_HISTORICAL_DATA, 2);
+        EMessage historyCancel = msg(CANCEL_HISTORICAL_DATA, 1, 2);
+        EMessage quote = msg(REQ_MKT_DATA, 11, 3);
+        EMessage order = msg(PLACE_ORDER, 4);
+        EMessage cancel = msg(CANCEL_ORDER, 1, 4);
+        for (EMessage m : List.of(history, historyCancel, quote, order, cancel)) {
+            transport.send(m);
+        }
+        assertEquals(2, transport.pending(EClient.LANE_ORDERS));
+        assertEquals(1, transport.pending(EClient.LANE_MARKET_DATA));
+        assertEquals(2, transport.pending(EClient.LANE_HISTORICAL));
+
+        fake.gate.countDown();
+        await(() -> fake.sent().size() == 6);
+        assertEquals(List.of(order, cancel, quote, history, historyCancel), fake.sent().subList(1, 6));
+    }
+
+    @Test
+    void handshakeKeepsItsOrder() throws Exception {
+        fake.gate = new CountDownLatch(1);
+        transport = new EAsyncTransport(fake, client);
+        transport.send(msg(REQ_HISTORICAL_DATA, 1));
+        assertTrue(fake.entered.await(5, TimeUnit.SECONDS));
+
+        // not connected yet, so nothing is reordered
+        EMessage history = msg(REQ_HISTORICAL_DATA, 2);
+        EMessage order = msg(PLACE_ORDER, 3);
+        transport.send(history);
+        transport.send(order);
+        assertEquals(2, transport.pending(EClient.LANE_ORDERS));
+
+        fake.gate.countDown();
+        await(() -> fake.sent().size() == 3);
+        assertEquals(List.of(history, order), fake.sent().subList(1, 3));
+    }
+
+    @Test
+    void governorQueuesSynchronousConnections() throws Exception {
+        client.connected = true;
+        client.m_socketTransport = fake;
+        client.setPacingGovernor(new EPacingGovernor(1, 0, 0, 0));
+        transport = assertInstanceOf(EAsyncTransport.class, client.m_socketTransport);
+
+        // over budget, but waits instead of being dropped
+        client.sendMsg(msg(CANCEL_ORDER, 1, 5));
+        client.sendMsg(msg(CANCEL_ORDER, 1, 6));
+        await(() -> fake.sent().size() == 2);
+        assertTrue(client.events.isEmpty());
+        assertEquals(1, client.pacingGovernor().heldBack());
+    }
+
+    @Test
+    void messagesHeldBackAtCloseFailAgainstTheirIds() throws Exception {
+        client.connected = true;
+        client.setPacingGovernor(new EPacingGovernor(1, 0, 0, 0));
+        transport = new EAsyncTransport(fake, client);
+        transport.send(msg(REQ_MKT_DATA, 11, 1));
+        await(() -> fake.sent().size() == 1);
+
+        transport.send(msg(PLACE_ORDER, 7));
+        transport.send(msg(REQ_CONTRACT_DATA, 8, 42));
+        transport.send(msg(REQ_CURRENT_TIME, 1));
+        transport.close();
+
+        assertEquals(1, fake.sent().size());
+        int rejected = EClientErrors.PACING_REJECTED.code();
+        assertEquals(List.of("error 7 " + rejected, "error 42 " + rejected, "error " + EClientErrors.NO_VALID_ID + " " + rejected),
+            client.events);
+    }
+
+    @Test
+    void closeFlushesWhatIsQueued() throws Exception {
+        fake.gate = new CountDownLatch(1);
+        transport = new EAsyncTransport(fake, client);
+        for (int i = 0; i < 10; i++) {
+            transport.send(msg(REQ_CURRENT_TIME, 1, i));
+        }
+        assertTrue(fake.entered.await(5, TimeUnit.SECONDS));
+
+        new Thread(() -> fake.gate.countDown()).start();
+        transport.close();
+
+        assertEquals(10, fake.sent().size());
+        assertTrue(fake.closed);
+        assertThrows(IOException.class, () -> transport.send(msg(REQ_CURRENT_TIME, 1)));
+        assertTrue(client.events.isEmpty());
+    }
+
+    @Test
+    void failedWriteIsReportedAndClosesTheClient() throws Exception {
+        fake.failure = new IOException("broken pipe");
+        transport = new EAsyncTransport(fake, client);
+        transport.send(msg(REQ_CURRENT_TIME, 1));
+
+        await(() -> fake.closed);
+        await(() -> client.events.contains("closed"));
+        assertEquals("error " + EClientErrors.NO_VALID_ID + " " + EClientErrors.FAIL_SEND.code(), client.events.get(0));
+        assertThrows(IOException.class, () -> transport.send(msg(REQ_CURRENT_TIME, 1)));
+        assertEquals(0, transport.pending());
+    }
+}
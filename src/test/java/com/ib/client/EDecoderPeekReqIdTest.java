@@ -0,0 +1,120 @@
+package com.ib.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class EDecoderPeekReqIdTest {
+    // incoming message ids, as in EDecoder
+    private static final int TICK_PRICE = 1;
+    private static final int ORDER_STATUS = 3;
+    private static final int ERR_MSG = 4;
+    private static final int CONTRACT_DATA = 10;
+    private static final int HISTORICAL_DATA = 17;
+    private static final int BOND_CONTRACT_DATA = 18;
+    private static final int TICK_OPTION_COMPUTATION = 21;
+    private static final int CONTRACT_DATA_END = 52;
+    private static final int TICK_SNAPSHOT_END = 57;
+    private static final int MARKET_DATA_TYPE = 58;
+    private static final int HEAD_TIMESTAMP = 88;
+    private static final int TICK_BY_TICK = 99;
+
+    private static final int CURRENT = EClient.MAX_VERSION;
+
+    private static EMessage msg(Object... fields) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Object field : fields) {
+            out.writeBytes(String.valueOf(field).getBytes(StandardCharsets.ISO_8859_1));
+            out.write(0);
+        }
+        byte[] body = out.toByteArray();
+        // an offset into a larger buffer, as pooled messages have
+        ByteBuffer buf = ByteBuffer.allocate(body.length + 8);
+        buf.position(3);
+        buf.put(body);
+        return new EMessage(buf, 3, body.length, null);
+    }
+
+    private static int peek(int serverVersion, Object... fields) {
+        return EDecoder.peekReqId(msg(fields), serverVersion);
+    }
+
+    /** The first int the decoder passes to the wrapper for this message, or -1 if it calls none with one. */
+    private static int decoded(int serverVersion, Object... fields) throws Exception {
+        AtomicInteger first = new AtomicInteger(-1);
+        EWrapper wrapper = (EWrapper) Proxy.newProxyInstance(EWrapper.class.getClassLoader(), new Class<?>[] { EWrapper.class },
+                (proxy, method, args) -> {
+                    if (args != null && args.length > 0 && args[0] instanceof Integer) {
+                        first.compareAndSet(-1, (Integer) args[0]);
+                    }
+                    return null;
+                });
+        new EDecoder(serverVersion, wrapper).processMsg(msg(fields));
+        return first.get();
+    }
+
+    private static void agree(int expected, int serverVersion, Object... fields) throws Exception {
+        assertEquals(expected, decoded(serverVersion, fields), "decoder");
+        assertEquals(expected, peek(serverVersion, fields), "peekReqId");
+    }
+
+    @Test
+    void versionedMessagesCarryTheIdAfterTheVersion() throws Exception {
+        agree(42, CURRENT, TICK_PRICE, 6, 42, 1, 1.5, 100, 0);
+        agree(42, CURRENT, TICK_SNAPSHOT_END, 1, 42);
+        agree(42, CURRENT, MARKET_DATA_TYPE, 1, 42, 3);
+        agree(42, CURRENT, CONTRACT_DATA_END, 1, 42);
+    }
+
+    @Test
+    void newerMessagesCarryTheIdFirst() throws Exception {
+        agree(42, CURRENT, HEAD_TIMESTAMP, 42, "20240102-09:30:00");
+        assertEquals(42, peek(CURRENT, TICK_BY_TICK, 42, 1, 1700000000, 1.5, 100, 0, "", ""));
+    }
+
+    @Test
+    void errorsCarryTheIdOfTheirRequest() throws Exception {
+        agree(42, CURRENT, ERR_MSG, 2, 42, 200, "No security definition has been found", "");
+        assertEquals(-1, peek(CURRENT, ERR_MSG, 2, -1, 2104, "Market data farm connection is OK", ""));
+        assertEquals(-1, peek(CURRENT, ERR_MSG, 1, "a bare message"));
+    }
+
+    @Test
+    void layoutFollowsTheServerVersion() throws Exception {
+        int old = EClient.MIN_SERVER_VER_PRICE_BASED_VOLATILITY - 1;
+        agree(42, old, TICK_OPTION_COMPUTATION, 6, 42, 10, 0.2, 0.5, 1.0, 0.1, 0.01, 0.02, -0.03, 100);
+        agree(42, EClient.MIN_SERVER_VER_PRICE_BASED_VOLATILITY, TICK_OPTION_COMPUTATION, 42, 10, 0, 0.2, 0.5, 1.0, 0.1, 0.01, 0.02, -0.03, 100);
+
+        old = EClient.MIN_SERVER_VER_SYNT_REALTIME_BARS - 1;
+        agree(42, old, HISTORICAL_DATA, 3, 42, "20240101", "20240102", 0);
+        agree(42, EClient.MIN_SERVER_VER_SYNT_REALTIME_BARS, HISTORICAL_DATA, 42, "20240101", "20240102", 0);
+
+        old = EClient.MIN_SERVER_VER_SIZE_RULES - 1;
+        assertEquals(42, peek(old, CONTRACT_DATA, 8, 42, "IBM"));
+        assertEquals(42, peek(old, BOND_CONTRACT_DATA, 6, 42, "IBM"));
+        assertEquals(-1, peek(old, CONTRACT_DATA, 2, "IBM"), "version 2 carries no request id");
+        assertEquals(42, peek(EClient.MIN_SERVER_VER_SIZE_RULES, CONTRACT_DATA, 42, "IBM"));
+    }
+
+    @Test
+    void messagesNotAboutOneRequestHaveNone() {
+        assertEquals(-1, peek(CURRENT, ORDER_STATUS, 42, "Filled", 100));
+        assertEquals(-1, peek(CURRENT, 9999, 42));
+    }
+
+    @Test
+    void malformedMessagesHaveNone() {
+        assertEquals(-1, peek(CURRENT, TICK_SNAPSHOT_END, 1, "x42"));
+        assertEquals(-1, peek(CURRENT, TICK_SNAPSHOT_END, 1, "99999999999"));
+        assertEquals(-1, peek(CURRENT, TICK_SNAPSHOT_END, 1));
+        assertEquals(-1, EDecoder.peekReqId(new EMessage(ByteBuffer.wrap("57\0001\00042".getBytes(StandardCharsets.ISO_8859_1)), 0, 7, null), CURRENT),
+                "the last field has no terminator");
+        assertEquals(0, peek(CURRENT, TICK_SNAPSHOT_END, 1, ""), "an empty field reads as 0");
+    }
+}
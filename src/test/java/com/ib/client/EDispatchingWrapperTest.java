@@ -0,0 +1,144 @@
+package com.ib.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class EDispatchingWrapperTest {
+    private static final int FIRST_REQ_ID = 1000; // ids below are order ids
+
+    /** Records the method name and leading id and text arguments of every callback; tickPrice goes to ticks instead. */
+    static class Recorder {
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final Map<Integer, List<Double>> ticks = new ConcurrentHashMap<>();
+        volatile CountDownLatch gate = new CountDownLatch(0);
+        final CountDownLatch entered = new CountDownLatch(1);
+
+        final EWrapper wrapper = (EWrapper) Proxy.newProxyInstance(EWrapper.class.getClassLoader(), new Class<?>[] { EWrapper.class },
+            (proxy, method, args) -> {
+                if (method.getName().equals("tickPrice")) {
+                    ticks.computeIfAbsent((Integer) args[0], id -> new CopyOnWriteArrayList<>()).add((Double) args[2]);
+                    if (ThreadLocalRandom.current().nextInt(50) == 0) {
+                        Thread.sleep(1); // a slow handler now and then
+                    }
+                } else if (method.getName().equals("currentTime")) {
+                    entered.countDown();
+                    gate.await();
+                } else {
+                    StringBuilder event = new StringBuilder(method.getName());
+                    for (int i = 0; args != null && i < Math.min(args.length, 2); i++) {
+                        if (args[i] instanceof Number || args[i] instanceof String) {
+                            event.append(' ').append(args[i]);
+                        }
+                    }
+                    events.add(event.toString());
+                }
+                return null;
+            });
+    }
+
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean(), "timed out");
+    }
+
+    private final Recorder recorder = new Recorder();
+    private EDispatchingWrapper dispatcher;
+
+    @AfterEach
+    void tearDown() {
+        Thread.interrupted();
+        recorder.gate.countDown();
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    void callbacksForARequestKeepTheirOrder() throws Exception {
+        dispatcher = new EDispatchingWrapper(recorder.wrapper, 3, 16, id -> id < FIRST_REQ_ID);
+        int requests = 10;
+        int ticksEach = 500;
+        for (int i = 0; i < ticksEach; i++) {
+            for (int r = 0; r < requests; r++) {
+                dispatcher.tickPrice(FIRST_REQ_ID + r, TickType.BID.index(), i, new TickAttrib());
+            }
+        }
+
+        await(() -> recorder.ticks.values().stream().mapToInt(List::size).sum() == requests * ticksEach);
+        for (int r = 0; r < requests; r++) {
+            List<Double> seen = recorder.ticks.get(FIRST_REQ_ID + r);
+            for (int i = 0; i < ticksEach; i++) {
+                assertEquals(i, seen.get(i), "request " + r);
+            }
+        }
+    }
+
+    @Test
+    void orderLaneKeepsStrictOrder() throws Exception {
+        dispatcher = new EDispatchingWrapper(recorder.wrapper, 3, 16, id -> id < FIRST_REQ_ID);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int orderId = i % 7;
+            dispatcher.orderStatus(orderId, "Submitted", Decimal.ZERO, Decimal.ONE_HUNDRED, 0, i, 0, 0, 0, "", 0);
+            expected.add("orderStatus " + orderId + " Submitted");
+            dispatcher.execDetails(FIRST_REQ_ID + i, new Contract(), new Execution());
+            expected.add("execDetails " + (FIRST_REQ_ID + i));
+            dispatcher.error(orderId, 202, "cancelled", null);
+            expected.add("error " + orderId + " 202");
+            dispatcher.updateAccountValue("NetLiquidation", String.valueOf(i), "USD", "DU1");
+            expected.add("updateAccountValue NetLiquidation " + i);
+            // request callbacks in between go elsewhere and must not disturb the order lane
+            dispatcher.tickPrice(FIRST_REQ_ID, TickType.BID.index(), i, new TickAttrib());
+        }
+
+        await(() -> recorder.events.size() == expected.size());
+        assertEquals(expected, recorder.events);
+    }
+
+    @Test
+    void interruptedDispatchIntoAFullLaneReportsTheLoss() throws Exception {
+        dispatcher = new EDispatchingWrapper(recorder.wrapper, 1, 1, id -> id < FIRST_REQ_ID);
+        recorder.gate = new CountDownLatch(1);
+        dispatcher.currentTime(1); // holds the order lane
+        assertTrue(recorder.entered.await(5, TimeUnit.SECONDS));
+        dispatcher.orderStatus(7, "Submitted", Decimal.ZERO, Decimal.ONE_HUNDRED, 0, 1, 0, 0, 0, "", 0); // fills it
+
+        Thread.currentThread().interrupt();
+        dispatcher.orderStatus(8, "Filled", Decimal.ONE_HUNDRED, Decimal.ZERO, 0, 2, 0, 0, 0, "", 0);
+        assertTrue(Thread.interrupted(), "interrupt status is kept");
+
+        // reported at once, on this thread, against the order id
+        assertEquals(1, recorder.events.size());
+        assertTrue(recorder.events.get(0).startsWith("error 8 " + EClientErrors.CALLBACK_LOST.code()), recorder.events.get(0));
+
+        recorder.gate.countDown();
+        await(() -> recorder.events.size() == 2);
+        assertEquals("orderStatus 7 Submitted", recorder.events.get(1));
+    }
+
+    @Test
+    void interruptedThreadStillQueuesWhileThereIsRoom() throws Exception {
+        dispatcher = new EDispatchingWrapper(recorder.wrapper, 1, 16, id -> id < FIRST_REQ_ID);
+        Thread.currentThread().interrupt();
+        dispatcher.execDetailsEnd(FIRST_REQ_ID);
+        assertTrue(Thread.interrupted());
+
+        await(() -> recorder.events.size() == 1);
+        assertEquals("execDetailsEnd " + FIRST_REQ_ID, recorder.events.get(0));
+    }
+}
@@ -0,0 +1,98 @@
+package com.ib.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/** Drives the governor with explicit timestamps in place of System.nanoTime. */
+public class EPacingGovernorTest {
+    private static final long T0 = 5_000_000_000_000L;
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void messagesPerSecondAreCapped() {
+        EPacingGovernor governor = new EPacingGovernor(3, 0, 0, 0);
+
+        assertEquals(0, governor.tryAcquire(null, T0, false));
+        assertEquals(0, governor.tryAcquire(null, T0 + 100 * MS, false));
+        assertEquals(0, governor.tryAcquire(null, T0 + 200 * MS, false));
+
+        // the oldest send leaves the window one second after it went out
+        assertEquals(700 * MS, governor.tryAcquire(null, T0 + 300 * MS, false));
+        assertEquals(1, governor.tryAcquire(null, T0 + SECOND - 1, true));
+        assertEquals(0, governor.tryAcquire(null, T0 + SECOND, true));
+
+        // and now the second oldest decides
+        assertEquals(100 * MS, governor.tryAcquire(null, T0 + SECOND, false));
+        assertEquals(4, governor.sent());
+    }
+
+    @Test
+    void retriesAreHeldBackOnce() {
+        EPacingGovernor governor = new EPacingGovernor(1, 0, 0, 0);
+        governor.tryAcquire(null, T0, false);
+
+        assertTrue(governor.tryAcquire(null, T0 + MS, false) > 0);
+        assertTrue(governor.tryAcquire(null, T0 + 2 * MS, true) > 0);
+        assertTrue(governor.tryAcquire(null, T0 + 3 * MS, true) > 0);
+        assertEquals(1, governor.heldBack());
+
+        governor.addWaitNanos(SECOND);
+        assertEquals(SECOND, governor.waitNanos());
+    }
+
+    @Test
+    void availableTokensFollowTheWindow() {
+        EPacingGovernor governor = new EPacingGovernor(3, 0, 0, 0);
+        assertEquals(3, governor.availableTokens(T0));
+
+        governor.tryAcquire(null, T0, false);
+        governor.tryAcquire(null, T0 + 500 * MS, false);
+        assertEquals(1, governor.availableTokens(T0 + 500 * MS));
+        assertEquals(2, governor.availableTokens(T0 + SECOND));
+        assertEquals(3, governor.availableTokens(T0 + 1500 * MS));
+    }
+
+    @Test
+    void historicalRequestsPerWindowAreCapped() {
+        EPacingGovernor governor = new EPacingGovernor(50, 2, 10_000, 0);
+
+        assertEquals(0, governor.tryAcquire("a", T0, false));
+        assertEquals(0, governor.tryAcquire("b", T0 + SECOND, false));
+        assertEquals(9 * SECOND, governor.tryAcquire("c", T0 + SECOND, false));
+
+        // other messages are not held back by the historical limit
+        assertEquals(0, governor.tryAcquire(null, T0 + SECOND, false));
+
+        assertEquals(0, governor.tryAcquire("c", T0 + 10 * SECOND, true));
+        assertEquals(3, governor.historicalSent());
+        assertEquals(4, governor.sent());
+    }
+
+    @Test
+    void identicalRequestsWaitOutTheirWindow() {
+        EPacingGovernor governor = new EPacingGovernor(50, 60, 600_000, 15_000);
+
+        assertEquals(0, governor.tryAcquire("IBM 1 D", T0, false));
+        assertEquals(0, governor.tryAcquire("MSFT 1 D", T0 + SECOND, false));
+        assertEquals(10 * SECOND, governor.tryAcquire("IBM 1 D", T0 + 5 * SECOND, false));
+        assertEquals(0, governor.tryAcquire("IBM 1 D", T0 + 15 * SECOND, true));
+    }
+
+    @Test
+    void longestWaitWins() {
+        EPacingGovernor governor = new EPacingGovernor(1, 60, 600_000, 15_000);
+        governor.tryAcquire("IBM 1 D", T0, false);
+
+        // both the one second window and the identical request window apply
+        assertEquals(15 * SECOND - MS, governor.tryAcquire("IBM 1 D", T0 + MS, false));
+    }
+
+    @Test
+    void rejectsANonPositiveRate() {
+        assertThrows(IllegalArgumentException.class, () -> new EPacingGovernor(0, 60, 600_000, 15_000));
+    }
+}
@@ -0,0 +1,134 @@
+package com.ib.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+public class ERingBufferMessageQueueTest {
+
+    private static EMessage msg() {
+        return new EMessage(new byte[0], 0);
+    }
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(2, new ERingBufferMessageQueue(2).capacity());
+        assertEquals(8, new ERingBufferMessageQueue(5).capacity());
+        assertEquals(8, new ERingBufferMessageQueue(8).capacity());
+        assertEquals(ERingBufferMessageQueue.DEFAULT_CAPACITY, new ERingBufferMessageQueue().capacity());
+
+        assertThrows(IllegalArgumentException.class, () -> new ERingBufferMessageQueue(1));
+        assertThrows(IllegalArgumentException.class, () -> new ERingBufferMessageQueue((1 << 30) + 1));
+    }
+
+    @Test
+    void offerFailsOnlyWhileFull() {
+        ERingBufferMessageQueue queue = new ERingBufferMessageQueue(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(msg()));
+        }
+        assertFalse(queue.offer(msg()));
+        assertEquals(4, queue.size());
+
+        assertNotNull(queue.poll());
+        assertTrue(queue.offer(msg()));
+        assertFalse(queue.offer(msg()));
+    }
+
+    @Test
+    void keepsOrderAcrossManyLaps() {
+        ERingBufferMessageQueue queue = new ERingBufferMessageQueue(4);
+        List<EMessage> sent = new ArrayList<>();
+        List<EMessage> received = new ArrayList<>();
+
+        // uneven batches so head and tail cross the end of the array at different slots
+        for (int lap = 0; lap < 100; lap++) {
+            int batch = 1 + lap % 4;
+            for (int i = 0; i < batch; i++) {
+                EMessage m = msg();
+                sent.add(m);
+                assertTrue(queue.offer(m));
+            }
+            for (int i = 0; i < batch; i++) {
+                received.add(queue.poll());
+            }
+            assertNull(queue.poll());
+            assertEquals(0, queue.size());
+        }
+
+        assertEquals(sent.size(), received.size());
+        for (int i = 0; i < sent.size(); i++) {
+            assertSame(sent.get(i), received.get(i));
+        }
+    }
+
+    @Test
+    void pollReleasesTheSlot() throws Exception {
+        ERingBufferMessageQueue queue = new ERingBufferMessageQueue(2);
+        queue.offer(msg());
+        queue.poll();
+
+        Field slots = ERingBufferMessageQueue.class.getDeclaredField("m_slots");
+        slots.setAccessible(true);
+        for (Object slot : (Object[]) slots.get(queue)) {
+            assertNull(slot);
+        }
+    }
+
+    @Test
+    void putGivesUpWhenInterruptedOnAFullRing() {
+        ERingBufferMessageQueue queue = new ERingBufferMessageQueue(2);
+        queue.offer(msg());
+        queue.offer(msg());
+
+        Thread.currentThread().interrupt();
+        try {
+            assertFalse(queue.put(msg()));
+        } finally {
+            Thread.interrupted();
+        }
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    void producerAndConsumerThreadsWrapInOrder() throws Exception {
+        int count = 200_000;
+        ERingBufferMessageQueue queue = new ERingBufferMessageQueue(16);
+        EMessage[] sent = new EMessage[count];
+        for (int i = 0; i < count; i++) {
+            sent[i] = msg();
+        }
+
+        Thread producer = new Thread(() -> {
+            for (EMessage m : sent) {
+                queue.put(m);
+            }
+        });
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread consumer = new Thread(() -> {
+            for (int i = 0; i < count; ) {
+                EMessage m = queue.poll();
+                if (m == null) {
+                    Thread.onSpinWait();
+                } else if (m != sent[i++]) {
+                    failure.set("out of order at " + (i - 1));
+                    return;
+                }
+            }
+        });
+
+        producer.start();
+        consumer.start();
+        producer.join(10_000);
+        consumer.join(10_000);
+
+        assertFalse(producer.isAlive() || consumer.isAlive(), "threads did not finish");
+        assertNull(failure.get());
+        assertEquals(0, queue.size());
+    }
+}
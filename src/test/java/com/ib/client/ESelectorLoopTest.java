@@ -0,0 +1,157 @@
+package com.ib.client;
+
+import static com.ib.client.ESocketChannelTest.body;
+import static com.ib.client.ESocketChannelTest.frame;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Runs an ESelectorLoop over loopback connections, playing TWS on the server end of each. */
+public class ESelectorLoopTest {
+    private final List<String> events = new CopyOnWriteArrayList<>();
+    private final EWrapper wrapper = (EWrapper) Proxy.newProxyInstance(EWrapper.class.getClassLoader(), new Class<?>[] { EWrapper.class },
+        (proxy, method, args) -> {
+            events.add(method.getName());
+            return null;
+        });
+
+    private ServerSocketChannel server;
+    private ESelectorLoop loop;
+    private final List<EClientSocket> clients = new ArrayList<>();
+    private final List<SocketChannel> twsEnds = new ArrayList<>();
+
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean(), "timed out");
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = ESocketChannelTest.listen(0);
+        loop = new ESelectorLoop();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        loop.close();
+        for (EClientSocket client : clients) {
+            client.eDisconnect();
+        }
+        for (SocketChannel tws : twsEnds) {
+            tws.close();
+        }
+        server.close();
+    }
+
+    /** A client connected over a blocking channel, as eConnect leaves it before the loop takes over. */
+    private EClientSocket connect() throws IOException {
+        EClientSocket client = new EClientSocket(wrapper, new EJavaSignal());
+        client.setAsyncEConnect(true); // no handshake to wait for
+        client.eConnect(ESocketChannelTest.connect(server, new ESocketChannel.Options()));
+        clients.add(client);
+        twsEnds.add(server.accept());
+        return client;
+    }
+
+    private SocketChannel tws(int i) {
+        return twsEnds.get(i);
+    }
+
+    private static void send(SocketChannel tws, byte[]... bodies) throws IOException {
+        for (byte[] body : bodies) {
+            ESocketChannelTest.write(tws, frame(body), 0, body.length + 4);
+        }
+    }
+
+    /** Waits for count frames to reach the reader's queue and returns their bodies. */
+    private static List<byte[]> received(EReader reader, int count) throws InterruptedException {
+        List<byte[]> bodies = new ArrayList<>();
+        await(() -> {
+            for (EMessage msg; (msg = reader.getMsg()) != null; ) {
+                bodies.add(msg.getRawData());
+            }
+            return bodies.size() >= count;
+        });
+        assertEquals(count, bodies.size());
+        return bodies;
+    }
+
+    @Test
+    void framesReadBeforeRegisteringAreHandedOverFirst() throws Exception {
+        EClientSocket client = connect();
+        ESocketChannel channel = client.channel();
+        byte[] first = body(10, 1);
+        byte[] second = body(20, 2);
+        byte[] later = body(30, 3);
+
+        // as the handshake would, read ahead on the blocking channel
+        ByteBuffer both = ByteBuffer.allocate(8 + first.length + second.length).put(frame(first)).put(frame(second));
+        ESocketChannelTest.write(tws(0), both.array(), 0, both.capacity());
+        assertTrue(channel.fill() > 0);
+
+        EReader reader = new EReader(client, new EJavaSignal());
+        loop.register(reader);
+        send(tws(0), later);
+
+        List<byte[]> bodies = received(reader, 3);
+        assertArrayEquals(first, bodies.get(0));
+        assertArrayEquals(second, bodies.get(1));
+        assertArrayEquals(later, bodies.get(2));
+        assertFalse(channel.channel().isBlocking());
+    }
+
+    @Test
+    void oneLoopReadsEveryConnection() throws Exception {
+        EReader[] readers = new EReader[3];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new EReader(connect(), new EJavaSignal());
+            loop.register(readers[i]);
+        }
+
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < readers.length; i++) {
+                send(tws(i), body(100 + round, i));
+            }
+        }
+
+        for (int i = 0; i < readers.length; i++) {
+            List<byte[]> bodies = received(readers[i], 20);
+            for (int round = 0; round < 20; round++) {
+                assertArrayEquals(body(100 + round, i), bodies.get(round));
+            }
+        }
+    }
+
+    @Test
+    void endOfStreamDisconnectsTheClient() throws Exception {
+        EClientSocket client = connect();
+        EReader reader = new EReader(client, new EJavaSignal());
+        loop.register(reader);
+        send(tws(0), body(5, 0));
+        received(reader, 1);
+
+        tws(0).close();
+        await(() -> events.contains("connectionClosed"));
+        assertNull(client.channel());
+    }
+
+    @Test
+    void registerNeedsAChannel() throws Exception {
+        EClientSocket client = new EClientSocket(wrapper, new EJavaSignal());
+        assertThrows(IllegalArgumentException.class, () -> loop.register(new EReader(client, new EJavaSignal())));
+    }
+}
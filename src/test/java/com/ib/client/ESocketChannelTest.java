@@ -0,0 +1,180 @@
+package com.ib.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/** Runs ESocketChannel over a loopback connection, playing TWS on the server end. */
+public class ESocketChannelTest {
+    private ServerSocketChannel server;
+    private SocketChannel tws;
+    private ESocketChannel channel;
+
+    /** Connects a channel with the given options to a fresh server socket, whose end is then tws. */
+    static ESocketChannel connect(ServerSocketChannel server, ESocketChannel.Options options) throws IOException {
+        InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+        return ESocketChannel.open(address.getHostString(), address.getPort(), options);
+    }
+
+    static ServerSocketChannel listen(int receiveBufferSize) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        if (receiveBufferSize > 0) {
+            server.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+        }
+        return server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    /** A V100 frame: the body's length, then the body. */
+    static byte[] frame(byte[] body) {
+        return ByteBuffer.allocate(4 + body.length).putInt(body.length).put(body).array();
+    }
+
+    static byte[] body(int length, int seed) {
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) {
+            body[i] = (byte) (i * 31 + seed);
+        }
+        return body;
+    }
+
+    static void write(SocketChannel out, byte[] bytes, int from, int to) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(bytes, from, to - from);
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /** Fills until a whole frame is buffered, as a blocking reader would. */
+    static EMessage readFrame(ESocketChannel channel, EMessageBufferPool pool) throws IOException {
+        EMessage msg;
+        while ((msg = channel.pollFrame(pool)) == null) {
+            assertTrue(channel.fill() >= 0, "end of stream");
+        }
+        return msg;
+    }
+
+    private void connect(ESocketChannel.Options options, int serverReceiveBufferSize) throws IOException {
+        server = listen(serverReceiveBufferSize);
+        channel = connect(server, options);
+        tws = server.accept();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        if (tws != null) {
+            tws.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    void frameWithASplitLengthWaitsForTheRest() throws Exception {
+        connect(new ESocketChannel.Options(), 0);
+        byte[] body = body(100, 1);
+        byte[] frame = frame(body);
+
+        write(tws, frame, 0, 2);
+        assertTrue(channel.fill() > 0);
+        assertNull(channel.pollFrame(null));
+
+        write(tws, frame, 2, frame.length);
+        assertArrayEquals(body, readFrame(channel, null).getRawData());
+        assertNull(channel.pollFrame(null));
+    }
+
+    @Test
+    void frameWithASplitBodyWaitsForTheRest() throws Exception {
+        connect(new ESocketChannel.Options(), 0);
+        byte[] body = body(100, 2);
+        byte[] frame = frame(body);
+
+        write(tws, frame, 0, 50);
+        assertTrue(channel.fill() > 0);
+        assertNull(channel.pollFrame(null));
+
+        write(tws, frame, 50, frame.length);
+        assertArrayEquals(body, readFrame(channel, null).getRawData());
+    }
+
+    @Test
+    void frameLargerThanTheBufferGrowsIt() throws Exception {
+        connect(new ESocketChannel.Options().readBufferSize(16), 0);
+        EMessageBufferPool pool = new EMessageBufferPool(true, 64, 4);
+        byte[] small = body(8, 3);
+        byte[] large = body(50_000, 4);
+
+        // the first small frame fits; the large one behind it has to grow the buffer
+        byte[] all = ByteBuffer.allocate(12 + 4 + large.length + 12).put(frame(small)).put(frame(large)).put(frame(small)).array();
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            try {
+                write(tws, all, 0, all.length);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        assertArrayEquals(small, readFrame(channel, pool).getRawData());
+        assertArrayEquals(large, readFrame(channel, pool).getRawData());
+        assertArrayEquals(small, readFrame(channel, pool).getRawData());
+        writer.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void overlongLengthFails() throws Exception {
+        connect(new ESocketChannel.Options(), 0);
+        write(tws, ByteBuffer.allocate(4).putInt(EReader.MAX_MSG_LENGTH + 1).array(), 0, 4);
+
+        IOException e = assertThrows(IOException.class, () -> readFrame(channel, null));
+        assertTrue(e.getMessage().contains("too long"), e.getMessage());
+    }
+
+    @Test
+    void gatherWriteResumesPartlyWrittenBuffers() throws Exception {
+        connect(new ESocketChannel.Options().sendBufferSize(4096), 4096);
+        channel.channel().configureBlocking(false); // as once an ESelectorLoop has it
+
+        // views into larger buffers, so each write must honour offset and length
+        List<EMessage> batch = new ArrayList<>();
+        ByteBuffer expected = ByteBuffer.allocate(40 * 20_000);
+        for (int i = 0; i < 40; i++) {
+            byte[] backing = body(20_000 + 10, i);
+            batch.add(new EMessage(ByteBuffer.wrap(backing), 3, 20_000, null));
+            expected.put(backing, 3, 20_000);
+        }
+
+        CompletableFuture<Void> sender = CompletableFuture.runAsync(() -> {
+            try {
+                channel.send(batch);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(sender.isDone(), "the socket buffers should be full by now");
+
+        ByteBuffer received = ByteBuffer.allocate(expected.capacity());
+        while (received.hasRemaining()) {
+            assertTrue(tws.read(received) >= 0);
+        }
+        sender.get(5, TimeUnit.SECONDS);
+        assertArrayEquals(expected.array(), received.array());
+    }
+}
@@ -0,0 +1,142 @@
+package com.ib.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class PreV100FrameScannerTest {
+    private static final int CURRENT = EClient.MAX_VERSION;
+    private static final int OLD = EClient.MIN_SERVER_VER_UNREALIZED_PNL - 1; // before every layout change the scanner knows
+
+    private static final EWrapper NO_WRAPPER = (EWrapper) Proxy.newProxyInstance(EWrapper.class.getClassLoader(),
+            new Class<?>[] { EWrapper.class }, (proxy, method, args) -> null);
+
+    private static byte[] fields(Object... fields) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Object field : fields) {
+            out.writeBytes(String.valueOf(field).getBytes(StandardCharsets.ISO_8859_1));
+            out.write(0);
+        }
+        return out.toByteArray();
+    }
+
+    /** The message followed by the start of the next, as the reader's buffer holds them. */
+    private static byte[] stream(byte[] msg) {
+        byte[] next = fields(1, 6, 7);
+        byte[] buf = new byte[msg.length + next.length];
+        System.arraycopy(msg, 0, buf, 0, msg.length);
+        System.arraycopy(next, 0, buf, msg.length, next.length);
+        return buf;
+    }
+
+    private static int decodedLength(byte[] buf, int serverVersion) throws Exception {
+        try (EDecoder decoder = new EDecoder(serverVersion, NO_WRAPPER)) {
+            return decoder.processMsg(new EMessage(ByteBuffer.wrap(buf), 0, buf.length, null));
+        }
+    }
+
+    private static final List<Object[]> CURRENT_MESSAGES = List.of(
+        new Object[] { 1, 6, 42, 1, 1.5, 100, 0 },                          // TICK_PRICE
+        new Object[] { 1, 1, 42, 1, 1.5 },                                  // TICK_PRICE, version 1
+        new Object[] { 2, 6, 42, 0, 100 },                                  // TICK_SIZE
+        new Object[] { 3, 1001, "Filled", 100, 0, 1.5, 123, 0, 1.5, 1, "", 0 }, // ORDER_STATUS
+        new Object[] { 4, 2, 42, 200, "No security definition", "" },       // ERR_MSG
+        new Object[] { 4, 1, "a bare message" },                            // ERR_MSG, version 1
+        new Object[] { 6, 2, "NetLiquidation", "1000", "USD", "DU1" },     // ACCT_VALUE
+        new Object[] { 8, 1, "09:30" },                                     // ACCT_UPDATE_TIME
+        new Object[] { 9, 1, 100 },                                         // NEXT_VALID_ID
+        new Object[] { 12, 1, 42, 0, 0, 1, 1.5, 100 },                      // MARKET_DEPTH
+        new Object[] { 13, 1, 42, 0, "MM", 0, 1, 1.5, 100, 1 },             // MARKET_DEPTH_L2
+        new Object[] { 21, 42, 10, 0, 0.2, 0.5, 1.0, 0.1, 0.01, 0.02, -0.03, 100 }, // TICK_OPTION_COMPUTATION
+        new Object[] { 45, 6, 42, 49, 0.5 },                                // TICK_GENERIC
+        new Object[] { 46, 6, 42, 45, "1700000000" },                       // TICK_STRING
+        new Object[] { 49, 1, 1700000000 },                                 // CURRENT_TIME
+        new Object[] { 52, 1, 42 },                                         // CONTRACT_DATA_END
+        new Object[] { 53, 1 },                                             // OPEN_ORDER_END
+        new Object[] { 57, 1, 42 },                                         // TICK_SNAPSHOT_END
+        new Object[] { 58, 1, 42, 3 },                                      // MARKET_DATA_TYPE
+        new Object[] { 59, 1, "0001.01", 1.0, "USD", 0, 0, 0 },             // COMMISSION_REPORT
+        new Object[] { 63, 1, 42, "DU1", "NetLiquidation", "1000", "USD" }, // ACCOUNT_SUMMARY
+        new Object[] { 81, 42, 0.01, "9c0001", 3 },                         // TICK_REQ_PARAMS
+        new Object[] { 88, 42, "20240102-09:30:00" },                       // HEAD_TIMESTAMP
+        new Object[] { 94, 42, 1.0, 2.0, 3.0 },                             // PNL
+        new Object[] { 95, 42, 100, 1.0, 2.0, 3.0, 1000 },                  // PNL_SINGLE
+        new Object[] { 99, 42, 1, 1700000000, 1.5, 100, 0, "NYSE", "" },    // TICK_BY_TICK, Last
+        new Object[] { 99, 42, 3, 1700000000, 1.5, 1.6, 100, 200, 0 },      // TICK_BY_TICK, BidAsk
+        new Object[] { 99, 42, 4, 1700000000, 1.5 }                         // TICK_BY_TICK, MidPoint
+    );
+
+    private static final List<Object[]> OLD_MESSAGES = List.of(
+        new Object[] { 3, 6, 1001, "Filled", 100, 0, 1.5, 123, 0, 1.5, 1, "" }, // ORDER_STATUS, version 6
+        new Object[] { 4, 2, 42, 200, "No security definition" },                // ERR_MSG
+        new Object[] { 21, 6, 42, 10, 0.2, 0.5, 1.0, 0.1, 0.01, 0.02, -0.03, 100 }, // TICK_OPTION_COMPUTATION
+        new Object[] { 21, 5, 42, 13, 0.2, 0.5, 1.0, 0.1 },                      // model option, version 5
+        new Object[] { 21, 5, 42, 10, 0.2, 0.5 },                                // bid option, version 5
+        new Object[] { 13, 1, 42, 0, "MM", 0, 1, 1.5, 100 },                     // MARKET_DEPTH_L2
+        new Object[] { 94, 42, 1.0 },                                            // PNL
+        new Object[] { 95, 42, 100, 1.0, 1000 }                                  // PNL_SINGLE
+    );
+
+    private static void check(int serverVersion, Object[] msg) throws Exception {
+        byte[] body = fields(msg);
+        byte[] buf = stream(body);
+        String name = "message " + msg[0] + " at server version " + serverVersion;
+
+        assertEquals(body.length, new PreV100FrameScanner().scan(buf, 0, buf.length, serverVersion), name);
+        assertEquals(body.length, decodedLength(buf, serverVersion), name + ", as decoded");
+    }
+
+    @Test
+    void lengthsMatchTheDecoder() throws Exception {
+        for (Object[] msg : CURRENT_MESSAGES) {
+            check(CURRENT, msg);
+        }
+        for (Object[] msg : OLD_MESSAGES) {
+            check(OLD, msg);
+        }
+    }
+
+    @Test
+    void everyPrefixIsIncomplete() {
+        PreV100FrameScanner scanner = new PreV100FrameScanner();
+        for (Object[] msg : CURRENT_MESSAGES) {
+            byte[] body = fields(msg);
+            for (int len = 0; len < body.length; len++) {
+                assertEquals(PreV100FrameScanner.INCOMPLETE, scanner.scan(body, 0, len, CURRENT), "message " + msg[0] + " cut at " + len);
+            }
+        }
+    }
+
+    @Test
+    void scansFromAnOffset() {
+        byte[] first = fields(57, 1, 42);
+        byte[] second = fields(58, 1, 42, 3);
+        byte[] buf = new byte[first.length + second.length];
+        System.arraycopy(first, 0, buf, 0, first.length);
+        System.arraycopy(second, 0, buf, first.length, second.length);
+
+        assertEquals(second.length, new PreV100FrameScanner().scan(buf, first.length, buf.length, CURRENT));
+    }
+
+    @Test
+    void unknownLayoutsAreLeftToTheDecoder() {
+        PreV100FrameScanner scanner = new PreV100FrameScanner();
+        byte[] contractData = fields(10, 42, "IBM");
+        assertEquals(PreV100FrameScanner.UNKNOWN, scanner.scan(contractData, 0, contractData.length, CURRENT));
+
+        byte[] badId = fields("x1", 6, 42);
+        assertEquals(PreV100FrameScanner.UNKNOWN, scanner.scan(badId, 0, badId.length, CURRENT));
+
+        byte[] badVersion = fields(1, "6.5", 42, 1, 1.5, 100, 0);
+        assertEquals(PreV100FrameScanner.UNKNOWN, scanner.scan(badVersion, 0, badVersion.length, CURRENT));
+
+        byte[] tick = fields(1, 6, 42, 1, 1.5, 100, 0);
+        assertEquals(PreV100FrameScanner.UNKNOWN, scanner.scan(tick, 0, tick.length, 0), "before the handshake");
+    }
+}
@@ -0,0 +1,122 @@
+package com.ib.controller;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import com.ib.client.Contract;
+import com.ib.controller.TopMktDataMultiplexerTest.NullConnectionHandler;
+
+public class ApiControllerGroupTest {
+
+    private static Contract conid(int conid) {
+        Contract contract = new Contract();
+        contract.conid(conid);
+        return contract;
+    }
+
+    @Test
+    void sameContractAlwaysLandsOnTheSameShard() {
+        for (int conid = 1; conid < 1000; conid++) {
+            int shard = ApiControllerGroup.shardIndex(conid(conid), 4);
+            assertTrue(shard >= 0 && shard < 4);
+            assertEquals(shard, ApiControllerGroup.shardIndex(conid(conid), 4));
+        }
+    }
+
+    @Test
+    void contractsWithoutAConidHashByTheirFields() {
+        Contract a = new Contract();
+        a.symbol("IBM");
+        a.secType("STK");
+        a.exchange("SMART");
+        a.currency("USD");
+        Contract b = new Contract();
+        b.symbol("IBM");
+        b.secType("STK");
+        b.exchange("SMART");
+        b.currency("USD");
+
+        assertEquals(ApiControllerGroup.shardIndex(a, 8), ApiControllerGroup.shardIndex(b, 8));
+    }
+
+    @Test
+    void contractsSpreadEvenly() {
+        int[] counts = new int[4];
+        for (int conid = 1; conid <= 10000; conid++) {
+            counts[ApiControllerGroup.shardIndex(conid(conid), 4)]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 2200 && count < 2800, "shard holds " + count + " of 10000");
+        }
+    }
+
+    @Test
+    void addingAShardOnlyMovesContractsToIt() {
+        int moved = 0;
+        for (int conid = 1; conid <= 10000; conid++) {
+            int before = ApiControllerGroup.shardIndex(conid(conid), 4);
+            int after = ApiControllerGroup.shardIndex(conid(conid), 5);
+            if (after != before) {
+                assertEquals(4, after);
+                moved++;
+            }
+        }
+        assertTrue(moved > 1500 && moved < 2500, moved + " of 10000 moved");
+    }
+
+    @Test
+    void lineBudgetIsSplitBetweenConnections() {
+        ApiControllerGroup group = new ApiControllerGroup(new NullConnectionHandler(), 3);
+        int[] lines = new int[3];
+        int[] snapshotLines = new int[3];
+        for (int i = 0; i < 3; i++) {
+            TopMktDataMultiplexer mux = group.controllers().get(i).topMktDataMultiplexer();
+            lines[i] = mux.lineBudget();
+            snapshotLines[i] = mux.snapshotLines();
+        }
+        assertArrayEquals(new int[] { 34, 33, 33 }, lines);
+        assertArrayEquals(new int[] { 2, 2, 1 }, snapshotLines);
+
+        group.lineBudget(6, 3);
+        assertEquals(2, group.primary().topMktDataMultiplexer().lineBudget());
+        assertThrows(IllegalArgumentException.class, () -> group.lineBudget(6, 2));
+        assertThrows(IllegalArgumentException.class, () -> group.lineBudget(5, 3));
+    }
+
+    @Test
+    void handlerSharedAcrossShardsIsCancelledOnEach() {
+        ApiControllerGroup group = new ApiControllerGroup(new NullConnectionHandler(), 2);
+        ApiController first = group.controllers().get(0);
+        ApiController second = group.controllers().get(1);
+        ApiControllerGroup.Routes routes = new ApiControllerGroup.Routes();
+        Object handler = new Object();
+
+        routes.add(handler, first);
+        routes.add(handler, second);
+        routes.add(handler, first);
+
+        // oldest first, as ApiController cancels a handler's requests
+        assertSame(first, routes.remove(handler));
+        assertSame(second, routes.remove(handler));
+        assertSame(first, routes.remove(handler));
+        assertNull(routes.remove(handler));
+    }
+
+    @Test
+    void sharedSubscriptionIsRoutedOncePerShard() {
+        ApiControllerGroup group = new ApiControllerGroup(new NullConnectionHandler(), 2);
+        ApiController first = group.controllers().get(0);
+        ApiController second = group.controllers().get(1);
+        ApiControllerGroup.Routes routes = new ApiControllerGroup.Routes();
+        Object handler = new Object();
+
+        routes.addOnce(handler, first);
+        routes.addOnce(handler, first);
+        routes.addOnce(handler, second);
+
+        assertSame(first, routes.remove(handler));
+        assertSame(second, routes.remove(handler));
+        assertNull(routes.remove(handler));
+    }
+}
@@ -0,0 +1,72 @@
+package com.ib.controller;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import com.ib.client.Contract;
+import com.ib.client.ETickSink;
+import com.ib.client.TickType;
+import com.ib.controller.TopMktDataMultiplexerTest.NullConnectionHandler;
+
+public class ApiControllerTest {
+
+    /** Registers requests as if connected; the unconnected client drops what would be sent. */
+    static class OfflineController extends ApiController {
+        OfflineController() {
+            super(new NullConnectionHandler());
+        }
+
+        @Override protected boolean checkConnection() { return true; }
+    }
+
+    private static Contract stock(int conid) {
+        Contract contract = new Contract();
+        contract.conid(conid);
+        contract.exchange("SMART");
+        return contract;
+    }
+
+    @Test
+    void finishedSnapshotNoLongerHoldsALine() {
+        ApiController controller = new OfflineController();
+        controller.reqTopMktData(stock(1), "", false, false, new ApiController.TopMktDataAdapter());
+        controller.reqTopMktData(stock(2), "", true, false, new ApiController.TopMktDataAdapter());
+        assertEquals(2, controller.mktDataLines());
+
+        // request ids start at 0 until nextValidId assigns them
+        controller.tickSnapshotEnd(1);
+        assertEquals(1, controller.mktDataLines());
+    }
+
+    @Test
+    void requestsEndWithTheConnection() {
+        ApiController controller = new OfflineController();
+        controller.reqTopMktData(stock(1), "", false, false, new ApiController.TopMktDataAdapter());
+        controller.reqTopMktData(stock(2), "", false, false, new ApiController.TopMktDataAdapter());
+        assertEquals(2, controller.mktDataLines());
+
+        controller.connectionClosed();
+        assertEquals(0, controller.mktDataLines());
+    }
+
+    @Test
+    void ticksConsumedBySinkStillReachTheLastValues() {
+        ApiController controller = new OfflineController();
+        controller.reqTopMktData(stock(1), "", false, false, new ApiController.TopMktDataAdapter());
+        ETickSink sink = controller.new LastValueSink(new ETickSink() {
+            @Override public boolean tickPrice(int reqId, int tickType, double price, int attrMask) { return true; }
+            @Override public boolean tickSize(int reqId, int tickType, long sizeUnscaled, int scale) { return true; }
+            @Override public boolean tickGeneric(int reqId, int tickType, double value) { return true; }
+        });
+
+        assertTrue(sink.tickPrice(0, TickType.BID.index(), 101.25, 0));
+        assertTrue(sink.tickSize(0, TickType.BID_SIZE.index(), 1500, 2));
+        assertTrue(sink.tickSize(0, TickType.ASK_SIZE.index(), ETickSink.UNSET_SIZE, 0));
+
+        LastValueCache.Quote quote = controller.lastValues().quote(stock(1));
+        assertEquals(101.25, quote.bid());
+        assertEquals(15.0, quote.bidSize());
+        assertTrue(Double.isNaN(quote.askSize()));
+    }
+}
@@ -0,0 +1,177 @@
+package com.ib.controller;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class ConcurrentIntHashMapTest {
+
+    @Test
+    void putGetAndRemove() {
+        ConcurrentIntHashMap<String> map = new ConcurrentIntHashMap<>();
+        assertNull(map.put(1, "a"));
+        assertEquals("a", map.put(1, "b"));
+        assertEquals("b", map.get(1));
+        assertNull(map.get(2));
+        assertEquals(1, map.size());
+
+        assertEquals("b", map.remove(1));
+        assertNull(map.remove(1));
+        assertNull(map.get(1));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void putNullRemoves() {
+        ConcurrentIntHashMap<String> map = new ConcurrentIntHashMap<>();
+        map.put(7, "a");
+        assertEquals("a", map.put(7, null));
+        assertNull(map.get(7));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void removeValueFindsTheKeyOfThatVeryHandler() {
+        ConcurrentIntHashMap<Object> map = new ConcurrentIntHashMap<>();
+        Object handler = new Object();
+        Object other = new Object();
+        map.put(10, handler);
+        map.put(11, other);
+
+        assertEquals(Integer.valueOf(10), map.removeValue(handler));
+        assertNull(map.removeValue(handler));
+        assertNull(map.removeValue(new Object()));
+        assertSame(other, map.get(11));
+    }
+
+    @Test
+    void removeValueTakesTheOldestKeyFirst() {
+        ConcurrentIntHashMap<Object> map = new ConcurrentIntHashMap<>();
+        Object handler = new Object();
+        map.put(30, handler);
+        map.put(20, handler);
+        map.put(40, handler);
+
+        assertEquals(Integer.valueOf(30), map.removeValue(handler));
+        assertEquals(Integer.valueOf(20), map.removeValue(handler));
+        assertEquals(Integer.valueOf(40), map.removeValue(handler));
+        assertNull(map.removeValue(handler));
+    }
+
+    @Test
+    void replacingAValueMovesItsKey() {
+        ConcurrentIntHashMap<Object> map = new ConcurrentIntHashMap<>();
+        Object first = new Object();
+        Object second = new Object();
+        map.put(5, first);
+        map.put(5, second);
+
+        assertNull(map.removeValue(first));
+        assertEquals(Integer.valueOf(5), map.removeValue(second));
+    }
+
+    @Test
+    void conditionalRemoveChecksIdentity() {
+        ConcurrentIntHashMap<Object> map = new ConcurrentIntHashMap<>();
+        Object handler = new Object();
+        map.put(1, handler);
+
+        assertFalse(map.remove(1, new Object()));
+        assertFalse(map.remove(1, null));
+        assertTrue(map.remove(1, handler));
+        assertFalse(map.remove(1, handler));
+    }
+
+    @Test
+    void keysSurviveTheRemovalOfOthers() {
+        ConcurrentIntHashMap<Integer> map = new ConcurrentIntHashMap<>();
+        for (int key = 0; key < 7; key++) {
+            map.put(key * 16, key);
+        }
+        for (int key = 0; key < 7; key += 2) {
+            map.remove(key * 16);
+        }
+        for (int key = 1; key < 7; key += 2) {
+            assertEquals(Integer.valueOf(key), map.get(key * 16));
+        }
+        assertEquals(3, map.size());
+    }
+
+    @Test
+    void churnReusesRemovedSlots() {
+        ConcurrentIntHashMap<Integer> map = new ConcurrentIntHashMap<>();
+        // request ids only grow, so each put lands on a new key and each remove leaves a tombstone
+        for (int key = 0; key < 100_000; key++) {
+            map.put(key, key);
+            if (key >= 10) {
+                assertEquals(Integer.valueOf(key - 10), map.remove(key - 10));
+            }
+        }
+        assertEquals(10, map.size());
+        for (int key = 100_000 - 10; key < 100_000; key++) {
+            assertEquals(Integer.valueOf(key), map.get(key));
+        }
+        assertNull(map.get(100_000 - 11));
+    }
+
+    @Test
+    void agreesWithHashMap() {
+        ConcurrentIntHashMap<Integer> map = new ConcurrentIntHashMap<>();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            int key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+            else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (int key = -1000; key < 1000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    void clearEmptiesTheMap() {
+        ConcurrentIntHashMap<Object> map = new ConcurrentIntHashMap<>();
+        Object handler = new Object();
+        for (int key = 0; key < 100; key++) {
+            map.put(key, handler);
+        }
+        map.clear();
+
+        assertEquals(0, map.size());
+        assertNull(map.get(5));
+        assertNull(map.removeValue(handler));
+        map.put(5, handler);
+        assertSame(handler, map.get(5));
+    }
+
+    @Test
+    void readersSeeEveryEntryWhileTheTableGrows() throws InterruptedException {
+        ConcurrentIntHashMap<Integer> map = new ConcurrentIntHashMap<>();
+        map.put(-1, -1);
+        int[] misses = new int[1];
+        Thread reader = new Thread(() -> {
+            for (int i = 0; i < 1_000_000; i++) {
+                if (map.get(-1) == null) {
+                    misses[0]++;
+                }
+            }
+        });
+        reader.start();
+        for (int key = 0; key < 50_000; key++) {
+            map.put(key, key);
+        }
+        reader.join();
+        assertEquals(0, misses[0]);
+    }
+}
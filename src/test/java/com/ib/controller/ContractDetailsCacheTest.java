@@ -0,0 +1,264 @@
+package com.ib.controller;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.ib.client.Contract;
+import com.ib.client.ContractDetails;
+import com.ib.client.Decimal;
+import com.ib.client.EClientErrors;
+import com.ib.client.TagValue;
+import com.ib.controller.ApiController.IContractDetailsHandler;
+import com.ib.controller.ApiController.IRequestErrorHandler;
+import com.ib.controller.TopMktDataMultiplexerTest.NullConnectionHandler;
+
+public class ContractDetailsCacheTest {
+
+    /** Keeps the handlers of the lookups it is asked for instead of sending them. */
+    static class StubController extends ApiController {
+        final List<IContractDetailsHandler> requests = new ArrayList<>();
+
+        StubController() {
+            super(new NullConnectionHandler());
+        }
+
+        boolean connected = true;
+
+        @Override boolean isConnected() { return connected; }
+        @Override protected boolean checkConnection() { return connected; }
+
+        final List<Integer> forgotten = new CopyOnWriteArrayList<>();
+
+        @Override int reqContractDetailsId(Contract contract, IContractDetailsHandler processor) {
+            requests.add(processor);
+            return requests.size() - 1;
+        }
+
+        @Override void forgetContractDetails(int reqId) {
+            forgotten.add(reqId);
+        }
+    }
+
+    @TempDir
+    Path dir;
+
+    private static Contract stock(int conid) {
+        Contract contract = new Contract();
+        contract.conid(conid);
+        contract.symbol("IBM");
+        contract.secType("STK");
+        contract.exchange("SMART");
+        contract.currency("USD");
+        return contract;
+    }
+
+    private static ContractDetails details(Contract contract) {
+        ContractDetails details = new ContractDetails();
+        details.contract(contract);
+        details.longName("INTL BUSINESS MACHINES CORP");
+        details.minTick(0.01);
+        details.minSize(Decimal.ONE);
+        details.sizeIncrement(Decimal.INVALID);
+        details.suggestedSizeIncrement(Decimal.parse("100"));
+        details.secIdList(List.of(new TagValue("ISIN", "US4592001014")));
+        return details;
+    }
+
+    private final StubController controller = new StubController();
+
+    /** A controller whose cache uses file. */
+    private static StubController withFile(Path file) {
+        StubController stub = new StubController();
+        stub.contractDetailsCache().file(file);
+        return stub;
+    }
+
+    /** Looks contract up and answers the request with its details. */
+    private static void store(StubController stub, Contract contract) {
+        stub.contractDetailsCache().reqContractDetails(contract, list -> {});
+        stub.requests.get(stub.requests.size() - 1).contractDetails(List.of(details(contract)));
+    }
+
+    /** The cached result for contract, or null if it had to be requested. */
+    private static List<ContractDetails> lookup(StubController stub, Contract contract) {
+        int sent = stub.requests.size();
+        List<List<ContractDetails>> answers = new ArrayList<>();
+        stub.contractDetailsCache().reqContractDetails(contract, answers::add);
+        return stub.requests.size() > sent ? null : answers.get(0);
+    }
+
+    @Test
+    void savedEntriesAreLoadedBack() {
+        Path file = dir.resolve("contracts.bin");
+        StubController stub = withFile(file);
+        store(stub, stock(8314));
+        assertFalse(Files.exists(file), "saving is deferred");
+
+        stub.contractDetailsCache().flush();
+        assertTrue(Files.exists(file));
+
+        List<ContractDetails> loaded = lookup(withFile(file), stock(8314));
+        assertNotNull(loaded);
+        assertEquals(1, loaded.size());
+        ContractDetails details = loaded.get(0);
+        assertEquals(8314, details.contract().conid());
+        assertEquals("IBM", details.contract().symbol());
+        assertEquals("INTL BUSINESS MACHINES CORP", details.longName());
+        assertEquals(0.01, details.minTick());
+        assertEquals(Decimal.ONE, details.minSize());
+        assertSame(Decimal.INVALID, details.sizeIncrement());
+        assertEquals(Decimal.parse("100"), details.suggestedSizeIncrement());
+        assertEquals("US4592001014", details.secIdList().get(0).m_value);
+    }
+
+    @Test
+    void bondsAreNotSaved() {
+        Path file = dir.resolve("contracts.bin");
+        StubController stub = withFile(file);
+        Contract bond = stock(1);
+        bond.secType("BOND");
+        store(stub, bond);
+        stub.contractDetailsCache().flush();
+
+        assertEquals(1, stub.contractDetailsCache().size());
+        assertNull(lookup(withFile(file), bond));
+    }
+
+    @Test
+    void expiredOptionsAreNotKept() {
+        Contract option = stock(2);
+        option.secType("OPT");
+        option.lastTradeDateOrContractMonth(LocalDate.now().minusDays(3).format(DateTimeFormatter.BASIC_ISO_DATE));
+        store(controller, option);
+
+        assertEquals(0, controller.contractDetailsCache().size());
+        assertNull(lookup(controller, option));
+    }
+
+    @Test
+    void entriesExpireAfterTheirTimeToLive() throws InterruptedException {
+        controller.contractDetailsCache().ttl(20);
+        store(controller, stock(3));
+        assertNotNull(lookup(controller, stock(3)));
+
+        Thread.sleep(40);
+        assertNull(lookup(controller, stock(3)));
+    }
+
+    @Test
+    void lookupsJoinTheRequestAlreadySent() {
+        ContractDetailsCache cache = controller.contractDetailsCache();
+        List<List<ContractDetails>> answers = new ArrayList<>();
+        cache.reqContractDetails(stock(4), answers::add);
+        cache.reqContractDetails(stock(4), answers::add);
+        assertEquals(1, controller.requests.size());
+
+        controller.requests.get(0).contractDetails(List.of(details(stock(4))));
+        assertEquals(2, answers.size());
+        assertEquals(1, cache.misses());
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    void waitingLookupsAreAnsweredWhenTheConnectionIsLost() {
+        ContractDetailsCache cache = controller.contractDetailsCache();
+        List<List<ContractDetails>> answers = new ArrayList<>();
+        cache.reqContractDetails(stock(5), answers::add);
+
+        cache.connectionLost();
+        assertEquals(List.of(List.of()), answers);
+
+        // the old request's answer, should it still come, is not passed on again
+        controller.requests.get(0).contractDetails(List.of(details(stock(5))));
+        assertEquals(1, answers.size());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void errorsArePassedToEveryLookupOfTheRequest() {
+        ContractDetailsCache cache = controller.contractDetailsCache();
+        List<String> events = new ArrayList<>();
+        class Lookup implements IContractDetailsHandler, IRequestErrorHandler {
+            @Override public void requestError(int errorCode, String errorMsg) { events.add("error " + errorCode); }
+            @Override public void contractDetails(List<ContractDetails> list) { events.add(list.size() + " found"); }
+        }
+        cache.reqContractDetails(stock(6), new Lookup());
+        cache.reqContractDetails(stock(6), new Lookup());
+
+        IContractDetailsHandler request = controller.requests.get(0);
+        ((IRequestErrorHandler) request).requestError(200, "No security definition has been found");
+        request.contractDetails(new ArrayList<>());
+
+        assertEquals(List.of("error 200", "0 found", "error 200", "0 found"), events);
+    }
+
+    @Test
+    void batchSkipsCachedContractsAndFailsWhatTheConnectionEnds() throws Exception {
+        store(controller, stock(7));
+        int sent = controller.requests.size();
+
+        CompletableFuture<List<ApiController.ContractLookup>> future =
+                controller.reqAllContractDetails(List.of(stock(7), stock(8), stock(9)));
+        assertEquals(sent + 2, controller.requests.size());
+
+        controller.requests.get(sent).contractDetails(List.of(details(stock(8))));
+        controller.connected = false;
+        controller.connectionClosed();
+
+        List<ApiController.ContractLookup> lookups = future.get(5, TimeUnit.SECONDS);
+        assertTrue(lookups.get(0).found());
+        assertTrue(lookups.get(1).found());
+        assertFalse(lookups.get(2).found());
+        assertEquals(EClientErrors.NOT_CONNECTED.code(), lookups.get(2).errorCode());
+    }
+
+    @Test
+    void requestIsForgottenOnlyOnceEveryLookupIsAbandoned() {
+        ContractDetailsCache cache = controller.contractDetailsCache();
+        IContractDetailsHandler first = list -> fail("abandoned");
+        IContractDetailsHandler second = list -> fail("abandoned");
+        cache.reqContractDetails(stock(10), first);
+        cache.reqContractDetails(stock(10), second);
+
+        cache.abandon(stock(10), first);
+        assertTrue(controller.forgotten.isEmpty());
+        cache.abandon(stock(10), second);
+        assertEquals(List.of(0), controller.forgotten);
+
+        controller.requests.get(0).contractDetails(List.of(details(stock(10))));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void timedOutFutureAbandonsItsLookup() throws InterruptedException {
+        controller.async().timeout(20);
+        CompletableFuture<List<ContractDetails>> future = controller.async().contractDetails(stock(11));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        // the lookup is abandoned just after the future fails, on the timer thread
+        long deadline = System.currentTimeMillis() + 5000;
+        while (controller.forgotten.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(List.of(0), controller.forgotten);
+
+        // the next lookup sends a request of its own
+        controller.async().contractDetails(stock(11));
+        assertEquals(2, controller.requests.size());
+    }
+}
@@ -0,0 +1,208 @@
+package com.ib.controller;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ib.client.EClientErrors;
+import com.ib.controller.AsyncApiController.RequestException;
+import com.ib.controller.MarketDataPublisher.Overflow;
+import com.ib.controller.TopMktDataMultiplexerTest.StubController;
+
+public class MarketDataPublisherTest {
+    private static final Executor DIRECT = Runnable::run;
+
+    /** Counts what the publisher asks of TWS. */
+    static class CountingPublisher extends MarketDataPublisher<Integer> {
+        final List<String> calls = new CopyOnWriteArrayList<>();
+
+        CountingPublisher(ApiController controller) {
+            super(controller, Overflow.LATEST);
+        }
+
+        @Override void start() { calls.add("start"); }
+        @Override void stop(boolean cancel) { calls.add(cancel ? "cancel" : "forget"); }
+    }
+
+    static class Recorder implements Flow.Subscriber<Integer> {
+        final List<Object> events = new CopyOnWriteArrayList<>();
+        Flow.Subscription subscription;
+
+        @Override public void onSubscribe(Flow.Subscription subscription) { this.subscription = subscription; }
+        @Override public void onNext(Integer item) { events.add(item); }
+        @Override public void onError(Throwable throwable) { events.add(throwable); }
+        @Override public void onComplete() { events.add("complete"); }
+    }
+
+    private StubController controller;
+    private CountingPublisher publisher;
+
+    @BeforeEach
+    void setUp() {
+        controller = new StubController();
+        publisher = new CountingPublisher(controller);
+    }
+
+    private Recorder subscribe(Overflow overflow, int capacity) {
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder, overflow, capacity, DIRECT);
+        return recorder;
+    }
+
+    private void publish(int... items) {
+        for (int item : items) {
+            publisher.publish(item);
+        }
+    }
+
+    private static void awaitCalls(CountingPublisher publisher, int count) throws InterruptedException {
+        for (int i = 0; i < 500 && publisher.calls.size() < count; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void latestKeepsOnlyTheNewestItem() {
+        Recorder recorder = subscribe(Overflow.LATEST, 1);
+        publish(1, 2, 3);
+        recorder.subscription.request(10);
+
+        assertEquals(List.of(3), recorder.events);
+        assertEquals(2, publisher.dropped());
+    }
+
+    @Test
+    void dropOldestKeepsTheLastCapacityItems() {
+        Recorder recorder = subscribe(Overflow.DROP_OLDEST, 2);
+        publish(1, 2, 3, 4);
+        recorder.subscription.request(10);
+
+        assertEquals(List.of(3, 4), recorder.events);
+        assertEquals(2, publisher.dropped());
+    }
+
+    @Test
+    void bufferFailsTheSubscriberThatFallsBehind() {
+        Recorder recorder = subscribe(Overflow.BUFFER, 2);
+        publish(1, 2, 3, 4);
+        recorder.subscription.request(10);
+
+        assertEquals(1, recorder.events.size());
+        assertInstanceOf(IllegalStateException.class, recorder.events.get(0));
+        assertEquals(3, publisher.dropped());
+        assertEquals(0, publisher.subscribers());
+    }
+
+    @Test
+    void itemsWaitForDemand() {
+        Recorder recorder = subscribe(Overflow.BUFFER, 8);
+        publish(1, 2, 3);
+        assertTrue(recorder.events.isEmpty());
+
+        recorder.subscription.request(1);
+        assertEquals(List.of(1), recorder.events);
+        recorder.subscription.request(2);
+        assertEquals(List.of(1, 2, 3), recorder.events);
+
+        publish(4);
+        assertEquals(List.of(1, 2, 3), recorder.events);
+        recorder.subscription.request(Long.MAX_VALUE);
+        recorder.subscription.request(Long.MAX_VALUE);
+        publish(5);
+        assertEquals(List.of(1, 2, 3, 4, 5), recorder.events);
+    }
+
+    @Test
+    void nonPositiveDemandIsAnError() {
+        Recorder recorder = subscribe(Overflow.LATEST, 1);
+        recorder.subscription.request(0);
+
+        assertEquals(1, recorder.events.size());
+        assertInstanceOf(IllegalArgumentException.class, recorder.events.get(0));
+    }
+
+    @Test
+    void slowSubscriberDoesNotHoldUpOthers() {
+        Recorder slow = subscribe(Overflow.LATEST, 1);
+        Recorder fast = subscribe(Overflow.LATEST, 1);
+        fast.subscription.request(Long.MAX_VALUE);
+        publish(1, 2, 3);
+
+        assertEquals(List.of(1, 2, 3), fast.events);
+        assertTrue(slow.events.isEmpty());
+    }
+
+    @Test
+    void subscribersShareOneRequest() throws Exception {
+        Recorder a = subscribe(Overflow.LATEST, 1);
+        Recorder b = subscribe(Overflow.LATEST, 1);
+        assertEquals(List.of("start"), publisher.calls);
+        assertEquals(2, publisher.subscribers());
+
+        a.subscription.cancel();
+        b.subscription.cancel();
+        awaitCalls(publisher, 2);
+        assertEquals(List.of("start", "cancel"), publisher.calls);
+    }
+
+    @Test
+    void errorEndsTheStreamAndResubscribingSendsANewRequest() throws Exception {
+        Recorder a = subscribe(Overflow.LATEST, 1);
+        Recorder b = subscribe(Overflow.LATEST, 1);
+        publisher.requestError(200, "No security definition has been found");
+
+        for (Recorder recorder : List.of(a, b)) {
+            assertEquals(1, recorder.events.size());
+            assertEquals(200, ((RequestException) recorder.events.get(0)).errorCode());
+        }
+
+        // the ended request is only forgotten, not cancelled
+        subscribe(Overflow.LATEST, 1);
+        awaitCalls(publisher, 3);
+        assertEquals(List.of("start", "forget", "start"), publisher.calls);
+    }
+
+    @Test
+    void warningKeepsTheStream() {
+        Recorder recorder = subscribe(Overflow.LATEST, 1);
+        recorder.subscription.request(Long.MAX_VALUE);
+        publisher.requestError(10167, "Displaying delayed market data");
+        publish(1);
+
+        assertEquals(List.of(1), recorder.events);
+    }
+
+    @Test
+    void throwingSubscriberIsCancelled() throws Exception {
+        Recorder recorder = new Recorder() {
+            @Override public void onNext(Integer item) {
+                super.onNext(item);
+                throw new IllegalStateException("boom");
+            }
+        };
+        publisher.subscribe(recorder, Overflow.LATEST, 1, DIRECT);
+        recorder.subscription.request(Long.MAX_VALUE);
+        publish(1, 2);
+
+        assertEquals(List.of(1), recorder.events);
+        assertEquals(0, publisher.subscribers());
+        awaitCalls(publisher, 2);
+        assertEquals(List.of("start", "cancel"), publisher.calls);
+    }
+
+    @Test
+    void notConnectedFailsWithoutARequest() {
+        controller.connected = false;
+        Recorder recorder = subscribe(Overflow.LATEST, 1);
+
+        assertEquals(1, recorder.events.size());
+        assertEquals(EClientErrors.NOT_CONNECTED.code(), ((RequestException) recorder.events.get(0)).errorCode());
+        assertTrue(publisher.calls.isEmpty());
+    }
+}
@@ -0,0 +1,332 @@
+package com.ib.controller;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ib.client.Contract;
+import com.ib.client.TickAttrib;
+import com.ib.client.TickType;
+import com.ib.controller.ApiController.IRequestErrorHandler;
+import com.ib.controller.ApiController.ITopMktDataHandler;
+import com.ib.controller.TopMktDataMultiplexer.Priority;
+
+public class TopMktDataMultiplexerTest {
+
+    /** Records the requests the multiplexer makes instead of sending them. */
+    static class StubController extends ApiController {
+        final Map<ITopMktDataHandler, Integer> registered = new IdentityHashMap<>(); // handler -> reqId
+        final Map<ITopMktDataHandler, Boolean> live = new IdentityHashMap<>(); // handler -> snapshot
+        final List<ITopMktDataHandler> streamed = new ArrayList<>();
+        int cancels;
+        int nextReqId;
+        boolean connected = true;
+        Object sendsWithoutHolding; // a lock that must not be held while sending
+
+        StubController() {
+            super(new NullConnectionHandler());
+        }
+
+        @Override boolean isConnected() { return connected; }
+        @Override protected boolean checkConnection() { return connected; }
+
+        @Override synchronized int registerTopMktData(Contract contract, ITopMktDataHandler handler) {
+            registered.put(handler, nextReqId);
+            return nextReqId++;
+        }
+
+        @Override synchronized void sendTopMktData(int reqId, Contract contract, String genericTickList, boolean snapshot, ITopMktDataHandler handler) {
+            assertFalse(sendsWithoutHolding != null && Thread.holdsLock(sendsWithoutHolding), "sent under the lock");
+            if (Integer.valueOf(reqId).equals(registered.get(handler))) {
+                live.put(handler, snapshot);
+                if (!snapshot) {
+                    streamed.add(handler);
+                }
+            }
+        }
+
+        @Override synchronized void sendCancelTopMktData(int reqId) {
+            assertFalse(sendsWithoutHolding != null && Thread.holdsLock(sendsWithoutHolding), "cancelled under the lock");
+            cancels++;
+        }
+
+        @Override synchronized int forgetTopMktData(ITopMktDataHandler handler) {
+            live.remove(handler);
+            Integer reqId = registered.remove(handler);
+            return reqId == null ? -1 : reqId;
+        }
+
+        @Override public synchronized int mktDataLines() {
+            return registered.size();
+        }
+
+        synchronized int streaming() {
+            return (int) live.values().stream().filter(snapshot -> !snapshot).count();
+        }
+
+        synchronized ITopMktDataHandler lastStreamed() {
+            return streamed.get(streamed.size() - 1);
+        }
+    }
+
+    static class NullConnectionHandler implements ApiController.IConnectionHandler {
+        @Override public void connected() {}
+        @Override public void disconnected() {}
+        @Override public void accountList(List<String> list) {}
+        @Override public void error(Exception e) {}
+        @Override public void message(int id, int errorCode, String errorMsg, String advancedOrderRejectJson) {}
+        @Override public void show(String string) {}
+    }
+
+    static class Recorder extends ApiController.TopMktDataAdapter implements IRequestErrorHandler {
+        final List<String> events = new ArrayList<>();
+
+        @Override public void tickPrice(TickType tickType, double price, TickAttrib attribs) {
+            events.add(tickType + "=" + price);
+        }
+
+        @Override public void requestError(int errorCode, String errorMsg) {
+            events.add("error " + errorCode);
+        }
+    }
+
+    private StubController controller;
+    private TopMktDataMultiplexer mux;
+
+    @BeforeEach
+    void setUp() {
+        controller = new StubController();
+        mux = new TopMktDataMultiplexer(controller);
+        controller.sendsWithoutHolding = mux;
+    }
+
+    private static Contract stock(int conid) {
+        Contract contract = new Contract();
+        contract.conid(conid);
+        contract.exchange("SMART");
+        return contract;
+    }
+
+    @Test
+    void handlersForTheSameKeyShareOneRequest() {
+        mux.subscribe(stock(1), "233,100", new Recorder());
+        mux.subscribe(stock(1), "100, 233", new Recorder());
+        mux.subscribe(stock(1), "", new Recorder());
+
+        assertEquals(2, mux.subscriptions());
+        assertEquals(3, mux.handlers());
+        assertEquals(2, controller.live.size());
+    }
+
+    @Test
+    void joiningHandlerIsSentTheLatestValues() {
+        Recorder first = new Recorder();
+        mux.subscribe(stock(1), "", first);
+        ITopMktDataHandler line = controller.lastStreamed();
+        line.tickPrice(TickType.BID, 1.0, new TickAttrib());
+        line.tickPrice(TickType.BID, 1.5, new TickAttrib());
+
+        Recorder second = new Recorder();
+        mux.subscribe(stock(1), "", second);
+
+        assertEquals(List.of("BID=1.0", "BID=1.5"), first.events);
+        assertEquals(List.of("BID=1.5"), second.events);
+    }
+
+    @Test
+    void requestIsCancelledWhenTheLastHandlerLeaves() {
+        Recorder a = new Recorder();
+        Recorder b = new Recorder();
+        mux.subscribe(stock(1), "", a);
+        mux.subscribe(stock(1), "", b);
+
+        mux.unsubscribe(a);
+        assertEquals(0, controller.cancels);
+        mux.unsubscribe(b);
+        assertEquals(1, controller.cancels);
+        assertEquals(0, mux.subscriptions());
+        assertTrue(controller.live.isEmpty());
+    }
+
+    @Test
+    void subscriptionsBeyondTheBudgetAreDemoted() {
+        mux.lineBudget(4, 1); // three streaming lines
+        for (int conid = 1; conid <= 5; conid++) {
+            mux.subscribe(stock(conid), "", Priority.VISIBLE, new Recorder());
+        }
+
+        assertEquals(3, controller.streaming());
+        assertEquals(2, mux.demoted());
+    }
+
+    @Test
+    void higherPriorityTakesTheLineOfTheLowest() {
+        mux.lineBudget(3, 1); // two streaming lines
+        mux.subscribe(stock(1), "", Priority.BACKGROUND, new Recorder());
+        mux.subscribe(stock(2), "", Priority.VISIBLE, new Recorder());
+        Recorder monitored = new Recorder();
+        mux.subscribe(stock(3), "", Priority.MONITORED, monitored);
+
+        assertEquals(2, controller.streaming());
+        assertEquals(1, mux.demoted());
+        assertEquals(1, controller.cancels);
+
+        // the background subscription streams again once the line is free
+        mux.unsubscribe(monitored);
+        assertEquals(0, mux.demoted());
+        assertEquals(2, controller.streaming());
+    }
+
+    @Test
+    void promotesWhenALineIsFreed() {
+        mux.lineBudget(3, 1);
+        Recorder a = new Recorder();
+        mux.subscribe(stock(1), "", a);
+        mux.subscribe(stock(2), "", new Recorder());
+        mux.subscribe(stock(3), "", new Recorder());
+        assertEquals(1, mux.demoted());
+
+        mux.unsubscribe(a);
+        assertEquals(0, mux.demoted());
+        assertEquals(2, controller.streaming());
+    }
+
+    @Test
+    void lostSubscriptionsAreRequestedAgainAfterReconnect() {
+        Recorder first = new Recorder();
+        mux.subscribe(stock(1), "", first);
+        controller.lastStreamed().tickPrice(TickType.BID, 1.0, new TickAttrib());
+
+        controller.connected = false;
+        mux.reset();
+        assertTrue(controller.live.isEmpty());
+        assertEquals(1, mux.subscriptions());
+
+        controller.connected = true;
+        int before = controller.streamed.size();
+        mux.resubscribe();
+        assertEquals(before + 1, controller.streamed.size());
+
+        // values from before the drop are not replayed
+        Recorder second = new Recorder();
+        mux.subscribe(stock(1), "", second);
+        assertTrue(second.events.isEmpty());
+        assertEquals(1, controller.live.size());
+    }
+
+    @Test
+    void resubscribeWithoutALostConnectionSendsNothing() {
+        mux.subscribe(stock(1), "", new Recorder());
+        int before = controller.streamed.size();
+        mux.resubscribe();
+        assertEquals(before, controller.streamed.size());
+    }
+
+    @Test
+    void terminalErrorEndsTheSubscriptionForLaterJoiners() {
+        Recorder first = new Recorder();
+        mux.subscribe(stock(1), "", first);
+        ITopMktDataHandler deadLine = controller.lastStreamed();
+        ((IRequestErrorHandler) deadLine).requestError(200, "No security definition has been found");
+
+        assertEquals(List.of("error 200"), first.events);
+        assertEquals(0, mux.subscriptions());
+        assertFalse(controller.live.containsKey(deadLine));
+
+        mux.subscribe(stock(1), "", new Recorder());
+        assertNotSame(deadLine, controller.lastStreamed());
+        assertEquals(1, controller.live.size());
+    }
+
+    @Test
+    void warningKeepsTheSubscription() {
+        Recorder first = new Recorder();
+        mux.subscribe(stock(1), "", first);
+        ((IRequestErrorHandler) controller.lastStreamed()).requestError(10167, "Displaying delayed market data");
+
+        assertEquals(1, mux.subscriptions());
+        assertEquals(List.of("error 10167"), first.events);
+    }
+
+    @Test
+    void keyTellsContractsApartBySecId() {
+        Contract a = new Contract();
+        a.secIdType("ISIN");
+        a.secId("US4592001014");
+        Contract b = new Contract();
+        b.secIdType("ISIN");
+        b.secId("US0378331005");
+
+        assertNotEquals(TopMktDataMultiplexer.key(a, ""), TopMktDataMultiplexer.key(b, ""));
+    }
+
+    @Test
+    void handlersAreCalledWithoutTheLock() {
+        List<Boolean> held = new ArrayList<>();
+        mux.subscribe(stock(1), "", new Recorder() {
+            @Override public void tickPrice(TickType tickType, double price, TickAttrib attribs) {
+                held.add(Thread.holdsLock(mux));
+            }
+        });
+        controller.lastStreamed().tickPrice(TickType.BID, 1.0, new TickAttrib());
+
+        assertEquals(List.of(false), held);
+    }
+
+    @Test
+    void leftHandlerIsPassedNothingMore() {
+        Recorder stays = new Recorder();
+        Recorder leaves = new Recorder() {
+            @Override public void tickPrice(TickType tickType, double price, TickAttrib attribs) {
+                super.tickPrice(tickType, price, attribs);
+                mux.unsubscribe(this);
+            }
+        };
+        mux.subscribe(stock(1), "", leaves);
+        mux.subscribe(stock(1), "", stays);
+        ITopMktDataHandler line = controller.lastStreamed();
+        line.tickPrice(TickType.BID, 1.0, new TickAttrib());
+        line.tickPrice(TickType.BID, 1.5, new TickAttrib());
+
+        assertEquals(List.of("BID=1.0"), leaves.events);
+        assertEquals(List.of("BID=1.0", "BID=1.5"), stays.events);
+    }
+
+    @Test
+    void slowHandlerDoesNotBlockOtherThreads() throws Exception {
+        CountDownLatch inCallback = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        mux.subscribe(stock(1), "", new Recorder() {
+            @Override public void tickPrice(TickType tickType, double price, TickAttrib attribs) {
+                inCallback.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        ITopMktDataHandler line = controller.lastStreamed();
+        Thread decoder = new Thread(() -> line.tickPrice(TickType.BID, 1.0, new TickAttrib()));
+        decoder.start();
+        assertTrue(inCallback.await(5, TimeUnit.SECONDS));
+
+        // the decode thread is stuck in a handler, yet others can still subscribe and leave
+        Recorder other = new Recorder();
+        mux.subscribe(stock(2), "", other);
+        mux.unsubscribe(other);
+        assertEquals(1, mux.subscriptions());
+
+        release.countDown();
+        decoder.join(5000);
+    }
+}